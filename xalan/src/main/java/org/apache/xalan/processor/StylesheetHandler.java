@@ -38,12 +38,16 @@ import org.apache.xalan.templates.ElemForEach;
 import org.apache.xalan.templates.ElemTemplateElement;
 import org.apache.xalan.templates.Stylesheet;
 import org.apache.xalan.templates.StylesheetRoot;
+import org.apache.xml.dtm.DTMMemoryBudget;
+import org.apache.xml.dtm.ref.ExpandedNameTable;
 import org.apache.xml.utils.BoolStack;
 import org.apache.xml.utils.NamespaceSupport2;
 import org.apache.xml.utils.NodeConsumer;
 import org.apache.xml.utils.PrefixResolver;
 import org.apache.xml.utils.SAXSourceLocator;
 import org.apache.xml.utils.XMLCharacterRecognizer;
+import org.apache.xpath.DocumentLoader;
+import org.apache.xpath.SourceTreeCache;
 import org.apache.xpath.XPath;
 import org.apache.xpath.compiler.FunctionTable;
 import org.w3c.dom.Node;
@@ -84,6 +88,66 @@ public class StylesheetHandler extends DefaultHandler
    * The flag for the setting of the source_location feature;
    */
   private boolean m_source_location = false;
+
+  /**
+   * The flag for the setting of the pipelined feature;
+   */
+  private boolean m_pipelined = false;
+
+  /**
+   * The flag for the setting of the StAX incremental feature;
+   */
+  private boolean m_staxIncremental = false;
+
+  /**
+   * The flag for the setting of the eager DOM import feature;
+   */
+  private boolean m_eagerDOMImport = false;
+
+  /**
+   * The flag for the setting of the projection feature;
+   */
+  private boolean m_projection = false;
+
+  /**
+   * The flag for the setting of the compact text feature;
+   */
+  private boolean m_compactText = false;
+
+  /**
+   * The flag for the setting of the large documents feature;
+   */
+  private boolean m_largeDocuments = false;
+
+  /**
+   * The flag for the setting of the lazy namespaces feature;
+   */
+  private boolean m_lazyNamespaces = false;
+
+  /**
+   * The setting of the memory budget property;
+   */
+  private DTMMemoryBudget m_memoryBudget = null;
+
+  /**
+   * The setting of the name table property;
+   */
+  private ExpandedNameTable m_nameTable = null;
+
+  /**
+   * The setting of the source tree cache property;
+   */
+  private SourceTreeCache m_sourceTreeCache = null;
+
+  /**
+   * The setting of the document loader property;
+   */
+  private DocumentLoader m_documentLoader = null;
+
+  /**
+   * The setting of the tiered compilation threshold property;
+   */
+  private int m_tieredCompilationThreshold = 0;
   
   /**
    * Create a StylesheetHandler object, creating a root stylesheet
@@ -112,6 +176,30 @@ public class StylesheetHandler extends DefaultHandler
             TransformerFactoryImpl.FEATURE_INCREMENTAL)).booleanValue();
     m_source_location = ((Boolean) processor.getAttribute(
             TransformerFactoryImpl.FEATURE_SOURCE_LOCATION)).booleanValue();
+    m_pipelined = ((Boolean) processor.getAttribute(
+            TransformerFactoryImpl.FEATURE_PIPELINED)).booleanValue();
+    m_staxIncremental = ((Boolean) processor.getAttribute(
+            TransformerFactoryImpl.FEATURE_STAX_INCREMENTAL)).booleanValue();
+    m_eagerDOMImport = ((Boolean) processor.getAttribute(
+            TransformerFactoryImpl.FEATURE_EAGER_DOM_IMPORT)).booleanValue();
+    m_projection = ((Boolean) processor.getAttribute(
+            TransformerFactoryImpl.FEATURE_PROJECTION)).booleanValue();
+    m_compactText = ((Boolean) processor.getAttribute(
+            TransformerFactoryImpl.FEATURE_COMPACT_TEXT)).booleanValue();
+    m_largeDocuments = ((Boolean) processor.getAttribute(
+            TransformerFactoryImpl.FEATURE_LARGE_DOCUMENTS)).booleanValue();
+    m_lazyNamespaces = ((Boolean) processor.getAttribute(
+            TransformerFactoryImpl.FEATURE_LAZY_NAMESPACES)).booleanValue();
+    m_memoryBudget = (DTMMemoryBudget) processor.getAttribute(
+            TransformerFactoryImpl.PROPERTY_MEMORY_BUDGET);
+    m_nameTable = (ExpandedNameTable) processor.getAttribute(
+            TransformerFactoryImpl.PROPERTY_NAME_TABLE);
+    m_sourceTreeCache = (SourceTreeCache) processor.getAttribute(
+            TransformerFactoryImpl.PROPERTY_SOURCE_TREE_CACHE);
+    m_documentLoader = (DocumentLoader) processor.getAttribute(
+            TransformerFactoryImpl.PROPERTY_DOCUMENT_LOADER);
+    m_tieredCompilationThreshold = ((Integer) processor.getAttribute(
+            TransformerFactoryImpl.PROPERTY_TIERED_COMPILATION_THRESHOLD)).intValue();
     // m_schema = new XSLTSchema();
     init(processor);
     
@@ -1196,6 +1284,18 @@ public class StylesheetHandler extends DefaultHandler
         m_stylesheetRoot.setOptimizer(m_optimize);
         m_stylesheetRoot.setIncremental(m_incremental);
         m_stylesheetRoot.setSource_location(m_source_location);  		
+        m_stylesheetRoot.setPipelined(m_pipelined);
+        m_stylesheetRoot.setStAXIncremental(m_staxIncremental);
+        m_stylesheetRoot.setEagerDOMImport(m_eagerDOMImport);
+        m_stylesheetRoot.setProjection(m_projection);
+        m_stylesheetRoot.setCompactText(m_compactText);
+        m_stylesheetRoot.setLargeDocuments(m_largeDocuments);
+        m_stylesheetRoot.setLazyNamespaces(m_lazyNamespaces);
+        m_stylesheetRoot.setMemoryBudget(m_memoryBudget);
+        m_stylesheetRoot.setNameTable(m_nameTable);
+        m_stylesheetRoot.setSourceTreeCache(m_sourceTreeCache);
+        m_stylesheetRoot.setDocumentLoader(m_documentLoader);
+        m_stylesheetRoot.setTieredCompilationThreshold(m_tieredCompilationThreshold);
     }
     return m_stylesheetRoot;
   }
@@ -1719,6 +1819,90 @@ public class StylesheetHandler extends DefaultHandler
         return m_source_location;
     }
 
+    /**
+     * @return Pipelined flag
+     */
+    public boolean getPipelined() {
+        return m_pipelined;
+    }
+
+    /**
+     * @return StAX incremental flag
+     */
+    public boolean getStAXIncremental() {
+        return m_staxIncremental;
+    }
+
+    /**
+     * @return Eager DOM import flag
+     */
+    public boolean getEagerDOMImport() {
+        return m_eagerDOMImport;
+    }
+
+    /**
+     * @return Projection flag
+     */
+    public boolean getProjection() {
+        return m_projection;
+    }
+
+    /**
+     * @return Compact text flag
+     */
+    public boolean getCompactText() {
+        return m_compactText;
+    }
+
+    /**
+     * @return Large documents flag
+     */
+    public boolean getLargeDocuments() {
+        return m_largeDocuments;
+    }
+
+    /**
+     * @return Lazy namespaces flag
+     */
+    public boolean getLazyNamespaces() {
+        return m_lazyNamespaces;
+    }
+
+    /**
+     * @return Memory budget, or null
+     */
+    public DTMMemoryBudget getMemoryBudget() {
+        return m_memoryBudget;
+    }
+
+    /**
+     * @return Name table, or null
+     */
+    public ExpandedNameTable getNameTable() {
+        return m_nameTable;
+    }
+
+    /**
+     * @return Source tree cache, or null
+     */
+    public SourceTreeCache getSourceTreeCache() {
+        return m_sourceTreeCache;
+    }
+
+    /**
+     * @return Document loader, or null
+     */
+    public DocumentLoader getDocumentLoader() {
+        return m_documentLoader;
+    }
+
+    /**
+     * @return Evaluations before an XPath is compiled, or 0 for never
+     */
+    public int getTieredCompilationThreshold() {
+        return m_tieredCompilationThreshold;
+    }
+
 }
 
 
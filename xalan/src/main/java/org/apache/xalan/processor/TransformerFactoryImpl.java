@@ -46,10 +46,14 @@ import org.apache.xalan.transformer.TrAXFilter;
 import org.apache.xalan.transformer.TransformerIdentityImpl;
 import org.apache.xalan.transformer.TransformerImpl;
 import org.apache.xalan.transformer.XalanProperties;
+import org.apache.xml.dtm.DTMMemoryBudget;
+import org.apache.xml.dtm.ref.ExpandedNameTable;
 import org.apache.xml.utils.StopParseException;
 import org.apache.xml.utils.StylesheetPIHandler;
 import org.apache.xml.utils.SystemIDResolver;
 import org.apache.xml.utils.TreeWalker;
+import org.apache.xpath.DocumentLoader;
+import org.apache.xpath.SourceTreeCache;
 import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 import org.xml.sax.XMLFilter;
@@ -96,6 +100,54 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
   public static final String FEATURE_SOURCE_LOCATION =
                              XalanProperties.SOURCE_LOCATION;
 
+  /** Static string to be used for pipelined feature */
+  public static final String FEATURE_PIPELINED =
+                             "http://xml.apache.org/xalan/features/pipelined";
+
+  /** Static string to be used for StAX incremental feature */
+  public static final String FEATURE_STAX_INCREMENTAL =
+                             "http://xml.apache.org/xalan/features/incremental-stax";
+
+  /** Static string to be used for eager DOM import feature */
+  public static final String FEATURE_EAGER_DOM_IMPORT =
+                             "http://xml.apache.org/xalan/features/eager-dom-import";
+
+  /** Static string to be used for projection feature */
+  public static final String FEATURE_PROJECTION =
+                             "http://xml.apache.org/xalan/features/projection";
+
+  /** Static string to be used for compact text feature */
+  public static final String FEATURE_COMPACT_TEXT =
+                             "http://xml.apache.org/xalan/features/compact-text";
+
+  /** Static string to be used for large documents feature */
+  public static final String FEATURE_LARGE_DOCUMENTS =
+                             "http://xml.apache.org/xalan/features/large-documents";
+
+  /** Static string to be used for lazy namespaces feature */
+  public static final String FEATURE_LAZY_NAMESPACES =
+                             "http://xml.apache.org/xalan/features/lazy-namespaces";
+
+  /** Static string to be used for the DTM memory budget property */
+  public static final String PROPERTY_MEMORY_BUDGET =
+                             "http://xml.apache.org/xalan/properties/memory-budget";
+
+  /** Static string to be used for the shared name table property */
+  public static final String PROPERTY_NAME_TABLE =
+                             "http://xml.apache.org/xalan/properties/name-table";
+
+  /** Static string to be used for the shared source tree cache property */
+  public static final String PROPERTY_SOURCE_TREE_CACHE =
+                             "http://xml.apache.org/xalan/properties/source-tree-cache";
+
+  /** Static string to be used for the parallel document loader property */
+  public static final String PROPERTY_DOCUMENT_LOADER =
+                             "http://xml.apache.org/xalan/properties/document-loader";
+
+  /** Static string to be used for the tiered compilation threshold property */
+  public static final String PROPERTY_TIERED_COMPILATION_THRESHOLD =
+                             "http://xml.apache.org/xalan/properties/tiered-compilation-threshold";
+
   public javax.xml.transform.Templates processFromNode(Node node)
           throws TransformerConfigurationException
   {
@@ -491,6 +543,110 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
    * default this attribute is set to false. 
    */
   private boolean m_incremental = false;
+
+  /**
+   * Flag set by FEATURE_PIPELINED.
+   * This feature specifies whether source documents are parsed on one
+   * thread while their DTMs are built on another. By default this
+   * attribute is set to false.
+   */
+  private boolean m_pipelined = false;
+
+  /**
+   * Flag set by FEATURE_STAX_INCREMENTAL.
+   * This feature specifies whether an incremental build of a document
+   * that is parsed by the processor reads it with StAX on the
+   * transformation's own thread. The StAX parser is not configured like
+   * the XMLReader used otherwise, so by default this attribute is set to
+   * false.
+   */
+  private boolean m_staxIncremental = false;
+
+  /**
+   * Flag set by FEATURE_EAGER_DOM_IMPORT.
+   * This feature specifies whether a DOM source is imported into its DTM
+   * in one pass when the DTM is created, rather than node by node as the
+   * transformation reaches it. By default this attribute is set to false.
+   */
+  private boolean m_eagerDOMImport = false;
+
+  /**
+   * Flag set by FEATURE_PROJECTION.
+   * This feature specifies whether the source document is built with only
+   * the elements, attributes and text the stylesheet can reach, when that
+   * can be worked out from the stylesheet. By default this attribute is
+   * set to false.
+   */
+  private boolean m_projection = false;
+
+  /**
+   * Flag set by FEATURE_COMPACT_TEXT.
+   * This feature specifies whether source documents keep their character
+   * content at one byte per character where the text allows it. By
+   * default this attribute is set to false.
+   */
+  private boolean m_compactText = false;
+
+  /**
+   * Flag set by FEATURE_LARGE_DOCUMENTS.
+   * This feature specifies whether each source document is given a DTM
+   * ID range with room to grow, so that the handles of a document of
+   * more than 65,536 nodes stay contiguous. By default this attribute is
+   * set to false.
+   */
+  private boolean m_largeDocuments = false;
+
+  /**
+   * Flag set by FEATURE_LAZY_NAMESPACES.
+   * This feature specifies whether source documents work out the
+   * namespaces in scope at each element only when they are first asked
+   * for. By default this attribute is set to false.
+   */
+  private boolean m_lazyNamespaces = false;
+
+  /**
+   * Budget set by PROPERTY_MEMORY_BUDGET.
+   * This property gives a DTMMemoryBudget that the source documents of
+   * all the transformations using the Templates share. By default it is
+   * null, and documents may be as large as the heap allows.
+   */
+  private DTMMemoryBudget m_memoryBudget = null;
+
+  /**
+   * Table set by PROPERTY_NAME_TABLE.
+   * This property gives an ExpandedNameTable that the source documents of
+   * all the transformations using the Templates share, and any others
+   * given the same table, so that their expanded type IDs agree. By
+   * default it is null, and each document has a table of its own.
+   */
+  private ExpandedNameTable m_nameTable = null;
+
+  /**
+   * Cache set by PROPERTY_SOURCE_TREE_CACHE.
+   * This property gives a SourceTreeCache that documents loaded with
+   * document() are shared through, by all the transformations using the
+   * Templates and any others given the same cache. By default it is null,
+   * and each transformation parses the documents it loads.
+   */
+  private SourceTreeCache m_sourceTreeCache = null;
+
+  /**
+   * Loader set by PROPERTY_DOCUMENT_LOADER.
+   * This property gives a DocumentLoader that a document() call naming
+   * many documents has them parsed in parallel with, in all the
+   * transformations using the Templates. By default it is null, and the
+   * documents are parsed one after another.
+   */
+  private DocumentLoader m_documentLoader = null;
+
+  /**
+   * Threshold set by PROPERTY_TIERED_COMPILATION_THRESHOLD.
+   * This property gives the number of times an XPath of the stylesheet
+   * is evaluated before it is compiled in the background to a second,
+   * faster tier (see org.apache.xpath.compiler.TieredCompiler). By
+   * default it is 0, and expressions are only ever interpreted.
+   */
+  private int m_tieredCompilationThreshold = 0;
   
   /**
    * Allows the user to set specific attributes on the underlying
@@ -565,6 +721,264 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
         throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
       }
     }
+    else if (name.equals(FEATURE_PIPELINED))
+    {
+      if(value instanceof Boolean)
+      {
+        // Accept a Boolean object..
+        m_pipelined = ((Boolean)value).booleanValue();
+      }
+      else if(value instanceof String)
+      {
+        // .. or a String object
+        m_pipelined = (new Boolean((String)value)).booleanValue();
+      }
+      else
+      {
+        // Give a more meaningful error message
+        throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+      }
+    }
+    else if (name.equals(FEATURE_STAX_INCREMENTAL))
+    {
+      if(value instanceof Boolean)
+      {
+        // Accept a Boolean object..
+        m_staxIncremental = ((Boolean)value).booleanValue();
+      }
+      else if(value instanceof String)
+      {
+        // .. or a String object
+        m_staxIncremental = (new Boolean((String)value)).booleanValue();
+      }
+      else
+      {
+        // Give a more meaningful error message
+        throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+      }
+    }
+    else if (name.equals(FEATURE_EAGER_DOM_IMPORT))
+    {
+      if(value instanceof Boolean)
+      {
+        // Accept a Boolean object..
+        m_eagerDOMImport = ((Boolean)value).booleanValue();
+      }
+      else if(value instanceof String)
+      {
+        // .. or a String object
+        m_eagerDOMImport = (new Boolean((String)value)).booleanValue();
+      }
+      else
+      {
+        // Give a more meaningful error message
+        throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+      }
+    }
+    else if (name.equals(FEATURE_PROJECTION))
+    {
+      if(value instanceof Boolean)
+      {
+        // Accept a Boolean object..
+        m_projection = ((Boolean)value).booleanValue();
+      }
+      else if(value instanceof String)
+      {
+        // .. or a String object
+        m_projection = (new Boolean((String)value)).booleanValue();
+      }
+      else
+      {
+        // Give a more meaningful error message
+        throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+      }
+    }
+    else if (name.equals(FEATURE_COMPACT_TEXT))
+    {
+      if(value instanceof Boolean)
+      {
+        // Accept a Boolean object..
+        m_compactText = ((Boolean)value).booleanValue();
+      }
+      else if(value instanceof String)
+      {
+        // .. or a String object
+        m_compactText = (new Boolean((String)value)).booleanValue();
+      }
+      else
+      {
+        // Give a more meaningful error message
+        throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+      }
+    }
+    else if (name.equals(FEATURE_LARGE_DOCUMENTS))
+    {
+      if(value instanceof Boolean)
+      {
+        // Accept a Boolean object..
+        m_largeDocuments = ((Boolean)value).booleanValue();
+      }
+      else if(value instanceof String)
+      {
+        // .. or a String object
+        m_largeDocuments = (new Boolean((String)value)).booleanValue();
+      }
+      else
+      {
+        // Give a more meaningful error message
+        throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+      }
+    }
+    else if (name.equals(FEATURE_LAZY_NAMESPACES))
+    {
+      if(value instanceof Boolean)
+      {
+        // Accept a Boolean object..
+        m_lazyNamespaces = ((Boolean)value).booleanValue();
+      }
+      else if(value instanceof String)
+      {
+        // .. or a String object
+        m_lazyNamespaces = (new Boolean((String)value)).booleanValue();
+      }
+      else
+      {
+        // Give a more meaningful error message
+        throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+      }
+    }
+    else if (name.equals(PROPERTY_SOURCE_TREE_CACHE))
+    {
+      if(value == null || value instanceof SourceTreeCache)
+      {
+        // Accept a SourceTreeCache object, or null for none..
+        m_sourceTreeCache = (SourceTreeCache)value;
+      }
+      else if(value instanceof Boolean)
+      {
+        // .. or a Boolean object, for the JVM's shared cache..
+        m_sourceTreeCache = ((Boolean)value).booleanValue()
+                            ? SourceTreeCache.getDefault() : null;
+      }
+      else if(value instanceof String)
+      {
+        // .. or a String object
+        m_sourceTreeCache = (new Boolean((String)value)).booleanValue()
+                            ? SourceTreeCache.getDefault() : null;
+      }
+      else
+      {
+        // Give a more meaningful error message
+        throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+      }
+    }
+    else if (name.equals(PROPERTY_DOCUMENT_LOADER))
+    {
+      if(value == null || value instanceof DocumentLoader)
+      {
+        // Accept a DocumentLoader object, or null for none..
+        m_documentLoader = (DocumentLoader)value;
+      }
+      else if(value instanceof Number)
+      {
+        // .. or a number of threads..
+        m_documentLoader = newDocumentLoader(name, value,
+                                             ((Number)value).intValue());
+      }
+      else if(value instanceof String)
+      {
+        // .. or a String giving one
+        try
+        {
+          m_documentLoader = newDocumentLoader(name, value,
+                                               Integer.parseInt((String)value));
+        }
+        catch (NumberFormatException nfe)
+        {
+          throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+        }
+      }
+      else
+      {
+        // Give a more meaningful error message
+        throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+      }
+    }
+    else if (name.equals(PROPERTY_TIERED_COMPILATION_THRESHOLD))
+    {
+      int threshold;
+
+      if(value instanceof Number)
+      {
+        // Accept a number of evaluations..
+        threshold = ((Number)value).intValue();
+      }
+      else if(value instanceof String)
+      {
+        // .. or a String giving one
+        try
+        {
+          threshold = Integer.parseInt((String)value);
+        }
+        catch (NumberFormatException nfe)
+        {
+          throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+        }
+      }
+      else
+      {
+        // Give a more meaningful error message
+        throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+      }
+
+      if (threshold < 0)
+        throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+
+      m_tieredCompilationThreshold = threshold;
+    }
+    else if (name.equals(PROPERTY_MEMORY_BUDGET))
+    {
+      if(value == null || value instanceof DTMMemoryBudget)
+      {
+        // Accept a DTMMemoryBudget object, or null for none..
+        m_memoryBudget = (DTMMemoryBudget)value;
+      }
+      else if(value instanceof Number)
+      {
+        // .. or a number of bytes..
+        m_memoryBudget = new DTMMemoryBudget(((Number)value).longValue());
+      }
+      else if(value instanceof String)
+      {
+        // .. or a String giving one
+        try
+        {
+          m_memoryBudget = new DTMMemoryBudget(Long.parseLong((String)value));
+        }
+        catch (NumberFormatException nfe)
+        {
+          throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+        }
+      }
+      else
+      {
+        // Give a more meaningful error message
+        throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+      }
+    }
+    else if (name.equals(PROPERTY_NAME_TABLE))
+    {
+      if(value == null || value instanceof ExpandedNameTable)
+      {
+        // Accept an ExpandedNameTable object, or null for none
+        m_nameTable = (ExpandedNameTable)value;
+      }
+      else
+      {
+        // Give a more meaningful error message
+        throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+      }
+    }
     
     else
     {
@@ -596,10 +1010,78 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
     {
       return m_source_location ? Boolean.TRUE : Boolean.FALSE;
     }
+    else if (name.equals(FEATURE_PIPELINED))
+    {
+      return m_pipelined ? Boolean.TRUE : Boolean.FALSE;
+    }
+    else if (name.equals(FEATURE_STAX_INCREMENTAL))
+    {
+      return m_staxIncremental ? Boolean.TRUE : Boolean.FALSE;
+    }
+    else if (name.equals(FEATURE_EAGER_DOM_IMPORT))
+    {
+      return m_eagerDOMImport ? Boolean.TRUE : Boolean.FALSE;
+    }
+    else if (name.equals(FEATURE_PROJECTION))
+    {
+      return m_projection ? Boolean.TRUE : Boolean.FALSE;
+    }
+    else if (name.equals(FEATURE_COMPACT_TEXT))
+    {
+      return m_compactText ? Boolean.TRUE : Boolean.FALSE;
+    }
+    else if (name.equals(FEATURE_LARGE_DOCUMENTS))
+    {
+      return m_largeDocuments ? Boolean.TRUE : Boolean.FALSE;
+    }
+    else if (name.equals(FEATURE_LAZY_NAMESPACES))
+    {
+      return m_lazyNamespaces ? Boolean.TRUE : Boolean.FALSE;
+    }
+    else if (name.equals(PROPERTY_MEMORY_BUDGET))
+    {
+      return m_memoryBudget;
+    }
+    else if (name.equals(PROPERTY_NAME_TABLE))
+    {
+      return m_nameTable;
+    }
+    else if (name.equals(PROPERTY_SOURCE_TREE_CACHE))
+    {
+      return m_sourceTreeCache;
+    }
+    else if (name.equals(PROPERTY_DOCUMENT_LOADER))
+    {
+      return m_documentLoader;
+    }
+    else if (name.equals(PROPERTY_TIERED_COMPILATION_THRESHOLD))
+    {
+      return new Integer(m_tieredCompilationThreshold);
+    }
     else
       throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_ATTRIB_VALUE_NOT_RECOGNIZED, new Object[]{name})); //name + " attribute not recognized");
   }
 
+  /**
+   * Create the DocumentLoader asked for by a number of threads set with
+   * PROPERTY_DOCUMENT_LOADER.
+   *
+   * @param name The name of the attribute.
+   * @param value The value it was set to.
+   * @param threads The number of threads; 0 for no loader.
+   * @return The DocumentLoader, or null.
+   *
+   * @throws IllegalArgumentException if the number is negative.
+   */
+  private static DocumentLoader newDocumentLoader(String name, Object value,
+                                                  int threads)
+  {
+    if (threads < 0)
+      throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+
+    return (threads == 0) ? null : new DocumentLoader(threads);
+  }
+
   /**
    * Create an XMLFilter that uses the given source as the
    * transformation instructions.
@@ -23,6 +23,7 @@ package org.apache.xalan.templates;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Vector;
 
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.Source;
@@ -147,6 +148,15 @@ public class FuncDocument extends Function2Args
                             ? arg.iter() : null;
     int pos = DTM.NULL;
 
+    if (null != iterator
+        && null != xctxt.getSourceTreeManager().getDocumentLoader())
+    {
+      loadAll(xctxt, context, docContext, iterator, base, null != arg1Expr,
+              mnl);
+
+      return nodes;
+    }
+
     while ((null == iterator) || (DTM.NULL != (pos = iterator.nextNode())))
     {
       XMLString ref = (null != iterator)
@@ -210,6 +220,106 @@ public class FuncDocument extends Function2Args
     return nodes;
   }
 
+  /**
+   * Load the documents for a node-set argument, the way execute() does,
+   * but with the documents all asked for up front, so that the
+   * SourceTreeManager's DocumentLoader can parse them in parallel. The
+   * URIs are resolved, and the documents added to the result, in the
+   * same order, and with the same errors and warnings, as loading them
+   * one after another.
+   *
+   * @param xctxt The XPath runtime state.
+   * @param context The current context node
+   * @param docContext The document of the context node
+   * @param iterator The nodes of the first argument
+   * @param base The base URI given by the second argument, if any
+   * @param hasBase True if there is a second argument
+   * @param mnl The result to add the documents to
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  private void loadAll(XPathContext xctxt, int context, int docContext,
+                       DTMIterator iterator, String base, boolean hasBase,
+                       NodeSetDTM mnl)
+          throws javax.xml.transform.TransformerException
+  {
+
+    Vector uris = new Vector();
+    Vector bases = new Vector();
+    int pos;
+
+    while (DTM.NULL != (pos = iterator.nextNode()))
+    {
+      DTM dtm = xctxt.getDTM(pos);
+      XMLString ref = dtm.getStringValue(pos);
+
+      if (!hasBase)
+        base = dtm.getDocumentBaseURI();
+
+      if (null == ref)
+        continue;
+
+      int indexOfColon = ref.indexOf(':');
+      int indexOfSlash = ref.indexOf('/');
+
+      if ((indexOfColon != -1) && (indexOfSlash != -1)
+              && (indexOfColon < indexOfSlash))
+      {
+
+        // The url (or filename, for that matter) is absolute.
+        base = null;
+      }
+
+      uris.addElement(ref.toString());
+      bases.addElement(base);
+    }
+
+    SourceTreeManager treeMgr = xctxt.getSourceTreeManager();
+    int n = uris.size();
+    Source[] sources = new Source[n];
+
+    for (int i = 0; i < n; i++)
+    {
+      String uri = (String) uris.elementAt(i);
+
+      // A zero-length URI, or one that doesn't resolve, is left for
+      // getDoc() to deal with.
+      if (uri.length() == 0)
+        continue;
+
+      try
+      {
+        sources[i] = treeMgr.resolveURI((String) bases.elementAt(i), uri,
+                                        xctxt.getSAXLocator());
+      }
+      catch (Exception e)
+      {
+        sources[i] = null;
+      }
+    }
+
+    treeMgr.loadSourceTrees(sources, xctxt);
+
+    for (int i = 0; i < n; i++)
+    {
+      if (DTM.NULL == docContext)
+      {
+        error(xctxt, XSLTErrorResources.ER_NO_CONTEXT_OWNERDOC, null);  //"context does not have an owner document!");
+      }
+
+      int newDoc = getDoc(xctxt, context, (String) uris.elementAt(i),
+                          (String) bases.elementAt(i), sources[i]);
+
+      if (DTM.NULL == newDoc)
+        break;
+
+      if (!mnl.contains(newDoc))
+      {
+        mnl.addElement(newDoc);
+      }
+    }
+  }
+
   /**
    * Get the document from the given URI and base
    *
@@ -226,6 +336,28 @@ public class FuncDocument extends Function2Args
   int getDoc(XPathContext xctxt, int context, String uri, String base)
           throws javax.xml.transform.TransformerException
   {
+    return getDoc(xctxt, context, uri, base, null);
+  }
+
+  /**
+   * Get the document from the given URI and base
+   *
+   * @param xctxt The XPath runtime state.
+   * @param context The current context node
+   * @param uri Relative(?) URI of the document
+   * @param base Base to resolve relative URI from.
+   * @param resolved The Source the URI has already been resolved to, or
+   * null to resolve it here.
+   *
+   * @return The document Node pointing to the document at the given URI
+   * or null
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  int getDoc(XPathContext xctxt, int context, String uri, String base,
+             Source resolved)
+          throws javax.xml.transform.TransformerException
+  {
 
     // System.out.println("base: "+base+", uri: "+uri);
     SourceTreeManager treeMgr = xctxt.getSourceTreeManager();
@@ -234,7 +366,8 @@ public class FuncDocument extends Function2Args
     int newDoc;
     try
     {
-      source = treeMgr.resolveURI(base, uri, xctxt.getSAXLocator());
+      source = (null != resolved)
+               ? resolved : treeMgr.resolveURI(base, uri, xctxt.getSAXLocator());
       newDoc = treeMgr.getNode(source);
     }
     catch (IOException ioe)
@@ -0,0 +1,1346 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xalan.templates;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.TransformerException;
+
+import org.apache.xml.dtm.DTMProjection;
+import org.apache.xml.utils.DefaultErrorHandler;
+import org.apache.xml.utils.PrefixResolver;
+import org.apache.xml.utils.QName;
+import org.apache.xpath.Expression;
+import org.apache.xpath.ExpressionOwner;
+import org.apache.xpath.XPath;
+import org.apache.xpath.axes.LocPathIterator;
+import org.apache.xpath.axes.UnionPathIterator;
+import org.apache.xpath.compiler.Compiler;
+import org.apache.xpath.compiler.FunctionTable;
+import org.apache.xpath.compiler.OpCodes;
+import org.apache.xpath.compiler.OpMap;
+import org.apache.xpath.compiler.XPathParser;
+import org.apache.xpath.functions.Function;
+import org.apache.xpath.objects.XNumber;
+import org.apache.xpath.objects.XString;
+import org.apache.xpath.operations.Operation;
+import org.apache.xpath.operations.UnaryOperation;
+import org.apache.xpath.operations.Variable;
+import org.apache.xpath.patterns.NodeTest;
+import org.apache.xpath.patterns.StepPattern;
+import org.apache.xpath.patterns.UnionPattern;
+
+/**
+ * This class works out which parts of a source document a composed
+ * stylesheet can possibly look at, and describes them as a DTMProjection
+ * so that the rest can be left out when the document is built.
+ *
+ * <p>The analysis is by element name. Every element named in a location
+ * step is kept as a node; an element whose string value may be taken,
+ * or which may be copied or handed to the built-in template rules, is
+ * kept with its whole subtree. Attributes and text are kept only where
+ * a step asks for them. The expressions are reparsed from their pattern
+ * strings, so that the analysis sees them as written rather than as the
+ * optimizer rewrote them.</p>
+ *
+ * <p>Whenever the analysis meets something it can't bound, such as a
+ * wildcard or node() step going down or across the tree, name(),
+ * local-name(), id(), an extension function or element, or
+ * xsl:apply-templates without a select, it gives up and the document
+ * is built completely.</p>
+ */
+class ProjectionAnalyzer
+{
+  /** The projection being built. */
+  private DTMProjection m_projection;
+
+  /** True once the analysis has given up. */
+  private boolean m_fullBuild;
+
+  /** Function table used to reparse the stylesheet's expressions. */
+  private FunctionTable m_funcTable = new FunctionTable();
+
+  /** Function ID of document(). */
+  private int m_funcDocument;
+
+  /** Error listener used when reparsing. */
+  private ErrorListener m_errorListener = new DefaultErrorHandler();
+
+  /**
+   * Keys of the form mode#name for which some template matches every
+   * such node, so the built-in rules never apply to it. The name is "/"
+   * for the root and "*" for all elements.
+   */
+  private Hashtable m_unconditional = new Hashtable();
+
+  /** Names of the elements which key() may return, or null if unknown. */
+  private Vector m_keySelection = new Vector();
+
+  /** Selection of nodes whose subtrees are never needed. */
+  private static final Vector EMPTY = new Vector();
+
+  /**
+   * Construct a ProjectionAnalyzer.
+   */
+  ProjectionAnalyzer()
+  {
+    m_funcDocument = m_funcTable.installFunction(
+      "document", org.apache.xalan.templates.FuncDocument.class);
+    m_funcTable.installFunction(
+      "format-number", org.apache.xalan.templates.FuncFormatNumb.class);
+  }
+
+  /**
+   * Analyze a composed stylesheet.
+   *
+   * <p>Selections, which the methods below pass around, are Vectors of
+   * the QNames of the elements a node-set may contain, where that matters.
+   * An empty Vector means that the node-set holds no elements whose
+   * subtrees need to be kept, or holds nodes which are accounted for
+   * elsewhere (such as the value of a variable). Null means the node-set
+   * may hold any node, including the root.</p>
+   *
+   * @param root The composed stylesheet.
+   *
+   * @return The projection to apply to the source document, or null if
+   * the whole document is needed.
+   */
+  DTMProjection analyze(StylesheetRoot root)
+  {
+    m_projection = new DTMProjection();
+    m_fullBuild = false;
+
+    try
+    {
+      int n = root.getGlobalImportCount();
+
+      // First find out which templates hide the built-in rules, and what
+      // key() can return.
+      for (int i = 0; i < n; i++)
+      {
+        StylesheetComposed imported = root.getGlobalImport(i);
+        int includedCount = imported.getIncludeCountComposed();
+
+        for (int j = -1; j < includedCount; j++)
+        {
+          Stylesheet included = imported.getIncludeComposed(j);
+
+          for (int k = 0; k < included.getTemplateCount(); k++)
+            templateMatch(included.getTemplate(k));
+
+          for (int k = 0; k < included.getKeyCount(); k++)
+            keySelection(included.getKey(k));
+        }
+      }
+
+      // Processing starts by applying templates to the root.
+      if (!isUnconditional(null, "/"))
+        m_fullBuild = true;
+
+      for (int i = 0; i < n && !m_fullBuild; i++)
+      {
+        StylesheetComposed imported = root.getGlobalImport(i);
+        int includedCount = imported.getIncludeCountComposed();
+
+        for (int j = -1; j < includedCount && !m_fullBuild; j++)
+          stylesheet(imported.getIncludeComposed(j));
+      }
+    }
+    catch (TransformerException te)
+    {
+      m_fullBuild = true;
+    }
+
+    return m_fullBuild ? null : m_projection;
+  }
+
+  /**
+   * Analyze the top-level elements of one stylesheet module.
+   *
+   * @param sheet The stylesheet module.
+   *
+   * @throws TransformerException if an expression can't be reparsed.
+   */
+  private void stylesheet(Stylesheet sheet) throws TransformerException
+  {
+    for (int i = 0; i < sheet.getTemplateCount(); i++)
+    {
+      ElemTemplate template = sheet.getTemplate(i);
+      Vector ctx = null;
+
+      if (null != template.getMatch())
+      {
+        Compiler c = parse(template.getMatch(), template, XPath.MATCH);
+
+        ctx = pattern(c);
+
+        // A named template can be called from anywhere.
+        if (null != template.getName())
+          ctx = null;
+      }
+      instructions(template, ctx);
+    }
+
+    for (int i = 0; i < sheet.getKeyCount(); i++)
+    {
+      KeyDeclaration key = sheet.getKey(i);
+      Vector ctx = pattern(parse(key.getMatch(), key, XPath.MATCH));
+
+      expression(key.getUse(), key, ctx, ctx, true);
+    }
+
+    for (int i = 0; i < sheet.getVariableOrParamCount(); i++)
+    {
+      ElemVariable var = sheet.getVariableOrParam(i);
+
+      if (!(var instanceof ElemVariablePsuedo))
+        instruction(var, null);
+    }
+
+    for (int i = 0; i < sheet.getAttributeSetCount(); i++)
+      instructions(sheet.getAttributeSet(i), null);
+  }
+
+  /**
+   * Record which nodes a template hides the built-in rules for, if it
+   * matches all of them.
+   *
+   * @param template The template.
+   *
+   * @throws TransformerException if its pattern can't be reparsed.
+   */
+  private void templateMatch(ElemTemplate template)
+          throws TransformerException
+  {
+    if (null == template.getMatch())
+      return;
+
+    Compiler c = parse(template.getMatch(), template, XPath.MATCH);
+    String mode = getModeKey(template.getMode());
+
+    for (int p = OpMap.getFirstChildPos(0);
+         OpCodes.OP_LOCATIONPATHPATTERN == c.getOp(p);
+         p = c.getNextOpPos(p))
+    {
+      int step = OpMap.getFirstChildPos(p);
+
+      // Only single steps without predicates match everything they name.
+      if (OpCodes.ENDOP != c.getOp(c.getNextOpPos(step))
+          || OpCodes.OP_PREDICATE == c.getOp(c.getFirstPredicateOpPos(step)))
+        continue;
+
+      switch (c.getOp(step))
+      {
+      case OpCodes.FROM_ROOT :
+        m_unconditional.put(mode + "/", Boolean.TRUE);
+        break;
+      case OpCodes.MATCH_IMMEDIATE_ANCESTOR :
+        if (OpCodes.NODENAME == c.getStepTestType(step))
+        {
+          String local = c.getStepLocalName(step);
+
+          if (NodeTest.WILD == local && NodeTest.WILD == c.getStepNS(step))
+            m_unconditional.put(mode + "*", Boolean.TRUE);
+          else if (NodeTest.WILD != local)
+            m_unconditional.put(
+              mode + getNameKey(c.getStepNS(step), local), Boolean.TRUE);
+        }
+        break;
+      default :
+        break;
+      }
+    }
+  }
+
+  /**
+   * Add what a key declaration matches to the selection of key().
+   *
+   * @param key The key declaration.
+   *
+   * @throws TransformerException if its pattern can't be reparsed.
+   */
+  private void keySelection(KeyDeclaration key) throws TransformerException
+  {
+    Compiler c = parse(key.getMatch(), key, XPath.MATCH);
+    Vector selection = new Vector();
+
+    for (int p = OpMap.getFirstChildPos(0);
+         OpCodes.OP_LOCATIONPATHPATTERN == c.getOp(p);
+         p = c.getNextOpPos(p))
+    {
+      selection = union(selection, lastPatternStep(c, p));
+    }
+    m_keySelection = union(m_keySelection, selection);
+  }
+
+  /**
+   * Analyze the children of a template element.
+   *
+   * @param parent The parent element.
+   * @param ctx The selection of the current node.
+   *
+   * @throws TransformerException if an expression can't be reparsed.
+   */
+  private void instructions(ElemTemplateElement parent, Vector ctx)
+          throws TransformerException
+  {
+    for (ElemTemplateElement elem = parent.getFirstChildElem();
+         null != elem && !m_fullBuild;
+         elem = elem.getNextSiblingElem())
+    {
+      instruction(elem, ctx);
+    }
+  }
+
+  /**
+   * Analyze one instruction and its children.
+   *
+   * @param elem The instruction.
+   * @param ctx The selection of the current node.
+   *
+   * @throws TransformerException if an expression can't be reparsed.
+   */
+  private void instruction(ElemTemplateElement elem, Vector ctx)
+          throws TransformerException
+  {
+    avts(elem, ctx);
+
+    switch (elem.getXSLToken())
+    {
+    case Constants.ELEMNAME_FOREACH :
+    {
+      ElemForEach forEach = (ElemForEach) elem;
+      Vector selection = expression(forEach.m_xpath, elem, ctx, ctx, false);
+
+      sorts(forEach, selection);
+      instructions(elem, selection);
+      return;
+    }
+    case Constants.ELEMNAME_APPLY_TEMPLATES :
+    {
+      ElemApplyTemplates apply = (ElemApplyTemplates) elem;
+
+      // Without a select, this applies templates to child::node().
+      if (null == apply.m_xpath)
+      {
+        m_fullBuild = true;
+        return;
+      }
+
+      Vector selection = expression(apply.m_xpath, elem, ctx, ctx, false);
+
+      if (null == selection)
+      {
+        m_fullBuild = true;
+        return;
+      }
+
+      // Where the built-in rules may apply, they visit the whole subtree.
+      String mode = getModeKey(apply.getMode());
+
+      for (int i = 0; i < selection.size(); i++)
+      {
+        QName name = (QName) selection.elementAt(i);
+
+        if (!isUnconditional(mode, "*")
+            && !isUnconditional(mode, getNameKey(name.getNamespaceURI(),
+                                                 name.getLocalName())))
+          keepSubtree(name);
+      }
+      sorts(apply, selection);
+      instructions(elem, ctx);
+      return;
+    }
+    case Constants.ELEMNAME_VALUEOF :
+      expression(((ElemValueOf) elem).getSelect(), elem, ctx, ctx, true);
+      return;
+    case Constants.ELEMNAME_COPY_OF :
+      expression(((ElemCopyOf) elem).getSelect(), elem, ctx, ctx, true);
+      return;
+    case Constants.ELEMNAME_VARIABLE :
+    case Constants.ELEMNAME_PARAMVARIABLE :
+    case Constants.ELEMNAME_WITHPARAM :
+    {
+      XPath select = (elem instanceof ElemWithParam)
+                     ? ((ElemWithParam) elem).getSelect()
+                     : ((ElemVariable) elem).getSelect();
+
+      // A variable may be used in any way at all.
+      if (null != select)
+        expression(select, elem, ctx, ctx, true);
+      else
+        instructions(elem, ctx);
+      return;
+    }
+    case Constants.ELEMNAME_IF :
+      expression(((ElemIf) elem).getTest(), elem, ctx, ctx, false);
+      instructions(elem, ctx);
+      return;
+    case Constants.ELEMNAME_WHEN :
+      expression(((ElemWhen) elem).getTest(), elem, ctx, ctx, false);
+      instructions(elem, ctx);
+      return;
+    case Constants.ELEMNAME_NUMBER :
+    {
+      ElemNumber number = (ElemNumber) elem;
+
+      if (null != number.getValue())
+      {
+        expression(number.getValue(), elem, ctx, ctx, true);
+        return;
+      }
+
+      // level="any" counts nodes anywhere before the current one.
+      if (Constants.NUMBERLEVEL_ANY == number.getLevel())
+        m_projection.setKeepUnlistedElements(true);
+
+      countPattern(number.getCount(), elem);
+      countPattern(number.getFrom(), elem);
+      return;
+    }
+    case Constants.ELEMNAME_APPLY_IMPORTS :
+    case Constants.ELEMNAME_EXTENSIONCALL :
+    case Constants.ELEMNAME_UNDEFINED :
+    case Constants.EXSLT_ELEMNAME_FUNCTION :
+    case Constants.EXSLT_ELEMNAME_FUNCRESULT :
+      m_fullBuild = true;
+      return;
+    default :
+      instructions(elem, ctx);
+      return;
+    }
+  }
+
+  /**
+   * Analyze the xsl:sort children of xsl:for-each or xsl:apply-templates.
+   *
+   * @param elem The xsl:for-each or xsl:apply-templates.
+   * @param selection The selection of the nodes being sorted.
+   *
+   * @throws TransformerException if an expression can't be reparsed.
+   */
+  private void sorts(ElemForEach elem, Vector selection)
+          throws TransformerException
+  {
+    for (int i = 0; i < elem.getSortElemCount(); i++)
+    {
+      ElemSort sort = elem.getSortElem(i);
+
+      avts(sort, selection);
+
+      if (null == sort.getSelect())
+        keepSubtree(selection);
+      else
+        expression(sort.getSelect(), sort, selection, selection, true);
+    }
+  }
+
+  /**
+   * Analyze the count or from pattern of xsl:number.
+   *
+   * @param count The pattern, which may be null.
+   * @param elem The xsl:number element.
+   *
+   * @throws TransformerException if the pattern can't be reparsed.
+   */
+  private void countPattern(XPath count, ElemTemplateElement elem)
+          throws TransformerException
+  {
+    if (null == count)
+      return;
+
+    // Counting is by position, so every sibling that might match has to
+    // stay put.
+    Compiler c = parse(count, elem, XPath.MATCH);
+    Vector selection = pattern(c);
+
+    if (null == selection)
+    {
+      m_fullBuild = true;
+      return;
+    }
+
+    for (int i = 0; i < selection.size(); i++)
+    {
+      QName name = (QName) selection.elementAt(i);
+
+      m_projection.addElement(name.getNamespaceURI(), name.getLocalName(),
+                              false);
+    }
+  }
+
+  /**
+   * Analyze the expressions in the attribute value templates of an element.
+   *
+   * @param elem The element.
+   * @param ctx The selection of the current node.
+   *
+   * @throws TransformerException if an expression can't be reparsed.
+   */
+  private void avts(ElemTemplateElement elem, Vector ctx)
+          throws TransformerException
+  {
+    AVTCollector avts = new AVTCollector();
+
+    elem.callChildVisitors(avts, true);
+
+    for (int i = 0; i < avts.m_xpaths.size(); i++)
+    {
+      expression((XPath) avts.m_xpaths.elementAt(i), elem, ctx, ctx, true);
+    }
+  }
+
+  /**
+   * Reparse an expression or pattern.
+   *
+   * @param xpath The compiled expression.
+   * @param resolver Resolver for the prefixes it uses.
+   * @param type XPath.SELECT or XPath.MATCH.
+   *
+   * @return the op map of the expression.
+   *
+   * @throws TransformerException if the expression can't be reparsed.
+   */
+  private Compiler parse(XPath xpath, PrefixResolver resolver, int type)
+          throws TransformerException
+  {
+    String patternString = xpath.getPatternString();
+
+    if (null == patternString)
+      throw new TransformerException(xpath.toString());
+
+    XPathParser parser = new XPathParser(m_errorListener, null);
+    Compiler compiler = new Compiler(m_errorListener, null, m_funcTable);
+
+    if (XPath.MATCH == type)
+      parser.initMatchPattern(compiler, patternString, resolver);
+    else
+      parser.initXPath(compiler, patternString, resolver);
+
+    return compiler;
+  }
+
+  /**
+   * Analyze an XPath expression.
+   *
+   * @param xpath The expression.
+   * @param resolver Resolver for the prefixes it uses.
+   * @param ctx The selection of the context node.
+   * @param current The selection of the current node.
+   * @param value true if the string value of the result may be used.
+   *
+   * @return The selection of the expression.
+   *
+   * @throws TransformerException if the expression can't be reparsed.
+   */
+  private Vector expression(XPath xpath, PrefixResolver resolver,
+                            Vector ctx, Vector current, boolean value)
+          throws TransformerException
+  {
+    Compiler c = parse(xpath, resolver, XPath.SELECT);
+
+    return expression(c, 0, ctx, current, value);
+  }
+
+  /**
+   * Analyze an operation in the op map.
+   *
+   * @param c The op map.
+   * @param opPos The position of the operation.
+   * @param ctx The selection of the context node.
+   * @param current The selection of the current node.
+   * @param value true if the string value of the result may be used.
+   *
+   * @return The selection of the operation.
+   *
+   * @throws TransformerException if the op map is damaged.
+   */
+  private Vector expression(Compiler c, int opPos, Vector ctx,
+                            Vector current, boolean value)
+          throws TransformerException
+  {
+    int op = c.getOp(opPos);
+
+    switch (op)
+    {
+    case OpCodes.OP_XPATH :
+    case OpCodes.OP_GROUP :
+    case OpCodes.OP_ARGUMENT :
+      return expression(c, OpMap.getFirstChildPos(opPos), ctx, current, value);
+    case OpCodes.OP_OR :
+    case OpCodes.OP_AND :
+      operands(c, opPos, ctx, current, false);
+      return EMPTY;
+    case OpCodes.OP_NOTEQUALS :
+    case OpCodes.OP_EQUALS :
+    case OpCodes.OP_LTE :
+    case OpCodes.OP_LT :
+    case OpCodes.OP_GTE :
+    case OpCodes.OP_GT :
+    case OpCodes.OP_PLUS :
+    case OpCodes.OP_MINUS :
+    case OpCodes.OP_MULT :
+    case OpCodes.OP_DIV :
+    case OpCodes.OP_MOD :
+    case OpCodes.OP_QUO :
+    case OpCodes.OP_NEG :
+    case OpCodes.OP_STRING :
+    case OpCodes.OP_NUMBER :
+      operands(c, opPos, ctx, current, true);
+      return EMPTY;
+    case OpCodes.OP_BOOL :
+      operands(c, opPos, ctx, current, false);
+      return EMPTY;
+    case OpCodes.OP_UNION :
+    {
+      Vector selection = EMPTY;
+
+      for (int p = OpMap.getFirstChildPos(opPos);
+           OpCodes.ENDOP != c.getOp(p);
+           p = c.getNextOpPos(p))
+      {
+        selection = union(selection, expression(c, p, ctx, current, value));
+      }
+      return selection;
+    }
+    case OpCodes.OP_LITERAL :
+    case OpCodes.OP_NUMBERLIT :
+    case OpCodes.OP_VARIABLE :
+      // A variable's value was analyzed where it was bound.
+      return EMPTY;
+    case OpCodes.OP_FUNCTION :
+      return function(c, opPos, ctx, current, value);
+    case OpCodes.OP_LOCATIONPATH :
+      return locationPath(c, opPos, ctx, current, value);
+    default :
+      m_fullBuild = true;
+      return null;
+    }
+  }
+
+  /**
+   * Analyze the operands of an operation.
+   *
+   * @param c The op map.
+   * @param opPos The position of the operation.
+   * @param ctx The selection of the context node.
+   * @param current The selection of the current node.
+   * @param value true if the string value of the operands may be used.
+   *
+   * @throws TransformerException if the op map is damaged.
+   */
+  private void operands(Compiler c, int opPos, Vector ctx,
+                        Vector current, boolean value)
+          throws TransformerException
+  {
+    int end = c.getNextOpPos(opPos);
+
+    for (int p = OpMap.getFirstChildPos(opPos); p < end; p = c.getNextOpPos(p))
+    {
+      if (OpCodes.ENDOP == c.getOp(p))
+        break;
+
+      expression(c, p, ctx, current, value);
+    }
+  }
+
+  /**
+   * Analyze a function call.
+   *
+   * @param c The op map.
+   * @param opPos The position of the function.
+   * @param ctx The selection of the context node.
+   * @param current The selection of the current node.
+   * @param value true if the string value of the result may be used.
+   *
+   * @return The selection of the function.
+   *
+   * @throws TransformerException if the op map is damaged.
+   */
+  private Vector function(Compiler c, int opPos, Vector ctx,
+                          Vector current, boolean value)
+          throws TransformerException
+  {
+    int endFunc = opPos + c.getOp(opPos + 1) - 1;
+    int argPos = OpMap.getFirstChildPos(opPos);
+    int funcID = c.getOp(argPos++);
+    boolean noArgs = (argPos >= endFunc);
+    boolean argValues = true;
+    Vector selection = EMPTY;
+
+    switch (funcID)
+    {
+    case FunctionTable.FUNC_CURRENT :
+      if (value)
+        keepSubtree(current);
+      return current;
+    case FunctionTable.FUNC_LAST :
+    case FunctionTable.FUNC_POSITION :
+    case FunctionTable.FUNC_COUNT :
+    case FunctionTable.FUNC_GENERATE_ID :
+    case FunctionTable.FUNC_NOT :
+    case FunctionTable.FUNC_TRUE :
+    case FunctionTable.FUNC_FALSE :
+    case FunctionTable.FUNC_BOOLEAN :
+      argValues = false;
+      break;
+    case FunctionTable.FUNC_KEY :
+      // key() finds elements anywhere in the document.
+      m_projection.setKeepUnlistedElements(true);
+      selection = m_keySelection;
+      if (value)
+        keepSubtree(selection);
+      break;
+    case FunctionTable.FUNC_STRING :
+    case FunctionTable.FUNC_NUMBER :
+    case FunctionTable.FUNC_STRING_LENGTH :
+    case FunctionTable.FUNC_NORMALIZE_SPACE :
+      if (noArgs)
+        keepSubtree(ctx);
+      break;
+    case FunctionTable.FUNC_ID :
+    case FunctionTable.FUNC_LOCAL_PART :
+    case FunctionTable.FUNC_NAMESPACE :
+    case FunctionTable.FUNC_QNAME :
+    case FunctionTable.FUNC_LANG :
+      // These can find or test elements whatever their names are.
+      m_fullBuild = true;
+      return null;
+    default :
+      // Anything else, including document(), takes its arguments' values;
+      // documents loaded by document() aren't projected.
+      break;
+    }
+
+    for (int p = argPos; p < endFunc; p = c.getNextOpPos(p))
+    {
+      expression(c, p, ctx, current, argValues);
+    }
+    return selection;
+  }
+
+  /**
+   * Analyze a location path.
+   *
+   * @param c The op map.
+   * @param opPos The position of the OP_LOCATIONPATH.
+   * @param ctx The selection of the context node.
+   * @param current The selection of the current node.
+   * @param value true if the string value of the result may be used.
+   *
+   * @return The selection of the path.
+   *
+   * @throws TransformerException if the op map is damaged.
+   */
+  private Vector locationPath(Compiler c, int opPos, Vector ctx,
+                              Vector current, boolean value)
+          throws TransformerException
+  {
+    Vector selection = ctx;
+    int step = OpMap.getFirstChildPos(opPos);
+
+    while (OpCodes.ENDOP != step && OpCodes.ENDOP != c.getOp(step))
+    {
+      int next = c.getNextStepPos(step);
+      boolean last = (OpCodes.ENDOP == next)
+                     || (OpCodes.ENDOP == c.getOp(next));
+      int stepType = c.getOp(step);
+
+      if (stepType >= OpCodes.AXES_START_TYPES
+          && stepType <= OpCodes.AXES_END_TYPES)
+        selection = step(c, step, selection, last);
+      else
+      {
+        // A filter expression, such as $var/foo or key('k', 'v')/foo.
+        selection = expression(c, step, ctx, current, last && value);
+      }
+
+      if (m_fullBuild)
+        return null;
+
+      for (int p = c.getFirstPredicateOpPos(step);
+           OpCodes.OP_PREDICATE == c.getOp(p);
+           p = c.getNextOpPos(p))
+      {
+        expression(c, OpMap.getFirstChildPos(p), selection, current, false);
+      }
+
+      step = next;
+    }
+
+    if (value)
+      keepSubtree(selection);
+
+    return selection;
+  }
+
+  /**
+   * Analyze an axis step of a location path.
+   *
+   * @param c The op map.
+   * @param step The position of the step.
+   * @param selection The selection of the nodes the step starts from.
+   * @param last true if this is the last step of the path.
+   *
+   * @return The selection of the step.
+   */
+  private Vector step(Compiler c, int step, Vector selection, boolean last)
+  {
+    int axis = c.getOp(step);
+
+    if (OpCodes.FROM_ROOT == axis)
+      return null;
+
+    switch (c.getStepTestType(step))
+    {
+    case OpCodes.NODENAME :
+    {
+      String ns = c.getStepNS(step);
+      String local = c.getStepLocalName(step);
+
+      if (OpCodes.FROM_NAMESPACE == axis)
+        return EMPTY;
+
+      if (OpCodes.FROM_ATTRIBUTES == axis)
+      {
+        if (NodeTest.WILD == local || NodeTest.WILD == ns)
+          m_projection.setKeepAllAttributes(true);
+        else
+          m_projection.addAttribute(ns, local);
+        return EMPTY;
+      }
+
+      if (NodeTest.WILD == local || NodeTest.WILD == ns)
+        return wildcardStep(axis, selection, last);
+
+      m_projection.addElement(ns, local, false);
+      if (isDeepAxis(axis))
+        m_projection.setKeepUnlistedElements(true);
+
+      Vector result = new Vector();
+
+      result.addElement(new QName(ns, local));
+      return result;
+    }
+    case OpCodes.NODETYPE_NODE :
+      switch (axis)
+      {
+      case OpCodes.FROM_ATTRIBUTES :
+        m_projection.setKeepAllAttributes(true);
+        return EMPTY;
+      case OpCodes.FROM_NAMESPACE :
+        return EMPTY;
+      case OpCodes.FROM_DESCENDANTS_OR_SELF :
+        // The // abbreviation; what matters is the step that follows.
+        if (last)
+          break;
+        m_projection.setKeepUnlistedElements(true);
+        return null;
+      default :
+        return wildcardStep(axis, selection, last);
+      }
+      m_fullBuild = true;
+      return null;
+    case OpCodes.NODETYPE_TEXT :
+    case OpCodes.NODETYPE_COMMENT :
+    case OpCodes.NODETYPE_PI :
+      switch (axis)
+      {
+      case OpCodes.FROM_CHILDREN :
+      case OpCodes.FROM_SELF :
+      case OpCodes.FROM_FOLLOWING_SIBLINGS :
+      case OpCodes.FROM_PRECEDING_SIBLINGS :
+        m_projection.setKeepCharacterData(true);
+        return EMPTY;
+      case OpCodes.FROM_PARENT :
+      case OpCodes.FROM_ANCESTORS :
+        return EMPTY;
+      default :
+        m_fullBuild = true;
+        return null;
+      }
+    case OpCodes.NODETYPE_ROOT :
+      return null;
+    default :
+      m_fullBuild = true;
+      return null;
+    }
+  }
+
+  /**
+   * Analyze a step which may select elements of any name.
+   *
+   * @param axis The step's axis.
+   * @param selection The selection of the nodes the step starts from.
+   * @param last true if this is the last step of the path.
+   *
+   * @return The selection of the step.
+   */
+  private Vector wildcardStep(int axis, Vector selection, boolean last)
+  {
+    switch (axis)
+    {
+    case OpCodes.FROM_SELF :
+      return selection;
+    case OpCodes.FROM_PARENT :
+    case OpCodes.FROM_ANCESTORS :
+    case OpCodes.FROM_ANCESTORS_OR_SELF :
+      // The ancestors of a kept node are always kept.
+      return null;
+    default :
+      m_fullBuild = true;
+      return null;
+    }
+  }
+
+  /**
+   * Tell whether an axis can reach elements which aren't below a kept
+   * element by way of named steps.
+   *
+   * @param axis The axis.
+   *
+   * @return true for the descendant, following and preceding axes.
+   */
+  private static boolean isDeepAxis(int axis)
+  {
+    switch (axis)
+    {
+    case OpCodes.FROM_DESCENDANTS :
+    case OpCodes.FROM_DESCENDANTS_OR_SELF :
+    case OpCodes.FROM_FOLLOWING :
+    case OpCodes.FROM_PRECEDING :
+      return true;
+    default :
+      return false;
+    }
+  }
+
+  /**
+   * Analyze a match pattern.
+   *
+   * @param c The op map of the pattern.
+   *
+   * @return The selection of the nodes the pattern matches.
+   *
+   * @throws TransformerException if the op map is damaged.
+   */
+  private Vector pattern(Compiler c) throws TransformerException
+  {
+    Vector selection = EMPTY;
+
+    for (int p = OpMap.getFirstChildPos(0);
+         OpCodes.OP_LOCATIONPATHPATTERN == c.getOp(p);
+         p = c.getNextOpPos(p))
+    {
+      for (int step = OpMap.getFirstChildPos(p);
+           OpCodes.ENDOP != c.getOp(step);
+           step = c.getNextOpPos(step))
+      {
+        Vector stepSelection = patternStep(c, step);
+        int pred = c.getFirstPredicateOpPos(step);
+
+        // Predicates on a wildcard count all the elements, kept or not.
+        if (OpCodes.OP_PREDICATE == c.getOp(pred)
+            && null == stepSelection
+            && OpCodes.FROM_ROOT != c.getOp(step))
+        {
+          m_fullBuild = true;
+          return null;
+        }
+
+        for (; OpCodes.OP_PREDICATE == c.getOp(pred);
+             pred = c.getNextOpPos(pred))
+        {
+          expression(c, OpMap.getFirstChildPos(pred), stepSelection,
+                     stepSelection, false);
+        }
+      }
+      selection = union(selection, lastPatternStep(c, p));
+    }
+    return selection;
+  }
+
+  /**
+   * Get the selection of the last step of one alternative of a pattern.
+   *
+   * @param c The op map of the pattern.
+   * @param p The position of the OP_LOCATIONPATHPATTERN.
+   *
+   * @return The selection of the nodes the alternative matches.
+   *
+   * @throws TransformerException if the op map is damaged.
+   */
+  private Vector lastPatternStep(Compiler c, int p)
+          throws TransformerException
+  {
+    int step = OpMap.getFirstChildPos(p);
+
+    while (OpCodes.ENDOP != c.getOp(c.getNextOpPos(step)))
+      step = c.getNextOpPos(step);
+
+    return patternStep(c, step);
+  }
+
+  /**
+   * Get the selection of the nodes a single pattern step matches.
+   *
+   * @param c The op map of the pattern.
+   * @param step The position of the step.
+   *
+   * @return The selection.
+   */
+  private Vector patternStep(Compiler c, int step)
+  {
+    switch (c.getOp(step))
+    {
+    case OpCodes.MATCH_ATTRIBUTE :
+      return EMPTY;
+    case OpCodes.MATCH_IMMEDIATE_ANCESTOR :
+    case OpCodes.MATCH_ANY_ANCESTOR :
+      switch (c.getStepTestType(step))
+      {
+      case OpCodes.NODENAME :
+      {
+        String ns = c.getStepNS(step);
+        String local = c.getStepLocalName(step);
+
+        if (NodeTest.WILD == local || NodeTest.WILD == ns)
+          return null;
+
+        Vector result = new Vector();
+
+        result.addElement(new QName(ns, local));
+        return result;
+      }
+      case OpCodes.NODETYPE_TEXT :
+      case OpCodes.NODETYPE_COMMENT :
+      case OpCodes.NODETYPE_PI :
+        return EMPTY;
+      default :
+        return null;
+      }
+    case OpCodes.OP_FUNCTION :
+      // key() in a pattern matches what the key declarations match.
+      if (FunctionTable.FUNC_KEY == c.getOp(OpMap.getFirstChildPos(step)))
+        return m_keySelection;
+      return null;
+    default :
+      return null;
+    }
+  }
+
+  /**
+   * Keep the whole subtrees of the elements in a selection.
+   *
+   * @param selection The selection; if null, the analysis gives up.
+   */
+  private void keepSubtree(Vector selection)
+  {
+    if (null == selection)
+    {
+      m_fullBuild = true;
+      return;
+    }
+
+    for (int i = 0; i < selection.size(); i++)
+    {
+      keepSubtree((QName) selection.elementAt(i));
+    }
+  }
+
+  /**
+   * Keep the whole subtrees of the elements with a given name.
+   *
+   * @param name The name of the elements.
+   */
+  private void keepSubtree(QName name)
+  {
+    m_projection.addElement(name.getNamespaceURI(), name.getLocalName(),
+                            true);
+  }
+
+  /**
+   * Combine two selections.
+   *
+   * @param a A selection.
+   * @param b Another selection.
+   *
+   * @return A selection of the nodes in either.
+   */
+  private static Vector union(Vector a, Vector b)
+  {
+    if (null == a || null == b)
+      return null;
+
+    if (a.isEmpty())
+      return b;
+
+    if (b.isEmpty())
+      return a;
+
+    Vector result = (Vector) a.clone();
+
+    for (int i = 0; i < b.size(); i++)
+    {
+      if (!result.contains(b.elementAt(i)))
+        result.addElement(b.elementAt(i));
+    }
+    return result;
+  }
+
+  /**
+   * Tell whether some template in a mode matches every node of a kind.
+   *
+   * @param mode The mode key, as returned by getModeKey().
+   * @param name The name key, "/" or "*".
+   *
+   * @return true if the built-in rules never apply to those nodes.
+   */
+  private boolean isUnconditional(String mode, String name)
+  {
+    if (null == mode)
+      mode = getModeKey(null);
+
+    return m_unconditional.containsKey(mode + name);
+  }
+
+  /**
+   * Get the key used for a mode in m_unconditional.
+   *
+   * @param mode The mode, which may be null.
+   *
+   * @return The key, which ends with '#'.
+   */
+  private static String getModeKey(QName mode)
+  {
+    return (null == mode) ? "#" : mode.toNamespacedString() + "#";
+  }
+
+  /**
+   * Get the key used for an element name in m_unconditional.
+   *
+   * @param ns The namespace URI, which may be null.
+   * @param local The local name.
+   *
+   * @return The key.
+   */
+  private static String getNameKey(String ns, String local)
+  {
+    return (null == ns) ? local : "{" + ns + "}" + local;
+  }
+
+  /**
+   * Collects the XPaths in the attribute value templates of an element,
+   * without looking at its other expressions or its children.
+   */
+  private static class AVTCollector extends XSLTVisitor
+  {
+    /** The XPaths found so far. */
+    Vector m_xpaths = new Vector();
+
+    public boolean visitAVT(AVT elem)
+    {
+      elem.callVisitors(new XPathCollector(m_xpaths));
+      return false;
+    }
+
+    public boolean visitInstruction(ElemTemplateElement elem)
+    {
+      return false;
+    }
+
+    public boolean visitLiteralResultElement(ElemLiteralResult elem)
+    {
+      return false;
+    }
+
+    public boolean visitVariableOrParamDecl(ElemVariable elem)
+    {
+      return false;
+    }
+
+    public boolean visitExtensionElement(ElemExtensionCall elem)
+    {
+      return false;
+    }
+
+    public boolean visitLocationPath(ExpressionOwner owner,
+                                     LocPathIterator path)
+    {
+      return false;
+    }
+
+    public boolean visitUnionPath(ExpressionOwner owner,
+                                  UnionPathIterator path)
+    {
+      return false;
+    }
+
+    public boolean visitPredicate(ExpressionOwner owner, Expression pred)
+    {
+      return false;
+    }
+
+    public boolean visitBinaryOperation(ExpressionOwner owner, Operation op)
+    {
+      return false;
+    }
+
+    public boolean visitUnaryOperation(ExpressionOwner owner,
+                                       UnaryOperation op)
+    {
+      return false;
+    }
+
+    public boolean visitVariableRef(ExpressionOwner owner, Variable var)
+    {
+      return false;
+    }
+
+    public boolean visitFunction(ExpressionOwner owner, Function func)
+    {
+      return false;
+    }
+
+    public boolean visitMatchPattern(ExpressionOwner owner,
+                                     StepPattern pattern)
+    {
+      return false;
+    }
+
+    public boolean visitUnionPattern(ExpressionOwner owner,
+                                     UnionPattern pattern)
+    {
+      return false;
+    }
+
+    public boolean visitStringLiteral(ExpressionOwner owner, XString str)
+    {
+      return false;
+    }
+
+    public boolean visitNumberLiteral(ExpressionOwner owner, XNumber num)
+    {
+      return false;
+    }
+  }
+
+  /**
+   * Collects the XPaths of the parts of an AVT. Each part's expression is
+   * visited with its XPath as the owner, and nothing below it is needed.
+   */
+  private static class XPathCollector extends XSLTVisitor
+  {
+    /** Where the XPaths are added. */
+    private Vector m_xpaths;
+
+    /**
+     * Construct an XPathCollector.
+     *
+     * @param xpaths Where the XPaths are to be added.
+     */
+    XPathCollector(Vector xpaths)
+    {
+      m_xpaths = xpaths;
+    }
+
+    /**
+     * Add the owner of an expression if it is a part's XPath.
+     *
+     * @param owner The owner of the expression being visited.
+     *
+     * @return false, since the parts of the expression aren't needed.
+     */
+    private boolean collect(ExpressionOwner owner)
+    {
+      if (owner instanceof XPath && !m_xpaths.contains(owner))
+        m_xpaths.addElement(owner);
+      return false;
+    }
+
+    public boolean visitLocationPath(ExpressionOwner owner,
+                                     LocPathIterator path)
+    {
+      return collect(owner);
+    }
+
+    public boolean visitUnionPath(ExpressionOwner owner,
+                                  UnionPathIterator path)
+    {
+      return collect(owner);
+    }
+
+    public boolean visitStep(ExpressionOwner owner, NodeTest step)
+    {
+      return collect(owner);
+    }
+
+    public boolean visitPredicate(ExpressionOwner owner, Expression pred)
+    {
+      return collect(owner);
+    }
+
+    public boolean visitBinaryOperation(ExpressionOwner owner, Operation op)
+    {
+      return collect(owner);
+    }
+
+    public boolean visitUnaryOperation(ExpressionOwner owner,
+                                       UnaryOperation op)
+    {
+      return collect(owner);
+    }
+
+    public boolean visitVariableRef(ExpressionOwner owner, Variable var)
+    {
+      return collect(owner);
+    }
+
+    public boolean visitFunction(ExpressionOwner owner, Function func)
+    {
+      return collect(owner);
+    }
+
+    public boolean visitMatchPattern(ExpressionOwner owner,
+                                     StepPattern pattern)
+    {
+      return collect(owner);
+    }
+
+    public boolean visitUnionPattern(ExpressionOwner owner,
+                                     UnionPattern pattern)
+    {
+      return collect(owner);
+    }
+
+    public boolean visitStringLiteral(ExpressionOwner owner, XString str)
+    {
+      return collect(owner);
+    }
+
+    public boolean visitNumberLiteral(ExpressionOwner owner, XNumber num)
+    {
+      return collect(owner);
+    }
+  }
+}
@@ -40,9 +40,12 @@ import org.apache.xalan.res.XSLTErrorResources;
 
 import org.apache.xalan.transformer.TransformerImpl;
 import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.DTMMemoryBudget;
 import org.apache.xml.dtm.ref.ExpandedNameTable;
 import org.apache.xml.utils.IntStack;
 import org.apache.xml.utils.QName;
+import org.apache.xpath.DocumentLoader;
+import org.apache.xpath.SourceTreeCache;
 import org.apache.xpath.XPath;
 import org.apache.xpath.XPathContext;
 
@@ -70,6 +73,77 @@ public class StylesheetRoot extends StylesheetComposed
      */  
     private boolean m_source_location = false;
 
+    /**
+     * The flag for the setting of the pipelined feature;
+     */  
+    private boolean m_pipelined = false;
+
+    /**
+     * The flag for the setting of the StAX incremental feature;
+     */  
+    private boolean m_staxIncremental = false;
+
+    /**
+     * The flag for the setting of the eager DOM import feature;
+     */  
+    private boolean m_eagerDOMImport = false;
+
+    /**
+     * The flag for the setting of the projection feature;
+     */  
+    private boolean m_projection = false;
+
+    /**
+     * The flag for the setting of the compact text feature;
+     */  
+    private boolean m_compactText = false;
+
+    /**
+     * The flag for the setting of the large documents feature;
+     */  
+    private boolean m_largeDocuments = false;
+
+    /**
+     * The flag for the setting of the lazy namespaces feature;
+     */  
+    private boolean m_lazyNamespaces = false;
+
+    /**
+     * The setting of the memory budget property;
+     */  
+    private DTMMemoryBudget m_memoryBudget = null;
+
+    /**
+     * The setting of the name table property;
+     */  
+    private ExpandedNameTable m_nameTable = null;
+
+    /**
+     * The setting of the source tree cache property;
+     */  
+    private SourceTreeCache m_sourceTreeCache = null;
+
+    /**
+     * The setting of the document loader property;
+     */  
+    private transient DocumentLoader m_documentLoader = null;
+
+    /**
+     * The setting of the tiered compilation threshold property;
+     */  
+    private int m_tieredCompilationThreshold = 0;
+
+    /**
+     * The projection worked out for this stylesheet, computed the first
+     * time it is asked for.
+     */
+    private transient org.apache.xml.dtm.DTMProjection m_dtmProjection = null;
+
+    /**
+     * True once m_dtmProjection has been computed, which may have given null.
+     */
+    private transient boolean m_dtmProjectionDone = false;
+
     /**
      * State of the secure processing feature.
      */
@@ -1402,4 +1476,199 @@ public class StylesheetRoot extends StylesheetComposed
         m_source_location = b;
     }
 
+    /**
+     * @return Pipelined flag
+     */
+    public boolean getPipelined() {
+        return m_pipelined;
+    }
+
+    /**
+     * @param b Pipelined flag
+     */
+    public void setPipelined(boolean b) {
+        m_pipelined = b;
+    }
+
+    /**
+     * @return StAX incremental flag
+     */
+    public boolean getStAXIncremental() {
+        return m_staxIncremental;
+    }
+
+    /**
+     * @param b StAX incremental flag
+     */
+    public void setStAXIncremental(boolean b) {
+        m_staxIncremental = b;
+    }
+
+    /**
+     * @return Eager DOM import flag
+     */
+    public boolean getEagerDOMImport() {
+        return m_eagerDOMImport;
+    }
+
+    /**
+     * @param b Eager DOM import flag
+     */
+    public void setEagerDOMImport(boolean b) {
+        m_eagerDOMImport = b;
+    }
+
+    /**
+     * @return Projection flag
+     */
+    public boolean getProjection() {
+        return m_projection;
+    }
+
+    /**
+     * @param b Projection flag
+     */
+    public void setProjection(boolean b) {
+        m_projection = b;
+    }
+
+    /**
+     * @return Compact text flag
+     */
+    public boolean getCompactText() {
+        return m_compactText;
+    }
+
+    /**
+     * @param b Compact text flag
+     */
+    public void setCompactText(boolean b) {
+        m_compactText = b;
+    }
+
+    /**
+     * @return Large documents flag
+     */
+    public boolean getLargeDocuments() {
+        return m_largeDocuments;
+    }
+
+    /**
+     * @param b Large documents flag
+     */
+    public void setLargeDocuments(boolean b) {
+        m_largeDocuments = b;
+    }
+
+    /**
+     * @return Lazy namespaces flag
+     */
+    public boolean getLazyNamespaces() {
+        return m_lazyNamespaces;
+    }
+
+    /**
+     * @param b Lazy namespaces flag
+     */
+    public void setLazyNamespaces(boolean b) {
+        m_lazyNamespaces = b;
+    }
+
+    /**
+     * @return Memory budget the source documents are built under, or null
+     */
+    public DTMMemoryBudget getMemoryBudget() {
+        return m_memoryBudget;
+    }
+
+    /**
+     * @param budget Memory budget the source documents are built under,
+     * or null
+     */
+    public void setMemoryBudget(DTMMemoryBudget budget) {
+        m_memoryBudget = budget;
+    }
+
+    /**
+     * @return Expanded name table the source documents share, or null
+     */
+    public ExpandedNameTable getNameTable() {
+        return m_nameTable;
+    }
+
+    /**
+     * @param names Expanded name table the source documents share, or
+     * null
+     */
+    public void setNameTable(ExpandedNameTable names) {
+        m_nameTable = names;
+    }
+
+    /**
+     * @return Cache documents loaded by document() are shared through,
+     * or null
+     */
+    public SourceTreeCache getSourceTreeCache() {
+        return m_sourceTreeCache;
+    }
+
+    /**
+     * @param cache Cache documents loaded by document() are shared
+     * through, or null
+     */
+    public void setSourceTreeCache(SourceTreeCache cache) {
+        m_sourceTreeCache = cache;
+    }
+
+    /**
+     * @return Loader documents named together in document() are parsed
+     * in parallel with, or null
+     */
+    public DocumentLoader getDocumentLoader() {
+        return m_documentLoader;
+    }
+
+    /**
+     * @param loader Loader documents named together in document() are
+     * parsed in parallel with, or null
+     */
+    public void setDocumentLoader(DocumentLoader loader) {
+        m_documentLoader = loader;
+    }
+
+    /**
+     * @return Number of evaluations after which an XPath is compiled in
+     * the background, or 0 if XPaths are only interpreted
+     */
+    public int getTieredCompilationThreshold() {
+        return m_tieredCompilationThreshold;
+    }
+
+    /**
+     * @param threshold Number of evaluations after which an XPath is
+     * compiled in the background, or 0 if XPaths are only interpreted
+     */
+    public void setTieredCompilationThreshold(int threshold) {
+        m_tieredCompilationThreshold = threshold;
+    }
+
+    /**
+     * Get the projection to apply to source documents, telling which of
+     * their parts this stylesheet can reach. This is worked out from the
+     * composed stylesheet the first time it is asked for.
+     *
+     * @return The projection, or null if the projection feature is off or
+     * the whole document may be needed.
+     */
+    public synchronized org.apache.xml.dtm.DTMProjection getDTMProjection() {
+        if (!m_projection)
+            return null;
+
+        if (!m_dtmProjectionDone) {
+            m_dtmProjection = new ProjectionAnalyzer().analyze(this);
+            m_dtmProjectionDone = true;
+        }
+        return m_dtmProjection;
+    }
+
 }
@@ -72,6 +72,7 @@ import org.apache.xml.dtm.DTM;
 import org.apache.xml.dtm.DTMIterator;
 import org.apache.xml.dtm.DTMManager;
 import org.apache.xml.dtm.DTMWSFilter;
+import org.apache.xml.dtm.ref.DTMManagerDefault;
 import org.apache.xml.serializer.ToSAXHandler;
 import org.apache.xml.serializer.ToTextStream;
 import org.apache.xml.serializer.ToXMLSAXHandler;
@@ -396,17 +397,61 @@ public class TransformerImpl extends Transformer
     setStylesheet(stylesheet);
     XPathContext xPath = new XPathContext(this);
     xPath.setIncremental(m_incremental);
-    xPath.getDTMManager().setIncremental(m_incremental);
     xPath.setSource_location(m_source_location);
-    xPath.getDTMManager().setSource_location(m_source_location);
     
     if (stylesheet.isSecureProcessing())
       xPath.setSecureProcessing(true);
+    xPath.setTieredCompilationThreshold(
+      stylesheet.getTieredCompilationThreshold());
     
     setXPathContext(xPath);
     getXPathContext().setNamespaceContext(stylesheet);
+
+    // A TransformerHandler builds its document with this DTMManager
+    // before any transform() call, so it has to be set up now too.
+    setUpSourceBuilding();
     m_stackGuard = new StackGuard(this);    
   }
+
+  /**
+   * Set the XPathContext's DTMManager and SourceTreeManager up to build
+   * source documents as the stylesheet asks. This is done when the
+   * transformer is created, for documents built through a
+   * TransformerHandler, and again by transform(), because reset()
+   * replaces the DTMManager.
+   */
+  private void setUpSourceBuilding()
+  {
+    DTMManager mgr = m_xcontext.getDTMManager();
+
+    mgr.setIncremental(m_incremental);
+    mgr.setSource_location(m_source_location);
+
+    // The budget covers every document this transformation builds.
+    mgr.setMemoryBudget(m_stylesheetRoot.getMemoryBudget());
+    mgr.setLargeDocuments(m_stylesheetRoot.getLargeDocuments());
+    mgr.setLazyNamespaces(m_stylesheetRoot.getLazyNamespaces());
+    mgr.setPipelined(m_stylesheetRoot.getPipelined());
+    mgr.setStAXIncremental(m_stylesheetRoot.getStAXIncremental());
+    mgr.setCompactText(m_stylesheetRoot.getCompactText());
+    mgr.setEagerDOMImport(m_stylesheetRoot.getEagerDOMImport());
+
+    if (mgr instanceof DTMManagerDefault)
+      ((DTMManagerDefault) mgr).setSharedNameTable(
+        m_stylesheetRoot.getNameTable());
+
+    // Cached documents are shared, so can't have whitespace stripped
+    // for this stylesheet.
+    m_xcontext.getSourceTreeManager().setSharedCache(
+      m_stylesheetRoot.shouldCheckWhitespace()
+      ? null : m_stylesheetRoot.getSourceTreeCache());
+
+    // Nor can documents loaded in parallel, as the stripping rules are
+    // applied by this transformer, on this thread.
+    m_xcontext.getSourceTreeManager().setDocumentLoader(
+      m_stylesheetRoot.shouldCheckWhitespace()
+      ? null : m_stylesheetRoot.getDocumentLoader());
+  }
   
   // ================ ExtensionsTable ===================
 
@@ -698,7 +743,20 @@ public class TransformerImpl extends Transformer
           fatalError(e);
         }           
       }
-      DTM dtm = mgr.getDTM(source, false, this, true, true);
+      setUpSourceBuilding();
+
+      // Only the principal source document is projected; anything loaded
+      // later by document() is built whole.
+      mgr.setProjection(m_stylesheetRoot.getDTMProjection());
+      DTM dtm;
+      try
+      {
+        dtm = mgr.getDTM(source, false, this, true, true);
+      }
+      finally
+      {
+        mgr.setProjection(null);
+      }
       dtm.setDocumentBaseURI(base);
       
       boolean hardDelete = true;  // %REVIEW% I have to think about this. -sb
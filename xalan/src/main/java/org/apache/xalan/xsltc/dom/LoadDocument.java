@@ -22,7 +22,10 @@
 package org.apache.xalan.xsltc.dom;
 
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.HashSet;
 
+import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.xalan.xsltc.DOM;
@@ -36,6 +39,7 @@ import org.apache.xml.dtm.DTMAxisIterator;
 import org.apache.xml.dtm.DTMManager;
 import org.apache.xml.dtm.ref.EmptyIterator;
 import org.apache.xml.utils.SystemIDResolver;
+import org.apache.xpath.DocumentLoader;
 
 /**
  * @author Morten Jorgensen
@@ -238,23 +242,137 @@ public final class LoadDocument {
     {
         UnionIterator union = new UnionIterator(dom);
         int node = DTM.NULL;
+        ArrayList uris = new ArrayList();
+        ArrayList bases = new ArrayList();
 
         while ((node = arg1.next()) != DTM.NULL) {
-            String uri = dom.getStringValueX(node);
+            uris.add(dom.getStringValueX(node));
             //document(node-set) if true;  document(node-set,node-set) if false
             if (baseURI  == null) {
                baseURI = dom.getDocumentURI(node);
                if (!SystemIDResolver.isAbsoluteURI(baseURI))
                     baseURI = SystemIDResolver.getAbsoluteURIFromRelative(baseURI);
             }
-            union.addIterator(document(uri, baseURI, translet, dom));
+            bases.add(baseURI);
+        }
+
+        final DOM[] loaded = loadDocuments(uris, bases, translet, dom);
+        for (int i = 0; i < uris.size(); i++) {
+            if (loaded[i] != null) {
+                union.addIterator(document(loaded[i], translet, dom));
+            } else {
+                union.addIterator(document((String)uris.get(i),
+                                           (String)bases.get(i),
+                                           translet, dom));
+            }
         }
         return(union);
     }
 
     /**
-     * Create a DTMAxisIterator for the newdom. This is currently only
-     * used to create an iterator for the cached stylesheet DOM.
+     * Parse the documents named by a node-set argument of document() in
+     * parallel, if the translet has a DocumentLoader. The documents are
+     * built by DTM managers of their own and come back detached; the
+     * caller registers them in the order they were named, as
+     * document(DOM, ...) does with the cached stylesheet DOM, so they
+     * get the same DTM IDs and document order as if they had been loaded
+     * one after another. Documents already loaded, named twice, that need
+     * the translet's DOMCache, or that can't be built, are left out, and
+     * the caller loads them the ordinary way, which reports any error.
+     *
+     * @param uris the URIs named, as Strings
+     * @param bases the base URI for each
+     * @return the documents, in the same order as uris; null where the
+     * caller has to load the document itself
+     */
+    private static DOM[] loadDocuments(ArrayList uris, ArrayList bases,
+                                       AbstractTranslet translet, DOM dom)
+    {
+        final int n = uris.size();
+        final DOM[] docs = new DOM[n];
+        final DocumentLoader loader = translet.getDocumentLoader();
+
+        if (loader == null || translet.getDOMCache() != null
+            || !(dom instanceof MultiDOM)) {
+            return docs;
+        }
+
+        final MultiDOM multiplexer = (MultiDOM)dom;
+        final Source[] sources = new Source[n];
+        final HashSet seen = new HashSet();
+        int count = 0;
+
+        for (int i = 0; i < n; i++) {
+            String uri = (String)uris.get(i);
+            final String base = (String)bases.get(i);
+            try {
+                if (base != null && base.length() != 0) {
+                    uri = SystemIDResolver.getAbsoluteURI(uri, base);
+                }
+            } catch (Exception e) {
+                continue;
+            }
+            if (uri == null || uri.length() == 0
+                || multiplexer.getDocumentMask(uri) != -1
+                || !seen.add(uri)) {
+                continue;
+            }
+            sources[i] = new StreamSource(uri);
+            count++;
+        }
+
+        // There's nothing to gain for a single document
+        if (count < 2) {
+            return docs;
+        }
+
+        final DTM[] dtms = loader.load(sources,
+            new Builder((XSLTCDTMManager)multiplexer.getDTMManager(),
+                        translet.hasIdCall()));
+        for (int i = 0; i < n; i++) {
+            if (dtms[i] instanceof DOMEnhancedForDTM) {
+                ((DOMEnhancedForDTM)dtms[i])
+                    .setDocumentURI(sources[i].getSystemId());
+                docs[i] = (DOM)dtms[i];
+            }
+        }
+        return docs;
+    }
+
+    /**
+     * Builds a document for loadDocuments(), with a DTM manager set up
+     * like the transformation's.
+     */
+    private static final class Builder implements DocumentLoader.Builder {
+        private final XSLTCDTMManager _mgr;
+        private final boolean _buildIdIndex;
+
+        Builder(XSLTCDTMManager mgr, boolean buildIdIndex) {
+            _mgr = mgr;
+            _buildIdIndex = buildIdIndex;
+        }
+
+        public DTM build(Source source) throws Exception {
+            final XSLTCDTMManager mgr =
+                (XSLTCDTMManager)_mgr.getClass().newInstance();
+            DocumentLoader.copySettings(_mgr, mgr);
+            try {
+                final DTM dtm = mgr.getDTM(source, false, null, false,
+                                           false, _buildIdIndex, false);
+                mgr.detach(dtm);
+                return dtm;
+            } finally {
+                // The document is charged to the transformation's manager
+                // once it moves there
+                mgr.setMemoryBudget(null);
+            }
+        }
+    }
+
+    /**
+     * Create a DTMAxisIterator for the newdom. This is used to create an
+     * iterator for the cached stylesheet DOM, and for the documents
+     * built by loadDocuments().
      * 
      * @param newdom the cached stylesheet DOM
      * @param translet the translet
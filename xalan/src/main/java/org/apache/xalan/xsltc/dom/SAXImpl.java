@@ -22,8 +22,6 @@
 package org.apache.xalan.xsltc.dom;
 
 import java.util.Enumeration;
-import java.util.Iterator;
-import java.util.Map;
 
 import javax.xml.transform.Source;
 import javax.xml.transform.dom.DOMSource;
@@ -1844,17 +1842,17 @@ public final class SAXImpl extends SAX2DTM2
             return null;
         }
 
-        // Convert a java.util.Hashtable to an xsltc.runtime.Hashtable
-        Iterator idEntries = m_idAttributes.entrySet().iterator();
-        if (!idEntries.hasNext()) {
+        // Convert the DTMIdIndex to an xsltc.runtime.Hashtable
+        int nids = m_idAttributes.size();
+        if (nids == 0) {
             return null;
         }
 
         Hashtable idAttrsTable = new Hashtable();
         
-        while (idEntries.hasNext()) {
-            Map.Entry entry = (Map.Entry) idEntries.next();
-            idAttrsTable.put(entry.getKey(), entry.getValue());
+        for (int i = 0; i < nids; i++) {
+            idAttrsTable.put(m_idAttributes.getId(i),
+                             new Integer(m_idAttributes.getNode(i)));
         }
 
         return idAttrsTable;
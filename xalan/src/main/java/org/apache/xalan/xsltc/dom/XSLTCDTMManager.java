@@ -23,13 +23,16 @@ package org.apache.xalan.xsltc.dom;
 import javax.xml.transform.Source;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.xml.dtm.DTM;
 import org.apache.xml.dtm.ref.DTMDefaultBase;
+import org.apache.xml.dtm.ref.DTMImageSource;
 import org.apache.xml.dtm.DTMException;
 import org.apache.xml.dtm.DTMWSFilter;
 import org.apache.xml.dtm.ref.DTMManagerDefault;
+import org.apache.xml.dtm.ref.sax2dtm.StAX2DTM;
 import org.apache.xml.res.XMLErrorResources;
 import org.apache.xml.res.XMLMessages;
 import org.apache.xml.utils.SystemIDResolver;
@@ -272,6 +275,16 @@ public class XSLTCDTMManager extends DTMManagerDefault
 			 " source: "+source.getSystemId());
         }
 
+        if ((null != source) && source instanceof DTMImageSource)
+        {
+            // SAXImpl keeps state of its own that an image doesn't record,
+            // so it can't use a mapped image in place, and copying the
+            // image into one would cost as much as building it.
+            throw new DTMException(XMLMessages.createXMLMessage(
+                XMLErrorResources.ER_DTM_IMAGE_NOT_SUPPORTED,
+                new Object[]{source.getSystemId()}));
+        }
+
         int dtmPos = getFirstFreeDTMID();
         int documentID = dtmPos << IDENT_DTM_NODE_BITS;
 
@@ -304,14 +317,50 @@ public class XSLTCDTMManager extends DTMManagerDefault
                 dom2sax.parse();
             }
             catch (RuntimeException re) {
+                abandonDTM(dtm, null);
                 throw re;
             }
             catch (Exception e) {
+                abandonDTM(dtm, null);
                 throw new org.apache.xml.utils.WrappedRuntimeException(e);
             }
       
             return dtm;
         }
+        else if ((null != source) && source instanceof StAXSource)
+        {
+            SAXImpl dtm;
+
+            if (size <= 0) {
+                dtm = new SAXImpl(this, source, documentID,
+                                  whiteSpaceFilter, null, doIndexing,
+                                  DTMDefaultBase.DEFAULT_BLOCKSIZE,
+                                  buildIdIndex, newNameTable);
+            } else {
+                dtm = new SAXImpl(this, source, documentID,
+                                  whiteSpaceFilter, null, doIndexing,
+                                  size, buildIdIndex, newNameTable);
+            }
+
+            dtm.setDocumentURI(source.getSystemId());
+
+            addDTM(dtm, dtmPos, 0);
+
+            // Read the StAX events straight into the SAXImpl.
+            try {
+                new StAX2DTM(dtm).parse((StAXSource) source);
+            }
+            catch (RuntimeException re) {
+                abandonDTM(dtm, null);
+                throw re;
+            }
+            catch (Exception e) {
+                abandonDTM(dtm, null);
+                throw new org.apache.xml.utils.WrappedRuntimeException(e);
+            }
+
+            return dtm;
+        }
         else
         {
             boolean isSAXSource = (null != source)
@@ -389,9 +438,11 @@ public class XSLTCDTMManager extends DTMManagerDefault
                     reader.parse(xmlSource);
                 }
                 catch (RuntimeException re) {
+                    abandonDTM(dtm, null);
                     throw re;
                 }
                 catch (Exception e) {
+                    abandonDTM(dtm, null);
                     throw new org.apache.xml.utils.WrappedRuntimeException(e);
                 } finally {
                     if (!hasUserReader) {
@@ -46,6 +46,7 @@ import org.apache.xalan.xsltc.dom.KeyIndex;
 import org.apache.xalan.xsltc.runtime.output.TransletOutputHandlerFactory;
 import org.apache.xml.dtm.DTMAxisIterator;
 import org.apache.xml.serializer.SerializationHandler;
+import org.apache.xpath.DocumentLoader;
 
 /**
  * @author Jacek Ambroziak
@@ -534,6 +535,27 @@ public abstract class AbstractTranslet implements Translet {
 	return(_domCache);
     }
 
+    // The loader that documents named by a node-set are parsed with, if any
+    private DocumentLoader _documentLoader = null;
+
+    /**
+     * Sets the loader that the documents named by a node-set argument of
+     * the document() function are parsed in parallel with; null to parse
+     * them one after another.
+     */
+    public void setDocumentLoader(DocumentLoader loader) {
+	_documentLoader = loader;
+    }
+
+    /**
+     * Returns the loader that the documents named by a node-set argument
+     * of the document() function are parsed with, or null. Used by the
+     * LoadDocument class.
+     */
+    public DocumentLoader getDocumentLoader() {
+	return _documentLoader;
+    }
+
     /************************************************************************
      * Multiple output document extension.
      * See compiler/TransletOutput for actual implementation.
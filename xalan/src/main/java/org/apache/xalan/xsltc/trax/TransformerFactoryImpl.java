@@ -62,6 +62,8 @@ import org.apache.xalan.xsltc.compiler.SourceLoader;
 import org.apache.xalan.xsltc.compiler.XSLTC;
 import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.dom.XSLTCDTMManager;
+import org.apache.xml.dtm.DTMMemoryBudget;
+import org.apache.xpath.DocumentLoader;
 import org.apache.xml.utils.StopParseException;
 import org.apache.xml.utils.StylesheetPIHandler;
 import org.xml.sax.InputSource;
@@ -89,6 +91,11 @@ public class TransformerFactoryImpl
     public final static String DEBUG = "debug";
     public final static String ENABLE_INLINING = "enable-inlining";
     public final static String INDENT_NUMBER = "indent-number";
+    public final static String TYPE_INDEXING = "type-indexing";
+    public final static String COMPACT_TEXT = "compact-text";
+    public final static String VALUE_POOL = "value-pool";
+    public final static String MEMORY_BUDGET = "memory-budget";
+    public final static String DOCUMENT_LOADER = "document-loader";
         
     /**
      * This error listener is used only for this factory and is not passed to
@@ -163,6 +170,42 @@ public class TransformerFactoryImpl
      * Set to <code>true</code> when templates are inlined.
      */
     private boolean _enableInlining = false;
+
+    /**
+     * Set to <code>true</code> when source documents are to be built with
+     * an index of their elements by type.
+     * @see org.apache.xml.dtm.DTMManager#setTypeIndexing(boolean)
+     */
+    private boolean _typeIndexing = false;
+
+    /**
+     * Set to <code>true</code> when source documents are to keep their
+     * text at one byte per character where possible.
+     * @see org.apache.xml.dtm.DTMManager#setCompactText(boolean)
+     */
+    private boolean _compactText = false;
+
+    /**
+     * Set to <code>true</code> when repeated short attribute values in
+     * source documents are to share a single String.
+     * @see org.apache.xml.dtm.DTMManager#setValuePooling(boolean)
+     */
+    private boolean _valuePool = false;
+
+    /**
+     * The budget shared by the source documents of all transformations
+     * from this factory's templates, or null for none.
+     * @see org.apache.xml.dtm.DTMManager#setMemoryBudget(DTMMemoryBudget)
+     */
+    private DTMMemoryBudget _memoryBudget = null;
+
+    /**
+     * The loader that the documents named by a node-set argument of
+     * document() are parsed in parallel with, or null to parse them one
+     * after another.
+     * @see org.apache.xpath.DocumentLoader
+     */
+    private DocumentLoader _documentLoader = null;
     
     /**
      * Set to <code>true</code> when we want to generate 
@@ -266,6 +309,21 @@ public class TransformerFactoryImpl
 	    else
 	      return Boolean.FALSE;
 	}
+	else if (name.equals(TYPE_INDEXING)) {
+	    return _typeIndexing ? Boolean.TRUE : Boolean.FALSE;
+	}
+	else if (name.equals(COMPACT_TEXT)) {
+	    return _compactText ? Boolean.TRUE : Boolean.FALSE;
+	}
+	else if (name.equals(VALUE_POOL)) {
+	    return _valuePool ? Boolean.TRUE : Boolean.FALSE;
+	}
+	else if (name.equals(MEMORY_BUDGET)) {
+	    return _memoryBudget;
+	}
+	else if (name.equals(DOCUMENT_LOADER)) {
+	    return _documentLoader;
+	}
 
 	// Throw an exception for all other attributes
 	ErrorMsg err = new ErrorMsg(ErrorMsg.JAXP_INVALID_ATTR_ERR, name);
@@ -351,6 +409,78 @@ public class TransformerFactoryImpl
 		return;
 	    }
 	}
+	else if (name.equals(TYPE_INDEXING)) {
+	    if (value instanceof Boolean) {
+		_typeIndexing = ((Boolean) value).booleanValue();
+		return;
+	    }
+	    else if (value instanceof String) {
+		_typeIndexing = ((String) value).equalsIgnoreCase("true");
+		return;
+	    }
+	}
+	else if (name.equals(COMPACT_TEXT)) {
+	    if (value instanceof Boolean) {
+		_compactText = ((Boolean) value).booleanValue();
+		return;
+	    }
+	    else if (value instanceof String) {
+		_compactText = ((String) value).equalsIgnoreCase("true");
+		return;
+	    }
+	}
+	else if (name.equals(VALUE_POOL)) {
+	    if (value instanceof Boolean) {
+		_valuePool = ((Boolean) value).booleanValue();
+		return;
+	    }
+	    else if (value instanceof String) {
+		_valuePool = ((String) value).equalsIgnoreCase("true");
+		return;
+	    }
+	}
+	else if (name.equals(MEMORY_BUDGET)) {
+	    if (value == null || value instanceof DTMMemoryBudget) {
+		_memoryBudget = (DTMMemoryBudget) value;
+		return;
+	    }
+	    else if (value instanceof Number) {
+		_memoryBudget =
+		    new DTMMemoryBudget(((Number) value).longValue());
+		return;
+	    }
+	    else if (value instanceof String) {
+		try {
+		    _memoryBudget =
+			new DTMMemoryBudget(Long.parseLong((String) value));
+		    return;
+		}
+		catch (NumberFormatException e) {
+		    // Falls through
+		}
+	    }
+	}
+	else if (name.equals(DOCUMENT_LOADER)) {
+	    if (value == null || value instanceof DocumentLoader) {
+		_documentLoader = (DocumentLoader) value;
+		return;
+	    }
+	    else if (value instanceof Number) {
+		_documentLoader =
+		    new DocumentLoader(((Number) value).intValue());
+		return;
+	    }
+	    else if (value instanceof String) {
+		try {
+		    _documentLoader =
+			new DocumentLoader(Integer.parseInt((String) value));
+		    return;
+		}
+		catch (NumberFormatException e) {
+		    // Falls through
+		}
+	    }
+	}
 	else if (name.equals(INDENT_NUMBER)) {
 	    if (value instanceof String) {
 		try {
@@ -1410,4 +1540,43 @@ public class TransformerFactoryImpl
     protected Class getDTMManagerClass() {
         return m_DTMManagerClass;
     }
+
+    /**
+     * Returns true if source documents are to be built with an index of
+     * their elements by type.
+     */
+    protected boolean getTypeIndexing() {
+        return _typeIndexing;
+    }
+
+    /**
+     * Returns true if source documents are to keep their text at one
+     * byte per character where possible.
+     */
+    protected boolean getCompactText() {
+        return _compactText;
+    }
+
+    /**
+     * Returns true if repeated short attribute values in source documents
+     * are to share a single String.
+     */
+    protected boolean getValuePool() {
+        return _valuePool;
+    }
+
+    /**
+     * Returns the budget source documents are built under, or null.
+     */
+    protected DTMMemoryBudget getMemoryBudget() {
+        return _memoryBudget;
+    }
+
+    /**
+     * Returns the loader that the documents named by a node-set argument
+     * of document() are parsed in parallel with, or null.
+     */
+    protected DocumentLoader getDocumentLoader() {
+        return _documentLoader;
+    }
 }
\ No newline at end of file
@@ -191,6 +191,14 @@ public class TransformerHandlerImpl implements TransformerHandler, DeclHandler {
                     (XSLTCDTMManager)_transformer.getTransformerFactory()
                                                  .getDTMManagerClass()
                                                  .newInstance();
+                dtmManager.setTypeIndexing(_transformer.getTransformerFactory()
+                                                       .getTypeIndexing());
+                dtmManager.setCompactText(_transformer.getTransformerFactory()
+                                                      .getCompactText());
+                dtmManager.setValuePooling(_transformer.getTransformerFactory()
+                                                       .getValuePool());
+                dtmManager.setMemoryBudget(_transformer.getTransformerFactory()
+                                                       .getMemoryBudget());
             } catch (Exception e) {
                 throw new SAXException(e);
             }
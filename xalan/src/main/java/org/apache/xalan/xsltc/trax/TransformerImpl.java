@@ -50,6 +50,7 @@ import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -65,7 +66,9 @@ import org.apache.xalan.xsltc.dom.XSLTCDTMManager;
 import org.apache.xalan.xsltc.runtime.AbstractTranslet;
 import org.apache.xalan.xsltc.runtime.Hashtable;
 import org.apache.xalan.xsltc.runtime.output.TransletOutputHandlerFactory;
+import org.apache.xml.dtm.DTM;
 import org.apache.xml.dtm.DTMWSFilter;
+import org.apache.xml.dtm.ref.sax2dtm.StAX2DTM;
 import org.apache.xml.serializer.OutputPropertiesFactory;
 import org.apache.xml.serializer.SerializationHandler;
 import org.apache.xml.utils.SystemIDResolver;
@@ -161,6 +164,12 @@ public final class TransformerImpl extends Transformer
      */
     private XSLTCDTMManager _dtmManager = null;
 
+    /**
+     * The documents _dtmManager has built for the current transformation,
+     * which are released when it ends.
+     */
+    private Vector _builtDOMs = new Vector();
+
     /**
      * A reference to an object that creates and caches XMLReader objects.
      */
@@ -279,6 +288,7 @@ public final class TransformerImpl extends Transformer
 	    }
 	    // Pass output properties to the translet
 	    transferOutputProperties(_translet);
+	    _translet.setDocumentLoader(_tfactory.getDocumentLoader());
 	}
 	    
 	final SerializationHandler toHandler = getOutputHandler(result);
@@ -456,9 +466,14 @@ public final class TransformerImpl extends Transformer
                      _dtmManager =
                          (XSLTCDTMManager)_tfactory.getDTMManagerClass()
                                                    .newInstance();
+                     _dtmManager.setTypeIndexing(_tfactory.getTypeIndexing());
+                     _dtmManager.setCompactText(_tfactory.getCompactText());
+                     _dtmManager.setValuePooling(_tfactory.getValuePool());
+                     _dtmManager.setMemoryBudget(_tfactory.getMemoryBudget());
                  }
                  dom = (DOM)_dtmManager.getDTM(source, false, wsfilter, true,
                                               false, false, 0, hasIdCall);
+                 _builtDOMs.addElement(dom);
             } else if (_dom != null) {
                  dom = _dom;
                  _dom = null;  // use only once, so reset to 'null'
@@ -483,6 +498,22 @@ public final class TransformerImpl extends Transformer
         }
     }
  
+    /**
+     * Releases the documents built for a transformation that has ended,
+     * and stops counting its DTM manager against the memory budget, so
+     * that neither goes on taking up the budget until it is collected.
+     */
+    private void releaseDOMs() {
+        if (_dtmManager != null) {
+            for (int i = 0; i < _builtDOMs.size(); i++) {
+                _dtmManager.release((DTM)_builtDOMs.elementAt(i), true);
+            }
+            _dtmManager.setMemoryBudget(null);
+        }
+        _builtDOMs.removeAllElements();
+        _dtmManager = null;
+    }
+
     /**
      * Returns the {@link org.apache.xalan.xsltc.trax.TransformerFactoryImpl}
      * object that create this <code>Transformer</code>.
@@ -578,6 +609,9 @@ public final class TransformerImpl extends Transformer
         } else if (source instanceof DOMSource) {
             final DOMSource domsrc = (DOMSource) source;
             new DOM2TO(domsrc.getNode(), handler).parse();
+        } else if (source instanceof StAXSource) {
+            // Send the reader's events straight to the output handler
+            new StAX2DTM(handler, handler, null).parse((StAXSource) source);
         } else if (source instanceof XSLTCSource) {
             final DOM dom = ((XSLTCSource) source).getDOM(null, _translet);
             ((SAXImpl)dom).copy(handler);
@@ -637,7 +671,7 @@ public final class TransformerImpl extends Transformer
 	    if (_errorListener != null)	postErrorToListener(e.getMessage());
 	    throw new TransformerException(e);
 	} finally {
-            _dtmManager = null;
+            releaseDOMs();
         }
 
 	// If we create an output stream for the Result, we need to close it after the transformation.
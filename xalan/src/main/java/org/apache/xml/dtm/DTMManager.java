@@ -318,6 +318,280 @@ public abstract class DTMManager
   {
     m_incremental = incremental;  
   }
+
+  /* Flag indicating whether documents should be parsed and built on separate threads */
+  public boolean m_pipelined = false;
+
+  /**
+   * Get a flag indicating whether documents are parsed on one thread and
+   * built on another.
+   * @return pipelined boolean.
+   */
+  public boolean getPipelined()
+  {
+    return m_pipelined;
+  }
+
+  /**
+   * Set a flag indicating whether documents should be parsed on one thread
+   * and built on another, which shortens the load time of large documents
+   * on machines with more than one processor. It has no effect on
+   * incremental builds, or when source locations are being recorded.
+   * This flag should have the same value as the FEATURE_PIPELINED feature
+   * which is set by the TransformerFactory.setAttribute() method before a
+   * DTMManager is created
+   * @param pipelined boolean to use to set m_pipelined.
+   */
+  public void setPipelined(boolean pipelined)
+  {
+    m_pipelined = pipelined;
+  }
+
+  /* Flag indicating whether incremental builds may read documents with StAX */
+  public boolean m_staxIncremental = false;
+
+  /**
+   * Get a flag indicating whether an incremental build of a document we
+   * parse ourselves reads it with StAX.
+   * @return staxIncremental boolean.
+   */
+  public boolean getStAXIncremental()
+  {
+    return m_staxIncremental;
+  }
+
+  /**
+   * Set a flag indicating whether an incremental build of a document we
+   * parse ourselves should read it with StAX on the caller's thread,
+   * rather than with an XMLReader on a second thread. The StAX parser
+   * doesn't have the XMLReader's features, entity resolver or
+   * secure-processing limits, so this should only be set for documents
+   * which don't need them.
+   * This flag should have the same value as the FEATURE_STAX_INCREMENTAL
+   * feature which is set by the TransformerFactory.setAttribute() method
+   * before a DTMManager is created
+   * @param staxIncremental boolean to use to set m_staxIncremental.
+   */
+  public void setStAXIncremental(boolean staxIncremental)
+  {
+    m_staxIncremental = staxIncremental;
+  }
+
+  /* Flag indicating whether DOM sources should be imported in one pass */
+  public boolean m_eagerDOMImport = false;
+
+  /**
+   * Get a flag indicating whether DOM sources are imported into their
+   * DTMs in one pass.
+   * @return eagerDOMImport boolean.
+   */
+  public boolean getEagerDOMImport()
+  {
+    return m_eagerDOMImport;
+  }
+
+  /**
+   * Set a flag indicating whether a DOM source should be imported into
+   * its DTM in one pass when the DTM is created, rather than node by node
+   * as it is navigated. This costs time up front on documents which are
+   * only partly visited, but makes the walk cheaper and lets a DOM node's
+   * handle be looked up directly.
+   * This flag should have the same value as the FEATURE_EAGER_DOM_IMPORT
+   * feature which is set by the TransformerFactory.setAttribute() method
+   * before a DTMManager is created
+   * @param eagerDOMImport boolean to use to set m_eagerDOMImport.
+   */
+  public void setEagerDOMImport(boolean eagerDOMImport)
+  {
+    m_eagerDOMImport = eagerDOMImport;
+  }
+
+  /* Flag indicating whether SAX2DTM2s should index their elements by type */
+  public boolean m_typeIndexing = false;
+
+  /**
+   * Get a flag indicating whether SAX2DTM2s index their elements by
+   * expanded type.
+   * @return typeIndexing boolean.
+   */
+  public boolean getTypeIndexing()
+  {
+    return m_typeIndexing;
+  }
+
+  /**
+   * Set a flag indicating whether SAX2DTM2s (the DTMs XSLTC builds)
+   * should keep, for each element type, a list of the elements of that
+   * type as they are built. The lists let typed descendant and following
+   * iterators, and so expressions like //name, go straight to the
+   * matching elements instead of scanning every node, at the cost of an
+   * int per element.
+   * @param typeIndexing boolean to use to set m_typeIndexing.
+   */
+  public void setTypeIndexing(boolean typeIndexing)
+  {
+    m_typeIndexing = typeIndexing;
+  }
+
+  /* Flag indicating whether SAX2DTMs should store text compactly */
+  public boolean m_compactText = false;
+
+  /**
+   * Get a flag indicating whether SAX2DTMs store their character content
+   * one byte per character where possible.
+   * @return compactText boolean.
+   */
+  public boolean getCompactText()
+  {
+    return m_compactText;
+  }
+
+  /**
+   * Set a flag indicating whether SAX2DTMs should keep the character
+   * content of their text nodes and attributes in a
+   * CompactFastStringBuffer, which uses one byte per character for
+   * chunks holding only ISO-8859-1 characters and two bytes per
+   * character for the rest. Mostly-ASCII documents take about half
+   * the memory for their text, at some cost in widening the characters
+   * again as they are read.
+   * @param compactText boolean to use to set m_compactText.
+   */
+  public void setCompactText(boolean compactText)
+  {
+    m_compactText = compactText;
+  }
+
+  /* Flag indicating whether documents should get room to grow in the DTM ID space */
+  public boolean m_largeDocuments = false;
+
+  /**
+   * Get a flag indicating whether new documents are given DTM IDs with
+   * room to grow contiguously.
+   * @return largeDocuments boolean.
+   */
+  public boolean getLargeDocuments()
+  {
+    return m_largeDocuments;
+  }
+
+  /**
+   * Set a flag indicating whether new documents should be given DTM IDs
+   * with room to grow contiguously. A document of more than
+   * 1<<IDENT_DTM_NODE_BITS nodes is addressed through several DTM IDs;
+   * when those IDs follow one another, node handles and identities are
+   * converted by a single subtraction, and otherwise through a table of
+   * IDs. By default a new document takes the lowest free DTM ID, and the
+   * IDs it needs as it grows are often already taken by the documents
+   * after it. With this flag set, a new document starts after the highest
+   * DTM ID in use instead, so that a large document can keep taking the
+   * IDs that follow its own.
+   * @param largeDocuments boolean to use to set m_largeDocuments.
+   */
+  public void setLargeDocuments(boolean largeDocuments)
+  {
+    m_largeDocuments = largeDocuments;
+  }
+
+  /* Flag indicating whether namespace contexts should be built on demand */
+  public boolean m_lazyNamespaces = false;
+
+  /**
+   * Get a flag indicating whether new documents work out the namespaces
+   * in scope at each element only when they are first asked for.
+   * @return lazyNamespaces boolean.
+   */
+  public boolean getLazyNamespaces()
+  {
+    return m_lazyNamespaces;
+  }
+
+  /**
+   * Set a flag indicating whether new documents should work out the
+   * namespaces in scope at each element only when they are first asked
+   * for. A document records its namespace declarations as nodes either
+   * way, and by default also keeps, for every element which declares
+   * any, a list of all the namespaces in scope there, copied from its
+   * parent's. Most transformations never use the namespace axis, nor
+   * copy elements with their inherited namespaces, so with this flag set
+   * the lists are built from the namespace nodes the first time they are
+   * needed instead.
+   * @param lazyNamespaces boolean to use to set m_lazyNamespaces.
+   */
+  public void setLazyNamespaces(boolean lazyNamespaces)
+  {
+    m_lazyNamespaces = lazyNamespaces;
+  }
+
+  /* Flag indicating whether SAX2DTM2s should share repeated attribute values */
+  public boolean m_valuePooling = false;
+
+  /* Longest attribute value, in characters, that a value pool will share */
+  public int m_valuePoolMaxLength = 32;
+
+  /* Largest number of distinct values a value pool will hold */
+  public int m_valuePoolSize = 4096;
+
+  /**
+   * Get a flag indicating whether SAX2DTM2s share repeated attribute
+   * values.
+   * @return valuePooling boolean.
+   */
+  public boolean getValuePooling()
+  {
+    return m_valuePooling;
+  }
+
+  /**
+   * Set a flag indicating whether SAX2DTM2s should pass the attribute
+   * values they are built with through a DTMValuePool, so that repeated
+   * short values share a single String. The pool is bounded by
+   * setValuePoolMaxLength() and setValuePoolSize(), and is discarded when
+   * the document is complete.
+   * @param valuePooling boolean to use to set m_valuePooling.
+   */
+  public void setValuePooling(boolean valuePooling)
+  {
+    m_valuePooling = valuePooling;
+  }
+
+  /**
+   * Get the length of the longest attribute value, in characters, that a
+   * value pool will share.
+   * @return valuePoolMaxLength int.
+   */
+  public int getValuePoolMaxLength()
+  {
+    return m_valuePoolMaxLength;
+  }
+
+  /**
+   * Set the length of the longest attribute value, in characters, that a
+   * value pool will share. Longer values are always stored as they are.
+   * @param valuePoolMaxLength int to use to set m_valuePoolMaxLength.
+   */
+  public void setValuePoolMaxLength(int valuePoolMaxLength)
+  {
+    m_valuePoolMaxLength = valuePoolMaxLength;
+  }
+
+  /**
+   * Get the largest number of distinct values a value pool will hold.
+   * @return valuePoolSize int.
+   */
+  public int getValuePoolSize()
+  {
+    return m_valuePoolSize;
+  }
+
+  /**
+   * Set the largest number of distinct values a value pool will hold.
+   * Once a pool is full, values not already in it are stored as they are.
+   * @param valuePoolSize int to use to set m_valuePoolSize.
+   */
+  public void setValuePoolSize(int valuePoolSize)
+  {
+    m_valuePoolSize = valuePoolSize;
+  }
   
   /**
    * Get a flag indicating whether the transformation phase should
@@ -343,6 +617,116 @@ public abstract class DTMManager
   public void setSource_location(boolean sourceLocation){
     m_source_location = sourceLocation;
   }
+
+  /** Node storage mode: node arrays are ordinary Java arrays. */
+  public static final int NODE_STORAGE_HEAP = 0;
+
+  /** Node storage mode: node arrays are held in direct ByteBuffers. */
+  public static final int NODE_STORAGE_DIRECT = 1;
+
+  /** Node storage mode: node arrays are memory-mapped from a scratch file. */
+  public static final int NODE_STORAGE_MAPPED = 2;
+
+  /*
+   * Where newly built DTMs should keep their node arrays; one of the
+   * NODE_STORAGE_* values. Small DTMs such as result tree fragments
+   * always stay on the heap.
+   */
+  public int m_node_storage = NODE_STORAGE_HEAP;
+
+  /**
+   * Get the storage mode used for the node arrays of newly built DTMs.
+   * @return one of the NODE_STORAGE_* values.
+   */
+  public int getNodeStorage()
+  {
+    return m_node_storage;
+  }
+
+  /**
+   * Set the storage mode used for the node arrays of newly built DTMs.
+   * Keeping the node arrays of very large documents outside the Java heap
+   * trades a little access speed for a smaller heap and shorter
+   * collections. DTMs which already exist are not affected.
+   * @param nodeStorage one of the NODE_STORAGE_* values.
+   */
+  public void setNodeStorage(int nodeStorage)
+  {
+    m_node_storage = nodeStorage;
+  }
+
+  /*
+   * Projection to apply to documents parsed from a SAX or stream source,
+   * or null to build them completely.
+   */
+  public DTMProjection m_projection = null;
+
+  /**
+   * Get the projection applied to documents parsed from a SAX or stream
+   * source.
+   * @return the projection, or null if documents are built completely.
+   */
+  public DTMProjection getProjection()
+  {
+    return m_projection;
+  }
+
+  /**
+   * Set the projection applied to documents parsed from a SAX or stream
+   * source, so that only the parts of them which the caller will look at
+   * are built. Incremental builds are never projected.
+   * @param projection the projection, or null to build documents completely.
+   */
+  public void setProjection(DTMProjection projection)
+  {
+    m_projection = projection;
+  }
+
+  /*
+   * Budget limiting the heap used by this manager's DTMs, or null for
+   * no limit.
+   */
+  public DTMMemoryBudget m_memoryBudget = null;
+
+  /**
+   * Get the budget limiting the heap used by this manager's DTMs.
+   * @return the DTMMemoryBudget, or null if there is none.
+   */
+  public DTMMemoryBudget getMemoryBudget()
+  {
+    return m_memoryBudget;
+  }
+
+  /**
+   * Set the budget limiting the heap used by this manager's DTMs. The
+   * same budget may be shared by many managers, in which case it limits
+   * their DTMs' total. DTMs which already exist are counted against the
+   * budget but are not otherwise affected.
+   * @param budget The DTMMemoryBudget, or null for no limit.
+   */
+  public void setMemoryBudget(DTMMemoryBudget budget)
+  {
+    if (budget == m_memoryBudget)
+      return;
+
+    if (null != m_memoryBudget)
+      m_memoryBudget.removeManager(this);
+
+    m_memoryBudget = budget;
+
+    if (null != budget)
+      budget.addManager(this);
+  }
+
+  /**
+   * Get an estimate of the heap used by the DTMs this manager holds.
+   * This implementation can't tell, and returns 0.
+   * @return the number of bytes used.
+   */
+  public long getMemoryUsage()
+  {
+    return 0;
+  }
   
 
   // -------------------- private methods --------------------
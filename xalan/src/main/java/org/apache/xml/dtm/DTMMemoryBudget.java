@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.dtm;
+
+import java.lang.ref.WeakReference;
+import java.util.Vector;
+
+/**
+ * A limit on the Java heap used by the DTMs of one or more DTMManagers.
+ * <p>
+ * A budget is given to each DTMManager it should cover with
+ * DTMManager.setMemoryBudget(); giving the same budget to the managers of
+ * many concurrent transformations bounds their documents' total size. As a
+ * DTM is built it checks, every few thousand nodes, whether the managers
+ * sharing its budget together exceed the limit. If they do, the build
+ * moves its node arrays to the budget's spill storage, when it has one,
+ * and carries on if that brings the total back under the limit. Otherwise
+ * the build fails with a DTMException.
+ * <p>
+ * Usage is worked out from each DTM's own estimate of its retained size
+ * (see DTMDefaultBase.getMemoryUsage()), and counts only what is on the
+ * heap; node arrays kept in direct buffers or mapped files are not
+ * charged. Managers are held weakly, so a manager which is no longer used
+ * stops counting against the budget once it is collected, or at once if
+ * its DTMs are released.
+ */
+public class DTMMemoryBudget
+{
+  /** The largest number of heap bytes the covered DTMs may use. */
+  private final long m_limit;
+
+  /** Where a build over budget moves its node arrays; one of
+   * DTMManager.NODE_STORAGE_*. NODE_STORAGE_HEAP means it can't. */
+  private final int m_spillStorage;
+
+  /** WeakReferences to the DTMManagers this budget covers. */
+  private final Vector m_managers = new Vector();
+
+  /**
+   * Create a budget which fails any build that takes its DTMs over the
+   * limit.
+   *
+   * @param limit The largest number of heap bytes the DTMs may use.
+   */
+  public DTMMemoryBudget(long limit)
+  {
+    this(limit, DTMManager.NODE_STORAGE_HEAP);
+  }
+
+  /**
+   * Create a budget which first tries to keep a build that takes its DTMs
+   * over the limit going by moving its node arrays off the heap.
+   *
+   * @param limit The largest number of heap bytes the DTMs may use.
+   * @param spillStorage One of DTMManager.NODE_STORAGE_DIRECT or
+   * NODE_STORAGE_MAPPED; or NODE_STORAGE_HEAP to fail such builds instead.
+   */
+  public DTMMemoryBudget(long limit, int spillStorage)
+  {
+    m_limit = limit;
+    m_spillStorage = spillStorage;
+  }
+
+  /**
+   * @return the largest number of heap bytes the DTMs may use.
+   */
+  public long getLimit()
+  {
+    return m_limit;
+  }
+
+  /**
+   * @return where a build over budget moves its node arrays; one of the
+   * DTMManager.NODE_STORAGE_* values.
+   */
+  public int getSpillStorage()
+  {
+    return m_spillStorage;
+  }
+
+  /**
+   * Start counting a manager's DTMs against this budget. Called by
+   * DTMManager.setMemoryBudget().
+   *
+   * @param mgr The DTMManager.
+   */
+  public synchronized void addManager(DTMManager mgr)
+  {
+    m_managers.addElement(new WeakReference(mgr));
+  }
+
+  /**
+   * Stop counting a manager's DTMs against this budget. Called by
+   * DTMManager.setMemoryBudget().
+   *
+   * @param mgr The DTMManager.
+   */
+  public synchronized void removeManager(DTMManager mgr)
+  {
+    for (int i = m_managers.size() - 1; i >= 0; i--)
+    {
+      Object m = ((WeakReference) m_managers.elementAt(i)).get();
+
+      if (m == mgr || m == null)
+        m_managers.removeElementAt(i);
+    }
+  }
+
+  /**
+   * Get the heap used by the DTMs of all the managers this budget covers.
+   *
+   * @return an estimate of the number of bytes used.
+   */
+  public synchronized long getMemoryUsage()
+  {
+    long total = 0;
+
+    for (int i = m_managers.size() - 1; i >= 0; i--)
+    {
+      DTMManager mgr = (DTMManager) ((WeakReference) m_managers.elementAt(i)).get();
+
+      if (mgr == null)
+        m_managers.removeElementAt(i);
+      else
+        total += mgr.getMemoryUsage();
+    }
+
+    return total;
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.dtm;
+
+import java.util.Hashtable;
+
+/**
+ * Describes which parts of a source document need to be built into a DTM.
+ * A client which knows in advance what it is going to look at, such as a
+ * stylesheet whose location paths have been analyzed, can give one of
+ * these to the DTMManager so that the rest of the document is discarded
+ * while it is parsed.
+ *
+ * Elements are listed by expanded name. A listed element is either kept
+ * with its whole subtree, or kept as a node only, in which case its
+ * children are subject to the projection in turn. Unlisted elements are
+ * dropped along with everything below them, unless
+ * setKeepUnlistedElements(true) has been called, in which case they are
+ * kept as bare nodes so that the descendant axes still find listed
+ * elements beneath them. Attributes and character data of elements which
+ * are kept as nodes are dropped unless requested.
+ */
+public class DTMProjection
+{
+  /** Disposition of an element which is dropped along with its subtree. */
+  public static final int DROP = 0;
+
+  /** Disposition of an element which is kept, but whose children may not be. */
+  public static final int KEEP_NODE = 1;
+
+  /** Disposition of an element which is kept along with its whole subtree. */
+  public static final int KEEP_SUBTREE = 2;
+
+  /** Map from expanded element name to Integer disposition. */
+  private Hashtable m_elements = new Hashtable();
+
+  /** Set of expanded attribute names; the values are unused. */
+  private Hashtable m_attributes = new Hashtable();
+
+  /** True if all attributes of kept elements are kept. */
+  private boolean m_keepAllAttributes = false;
+
+  /** True if text, comments and PIs of kept elements are kept. */
+  private boolean m_keepCharacterData = false;
+
+  /** True if unlisted elements are kept as nodes rather than dropped. */
+  private boolean m_keepUnlistedElements = false;
+
+  /**
+   * Make the key under which a name is stored.
+   *
+   * @param namespace The namespace URI, which may be null or empty.
+   * @param localName The local name.
+   *
+   * @return the name in {namespace}localName form.
+   */
+  private static String getKey(String namespace, String localName)
+  {
+    if (null == namespace || namespace.length() == 0)
+      return localName;
+
+    return "{" + namespace + "}" + localName;
+  }
+
+  /**
+   * Keep elements with the given name. Asking for the subtree of an
+   * element which was previously kept as a node upgrades it, never the
+   * other way around.
+   *
+   * @param namespace The namespace URI, which may be null.
+   * @param localName The local name.
+   * @param subtree true if everything below such an element is to be kept.
+   */
+  public void addElement(String namespace, String localName, boolean subtree)
+  {
+    String key = getKey(namespace, localName);
+
+    if (subtree)
+      m_elements.put(key, new Integer(KEEP_SUBTREE));
+    else if (!m_elements.containsKey(key))
+      m_elements.put(key, new Integer(KEEP_NODE));
+  }
+
+  /**
+   * Keep attributes with the given name on elements which are kept as nodes.
+   *
+   * @param namespace The namespace URI, which may be null.
+   * @param localName The local name.
+   */
+  public void addAttribute(String namespace, String localName)
+  {
+    m_attributes.put(getKey(namespace, localName), Boolean.TRUE);
+  }
+
+  /**
+   * Tell what is to be done with an element.
+   *
+   * @param namespace The element's namespace URI, which may be null.
+   * @param localName The element's local name.
+   *
+   * @return one of DROP, KEEP_NODE or KEEP_SUBTREE.
+   */
+  public int getElementDisposition(String namespace, String localName)
+  {
+    Integer disposition =
+      (Integer) m_elements.get(getKey(namespace, localName));
+
+    if (null != disposition)
+      return disposition.intValue();
+
+    return m_keepUnlistedElements ? KEEP_NODE : DROP;
+  }
+
+  /**
+   * Tell whether an attribute of an element kept as a node is to be kept.
+   *
+   * @param namespace The attribute's namespace URI, which may be null.
+   * @param localName The attribute's local name.
+   *
+   * @return true if the attribute is to be kept.
+   */
+  public boolean isAttributeKept(String namespace, String localName)
+  {
+    return m_keepAllAttributes
+           || m_attributes.containsKey(getKey(namespace, localName));
+  }
+
+  /**
+   * @return true if all attributes of kept elements are kept.
+   */
+  public boolean getKeepAllAttributes()
+  {
+    return m_keepAllAttributes;
+  }
+
+  /**
+   * @param b true if all attributes of kept elements are to be kept.
+   */
+  public void setKeepAllAttributes(boolean b)
+  {
+    m_keepAllAttributes = b;
+  }
+
+  /**
+   * @return true if text, comment and processing instruction children of
+   * elements kept as nodes (and of the document) are kept.
+   */
+  public boolean getKeepCharacterData()
+  {
+    return m_keepCharacterData;
+  }
+
+  /**
+   * @param b true if text, comment and processing instruction children of
+   * elements kept as nodes (and of the document) are to be kept.
+   */
+  public void setKeepCharacterData(boolean b)
+  {
+    m_keepCharacterData = b;
+  }
+
+  /**
+   * @return true if unlisted elements are kept as nodes.
+   */
+  public boolean getKeepUnlistedElements()
+  {
+    return m_keepUnlistedElements;
+  }
+
+  /**
+   * @param b true if unlisted elements are to be kept as nodes, so that
+   * their listed descendants are still reachable.
+   */
+  public void setKeepUnlistedElements(boolean b)
+  {
+    m_keepUnlistedElements = b;
+  }
+}
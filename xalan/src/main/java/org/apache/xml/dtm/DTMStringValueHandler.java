@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.dtm;
+
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Takes in the string-value of a node a piece at a time, straight from
+ * the DTM's own storage, so that it can be measured, compared or hashed
+ * without being copied into a String first.
+ * <p>
+ * visit() sends the string-value of an element, document or text node
+ * through DTM.dispatchCharactersEvents(), which every DTM implements, so
+ * the characters() method receives it as one or more (char[], offset,
+ * length) chunks. The arrays belong to the DTM and must not be kept or
+ * changed. The value of any other kind of node is held as a String
+ * already, and is handed to string() instead.
+ * <p>
+ * Handlers keep state, and aren't thread-safe; reset() one before it is
+ * used for another node.
+ */
+public abstract class DTMStringValueHandler extends DefaultHandler
+{
+
+  /**
+   * Send the string-value of a node to this handler, after resetting it.
+   *
+   * @param dtm The DTM the node belongs to.
+   * @param node The node handle.
+   *
+   * @throws org.xml.sax.SAXException
+   */
+  public void visit(DTM dtm, int node) throws org.xml.sax.SAXException
+  {
+    reset();
+
+    switch (dtm.getNodeType(node))
+    {
+    case DTM.ELEMENT_NODE :
+    case DTM.DOCUMENT_NODE :
+    case DTM.DOCUMENT_FRAGMENT_NODE :
+    case DTM.TEXT_NODE :
+    case DTM.CDATA_SECTION_NODE :
+      dtm.dispatchCharactersEvents(node, this, false);
+      break;
+    case DTM.ATTRIBUTE_NODE :
+    case DTM.NAMESPACE_NODE :
+      String value = dtm.getNodeValue(node);
+
+      // In case this DTM keeps the value elsewhere, fall back on the
+      // string-value.
+      if (null == value)
+        value = dtm.getStringValue(node).toString();
+
+      string(value);
+      break;
+    default :
+      string(dtm.getStringValue(node).toString());
+    }
+  }
+
+  /**
+   * Get ready to take in another string-value.
+   */
+  public abstract void reset();
+
+  /**
+   * Take in the next piece of the string-value.
+   *
+   * @param ch The characters, which must not be kept or changed.
+   * @param start The index of the first character of the piece.
+   * @param length The number of characters in the piece.
+   */
+  public abstract void characters(char ch[], int start, int length);
+
+  /**
+   * Take in a piece of the string-value held as a String. By default
+   * this passes the String's characters to characters().
+   *
+   * @param s The piece.
+   */
+  public void string(String s)
+  {
+    characters(s.toCharArray(), 0, s.length());
+  }
+
+  /**
+   * Measures the length of a string-value.
+   */
+  public static final class Length extends DTMStringValueHandler
+  {
+    /** The number of characters taken in so far. */
+    private int m_length = 0;
+
+    public void reset()
+    {
+      m_length = 0;
+    }
+
+    public void characters(char ch[], int start, int length)
+    {
+      m_length += length;
+    }
+
+    public void string(String s)
+    {
+      m_length += s.length();
+    }
+
+    /**
+     * @return the number of characters in the string-value.
+     */
+    public int getLength()
+    {
+      return m_length;
+    }
+  }
+
+  /**
+   * Compares a string-value with a given String.
+   */
+  public static final class Equals extends DTMStringValueHandler
+  {
+    /** The String compared with. */
+    private final String m_target;
+
+    /** The number of characters taken in and matched so far. */
+    private int m_pos = 0;
+
+    /** True once a character has failed to match. */
+    private boolean m_mismatch = false;
+
+    /**
+     * Create a handler that compares string-values with a String.
+     *
+     * @param target The String.
+     */
+    public Equals(String target)
+    {
+      m_target = target;
+    }
+
+    public void reset()
+    {
+      m_pos = 0;
+      m_mismatch = false;
+    }
+
+    public void characters(char ch[], int start, int length)
+    {
+      if (m_mismatch)
+        return;
+
+      String target = m_target;
+      int pos = m_pos;
+
+      if (length > target.length() - pos)
+      {
+        m_mismatch = true;
+        return;
+      }
+
+      for (int i = 0; i < length; i++)
+      {
+        if (ch[start + i] != target.charAt(pos + i))
+        {
+          m_mismatch = true;
+          return;
+        }
+      }
+
+      m_pos = pos + length;
+    }
+
+    public void string(String s)
+    {
+      if (m_mismatch)
+        return;
+
+      int length = s.length();
+
+      if (length > m_target.length() - m_pos
+          || !m_target.regionMatches(m_pos, s, 0, length))
+        m_mismatch = true;
+      else
+        m_pos += length;
+    }
+
+    /**
+     * @return true if the string-value equals the String.
+     */
+    public boolean isEqual()
+    {
+      return !m_mismatch && m_pos == m_target.length();
+    }
+  }
+
+  /**
+   * Computes the hash code of a string-value, the same as
+   * String.hashCode() would, along with its length.
+   */
+  public static final class Hash extends DTMStringValueHandler
+  {
+    /** The hash code of the characters taken in so far. */
+    private int m_hash = 0;
+
+    /** The number of characters taken in so far. */
+    private int m_length = 0;
+
+    public void reset()
+    {
+      m_hash = 0;
+      m_length = 0;
+    }
+
+    public void characters(char ch[], int start, int length)
+    {
+      int hash = m_hash;
+      int end = start + length;
+
+      for (int i = start; i < end; i++)
+        hash = 31 * hash + ch[i];
+
+      m_hash = hash;
+      m_length += length;
+    }
+
+    public void string(String s)
+    {
+      int hash = m_hash;
+      int length = s.length();
+
+      for (int i = 0; i < length; i++)
+        hash = 31 * hash + s.charAt(i);
+
+      m_hash = hash;
+      m_length += length;
+    }
+
+    /**
+     * @return the hash code of the string-value, equal to that of the
+     * same characters in a String.
+     */
+    public int getHash()
+    {
+      return m_hash;
+    }
+
+    /**
+     * @return the number of characters in the string-value.
+     */
+    public int getLength()
+    {
+      return m_length;
+    }
+  }
+}
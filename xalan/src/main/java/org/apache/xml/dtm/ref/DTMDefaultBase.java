@@ -22,8 +22,13 @@ package org.apache.xml.dtm.ref;
 
 import org.apache.xml.dtm.*;
 import org.apache.xml.utils.SuballocatedIntVector;
+import org.apache.xml.utils.DirectIntVector;
+import org.apache.xml.utils.MappedIntVector;
 import org.apache.xml.utils.BoolStack;
+import org.apache.xml.utils.IntVector;
+import org.apache.xml.utils.XMLCharacterRecognizer;
 
+import java.util.Arrays;
 import java.util.Vector;
 
 import javax.xml.transform.Source;
@@ -41,7 +46,7 @@ import java.io.*; // for dumpDTM
  * It sets up structures for navigation and type, while leaving data
  * management and construction to the derived classes.
  */
-public abstract class DTMDefaultBase implements DTM
+public abstract class DTMDefaultBase implements DTM, Cloneable
 {
     static final boolean JJK_DEBUG=false;
 
@@ -69,6 +74,46 @@ public abstract class DTMDefaultBase implements DTM
   /** Previous sibling values, one array element for each node. */
   protected SuballocatedIntVector m_prevsib;
 
+  /** Where the node arrays are stored; one of DTMManager.NODE_STORAGE_*. */
+  protected int m_nodeStorage = DTMManager.NODE_STORAGE_HEAP;
+
+  /** true if the node arrays may be moved off the heap by spillNodeColumns(). */
+  private boolean m_canSpill = false;
+
+  /** Block size the node arrays were created with. */
+  private int m_columnBlocksize;
+
+  /** Number of blocks the node arrays were created with. */
+  private int m_columnNumblocks;
+
+  /**
+   * The budget this DTM is checked against while it is built, or null.
+   * @see #checkMemoryBudget()
+   */
+  protected DTMMemoryBudget m_memoryBudget = null;
+
+  /** The budget is checked each time this many nodes have been added. */
+  protected static final int MEMORY_CHECK_INTERVAL = 4096;
+
+  /**
+   * true if this DTM is a read-only view of a DTM built elsewhere, whose
+   * storage it shares.
+   * @see #newView(DTMManager, int)
+   */
+  protected boolean m_isView = false;
+
+  /** Part of a DTM's memory: node arrays and element indexes. */
+  public static final int MEMORY_NODE_ARRAYS = 0;
+
+  /** Part of a DTM's memory: the characters of text and values. */
+  public static final int MEMORY_CHARACTERS = 1;
+
+  /** Part of a DTM's memory: the expanded-name table. */
+  public static final int MEMORY_NAMES = 2;
+
+  /** Part of a DTM's memory: the ID table. */
+  public static final int MEMORY_IDS = 3;
+
   /** Previous sibling values, one array element for each node. */
   protected SuballocatedIntVector m_parent;
 
@@ -79,6 +124,15 @@ public abstract class DTMDefaultBase implements DTM
    * namespaceDeclSets were defined */
   protected SuballocatedIntVector m_namespaceDeclSetElements = null;
 
+  /** True if the namespace declaration sets are built on demand, the
+   * first time a node's namespaces in scope are asked for, rather than
+   * as the namespace nodes are added. */
+  protected boolean m_lazyNamespaces = false;
+
+  /** When m_lazyNamespaces is set, the number of nodes whose namespace
+   * declarations have been added to the declaration sets. */
+  protected int m_namespaceScanned = 0;
+
   /**
    * These hold indexes to elements based on namespace and local name.
    * The base lookup is the the namespace.  The second lookup is the local
@@ -121,6 +175,15 @@ public abstract class DTMDefaultBase implements DTM
    * range of the first that was assigned to us, we may add others. */
   protected SuballocatedIntVector m_dtmIdent;
 
+  /** The node handle of node identity 0, the first entry of m_dtmIdent.
+   * See updateHandleRange(). */
+  protected int m_handleBase = NULL;
+
+  /** The number of node identities, from 0, whose DTM IDs follow one
+   * another, so that their handles are m_handleBase plus the identity.
+   * See updateHandleRange(). */
+  protected int m_contiguousNodes = 0;
+
   /** The mask for the identity.
       %REVIEW% Should this really be set to the _DEFAULT? What if
       a particular DTM wanted to use another value? */
@@ -207,30 +270,49 @@ public abstract class DTMDefaultBase implements DTM
       m_dtmIdent= new SuballocatedIntVector(32);
     }
     
-    m_exptype = new SuballocatedIntVector(blocksize, numblocks);
-    m_firstch = new SuballocatedIntVector(blocksize, numblocks);
-    m_nextsib = new SuballocatedIntVector(blocksize, numblocks);
-    m_parent  = new SuballocatedIntVector(blocksize, numblocks);
+    // Small DTMs (RTFs, mostly) aren't worth moving off the heap.
+    if (blocksize > 64 && null != mgr)
+    {
+      m_nodeStorage = mgr.getNodeStorage();
+      m_canSpill = true;
+    }
+
+    m_columnBlocksize = blocksize;
+    m_columnNumblocks = numblocks;
+
+    m_exptype = createNodeColumn(blocksize, numblocks);
+    m_firstch = createNodeColumn(blocksize, numblocks);
+    m_nextsib = createNodeColumn(blocksize, numblocks);
+    m_parent  = createNodeColumn(blocksize, numblocks);
     
     // Only create the m_prevsib array if the usePrevsib flag is true.
     // Some DTM implementations (e.g. SAXImpl) do not need this array.
     // We can save the time to build it in those cases.
     if (usePrevsib)
-      m_prevsib = new SuballocatedIntVector(blocksize, numblocks);
+      m_prevsib = createNodeColumn(blocksize, numblocks);
 
     m_mgr = mgr;
     if(mgr instanceof DTMManagerDefault)
       m_mgrDefault=(DTMManagerDefault)mgr;
+    if (null != mgr)
+      m_memoryBudget = mgr.getMemoryBudget();
     
     m_documentBaseURI = (null != source) ? source.getSystemId() : null;
     m_dtmIdent.setElementAt(dtmIdentity,0);
+    updateHandleRange();
     m_wsfilter = whiteSpaceFilter;
     m_xstrf = xstringfactory;
     m_indexing = doIndexing;
 
     if (doIndexing)
     {
-      m_expandedNameTable = new ExpandedNameTable();
+      // Indexed documents get a table of their own, unless the manager
+      // shares one (see DTMManagerDefault.setSharedNameTable()).
+      if (!newNameTable && null != m_mgrDefault)
+        m_expandedNameTable = m_mgrDefault.getSharedNameTable();
+
+      if (null == m_expandedNameTable)
+        m_expandedNameTable = new ExpandedNameTable();
     }
     else
     {
@@ -247,6 +329,233 @@ public abstract class DTMDefaultBase implements DTM
     }
   }
 
+  /**
+   * Create one of the per-node arrays, using the storage mode this DTM
+   * was built with (see DTMManager.setNodeStorage()). Off-heap columns
+   * return null from getMap0() and getMap().
+   *
+   * @param blocksize Size of block to allocate
+   * @param numblocks Number of blocks to allocate
+   *
+   * @return a new, empty column.
+   */
+  protected SuballocatedIntVector createNodeColumn(int blocksize, int numblocks)
+  {
+    switch (m_nodeStorage)
+    {
+    case DTMManager.NODE_STORAGE_DIRECT :
+      return new DirectIntVector(blocksize, numblocks);
+    case DTMManager.NODE_STORAGE_MAPPED :
+      return new MappedIntVector(blocksize, numblocks);
+    default :
+      return new SuballocatedIntVector(blocksize, numblocks);
+    }
+  }
+
+  /**
+   * Release the off-heap storage, if any, held by a column created by
+   * createNodeColumn().
+   *
+   * @param column The column, which may be null.
+   */
+  protected static void releaseNodeColumn(SuballocatedIntVector column)
+  {
+    if (column instanceof DirectIntVector)
+      ((DirectIntVector) column).release();
+  }
+
+  /**
+   * Copy a column into a new one created by createNodeColumn(), for
+   * spillNodeColumns().
+   *
+   * @param column The column, which may be null.
+   *
+   * @return the copy, or null if column was null.
+   */
+  protected SuballocatedIntVector copyNodeColumn(SuballocatedIntVector column)
+  {
+    if (null == column)
+      return null;
+
+    SuballocatedIntVector copy =
+      createNodeColumn(m_columnBlocksize, m_columnNumblocks);
+    int n = column.size();
+
+    for (int i = 0; i < n; i++)
+      copy.addElement(column.elementAt(i));
+
+    return copy;
+  }
+
+  /**
+   * Move the node arrays to a different kind of storage, part way through
+   * the build. Subclasses which keep more columns, or cache the arrays
+   * inside them, must override this to deal with those too.
+   *
+   * @param nodeStorage One of the DTMManager.NODE_STORAGE_* values.
+   */
+  protected void spillNodeColumns(int nodeStorage)
+  {
+    m_nodeStorage = nodeStorage;
+
+    m_exptype = copyNodeColumn(m_exptype);
+    m_firstch = copyNodeColumn(m_firstch);
+    m_nextsib = copyNodeColumn(m_nextsib);
+    m_prevsib = copyNodeColumn(m_prevsib);
+    m_parent = copyNodeColumn(m_parent);
+  }
+
+  /**
+   * Check that the DTMs sharing this one's memory budget still fit in it.
+   * Builders call this as the DTM grows, every MEMORY_CHECK_INTERVAL
+   * nodes. If the budget has been exceeded, the node arrays are moved to
+   * the budget's spill storage if it has one and they're still on the
+   * heap; if that isn't possible, or doesn't help enough, the build is
+   * abandoned.
+   *
+   * @throws DTMException if the budget has been exceeded.
+   */
+  protected void checkMemoryBudget()
+  {
+    DTMMemoryBudget budget = m_memoryBudget;
+
+    if (null == budget)
+      return;
+
+    long used = budget.getMemoryUsage();
+
+    if (used <= budget.getLimit())
+      return;
+
+    if (m_canSpill
+        && DTMManager.NODE_STORAGE_HEAP == m_nodeStorage
+        && DTMManager.NODE_STORAGE_HEAP != budget.getSpillStorage())
+    {
+      spillNodeColumns(budget.getSpillStorage());
+
+      used = budget.getMemoryUsage();
+
+      if (used <= budget.getLimit())
+        return;
+    }
+
+    throw new DTMException(XMLMessages.createXMLMessage(
+      XMLErrorResources.ER_DTM_MEMORY_BUDGET_EXCEEDED,
+      new Object[]{ Long.toString(used), Long.toString(budget.getLimit()) }));
+  }
+
+  /**
+   * Get an estimate of the memory retained by one part of this DTM. The
+   * estimates are of the storage held for the document's content; the
+   * small, fixed overhead of the DTM object itself is not counted.
+   * Subclasses add the parts they keep.
+   *
+   * @param part One of MEMORY_NODE_ARRAYS, MEMORY_CHARACTERS,
+   * MEMORY_NAMES or MEMORY_IDS.
+   *
+   * @return the estimated size in bytes.
+   */
+  public long getMemoryUsage(int part)
+  {
+    switch (part)
+    {
+    case MEMORY_NODE_ARRAYS :
+      return getNodeColumnsSize() + getElementIndexesSize();
+    case MEMORY_NAMES :
+      ExpandedNameTable names = m_expandedNameTable;
+      return (null != names) ? names.getMemoryUsage() : 0;
+    default :
+      return 0;
+    }
+  }
+
+  /**
+   * Get an estimate of the memory retained by this DTM, wherever it is
+   * kept.
+   *
+   * @return the estimated size in bytes.
+   */
+  public long getMemoryUsage()
+  {
+    return getMemoryUsage(MEMORY_NODE_ARRAYS)
+           + getMemoryUsage(MEMORY_CHARACTERS)
+           + getMemoryUsage(MEMORY_NAMES)
+           + getMemoryUsage(MEMORY_IDS);
+  }
+
+  /**
+   * Get an estimate of the Java heap retained by this DTM. This is
+   * getMemoryUsage() less any node arrays kept off the heap.
+   *
+   * @return the estimated size in bytes.
+   */
+  public long getHeapMemoryUsage()
+  {
+    // A view's storage is charged to the DTM it views.
+    if (m_isView)
+      return 0;
+
+    long used = getMemoryUsage();
+
+    if (DTMManager.NODE_STORAGE_HEAP != m_nodeStorage)
+      used -= getNodeColumnsSize();
+
+    return used;
+  }
+
+  /**
+   * Get the size of the columns created by createNodeColumn(), which are
+   * kept wherever m_nodeStorage says. Subclasses which create more
+   * columns add them in.
+   *
+   * @return the size in bytes.
+   */
+  protected long getNodeColumnsSize()
+  {
+    return columnSize(m_exptype) + columnSize(m_firstch)
+           + columnSize(m_nextsib) + columnSize(m_prevsib)
+           + columnSize(m_parent);
+  }
+
+  /**
+   * @param column A SuballocatedIntVector, which may be null.
+   * @return the size of the column's content in bytes.
+   */
+  protected static long columnSize(SuballocatedIntVector column)
+  {
+    return (null == column) ? 0 : 4L * column.size();
+  }
+
+  /**
+   * @return the size of the element indexes in bytes.
+   */
+  private long getElementIndexesSize()
+  {
+    int[][][] indexes = m_elemIndexes;
+    long size = 0;
+
+    if (null == indexes)
+      return 0;
+
+    for (int i = 0; i < indexes.length; i++)
+    {
+      int[][] byLocalName = indexes[i];
+
+      if (null == byLocalName)
+        continue;
+
+      size += 8L * byLocalName.length;
+
+      for (int j = 0; j < byLocalName.length; j++)
+      {
+        if (null != byLocalName[j])
+          size += 4L * byLocalName[j].length;
+      }
+    }
+
+    return size;
+  }
+
   /**
    * Ensure that the size of the element indexes can hold the information.
    *
@@ -885,6 +1194,41 @@ public abstract class DTMDefaultBase implements DTM
     return firstChild != DTM.NULL;
   }
 	
+  /**
+   * Recompute m_handleBase and m_contiguousNodes from m_dtmIdent. This
+   * must be called whenever m_dtmIdent changes.
+   * <p>
+   * A document of more than 1<<IDENT_DTM_NODE_BITS nodes has several DTM
+   * IDs. Where they follow one another, a node's handle is simply the
+   * handle of node 0 plus its identity, and makeNodeHandle() and
+   * makeNodeIdentity() convert in the range by a single addition or
+   * subtraction instead of going through m_dtmIdent or the manager's
+   * tables. The range is capped so that it stays a positive int.
+   */
+  protected void updateHandleRange()
+  {
+    int numDTMs = m_dtmIdent.size();
+
+    if (0 == numDTMs)
+    {
+      m_handleBase = NULL;
+      m_contiguousNodes = 0;
+      return;
+    }
+
+    int base = m_dtmIdent.elementAt(0);
+    int maxDTMs = (Integer.MAX_VALUE >>> DTMManager.IDENT_DTM_NODE_BITS);
+    int i = 1;
+
+    while (i < numDTMs && i < maxDTMs
+           && m_dtmIdent.elementAt(i)
+              == base + (i << DTMManager.IDENT_DTM_NODE_BITS))
+      i++;
+
+    m_handleBase = base;
+    m_contiguousNodes = i << DTMManager.IDENT_DTM_NODE_BITS;
+  }
+
   /** Given a node identity, return a node handle. If extended addressing
    * has been used (multiple DTM IDs), we need to map the high bits of the
    * identity into the proper DTM ID.
@@ -906,6 +1250,11 @@ public abstract class DTMDefaultBase implements DTM
     if(JJK_DEBUG && nodeIdentity>DTMManager.IDENT_NODE_DEFAULT)
       System.err.println("GONK! (only useful in limited situations)");
 
+    // Within the contiguous range (the whole document, unless another
+    // DTM took one of the IDs it needed to grow) no table is needed.
+    if(nodeIdentity < m_contiguousNodes)
+      return m_handleBase + nodeIdentity;
+
     return m_dtmIdent.elementAt(nodeIdentity >>> DTMManager.IDENT_DTM_NODE_BITS)
       + (nodeIdentity & DTMManager.IDENT_NODE_DEFAULT) ;											
   }
@@ -930,6 +1279,13 @@ public abstract class DTMDefaultBase implements DTM
   {
     if(NULL==nodeHandle) return NULL;
 
+    // The handles of the contiguous range are ours by construction. The
+    // difference wraps, so this is a range check on the whole int.
+    int contiguousIdentity = nodeHandle - m_handleBase;
+
+    if(contiguousIdentity >= 0 && contiguousIdentity < m_contiguousNodes)
+      return contiguousIdentity;
+
     if(m_mgrDefault!=null)
     {
       // Optimization: use the DTMManagerDefault's fast DTMID-to-offsets
@@ -1329,6 +1685,27 @@ public abstract class DTMDefaultBase implements DTM
     nsList.addElement(makeNodeHandle(namespaceNodeIndex));
   }
 
+  /**
+   * Bring the namespace declaration sets of a DTM built with
+   * m_lazyNamespaces up to date, by declaring the namespace nodes added
+   * since the last time, in document order, just as they would have
+   * been declared while they were being added.
+   */
+  protected void declareLazyNamespaces()
+  {
+    int start = m_namespaceScanned;
+    int end = m_size;
+
+    // Set first, since declaring looks up the parent's context.
+    m_namespaceScanned = end;
+
+    for (int i = start; i < end; i++)
+    {
+      if (_type(i) == DTM.NAMESPACE_NODE)
+        declareNamespaceInContext(_parent(i), i);
+    }
+  }
+
   /** Retrieve list of namespace declaration locations
      * active at this node. List is an SuballocatedIntVector whose
      * entries are the namespace node HANDLES declared at that ID.
@@ -1338,6 +1715,9 @@ public abstract class DTMDefaultBase implements DTM
      * */
   protected SuballocatedIntVector findNamespaceContext(int elementNodeIndex)
   {
+    if (m_lazyNamespaces && m_namespaceScanned < m_size)
+      declareLazyNamespaces();
+
     if (null!=m_namespaceDeclSetElements)
       {
         // %OPT% Is binary-search really saving us a lot versus linear?
@@ -1668,6 +2048,17 @@ public abstract class DTMDefaultBase implements DTM
     return null;
   }
 
+  /**
+   * Get the table this DTM's expanded-name IDs come from. DTMs with the
+   * same table give the same ID to the same expanded name.
+   *
+   * @return the ExpandedNameTable.
+   */
+  public ExpandedNameTable getExpandedNameTable()
+  {
+    return m_expandedNameTable;
+  }
+
   /**
    * Given a node handle, return an ID that represents the node's expanded name.
    *
@@ -1706,6 +2097,15 @@ public abstract class DTMDefaultBase implements DTM
 
     ExpandedNameTable ent = m_expandedNameTable;
 
+    // Views of one document share its table, perhaps across threads.
+    if (m_isView)
+    {
+      synchronized (ent)
+      {
+        return ent.getExpandedTypeID(namespace, localName, type);
+      }
+    }
+
     return ent.getExpandedTypeID(namespace, localName, type);
   }
 
@@ -2045,6 +2445,86 @@ public abstract class DTMDefaultBase implements DTM
    */
   public abstract int getElementById(String elementId);
 
+  /**
+   * Get the elements whose IDs are given by a whitespace separated list,
+   * as the XPath id() function does, in document order and each only
+   * once. This saves the caller from looking the IDs up one by one and
+   * sorting the results.
+   *
+   * @param idrefs A whitespace separated list of IDs; an ID may be given
+   * more than once.
+   * @param handles An IntVector the handles of the elements found are
+   * appended to, in document order.
+   */
+  public void getElementsById(String idrefs, IntVector handles)
+  {
+    int[] found = null;
+    int nfound = 0;
+    int length = idrefs.length();
+    int end = 0;
+
+    while (end < length)
+    {
+      int start = end;
+
+      while (start < length
+             && XMLCharacterRecognizer.isWhiteSpace(idrefs.charAt(start)))
+        start++;
+
+      if (start == length)
+        break;
+
+      end = start + 1;
+
+      while (end < length
+             && !XMLCharacterRecognizer.isWhiteSpace(idrefs.charAt(end)))
+        end++;
+
+      int identity = getElementIdentityById(idrefs, start, end);
+
+      if (DTM.NULL != identity)
+      {
+        if (null == found)
+          found = new int[8];
+        else if (nfound == found.length)
+        {
+          int[] newFound = new int[nfound << 1];
+
+          System.arraycopy(found, 0, newFound, 0, nfound);
+          found = newFound;
+        }
+
+        found[nfound++] = identity;
+      }
+    }
+
+    if (nfound > 1)
+      Arrays.sort(found, 0, nfound);
+
+    for (int i = 0; i < nfound; i++)
+    {
+      if (i == 0 || found[i] != found[i - 1])
+        handles.addElement(makeNodeHandle(found[i]));
+    }
+  }
+
+  /**
+   * Look up one ID of a list, for getElementsById(). This calls
+   * getElementById(); subclasses with their own ID table may look the ID
+   * up in place instead.
+   *
+   * @param idrefs A whitespace separated list of IDs.
+   * @param start Index of the first character of the ID.
+   * @param end Index after the last character of the ID.
+   * @return The node identity of the matching element, or DTM.NULL.
+   */
+  protected int getElementIdentityById(String idrefs, int start, int end)
+  {
+    int handle = getElementById(idrefs.substring(start, end));
+
+    return (DTM.NULL == handle) ? DTM.NULL : makeNodeIdentity(handle);
+  }
+
   /**
    * The getUnparsedEntityURI function returns the URI of the unparsed
    * entity with the specified name in the same document as the context
@@ -2324,12 +2804,22 @@ public abstract class DTMDefaultBase implements DTM
    }
 
   /**
-   * A dummy routine to satisify the abstract interface. If the DTM
-   * implememtation that extends the default base requires notification
-   * when the document is being released, they can override this method
+   * Notification that the document is being released. Frees any
+   * off-heap node storage; DTM implementations that extend the default
+   * base and need more cleanup can override this method, but should
+   * call it.
    */
    public void documentRelease()
    {
+     // The storage belongs to the DTM being viewed.
+     if (m_isView)
+       return;
+
+     releaseNodeColumn(m_exptype);
+     releaseNodeColumn(m_firstch);
+     releaseNodeColumn(m_nextsib);
+     releaseNodeColumn(m_parent);
+     releaseNodeColumn(m_prevsib);
    }
 
    /**
@@ -2357,6 +2847,102 @@ public abstract class DTMDefaultBase implements DTM
 		 return m_mgr;
 	 }
 
+   /**
+    * Create a read-only view of this DTM, and register it with another
+    * DTMManager. The view shares this DTM's storage, but has DTM IDs of
+    * the new manager's and makes node handles of its own, so the same
+    * built document may be used by many managers, and many threads, at
+    * once. This DTM must be completely built, and must not be changed
+    * while views of it are in use.
+    *
+    * @param mgr The DTMManager the view will belong to.
+    *
+    * @return the view.
+    */
+   public DTMDefaultBase newView(DTMManagerDefault mgr)
+   {
+     DTMDefaultBase view;
+
+     try
+     {
+       view = (DTMDefaultBase) clone();
+     }
+     catch (CloneNotSupportedException cnse)
+     {
+       throw new DTMException(cnse);
+     }
+
+     view.m_isView = true;
+     view.m_mgr = mgr;
+     view.m_mgrDefault = mgr;
+     view.m_memoryBudget = null;
+
+     // These caches are filled on demand, so can't be shared.
+     view.m_traversers = null;
+     view.m_namespaceLists = null;
+
+     // Register the view under as many IDs as this DTM has.
+     int numDTMs = m_dtmIdent.size();
+     int nodeIndex = 0;
+
+     view.m_dtmIdent = new SuballocatedIntVector(32);
+     for (int i = 0; i < numDTMs; i++)
+     {
+       int dtmId = (0 == i) ? mgr.getDocumentDTMID()
+                   : mgr.getNextDTMID(view.m_dtmIdent.elementAt(i - 1)
+                                      >>> DTMManager.IDENT_DTM_NODE_BITS);
+
+       view.m_dtmIdent.addElement(dtmId << DTMManager.IDENT_DTM_NODE_BITS);
+       mgr.addDTM(view, dtmId, nodeIndex);
+       nodeIndex += (1 << DTMManager.IDENT_DTM_NODE_BITS);
+     }
+     view.updateHandleRange();
+
+     // A view builds its lazy namespace declaration sets for itself, so
+     // mustn't add to this DTM's list of elements.
+     if (m_lazyNamespaces && null != m_namespaceDeclSetElements)
+     {
+       int nelems = m_namespaceDeclSetElements.size();
+
+       view.m_namespaceDeclSetElements = new SuballocatedIntVector(32);
+       for (int i = 0; i < nelems; i++)
+         view.m_namespaceDeclSetElements.addElement(
+           m_namespaceDeclSetElements.elementAt(i));
+     }
+
+     // The namespace declaration sets hold node handles, which depend on
+     // the DTM ID; make the view its own.
+     if (null != m_namespaceDeclSets)
+     {
+       int nsets = m_namespaceDeclSets.size();
+
+       view.m_namespaceDeclSets = new Vector(nsets);
+       for (int i = 0; i < nsets; i++)
+       {
+         SuballocatedIntVector nsList =
+           (SuballocatedIntVector) m_namespaceDeclSets.elementAt(i);
+         int nns = nsList.size();
+         SuballocatedIntVector viewList = new SuballocatedIntVector(
+           Math.max(Math.min(nns, 2048), 16));
+
+         for (int j = 0; j < nns; j++)
+           viewList.addElement(
+             view.makeNodeHandle(makeNodeIdentity(nsList.elementAt(j))));
+         view.m_namespaceDeclSets.addElement(viewList);
+       }
+     }
+
+     return view;
+   }
+
+   /**
+    * @return true if this DTM is a read-only view made by newView().
+    */
+   public boolean isView()
+   {
+     return m_isView;
+   }
+
 	 /** Query which DTMIDs this DTM is currently using within the DTMManager.
 	  * 
 	  * %REVEW% Should this become part of the base DTM API?
@@ -0,0 +1,309 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+package org.apache.xml.dtm.ref;
+
+import org.apache.xml.dtm.DTM;
+
+/** <p>DTMIdIndex maps the values of a document's ID attributes to the
+ * node identities of their elements. It replaces a Hashtable of String to
+ * Integer, which costs an entry object, a boxed Integer and, unless the
+ * caller takes care, a String of its own for every ID.</p>
+ *
+ * <p>The index holds no Strings. Each ID is recorded as an int key chosen
+ * by the DTM that owns the index -- typically the index of the attribute
+ * value in the DTM's own value storage -- and getKey() turns a key back
+ * into the ID's characters when a lookup needs to compare them. Entries
+ * are kept in three parallel int arrays, in the order they were added,
+ * and found through an open-addressed table of entry numbers probed
+ * linearly. The String hash code of each ID is kept alongside it, so a
+ * lookup only asks for the characters of an ID whose hash matches.</p>
+ *
+ * <p>As with the Hashtable it replaces, adding an ID which is already in
+ * the index replaces its node.</p>
+ *
+ * <p>Threadsafety is not guaranteed while the index is being added to;
+ * once built it may be read by any number of threads.</p>
+ * */
+public abstract class DTMIdIndex
+{
+  /** Initial number of entries. */
+  private static final int INITIAL_SIZE = 32;
+
+  /** Keys of the entries, as given to put(). */
+  private int[] m_keys = new int[INITIAL_SIZE];
+
+  /** Node identities of the entries. */
+  private int[] m_nodes = new int[INITIAL_SIZE];
+
+  /** String hash codes of the entries' IDs. */
+  private int[] m_hashes = new int[INITIAL_SIZE];
+
+  /** Number of entries. */
+  private int m_size = 0;
+
+  /** Hash table of entry numbers plus one; 0 marks an empty slot. Its
+   * length is a power of two, at least twice the number of entries. */
+  private int[] m_slots = new int[INITIAL_SIZE * 2];
+
+  /**
+   * Get the characters of the ID an entry was added with.
+   *
+   * @param key The key given to put().
+   * @return the ID.
+   */
+  protected abstract String getKey(int key);
+
+  /**
+   * Associate an ID with an element, replacing any element it was
+   * associated with before.
+   *
+   * @param key The key of the ID, which getKey() will resolve.
+   * @param node The node identity of the element.
+   */
+  public void put(int key, int node)
+  {
+    String id = getKey(key);
+    int hash = id.hashCode();
+    int mask = m_slots.length - 1;
+    int slot = hash & mask;
+    int entry;
+
+    while (0 != (entry = m_slots[slot]))
+    {
+      if (m_hashes[--entry] == hash && getKey(m_keys[entry]).equals(id))
+      {
+        // Keep the first key; it stays valid if setSize() is used.
+        m_nodes[entry] = node;
+        return;
+      }
+
+      slot = (slot + 1) & mask;
+    }
+
+    if (m_size == m_keys.length)
+    {
+      int newSize = m_size << 1;
+
+      m_keys = grow(m_keys, newSize);
+      m_nodes = grow(m_nodes, newSize);
+      m_hashes = grow(m_hashes, newSize);
+    }
+
+    m_keys[m_size] = key;
+    m_nodes[m_size] = node;
+    m_hashes[m_size] = hash;
+    m_size++;
+
+    if (m_size << 1 > m_slots.length)
+      rehash(m_slots.length << 1);
+    else
+      m_slots[slot] = m_size;
+  }
+
+  /**
+   * Get the element with a given ID.
+   *
+   * @param id The ID.
+   * @return the node identity of the element, or DTM.NULL if there is
+   * none.
+   */
+  public int get(String id)
+  {
+    return get(id, 0, id.length());
+  }
+
+  /**
+   * Get the element whose ID is a part of a String, without making a
+   * String of the part.
+   *
+   * @param s A String containing the ID.
+   * @param start Index of the first character of the ID.
+   * @param end Index after the last character of the ID.
+   * @return the node identity of the element, or DTM.NULL if there is
+   * none.
+   */
+  public int get(String s, int start, int end)
+  {
+    // Same as String.hashCode() of the part.
+    int hash = 0;
+
+    for (int i = start; i < end; i++)
+      hash = 31 * hash + s.charAt(i);
+
+    int length = end - start;
+    int[] slots = m_slots;
+    int mask = slots.length - 1;
+    int slot = hash & mask;
+    int entry;
+
+    while (0 != (entry = slots[slot]))
+    {
+      if (m_hashes[--entry] == hash)
+      {
+        String id = getKey(m_keys[entry]);
+
+        if (id.length() == length && id.regionMatches(0, s, start, length))
+          return m_nodes[entry];
+      }
+
+      slot = (slot + 1) & mask;
+    }
+
+    return DTM.NULL;
+  }
+
+  /**
+   * @return the number of IDs in the index.
+   */
+  public int size()
+  {
+    return m_size;
+  }
+
+  /**
+   * Discard the IDs most recently added, so that the index holds only
+   * the first given number. An ID whose element was replaced by a later
+   * put() keeps the later element. This costs time in proportion to the
+   * number of IDs discarded.
+   *
+   * @param size The number of IDs to keep.
+   */
+  public void setSize(int size)
+  {
+    int[] slots = m_slots;
+    int mask = slots.length - 1;
+
+    while (m_size > size)
+    {
+      int entry = --m_size;
+      int slot = m_hashes[entry] & mask;
+
+      while (slots[slot] != entry + 1)
+        slot = (slot + 1) & mask;
+
+      // Close the gap by moving back any later entry of the same probe
+      // run which may sit in the freed slot.
+      int hole = slot;
+
+      slot = (slot + 1) & mask;
+
+      while (0 != slots[slot])
+      {
+        int home = m_hashes[slots[slot] - 1] & mask;
+
+        if (((slot - home) & mask) >= ((slot - hole) & mask))
+        {
+          slots[hole] = slots[slot];
+          hole = slot;
+        }
+
+        slot = (slot + 1) & mask;
+      }
+
+      slots[hole] = 0;
+    }
+  }
+
+  /**
+   * Get the ID of an entry, for walking the index in the order the IDs
+   * were first added.
+   *
+   * @param i The entry number, from 0 to size() - 1.
+   * @return the ID.
+   */
+  public String getId(int i)
+  {
+    return getKey(m_keys[i]);
+  }
+
+  /**
+   * Get the key of an entry, as given to put().
+   *
+   * @param i The entry number, from 0 to size() - 1.
+   * @return the key.
+   */
+  public int getKeyOf(int i)
+  {
+    return m_keys[i];
+  }
+
+  /**
+   * Get the element of an entry.
+   *
+   * @param i The entry number, from 0 to size() - 1.
+   * @return the node identity of the element.
+   */
+  public int getNode(int i)
+  {
+    return m_nodes[i];
+  }
+
+  /**
+   * Get an estimate of the memory retained by the index, not counting
+   * the IDs themselves, which belong to the DTM.
+   *
+   * @return the estimated size in bytes.
+   */
+  public long getMemoryUsage()
+  {
+    return 12L * m_keys.length + 4L * m_slots.length;
+  }
+
+  /**
+   * Copy an array into a larger one.
+   *
+   * @param array The array.
+   * @param newSize The length of the new array.
+   * @return the new array.
+   */
+  private static int[] grow(int[] array, int newSize)
+  {
+    int[] newArray = new int[newSize];
+
+    System.arraycopy(array, 0, newArray, 0, array.length);
+
+    return newArray;
+  }
+
+  /**
+   * Rebuild the hash table with a new number of slots.
+   *
+   * @param newLength The number of slots, a power of two.
+   */
+  private void rehash(int newLength)
+  {
+    int[] slots = new int[newLength];
+    int mask = newLength - 1;
+
+    for (int entry = 0; entry < m_size; entry++)
+    {
+      int slot = m_hashes[entry] & mask;
+
+      while (0 != slots[slot])
+        slot = (slot + 1) & mask;
+
+      slots[slot] = entry + 1;
+    }
+
+    m_slots = slots;
+  }
+}
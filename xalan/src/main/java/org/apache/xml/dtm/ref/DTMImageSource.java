@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.dtm.ref;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.xml.transform.Source;
+
+/**
+ * A Source which names a prebuilt DTM image, as written by
+ * SAX2DTM.writeImage(). DTMManagerDefault.getDTM() loads such a source
+ * by memory-mapping the file rather than parsing XML; the node arrays,
+ * the character data and the attribute value pool are used in place, and
+ * only the much smaller name, namespace, ID and entity tables are copied
+ * onto the heap.
+ *
+ * Only the interpretive processor loads images. XSLTC's SAXImpl keeps
+ * state of its own that an image doesn't record, so XSLTCDTMManager
+ * reports an error for a DTMImageSource. An image may still be written
+ * from a SAXImpl.
+ *
+ * An image records the document exactly as it was built, so whitespace
+ * stripping must already have been applied when it was written; any
+ * DTMWSFilter passed to getDTM() is ignored.
+ *
+ * The system ID is the location of the image file. The base URI of the
+ * loaded document is the one recorded in the image, so relative URIs
+ * resolve as they would have against the original document.
+ */
+public class DTMImageSource implements Source
+{
+  /** The image file. */
+  private File m_file;
+
+  /**
+   * Create a DTMImageSource for the given image file.
+   *
+   * @param file The image file.
+   */
+  public DTMImageSource(File file)
+  {
+    m_file = file;
+  }
+
+  /**
+   * Set the system identifier for this Source. It must name a local file.
+   *
+   * @param systemId The system identifier as a URL or file path string.
+   */
+  public void setSystemId(String systemId)
+  {
+    if (systemId.startsWith("file:"))
+      m_file = new File(java.net.URI.create(systemId));
+    else
+      m_file = new File(systemId);
+  }
+
+  /**
+   * Get the system identifier that was set with setSystemId.
+   *
+   * @return The system identifier that was set with setSystemId, or null
+   *         if setSystemId was not called.
+   */
+  public String getSystemId()
+  {
+    return (null == m_file) ? null : m_file.toURI().toString();
+  }
+
+  /**
+   * Get the image file.
+   *
+   * @return the file, or null if none has been set.
+   */
+  public File getFile()
+  {
+    return m_file;
+  }
+
+  /**
+   * Map the whole image file read-only.
+   *
+   * @return a buffer positioned at the start of the image.
+   *
+   * @throws IOException if the file can't be opened or mapped.
+   */
+  public ByteBuffer getImage() throws IOException
+  {
+    RandomAccessFile raf = new RandomAccessFile(m_file, "r");
+    try
+    {
+      FileChannel channel = raf.getChannel();
+      // The mapping stays valid after the channel is closed.
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    finally
+    {
+      raf.close();
+    }
+  }
+}
@@ -20,11 +20,15 @@
  */
 package org.apache.xml.dtm.ref;
 
+import java.io.IOException;
+import java.util.Vector;
+
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.Source;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.xml.dtm.DTM;
@@ -36,6 +40,7 @@ import org.apache.xml.dtm.DTMWSFilter;
 import org.apache.xml.dtm.ref.dom2dtm.DOM2DTM;
 import org.apache.xml.dtm.ref.sax2dtm.SAX2DTM;
 import org.apache.xml.dtm.ref.sax2dtm.SAX2RTFDTM;
+import org.apache.xml.dtm.ref.sax2dtm.StAX2DTM;
 import org.apache.xml.res.XMLErrorResources;
 import org.apache.xml.res.XMLMessages;
 import org.apache.xml.utils.PrefixResolver;
@@ -46,11 +51,14 @@ import org.apache.xml.utils.XMLStringFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXNotRecognizedException;
 import org.xml.sax.SAXNotSupportedException;
 import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
 import org.xml.sax.helpers.DefaultHandler;
 
 /**
@@ -69,6 +77,24 @@ import org.xml.sax.helpers.DefaultHandler;
  * activity (eg, when getDTM() is invoked). The downside of that solution
  * would be a greater delay before the DTM's storage is actually released
  * for reuse.
+ *
+ * The exception is node addressing. getDTM(int), getDTMIdentity() and the
+ * search half of getDTMHandleFromNode() sit on the XPath and transformer
+ * hot paths, so they read the DTM tables without taking the manager's
+ * monitor. (The search does still take it to look inside a DOM2DTM
+ * whose incremental build is unfinished, since that extends the DTM.)
+ * To make that safe, the tables are treated as copy-on-write: addDTM()
+ * and release() (which are still synchronized against each other)
+ * never modify a published array, but build a new one and publish it
+ * through a volatile field.
+ *
+ * Changes to the DTM tables are serialized on a private lock rather than
+ * on the manager itself, since a pipelined build (see setPipelined())
+ * adds extended DTM IDs from its builder thread while the parsing thread
+ * holds the manager's monitor inside getDTM(). getFirstFreeDTMID() and the
+ * addDTM() that follows it still aren't atomic together; callers get that
+ * from holding the manager's monitor, or, for the builder thread, from the
+ * parsing thread holding it on their behalf.
  * */
 public class DTMManagerDefault extends DTMManager
 {
@@ -91,7 +117,7 @@ public class DTMManagerDefault extends DTMManager
    * This array grows as necessary; see addDTM(). Growth is uncommon... but
    * access needs to be blindingly fast since it's used in node addressing.
    */
-  protected DTM m_dtms[] = new DTM[256];
+  protected volatile DTM m_dtms[] = new DTM[256];
 	
   /** Map from DTM identifier numbers to offsets. For small DTMs with a 
    * single identifier, this will always be 0. In overflow addressing, where
@@ -105,8 +131,16 @@ public class DTMManagerDefault extends DTMManager
    * access needs to be blindingly fast since it's used in node addressing.
    * (And at the moment, that includes accessing it from DTMDefaultBase,
    * which is why this is not Protected or Private.)
+   *
+   * Like m_dtms, this array is never modified once published. addDTM()
+   * always publishes it before m_dtms, so a reader which fetches m_dtms
+   * first and then m_dtm_offsets sees offsets at least as current as
+   * the DTM it found.
    */
-  int m_dtm_offsets[] = new int[256];
+  volatile int m_dtm_offsets[] = new int[256];
+
+  /** Lock for changes to m_dtms and m_dtm_offsets. */
+  private final Object m_dtmTableLock = new Object();
 
   /**
    * The cache for XMLReader objects to be used if the user did not
@@ -127,7 +161,7 @@ public class DTMManagerDefault extends DTMManager
    * @param dtm Should be a valid reference to a DTM.
    * @param id Integer DTM ID to be bound to this DTM
    */
-  synchronized public void addDTM(DTM dtm, int id) {	addDTM(dtm,id,0); }
+  public void addDTM(DTM dtm, int id) {	addDTM(dtm,id,0); }
 
 	
   /**
@@ -140,8 +174,10 @@ public class DTMManagerDefault extends DTMManager
    * public DTM Handle. For the first DTM ID accessing each DTM, this is 0;
    * for overflow addressing it will be a multiple of 1<<IDENT_DTM_NODE_BITS.
    */
-  synchronized public void addDTM(DTM dtm, int id, int offset)
+  public void addDTM(DTM dtm, int id, int offset)
   {
+    synchronized (m_dtmTableLock)
+    {
 		if(id>=IDENT_MAX_DTMS)
 		{
 			// TODO: %REVIEW% Not really the right error message.
@@ -153,7 +189,13 @@ public class DTMManagerDefault extends DTMManager
 		// to allocate that much space unless needed. We could use one of our
 		// handy-dandy Fast*Vectors, but this will do for now.
 		// %REVIEW%
-		int oldlen=m_dtms.length;
+		//
+		// Readers don't lock, so the published arrays are never written;
+		// copy them (growing if necessary) and publish the copies, offsets
+		// first. See the comments on m_dtm_offsets.
+		DTM old_m_dtms[] = m_dtms;
+		int oldlen=old_m_dtms.length;
+		int newlen=oldlen;
 		if(oldlen<=id)
 		{
 			// Various growth strategies are possible. I think we don't want 
@@ -161,18 +203,20 @@ public class DTMManagerDefault extends DTMManager
 			// more often to get that. See also Fast*Vector classes.
 			//
 			// %REVIEW% Should throw a more diagnostic error if we go over the max...
-			int newlen=Math.min((id+256),IDENT_MAX_DTMS);
-
-			DTM new_m_dtms[] = new DTM[newlen];
-			System.arraycopy(m_dtms,0,new_m_dtms,0,oldlen);
-			m_dtms=new_m_dtms;
-			int new_m_dtm_offsets[] = new int[newlen];
-			System.arraycopy(m_dtm_offsets,0,new_m_dtm_offsets,0,oldlen);
-			m_dtm_offsets=new_m_dtm_offsets;
+			newlen=Math.min((id+256),IDENT_MAX_DTMS);
 		}
-		
-    m_dtms[id] = dtm;
-		m_dtm_offsets[id]=offset;
+
+		int new_m_dtm_offsets[] = new int[newlen];
+		System.arraycopy(m_dtm_offsets,0,new_m_dtm_offsets,0,oldlen);
+		new_m_dtm_offsets[id]=offset;
+		m_dtm_offsets=new_m_dtm_offsets;
+
+		DTM new_m_dtms[] = new DTM[newlen];
+		System.arraycopy(old_m_dtms,0,new_m_dtms,0,oldlen);
+		new_m_dtms[id] = dtm;
+		m_dtms=new_m_dtms;
+    }
+
     dtm.documentRegistration();
 		// The DTM should have been told who its manager was when we created it.
 		// Do we need to allow for adopting DTMs _not_ created by this manager?
@@ -181,17 +225,66 @@ public class DTMManagerDefault extends DTMManager
   /**
    * Get the first free DTM ID available. %OPT% Linear search is inefficient!
    */
-  synchronized public int getFirstFreeDTMID()
+  public int getFirstFreeDTMID()
   {
-    int n = m_dtms.length;
-    for (int i = 1; i < n; i++)
+    synchronized (m_dtmTableLock)
     {
-      if(null == m_dtms[i])
+      DTM dtms[] = m_dtms;
+      int n = dtms.length;
+      for (int i = 1; i < n; i++)
       {
-        return i;
+        if(null == dtms[i])
+        {
+          return i;
+        }
       }
+      return n; // count on addDTM() to throw exception if out of range
+    }
+  }
+
+  /**
+   * Get a DTM ID for a new document. This is the first free DTM ID,
+   * unless large documents are enabled (see setLargeDocuments()), in
+   * which case it is the ID after the highest one in use, while there is
+   * one.
+   */
+  public int getDocumentDTMID()
+  {
+    if (!m_largeDocuments)
+      return getFirstFreeDTMID();
+
+    synchronized (m_dtmTableLock)
+    {
+      DTM dtms[] = m_dtms;
+      int i = dtms.length - 1;
+
+      while (i > 0 && null == dtms[i])
+        i--;
+
+      return (i + 1 < IDENT_MAX_DTMS) ? i + 1 : getFirstFreeDTMID();
+    }
+  }
+
+  /**
+   * Get a DTM ID to extend the addressing of a DTM: the one after the
+   * last ID the DTM was given, if that is free, so that the DTM's node
+   * handles stay contiguous, and otherwise the first free DTM ID.
+   *
+   * @param id The last DTM ID given to the DTM.
+   */
+  public int getNextDTMID(int id)
+  {
+    synchronized (m_dtmTableLock)
+    {
+      DTM dtms[] = m_dtms;
+
+      if (id + 1 >= dtms.length)
+        return (id + 1 < IDENT_MAX_DTMS) ? id + 1 : getFirstFreeDTMID();
+      else if (null == dtms[id + 1])
+        return id + 1;
+      else
+        return getFirstFreeDTMID();
     }
-		return n; // count on addDTM() to throw exception if out of range
   }
 
   /**
@@ -200,6 +293,12 @@ public class DTMManagerDefault extends DTMManager
   private ExpandedNameTable m_expandedNameTable =
     new ExpandedNameTable();
 
+  /**
+   * The table shared by every DTM this manager builds, or null; see
+   * setSharedNameTable().
+   */
+  private ExpandedNameTable m_sharedNameTable = null;
+
   /**
    * Constructor DTMManagerDefault
    *
@@ -216,7 +315,9 @@ public class DTMManagerDefault extends DTMManager
    * 
    * A bit of magic in this implementation: If the source is null, unique is true,
    * and incremental and doIndexing are both false, we return an instance of
-   * SAX2RTFDTM, which see.
+   * SAX2RTFDTM, which see. If the source is a DTMImageSource, the prebuilt
+   * image it names is mapped rather than any XML being parsed. A StAXSource
+   * is read directly by a StAX2DTM, and never incrementally.
    * 
    * (I think more parameters will need to be added for error handling, and entity
    * resolution, and more explicit control of the RTF situation).
@@ -245,16 +346,91 @@ public class DTMManagerDefault extends DTMManager
                          );
 
     XMLStringFactory xstringFactory = m_xsf;
-    int dtmPos = getFirstFreeDTMID();
+    int dtmPos = getDocumentDTMID();
     int documentID = dtmPos << IDENT_DTM_NODE_BITS;
 
-    if ((null != source) && source instanceof DOMSource)
+    if ((null != source) && source instanceof DTMImageSource)
+    {
+      // A prebuilt image: map it rather than parse. The DTM gets its own
+      // expanded name table, so the type IDs stored in the image stay valid.
+      SAX2DTM dtm = new SAX2DTM(this, source, documentID, null,
+                                xstringFactory, true,
+                                DTMDefaultBase.DEFAULT_BLOCKSIZE, true, true);
+
+      addDTM(dtm, dtmPos, 0);
+
+      try
+      {
+        dtm.loadImage(((DTMImageSource) source).getImage(),
+                      source.getSystemId());
+      }
+      catch (IOException ioe)
+      {
+        release(dtm, true);
+        throw new DTMException(ioe);
+      }
+      catch (RuntimeException re)
+      {
+        release(dtm, true);
+        throw re;
+      }
+
+      return dtm;
+    }
+    else if ((null != source) && source instanceof StAXSource)
+    {
+      // Pull the reader's events straight into the DTM, rather than going
+      // through an XMLReader adapter.
+      SAX2DTM dtm = new SAX2DTM(this, source, documentID, whiteSpaceFilter,
+                                xstringFactory, doIndexing);
+
+      addDTM(dtm, dtmPos, 0);
+
+      StAX2DTM builder;
+
+      if (null != m_projection)
+      {
+        DTMProjectionFilter filter =
+          new DTMProjectionFilter(m_projection, dtm, dtm);
+
+        builder = new StAX2DTM(filter, filter, dtm);
+      }
+      else
+        builder = new StAX2DTM(dtm);
+
+      try
+      {
+        builder.parse((StAXSource) source);
+      }
+      catch (RuntimeException re)
+      {
+        release(dtm, true);
+        throw re;
+      }
+      catch (Exception e)
+      {
+        release(dtm, true);
+        throw new org.apache.xml.utils.WrappedRuntimeException(e);
+      }
+
+      if (DUMPTREE)
+      {
+        System.out.println("Dumping StAX2DTM");
+        dtm.dumpDTM(System.err);
+      }
+
+      return dtm;
+    }
+    else if ((null != source) && source instanceof DOMSource)
     {
       DOM2DTM dtm = new DOM2DTM(this, (DOMSource) source, documentID,
                                 whiteSpaceFilter, xstringFactory, doIndexing);
 
       addDTM(dtm, dtmPos, 0);
 
+      if (m_eagerDOMImport)
+        dtm.importAll();
+
       //      if (DUMPTREE)
       //      {
       //        dtm.dumpDTM();
@@ -272,6 +448,7 @@ public class DTMManagerDefault extends DTMManager
       if (isSAXSource || isStreamSource) {
         XMLReader reader = null;
         SAX2DTM dtm;
+        PipelinedSAXHandler pipeline = null;
 
         try {
           InputSource xmlSource;
@@ -353,6 +530,19 @@ public class DTMManagerDefault extends DTMManager
               }
             }
 
+            if (coParser==null && m_staxIncremental && null != xmlSource
+                && isPullable(source)) {
+              // We own the parser and have been asked to, so pull the
+              // events through StAX on this thread rather than handing
+              // off to a second one.
+              try {
+                coParser = new IncrementalSAXSource_StAX();
+              } catch (RuntimeException re) {
+                // No usable StAX implementation; fall back on the filter.
+                coParser = null;
+              }
+            }
+
             if (coParser==null ) {
               // Create a IncrementalSAXSource to run on the secondary thread.
               if (null == reader) {
@@ -422,8 +612,31 @@ public class DTMManagerDefault extends DTMManager
             }
 
             // not incremental
-            reader.setContentHandler(dtm);
-            reader.setDTDHandler(dtm);
+            ContentHandler contentHandler = dtm;
+            LexicalHandler lexicalHandler = dtm;
+            DTDHandler dtdHandler = dtm;
+
+            if (m_pipelined && !m_source_location) {
+              // Build the DTM on another thread while this one parses.
+              pipeline = new PipelinedSAXHandler(dtm, dtm, dtm);
+              contentHandler = pipeline;
+              lexicalHandler = pipeline;
+              dtdHandler = pipeline;
+            }
+
+            if (null != m_projection) {
+              // Drop what the projection doesn't need before it gets
+              // to the DTM.
+              DTMProjectionFilter filter =
+                new DTMProjectionFilter(m_projection, contentHandler,
+                                        lexicalHandler);
+
+              contentHandler = filter;
+              lexicalHandler = filter;
+            }
+
+            reader.setContentHandler(contentHandler);
+            reader.setDTDHandler(dtdHandler);
             if (null == reader.getErrorHandler()) {
               reader.setErrorHandler(dtm);
             }
@@ -431,7 +644,7 @@ public class DTMManagerDefault extends DTMManager
             try {
               reader.setProperty(
                                "http://xml.org/sax/properties/lexical-handler",
-                               dtm);
+                               lexicalHandler);
             } catch (SAXNotRecognizedException e){}
               catch (SAXNotSupportedException e){}
 
@@ -439,10 +652,12 @@ public class DTMManagerDefault extends DTMManager
               reader.parse(xmlSource);
             } catch (RuntimeException re) {
               dtm.clearCoRoutine();
+              abandonDTM(dtm, pipeline);
 
               throw re;
             } catch (Exception e) {
               dtm.clearCoRoutine();
+              abandonDTM(dtm, pipeline);
 
               throw new org.apache.xml.utils.WrappedRuntimeException(e);
             }
@@ -455,6 +670,11 @@ public class DTMManagerDefault extends DTMManager
 
           return dtm;
         } finally {
+          // Make sure a pipelined build has stopped if the parse failed.
+          if (pipeline != null) {
+            pipeline.close();
+          }
+
           // Reset the ContentHandler, DTDHandler, ErrorHandler to the DefaultHandler
           // after creating the DTM.
           if (reader != null && !(m_incremental && incremental)) {
@@ -479,6 +699,24 @@ public class DTMManagerDefault extends DTMManager
     }
   }
 
+  /**
+   * Tell whether an incremental build from a source can pull its events
+   * through IncrementalSAXSource_StAX, i.e. whether the source leaves the
+   * choice of parser to us.
+   *
+   * @param source The source being built from.
+   *
+   * @return true for a StreamSource, or a SAXSource without an XMLReader.
+   */
+  private static boolean isPullable(Source source)
+  {
+    if (source instanceof StreamSource)
+      return true;
+
+    return (source instanceof SAXSource)
+           && (null == ((SAXSource) source).getXMLReader());
+  }
+
   /**
    * Given a W3C DOM node, try and return a DTM handle.
    * Note: calling this may be non-optimal, and there is no guarantee that
@@ -488,7 +726,7 @@ public class DTMManagerDefault extends DTMManager
    *
    * @return a valid DTM handle.
    */
-  synchronized public int getDTMHandleFromNode(org.w3c.dom.Node node)
+  public int getDTMHandleFromNode(org.w3c.dom.Node node)
   {
     if(null == node)
       throw new IllegalArgumentException(XMLMessages.createXMLMessage(XMLErrorResources.ER_NODE_NON_NULL, null)); //"node must be non-null for getDTMHandleFromNode!");
@@ -519,17 +757,70 @@ public class DTMManagerDefault extends DTMManager
 			// POSSIBLE SOLUTIONS: 
 			//   Generate a list of _unique_ DTM objects?
 			//   Have each DTM cache last DOM node search?
-			int max = m_dtms.length;
-      for(int i = 0; i < max; i++)
+			int handle = findHandleInDOM2DTMs(node);
+			if(handle!=DTM.NULL) return handle;
+
+			// The scan above doesn't hold the monitor, so another thread
+			// may be wrapping the same DOM right now. Recheck under the
+			// lock before building a DTM of our own.
+			synchronized(this)
+			{
+				handle = findHandleInDOM2DTMs(node);
+				if(handle!=DTM.NULL) return handle;
+				return createHandleFromNode(node);
+			}
+		}
+  }
+
+  /**
+   * Search the DOM2DTMs currently registered with this manager for one
+   * that contains the given node. This reads the DTM table without
+   * locking; see the class comment. A DOM2DTM that hasn't finished
+   * walking its DOM may grow while it is searched, so it is only
+   * searched while holding the manager's monitor.
+   *
+   * @param node Non-null reference to a DOM node.
+   *
+   * @return the node's handle, or DTM.NULL if no registered DOM2DTM
+   * contains it.
+   */
+  private int findHandleInDOM2DTMs(org.w3c.dom.Node node)
+  {
+		DTM dtms[] = m_dtms;
+		int max = dtms.length;
+    for(int i = 0; i < max; i++)
+      {
+        DTM thisDTM=dtms[i];
+        if((null != thisDTM) && thisDTM instanceof DOM2DTM)
         {
-          DTM thisDTM=m_dtms[i];
-          if((null != thisDTM) && thisDTM instanceof DOM2DTM)
+          DOM2DTM dom2dtm=(DOM2DTM)thisDTM;
+          int handle;
+          if(dom2dtm.isTreeIncomplete())
           {
-            int handle=((DOM2DTM)thisDTM).getHandleOfNode(node);
-            if(handle!=DTM.NULL) return handle;
+            synchronized(this)
+            {
+              handle=dom2dtm.getHandleOfNode(node);
+            }
           }
-         }
+          else
+            handle=dom2dtm.getHandleOfNode(node);
+          if(handle!=DTM.NULL) return handle;
+        }
+       }
+		return DTM.NULL;
+  }
 
+  /**
+   * Wrap a new DOM2DTM around the tree containing the given node, and
+   * return the node's handle in it. Called from getDTMHandleFromNode()
+   * when no existing DTM contains the node.
+   *
+   * @param node Non-null reference to a DOM node.
+   *
+   * @return a valid DTM handle.
+   */
+  private synchronized int createHandleFromNode(org.w3c.dom.Node node)
+  {
 			// Not found; generate a new DTM.
 			//
 			// %REVIEW% Is this really desirable, or should we return null
@@ -576,7 +867,6 @@ public class DTMManagerDefault extends DTMManager
         throw new RuntimeException(XMLMessages.createXMLMessage(XMLErrorResources.ER_COULD_NOT_RESOLVE_NODE, null)); //"Could not resolve the node to a handle!");
 
       return handle;
-    }
   }
 
   /**
@@ -640,7 +930,7 @@ public class DTMManagerDefault extends DTMManager
    *
    * @return a reference to the DTM object containing this node.
    */
-  synchronized public DTM getDTM(int nodeHandle)
+  public DTM getDTM(int nodeHandle)
   {
     try
     {
@@ -666,7 +956,7 @@ public class DTMManagerDefault extends DTMManager
    * @return The DTM ID (as the high bits of a NodeHandle, not as our
    * internal index), or -1 if the DTM doesn't belong to this manager.
    */
-  synchronized public int getDTMIdentity(DTM dtm)
+  public int getDTMIdentity(DTM dtm)
   {
 	// Shortcut using DTMDefaultBase's extension hooks
 	// %REVIEW% Should the lookup be part of the basic DTM API?
@@ -679,13 +969,16 @@ public class DTMManagerDefault extends DTMManager
 			return -1;
 	}
 				
-    int n = m_dtms.length;
+    // Fetch m_dtms before m_dtm_offsets; see the comments on the latter.
+    DTM dtms[] = m_dtms;
+    int offsets[] = m_dtm_offsets;
+    int n = dtms.length;
 
     for (int i = 0; i < n; i++)
     {
-      DTM tdtm = m_dtms[i];
+      DTM tdtm = dtms[i];
 
-      if (tdtm == dtm && m_dtm_offsets[i]==0)
+      if (tdtm == dtm && offsets[i]==0)
         return i << IDENT_DTM_NODE_BITS;
     }
 
@@ -725,6 +1018,20 @@ public class DTMManagerDefault extends DTMManager
       ((SAX2DTM) dtm).clearCoRoutine();
     }
 
+    detach(dtm);
+    dtm.documentRelease();
+    return true;
+  }
+
+  /**
+   * Remove the DTMManager's reference(s) to a DTM without releasing the
+   * DTM's storage, so that it can be migrated to another manager. This is
+   * how RTF DTMs are kept for reuse from one transformation to the next.
+   *
+   * @param dtm the DTM to be removed.
+   */
+  synchronized public void detach(DTM dtm)
+  {
 		// Multiple DTM IDs may be assigned to a single DTM. 
 		// The Right Answer is to ask which (if it supports
 		// extension, the DTM will need a list anyway). The 
@@ -733,23 +1040,60 @@ public class DTMManagerDefault extends DTMManager
 		// painful.
 		//
 		// %REVIEW% Should the lookup move up into the basic DTM API?
+		//
+		// Readers don't lock, so clear the entries in a copy of the
+		// table and publish that.
+		synchronized (m_dtmTableLock)
+		{
+		DTM new_m_dtms[] = m_dtms.clone();
 		if(dtm instanceof DTMDefaultBase)
 		{
 			org.apache.xml.utils.SuballocatedIntVector ids=((DTMDefaultBase)dtm).getDTMIDs();
 			for(int i=ids.size()-1;i>=0;--i)
-				m_dtms[ids.elementAt(i)>>>DTMManager.IDENT_DTM_NODE_BITS]=null;
+				new_m_dtms[ids.elementAt(i)>>>DTMManager.IDENT_DTM_NODE_BITS]=null;
 		}
 		else
 		{
 			int i = getDTMIdentity(dtm);
 		    if (i >= 0)
 			{
-				m_dtms[i >>> DTMManager.IDENT_DTM_NODE_BITS] = null;
+				new_m_dtms[i >>> DTMManager.IDENT_DTM_NODE_BITS] = null;
 			}
 		}
+		m_dtms=new_m_dtms;
+		}
+  }
 
-    dtm.documentRelease();
-    return true;
+  /**
+   * Remove the DTMManager's references to all its DTMs without releasing
+   * them, as detach() does for one.
+   *
+   * @return the DTMs that were registered, each once, in the order of
+   * their first DTM IDs.
+   */
+  synchronized public DTM[] detachAll()
+  {
+    Vector found = new Vector();
+
+    synchronized (m_dtmTableLock)
+    {
+      DTM dtms[] = m_dtms;
+
+      for (int i = 0; i < dtms.length; i++)
+      {
+        if (null != dtms[i] && !found.contains(dtms[i]))
+          found.addElement(dtms[i]);
+      }
+
+      if (!found.isEmpty())
+        m_dtms = new DTM[dtms.length];
+    }
+
+    DTM result[] = new DTM[found.size()];
+
+    found.copyInto(result);
+
+    return result;
   }
 
   /**
@@ -845,6 +1189,80 @@ public class DTMManagerDefault extends DTMManager
     return null;
   }
 
+  /**
+   * Make a DTM built by some other manager available through this one,
+   * as a read-only view; see DTMDefaultBase.newView(). The view has DTM
+   * IDs of this manager's, so its nodes can be used along with those of
+   * this manager's other DTMs. Releasing the view leaves the DTM itself
+   * alone.
+   *
+   * @param dtm A completely built DTM, which must not change while the
+   * view is in use.
+   *
+   * @return the view.
+   */
+  synchronized public DTMDefaultBase addView(DTMDefaultBase dtm)
+  {
+    return dtm.newView(this);
+  }
+
+  /**
+   * Release a DTM whose build has failed, so that what was built of it
+   * doesn't go on taking up space, or counting against a memory budget.
+   *
+   * @param dtm The DTM.
+   * @param pipeline The pipeline building it, or null.
+   */
+  protected void abandonDTM(DTM dtm, PipelinedSAXHandler pipeline)
+  {
+    // A pipelined build must stop before the DTM can go.
+    if (pipeline != null)
+      pipeline.close();
+
+    release(dtm, true);
+  }
+
+  /**
+   * Get an estimate of the Java heap used by the DTMs this manager holds.
+   * A DTM which has several DTM IDs is counted once, and so is each
+   * expanded name table, however many DTMs share it.
+   *
+   * @return the estimated size in bytes.
+   */
+  public long getMemoryUsage()
+  {
+    DTM dtms[] = m_dtms;
+    long total = 0;
+    Vector namesCounted = new Vector();
+
+    for (int i = 0; i < dtms.length; i++)
+    {
+      DTM dtm = dtms[i];
+
+      if (!(dtm instanceof DTMDefaultBase))
+        continue;
+
+      DTMDefaultBase dtmdb = (DTMDefaultBase) dtm;
+
+      // Only count a DTM at its first ID.
+      if ((dtmdb.getDTMIDs().elementAt(0) >>> IDENT_DTM_NODE_BITS) != i)
+        continue;
+
+      total += dtmdb.getHeapMemoryUsage()
+               - dtmdb.getMemoryUsage(DTMDefaultBase.MEMORY_NAMES);
+
+      ExpandedNameTable names = dtmdb.m_expandedNameTable;
+
+      if (null != names && !namesCounted.contains(names))
+      {
+        namesCounted.addElement(names);
+        total += names.getMemoryUsage();
+      }
+    }
+
+    return total;
+  }
+
   /**
    * return the expanded name table.
    *
@@ -854,6 +1272,34 @@ public class DTMManagerDefault extends DTMManager
    */
   public ExpandedNameTable getExpandedNameTable(DTM dtm)
   {
-    return m_expandedNameTable;
+    return (null != m_sharedNameTable) ? m_sharedNameTable
+                                       : m_expandedNameTable;
+  }
+
+  /**
+   * Set an expanded name table for every DTM this manager builds from now
+   * on to take its expanded type IDs from, instead of indexed documents
+   * each having a table of their own. The same table may be given to any
+   * number of managers, in any number of threads, typically for all the
+   * documents of one vocabulary (see TransformerFactoryImpl's
+   * PROPERTY_NAME_TABLE): the names are then hashed once, and each name
+   * has the same ID in every document. A shared table is never pruned,
+   * so it should only be used for documents with a bounded set of names.
+   * Prebuilt images (see DTMImageSource) always get a table of their own.
+   *
+   * @param names The ExpandedNameTable, or null for the default behaviour.
+   */
+  public void setSharedNameTable(ExpandedNameTable names)
+  {
+    m_sharedNameTable = names;
+  }
+
+  /**
+   * @return the expanded name table shared by the DTMs this manager
+   * builds, or null if there is none.
+   */
+  public ExpandedNameTable getSharedNameTable()
+  {
+    return m_sharedNameTable;
   }
 }
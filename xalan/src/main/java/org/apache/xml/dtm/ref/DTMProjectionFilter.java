@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.dtm.ref;
+
+import java.util.Vector;
+
+import org.apache.xml.dtm.DTMProjection;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * A SAX filter which applies a DTMProjection to a parse, passing on only
+ * the events which build the parts of the document the projection keeps.
+ * It sits between the XMLReader and a DTM builder such as SAX2DTM.
+ *
+ * Namespace declarations are passed on for every element which is kept,
+ * whatever its disposition, since namespace nodes are cheap and the
+ * namespace axis isn't subject to projection.
+ *
+ * When an element is dropped from among character data which is kept,
+ * the text on either side of it must still make two text nodes, so the
+ * filter tells the content handler where the element was if it is a
+ * TextBoundaryHandler. DTM builders join adjacent character data
+ * otherwise, which would change the number and position of text nodes.
+ */
+public class DTMProjectionFilter implements ContentHandler, LexicalHandler
+{
+  /** The projection being applied. */
+  private DTMProjection m_projection;
+
+  /** The content handler that kept events are passed to. */
+  private ContentHandler m_contentHandler;
+
+  /** The lexical handler that kept events are passed to. */
+  private LexicalHandler m_lexicalHandler;
+
+  /** Number of open elements in the subtree being dropped, if any. */
+  private int m_dropDepth = 0;
+
+  /** Number of open elements in the subtree being kept whole, if any. */
+  private int m_subtreeDepth = 0;
+
+  /**
+   * True just after a dropped element has ended, while its
+   * endPrefixMapping events arrive.
+   */
+  private boolean m_droppedEnd = false;
+
+  /**
+   * Prefix mappings seen since the last startElement, as prefix/URI
+   * pairs; they are passed on only if the element is kept.
+   */
+  private Vector m_pendingMappings = new Vector();
+
+  /** Reused to pass on the kept attributes of an element. */
+  private AttributesImpl m_attributes = new AttributesImpl();
+
+  /**
+   * Create a filter which applies a projection.
+   *
+   * @param projection The projection to apply.
+   * @param contentHandler Where to send the content events which are kept.
+   * @param lexicalHandler Where to send the lexical events which are kept.
+   */
+  public DTMProjectionFilter(DTMProjection projection,
+                             ContentHandler contentHandler,
+                             LexicalHandler lexicalHandler)
+  {
+    m_projection = projection;
+    m_contentHandler = contentHandler;
+    m_lexicalHandler = lexicalHandler;
+  }
+
+  /**
+   * Tell whether character data, comments and PIs at the current position
+   * are kept.
+   *
+   * @return true if they should be passed on.
+   */
+  private boolean isCharacterDataKept()
+  {
+    if (m_dropDepth > 0)
+      return false;
+
+    return (m_subtreeDepth > 0) || m_projection.getKeepCharacterData();
+  }
+
+  ////////////////////////////////////////////////////////////////////
+  // ContentHandler
+  ////////////////////////////////////////////////////////////////////
+
+  public void setDocumentLocator(Locator locator)
+  {
+    m_contentHandler.setDocumentLocator(locator);
+  }
+
+  public void startDocument() throws SAXException
+  {
+    m_dropDepth = 0;
+    m_subtreeDepth = 0;
+    m_droppedEnd = false;
+    m_pendingMappings.removeAllElements();
+    m_contentHandler.startDocument();
+  }
+
+  public void endDocument() throws SAXException
+  {
+    m_contentHandler.endDocument();
+  }
+
+  public void startPrefixMapping(String prefix, String uri)
+          throws SAXException
+  {
+    m_droppedEnd = false;
+
+    if (m_dropDepth > 0)
+      return;
+
+    if (m_subtreeDepth > 0)
+      m_contentHandler.startPrefixMapping(prefix, uri);
+    else
+    {
+      m_pendingMappings.addElement(prefix);
+      m_pendingMappings.addElement(uri);
+    }
+  }
+
+  public void endPrefixMapping(String prefix) throws SAXException
+  {
+    if (m_dropDepth > 0 || m_droppedEnd)
+      return;
+
+    m_contentHandler.endPrefixMapping(prefix);
+  }
+
+  public void startElement(
+          String uri, String localName, String qName, Attributes attributes)
+            throws SAXException
+  {
+    m_droppedEnd = false;
+
+    if (m_dropDepth > 0)
+    {
+      m_dropDepth++;
+      return;
+    }
+
+    if (m_subtreeDepth > 0)
+    {
+      m_subtreeDepth++;
+      m_contentHandler.startElement(uri, localName, qName, attributes);
+      return;
+    }
+
+    int disposition = m_projection.getElementDisposition(uri, localName);
+
+    if (DTMProjection.DROP == disposition)
+    {
+      m_pendingMappings.removeAllElements();
+
+      if (isCharacterDataKept()
+          && m_contentHandler instanceof TextBoundaryHandler)
+        ((TextBoundaryHandler) m_contentHandler).textBoundary();
+
+      m_dropDepth = 1;
+      return;
+    }
+
+    int n = m_pendingMappings.size();
+
+    for (int i = 0; i < n; i += 2)
+    {
+      m_contentHandler.startPrefixMapping(
+        (String) m_pendingMappings.elementAt(i),
+        (String) m_pendingMappings.elementAt(i + 1));
+    }
+    m_pendingMappings.removeAllElements();
+
+    if (DTMProjection.KEEP_SUBTREE == disposition)
+    {
+      m_subtreeDepth = 1;
+      m_contentHandler.startElement(uri, localName, qName, attributes);
+      return;
+    }
+
+    if (!m_projection.getKeepAllAttributes())
+    {
+      m_attributes.clear();
+
+      int nAttrs = attributes.getLength();
+
+      for (int i = 0; i < nAttrs; i++)
+      {
+        if (m_projection.isAttributeKept(attributes.getURI(i),
+                                         attributes.getLocalName(i)))
+        {
+          m_attributes.addAttribute(attributes.getURI(i),
+                                    attributes.getLocalName(i),
+                                    attributes.getQName(i),
+                                    attributes.getType(i),
+                                    attributes.getValue(i));
+        }
+      }
+      attributes = m_attributes;
+    }
+
+    m_contentHandler.startElement(uri, localName, qName, attributes);
+  }
+
+  public void endElement(String uri, String localName, String qName)
+          throws SAXException
+  {
+    if (m_dropDepth > 0)
+    {
+      if (--m_dropDepth == 0)
+        m_droppedEnd = true;
+      return;
+    }
+
+    m_droppedEnd = false;
+
+    if (m_subtreeDepth > 0)
+      m_subtreeDepth--;
+
+    m_contentHandler.endElement(uri, localName, qName);
+  }
+
+  public void characters(char ch[], int start, int length)
+          throws SAXException
+  {
+    m_droppedEnd = false;
+
+    if (isCharacterDataKept())
+      m_contentHandler.characters(ch, start, length);
+  }
+
+  public void ignorableWhitespace(char ch[], int start, int length)
+          throws SAXException
+  {
+    m_droppedEnd = false;
+
+    if (isCharacterDataKept())
+      m_contentHandler.ignorableWhitespace(ch, start, length);
+  }
+
+  public void processingInstruction(String target, String data)
+          throws SAXException
+  {
+    m_droppedEnd = false;
+
+    if (isCharacterDataKept())
+      m_contentHandler.processingInstruction(target, data);
+  }
+
+  public void skippedEntity(String name) throws SAXException
+  {
+    m_droppedEnd = false;
+
+    if (isCharacterDataKept())
+      m_contentHandler.skippedEntity(name);
+  }
+
+  ////////////////////////////////////////////////////////////////////
+  // LexicalHandler
+  ////////////////////////////////////////////////////////////////////
+
+  public void startDTD(String name, String publicId, String systemId)
+          throws SAXException
+  {
+    m_lexicalHandler.startDTD(name, publicId, systemId);
+  }
+
+  public void endDTD() throws SAXException
+  {
+    m_lexicalHandler.endDTD();
+  }
+
+  public void startEntity(String name) throws SAXException
+  {
+    m_lexicalHandler.startEntity(name);
+  }
+
+  public void endEntity(String name) throws SAXException
+  {
+    m_lexicalHandler.endEntity(name);
+  }
+
+  public void startCDATA() throws SAXException
+  {
+    if (isCharacterDataKept())
+      m_lexicalHandler.startCDATA();
+  }
+
+  public void endCDATA() throws SAXException
+  {
+    if (isCharacterDataKept())
+      m_lexicalHandler.endCDATA();
+  }
+
+  public void comment(char ch[], int start, int length) throws SAXException
+  {
+    m_droppedEnd = false;
+
+    if (isCharacterDataKept())
+      m_lexicalHandler.comment(ch, start, length);
+  }
+}
@@ -58,6 +58,8 @@ public class DTMStringPool
 {
   Vector m_intToString;
   Map m_stringToInt;
+  /** Total length of the strings in the pool, for getMemoryUsage(). */
+  long m_charCount;
   public static final int NULL=-1;
 
   /**
@@ -84,6 +86,43 @@ public class DTMStringPool
     {
       m_intToString.removeAllElements();
       m_stringToInt.clear();
+      m_charCount=0;
+    }
+
+  /** Discard the strings most recently added, so that the pool holds
+   * only those it held when its size was as given. Their indexes will be
+   * assigned again to the next new strings, so nothing may still refer to
+   * them. This costs time in proportion to the number of strings
+   * discarded.
+   *
+   * @param size The number of strings to keep.
+   * */
+  public void setSize(int size)
+    {
+      for(int i=m_intToString.size()-1;i>=size;--i)
+        {
+          String s=(String) m_intToString.elementAt(i);
+          m_stringToInt.remove(s);
+          m_charCount-=s.length();
+        }
+      if(size<m_intToString.size())
+        m_intToString.setSize(size);
+    }
+
+  /** @return the number of strings in the pool. Since indexes are
+   * assigned consecutively from zero, this is also the next index.
+   * */
+  public int size()
+    {
+      return m_intToString.size();
+    }
+
+  /** @return an estimate of the heap used by the pool: each string, its
+   * hash table entry and its Integer index, and the string's characters.
+   * */
+  public long getMemoryUsage()
+    {
+      return 96L*m_intToString.size() + 2*m_charCount;
     }
 
   /** @return string whose value is uniquely identified by this integer index.
@@ -109,6 +148,7 @@ public class DTMStringPool
       int newIndex=m_intToString.size();
       m_intToString.addElement(s);
       m_stringToInt.put(s,new Integer(newIndex));
+      m_charCount+=s.length();
 
       return newIndex;
     }
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+package org.apache.xml.dtm.ref;
+
+/** <p>DTMValuePool is a bounded DTMStringPool used to share the String
+ * objects of repeated values while a DTM is being built. Documents often
+ * repeat a small set of attribute values (codes, flags, enumerations) a
+ * great many times, and the parser hands us a new String for each
+ * occurrence; passing each one through share() lets all occurrences of a
+ * value refer to the first one.</p>
+ *
+ * <p>So that unique data can't make the pool grow without limit, values
+ * longer than a given number of characters are never pooled, and once the
+ * pool holds a given number of distinct values no more are added. Values
+ * already in the pool continue to be shared.</p>
+ *
+ * <p>The pool counts what it has saved, for tuning. The byte count is an
+ * estimate: it assumes each String shared away would otherwise have cost
+ * its characters at two bytes each plus STRING_OVERHEAD.</p>
+ *
+ * <p>Threadsafety is not guaranteed, as for DTMStringPool.</p>
+ * */
+public class DTMValuePool extends DTMStringPool
+{
+  /** Default for the longest value, in characters, that will be pooled. */
+  public static final int DEFAULT_MAX_VALUE_LENGTH = 32;
+
+  /** Default for the largest number of distinct values pooled. */
+  public static final int DEFAULT_MAX_ENTRIES = 4096;
+
+  /** Estimated cost in bytes of a String object and its array headers,
+   * not counting the characters themselves. */
+  public static final int STRING_OVERHEAD = 40;
+
+  /** Longest value, in characters, that will be pooled. */
+  private final int m_maxValueLength;
+
+  /** Largest number of distinct values that will be pooled. */
+  private final int m_maxEntries;
+
+  /** Number of values replaced by a pooled String. */
+  private int m_sharedCount = 0;
+
+  /** Number of characters in the values replaced by a pooled String. */
+  private long m_sharedChars = 0;
+
+  /**
+   * Create a DTMValuePool with the given limits.
+   *
+   * @param maxValueLength Longest value, in characters, to pool.
+   * @param maxEntries Largest number of distinct values to pool.
+   */
+  public DTMValuePool(int maxValueLength, int maxEntries)
+    {
+      super();
+      m_maxValueLength = maxValueLength;
+      m_maxEntries = maxEntries;
+    }
+
+  /**
+   * Create a DTMValuePool with the default limits.
+   */
+  public DTMValuePool()
+    {
+      this(DEFAULT_MAX_VALUE_LENGTH, DEFAULT_MAX_ENTRIES);
+    }
+
+  /**
+   * Return the pooled String equal to a value, adding the value to the
+   * pool if it isn't there yet and the pool's limits allow.
+   *
+   * @param s The value; may be null.
+   * @return a String equal to s, which is s itself if s was not already
+   * pooled.
+   */
+  public String share(String s)
+    {
+      if (s == null || s.length() > m_maxValueLength)
+        return s;
+
+      Integer index = (Integer) m_stringToInt.get(s);
+      if (index != null)
+        {
+          String shared = (String) m_intToString.elementAt(index.intValue());
+          if (shared != s)
+            {
+              ++m_sharedCount;
+              m_sharedChars += s.length();
+            }
+          return shared;
+        }
+
+      if (size() < m_maxEntries)
+        stringToIndex(s);
+
+      return s;
+    }
+
+  /** @return the longest value, in characters, that will be pooled. */
+  public int getMaxValueLength()
+    {
+      return m_maxValueLength;
+    }
+
+  /** @return the largest number of distinct values that will be pooled. */
+  public int getMaxEntries()
+    {
+      return m_maxEntries;
+    }
+
+  /** @return the number of values that were replaced by a pooled
+   * String. */
+  public int getSharedCount()
+    {
+      return m_sharedCount;
+    }
+
+  /** @return the total length, in characters, of the values that were
+   * replaced by a pooled String. */
+  public long getSharedChars()
+    {
+      return m_sharedChars;
+    }
+
+  /** @return an estimate of the number of bytes of heap saved by
+   * sharing values. */
+  public long getBytesSaved()
+    {
+      return 2 * m_sharedChars + (long) STRING_OVERHEAD * m_sharedCount;
+    }
+}
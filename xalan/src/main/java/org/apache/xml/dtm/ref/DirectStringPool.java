@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+package org.apache.xml.dtm.ref;
+
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+
+/** <p>A DTMStringPool whose strings are read from existing storage, such
+ * as a region of a memory-mapped DTM image, rather than held on the
+ * heap. String i is the run of characters ending at ends[i] and starting
+ * where string i-1 ends; indexToString() makes a String of it each time
+ * it is asked.</p>
+ *
+ * <p>There is no hash table to look strings up by, so the first call to
+ * stringToIndex() (or to setSize()) copies every string onto the heap
+ * and turns this into an ordinary DTMStringPool. A DTM loaded from an
+ * image only does that if asked for an ID or namespace by its string.</p>
+ *
+ * <p>Like DTMStringPool, this is not threadsafe once stringToIndex() may
+ * be called.</p>
+ * */
+public class DirectStringPool extends DTMStringPool
+{
+  /** End offsets of the strings in m_chars, or null once copied onto the
+   * heap. */
+  private IntBuffer m_ends;
+
+  /** The characters of the strings. */
+  private CharBuffer m_chars;
+
+  /**
+   * Create a DirectStringPool over existing storage. The strings are
+   * shared, not copied. The first string is expected to be "", as it is
+   * in any DTMStringPool.
+   *
+   * @param ends The end offset of each string, in the remaining ints of
+   * the buffer.
+   * @param chars The characters of the strings, in the remaining chars of
+   * the buffer.
+   */
+  public DirectStringPool(IntBuffer ends, CharBuffer chars)
+    {
+      super(0);
+      m_ends=ends.slice();
+      m_chars=chars.slice();
+    }
+
+  /** Copy the strings onto the heap, if that hasn't been done yet. */
+  private void inflate()
+    {
+      if(m_ends==null)
+        return;
+
+      IntBuffer ends=m_ends;
+      int n=ends.limit();
+
+      super.removeAllElements();
+      for(int i=0;i<n;++i)
+        super.stringToIndex(indexToString(i));
+      m_ends=null;
+      m_chars=null;
+    }
+
+  public void removeAllElements()
+    {
+      m_ends=null;
+      m_chars=null;
+      super.removeAllElements();
+    }
+
+  public void setSize(int size)
+    {
+      inflate();
+      super.setSize(size);
+    }
+
+  public int size()
+    {
+      return (m_ends!=null) ? m_ends.limit() : super.size();
+    }
+
+  /** @return an estimate of the heap used by the pool, which is nothing
+   * while the strings are read from the underlying storage.
+   * */
+  public long getMemoryUsage()
+    {
+      return (m_ends!=null) ? 0 : super.getMemoryUsage();
+    }
+
+  public String indexToString(int i)
+    throws java.lang.ArrayIndexOutOfBoundsException
+    {
+      IntBuffer ends=m_ends;
+      if(ends==null || i==NULL)
+        return super.indexToString(i);
+
+      if(i<0 || i>=ends.limit())
+        throw new ArrayIndexOutOfBoundsException(i);
+
+      int start=(i==0) ? 0 : ends.get(i-1);
+      char[] chars=new char[ends.get(i)-start];
+      CharBuffer view=m_chars.duplicate();
+      view.position(start);
+      view.get(chars);
+      return new String(chars);
+    }
+
+  public int stringToIndex(String s)
+    {
+      inflate();
+      return super.stringToIndex(s);
+    }
+}
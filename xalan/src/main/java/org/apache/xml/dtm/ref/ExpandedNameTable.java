@@ -33,6 +33,16 @@ import org.apache.xml.dtm.DTM;
  * are combined in getExpandedTypeID() method to share the same hash calculation
  * code. We only need to implement the rehash() interface which is used to
  * expand the hash table.
+ * <p>
+ * A table may be shared by many DTMs, even ones being built or read by
+ * different threads at once (see DTMManagerDefault.setSharedNameTable()),
+ * so that the documents of one vocabulary get the same expanded type IDs
+ * and the names are hashed only once. Lookups of names already in the
+ * table take no lock: the hash entries are immutable, and a new table is
+ * built on rehash rather than the old one relinked. Adding a name is
+ * synchronized, and m_nextType, which is volatile, is only advanced once
+ * the new name is fully in place, so a reader trusts an entry only when
+ * its ID is below m_nextType.
  */
 public class ExpandedNameTable
 {
@@ -46,7 +56,7 @@ public class ExpandedNameTable
   /** Next available extended type   */
   // %REVIEW% Since this is (should be) always equal 
   // to the length of m_extendedTypes, do we need this? 
-  private int m_nextType;
+  private volatile int m_nextType;
 
   // These are all the types prerotated, for caller convenience.
   public static final int ELEMENT = ((int)DTM.ELEMENT_NODE) ;
@@ -63,10 +73,6 @@ public class ExpandedNameTable
   public static final int NOTATION = ((int)DTM.NOTATION_NODE) ;
   public static final int NAMESPACE = ((int)DTM.NAMESPACE_NODE) ;
 
-  /** Workspace for lookup. NOT THREAD SAFE!
-   * */
-  ExtendedType hashET = new ExtendedType(-1, "", "");
-
   /** The array to store the default extended types. */
   private static ExtendedType[] m_defaultExtendedTypes;
 
@@ -99,7 +105,7 @@ public class ExpandedNameTable
    * The internal array to store the hash entries.
    * Each array member is a slot for a hash bucket.
    */
-  private HashEntry[] m_table;
+  private volatile HashEntry[] m_table;
 
   /**
    * Init default values
@@ -135,7 +141,7 @@ public class ExpandedNameTable
     m_extendedTypes = new ExtendedType[m_initialSize];
     for (int i = 0; i < DTM.NTYPES; i++) {
         m_extendedTypes[i] = m_defaultExtendedTypes[i];
-        m_table[i] = new HashEntry(m_defaultExtendedTypes[i], i, i, null);
+        m_table[i] = new HashEntry(i, "", "", i, i, null);
     }
     
     m_nextType = DTM.NTYPES;
@@ -185,35 +191,80 @@ public class ExpandedNameTable
     
     // Calculate the hash code
     int hash = type + namespace.hashCode() + localName.hashCode();
-    
-    // Redefine the hashET object to represent the new expanded name.
-    hashET.redefine(type, namespace, localName, hash);
-    
+
+    // Look up the expanded name in the hash table without locking. Return
+    // the id if the expanded name is already in the hash table.
+    int id = lookup(namespace, localName, type, hash);
+
+    if (id != DTM.NULL)
+      return id;
+
+    return addExpandedType(namespace, localName, type, hash, searchOnly);
+  }
+
+  /**
+   * Look up an expanded name in the hash table.
+   *
+   * @param namespace The namespace, not null
+   * @param localName The local name, not null
+   * @param type The node type
+   * @param hash The hash code of the expanded name
+   *
+   * @return the expanded-name id, or DTM.NULL if the name isn't (yet
+   * visibly) in the table.
+   */
+  private int lookup(String namespace, String localName, int type, int hash)
+  {
+    HashEntry[] table = m_table;
+
     // Calculate the index into the HashEntry table.
-    int index = hash % m_capacity;
+    int index = hash % table.length;
     if (index < 0)
       index = -index;
 
-    // Look up the expanded name in the hash table. Return the id if
-    // the expanded name is already in the hash table.
-    for (HashEntry e = m_table[index]; e != null; e = e.next)
+    for (HashEntry e = table[index]; e != null; e = e.next)
     {
-      if (e.hash == hash && e.key.equals(hashET))
-        return e.value;
-    }
-    
-    if (searchOnly)
-    {
-      return DTM.NULL;
+      if (e.hash == hash && e.type == type
+          && e.localName.equals(localName) && e.namespace.equals(namespace))
+      {
+        // An entry whose id isn't below m_nextType may still be being
+        // added by another thread.
+        return (e.value < m_nextType) ? e.value : DTM.NULL;
+      }
     }
 
+    return DTM.NULL;
+  }
+
+  /**
+   * Add an expanded name to the table, unless another thread got there
+   * first.
+   *
+   * @param namespace The namespace, not null
+   * @param localName The local name, not null
+   * @param type The node type
+   * @param hash The hash code of the expanded name
+   * @param searchOnly If it is true, we will only search for the expanded name.
+   *
+   * @return the expanded-name id of the name, or DTM.NULL if it isn't in
+   * the table and searchOnly is true.
+   */
+  private synchronized int addExpandedType(String namespace, String localName,
+                                           int type, int hash,
+                                           boolean searchOnly)
+  {
+    int id = lookup(namespace, localName, type, hash);
+
+    if (id != DTM.NULL || searchOnly)
+      return id;
+
     // Expand the internal HashEntry array if necessary.
-    if (m_nextType > m_threshold) {
+    if (m_nextType > m_threshold)
       rehash();
-      index = hash % m_capacity;
-      if (index < 0)
-        index = -index;
-    }
+
+    int index = hash % m_capacity;
+    if (index < 0)
+      index = -index;
     
     // Create a new ExtendedType object
     ExtendedType newET = new ExtendedType(type, namespace, localName, hash);
@@ -230,9 +281,11 @@ public class ExpandedNameTable
     
     // Create a new hash entry for the new ExtendedType and put it into 
     // the table.
-    HashEntry entry = new HashEntry(newET, m_nextType, hash, m_table[index]);
+    HashEntry entry = new HashEntry(type, namespace, localName, m_nextType,
+                                    hash, m_table[index]);
     m_table[index] = entry;
 
+    // Publish the new name; see the class comment.
     return m_nextType++;
   }
 
@@ -251,22 +304,23 @@ public class ExpandedNameTable
     m_capacity = newCapacity;
     m_threshold = (int)(newCapacity * m_loadFactor);
       
-    m_table = new HashEntry[newCapacity];
+    // Readers may still be walking the old table, so copy the entries
+    // rather than relinking them.
+    HashEntry[] newTable = new HashEntry[newCapacity];
     for (int i = oldCapacity-1; i >=0 ; i--)
     {
-      for (HashEntry old = oldTable[i]; old != null; )
+      for (HashEntry e = oldTable[i]; e != null; e = e.next)
       {
-        HashEntry e = old;
-        old = old.next;
-          
         int newIndex = e.hash % newCapacity;
         if (newIndex < 0)
           newIndex = -newIndex;
           
-        e.next = m_table[newIndex];
-        m_table[newIndex] = e;
+        newTable[newIndex] = new HashEntry(e.type, e.namespace, e.localName,
+                                           e.value, e.hash,
+                                           newTable[newIndex]);
       }
     }
+    m_table = newTable;
   }
 
   /**
@@ -367,21 +421,40 @@ public class ExpandedNameTable
     return m_extendedTypes;
   }
 
+  /**
+   * Return an estimate of the heap used by the ExpandedNameTable. Each
+   * entry costs an ExtendedType, a HashEntry and two array slots; the
+   * name strings are not counted, since they are normally shared with
+   * the parser's symbol table.
+   *
+   * @return The estimated size in bytes
+   */
+  public long getMemoryUsage()
+  {
+    return 80L * m_nextType + 8L * (m_capacity + m_extendedTypes.length);
+  }
+
   /**
    * Inner class which represents a hash table entry.
    * The field next points to the next entry which is hashed into
-   * the same bucket in the case of "hash collision".
+   * the same bucket in the case of "hash collision". Entries are never
+   * changed once made, so readers need no lock.
    */
   private static final class HashEntry
   {
-    ExtendedType key;
-    int value;
-    int hash;
-    HashEntry next;
+    final int type;
+    final String namespace;
+    final String localName;
+    final int value;
+    final int hash;
+    final HashEntry next;
       
-    protected HashEntry(ExtendedType key, int value, int hash, HashEntry next)
+    protected HashEntry(int type, String namespace, String localName,
+                        int value, int hash, HashEntry next)
     {
-      this.key = key;
+      this.type = type;
+      this.namespace = namespace;
+      this.localName = localName;
       this.value = value;
       this.hash = hash;
       this.next = next;
@@ -0,0 +1,334 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+package org.apache.xml.dtm.ref;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.xml.dtm.ref.sax2dtm.StAX2DTM;
+import org.apache.xml.res.XMLErrorResources;
+import org.apache.xml.res.XMLMessages;
+import org.apache.xml.utils.SystemIDResolver;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+/** <p>IncrementalSAXSource_StAX is an IncrementalSAXSource which pulls
+ * its events from a StAX XMLStreamReader. Each deliverMoreNodes() call
+ * advances the reader in place, on the caller's thread, and turns what
+ * it reads into SAX events for our listeners; there is no second thread
+ * and no coroutine handoff, so an incremental build costs little more
+ * than a normal one. The events themselves are produced by a StAX2DTM,
+ * as for a non-incremental build from a StAXSource.</p>
+ *
+ * <p>Like IncrementalSAXSource_Xerces, this can only be used when we
+ * control the parser, i.e. when parsing from an InputSource rather than
+ * listening to a SAX stream someone else is driving. Events the StAX API
+ * doesn't report, such as the start and end of the DTD's parts, are not
+ * passed on; unparsed entity declarations are, if the StAX
+ * implementation makes them available.</p>
+ *
+ * <p>The StAX parser is not set up like the XMLReader a build would
+ * otherwise use: it has none of its features, entity resolver or
+ * secure-processing limits. DTMManagerDefault therefore only uses this
+ * source when it has been asked to, with setStAXIncremental().</p>
+ * */
+public class IncrementalSAXSource_StAX
+  implements IncrementalSAXSource
+{
+  //
+  // Data
+  //
+  private ContentHandler fContentHandler = null;
+  private LexicalHandler fLexicalHandler = null;
+  private DTDHandler fDTDHandler = null;
+
+  /** Number of events to deliver for each deliverMoreNodes() request. */
+  private int frequency = 5;
+
+  /** The reader events are pulled from, once parsing has started. */
+  private XMLStreamReader fReader = null;
+
+  /** Stream we opened ourselves, if any, to be closed at the end. */
+  private InputStream fOwnedStream = null;
+
+  /** Turns the reader's events into SAX events for our listeners. */
+  private StAX2DTM fBuilder = null;
+
+  /**
+   * Flag indicating that no more events should be delivered -- either
+   * because input ran to completion (endDocument), or because the user
+   * requested an early stop via deliverMoreNodes(false).
+   */
+  private boolean fNoMoreEvents = false;
+
+  /** The factory the reader comes from. */
+  private XMLInputFactory fFactory;
+
+  /** The factory shared by the sources created without one; it is
+   * configured before it is published, and only read from afterwards. */
+  private static XMLInputFactory fDefaultFactory = null;
+
+  //
+  // Constructors
+  //
+
+  /** Create a IncrementalSAXSource_StAX using the default StAX
+   * implementation.
+   */
+  public IncrementalSAXSource_StAX()
+  {
+    fFactory = getDefaultFactory();
+  }
+
+  /** Create a IncrementalSAXSource_StAX which takes its readers from the
+   * given factory. The factory is configured to be namespace aware, to
+   * expand entity references and to read the DTD, as an XMLReader would.
+   *
+   * @param factory The factory to create the XMLStreamReader with.
+   */
+  public IncrementalSAXSource_StAX(XMLInputFactory factory)
+  {
+    fFactory = configure(factory);
+  }
+
+  /**
+   * Get the factory shared by sources created without one, creating it
+   * the first time.
+   *
+   * @return the default XMLInputFactory, configured by configure().
+   */
+  private static synchronized XMLInputFactory getDefaultFactory()
+  {
+    if (fDefaultFactory == null)
+      fDefaultFactory = configure(XMLInputFactory.newInstance());
+
+    return fDefaultFactory;
+  }
+
+  /**
+   * Configure a factory to read documents as an XMLReader would.
+   *
+   * @param factory The factory.
+   *
+   * @return the factory.
+   */
+  private static XMLInputFactory configure(XMLInputFactory factory)
+  {
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES,
+                        Boolean.TRUE);
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.TRUE);
+    return factory;
+  }
+
+  //
+  // Public methods
+  //
+
+  // Register handler directly with the incremental parser
+  public void setContentHandler(ContentHandler handler)
+  {
+    fContentHandler = handler;
+  }
+
+  // Register handler directly with the incremental parser
+  public void setLexicalHandler(LexicalHandler handler)
+  {
+    fLexicalHandler = handler;
+  }
+
+  // Register handler directly with the incremental parser
+  public void setDTDHandler(DTDHandler handler)
+  {
+    fDTDHandler = handler;
+  }
+
+  /**
+   * Set how many events are delivered for each deliverMoreNodes() request.
+   *
+   * @param events The number of events, at least 1.
+   */
+  public void setReturnFrequency(int events)
+  {
+    if (events < 1) events = 1;
+    frequency = events;
+  }
+
+  /** startParse() is a simple API which tells the IncrementalSAXSource
+   * to begin reading a document. No events are delivered until
+   * deliverMoreNodes() is called.
+   *
+   * @throws SAXException if parsing is already in progress, or the
+   * document can't be opened.
+   * */
+  public void startParse(InputSource source) throws SAXException
+  {
+    if (fReader != null)
+      throw new SAXException(XMLMessages.createXMLMessage(XMLErrorResources.ER_STARTPARSE_WHILE_PARSING, null)); //"startParse may not be called while parsing");
+
+    fNoMoreEvents = false;
+
+    try
+    {
+      String systemId = source.getSystemId();
+
+      if (source.getCharacterStream() != null)
+        fReader = fFactory.createXMLStreamReader(systemId,
+                                                 source.getCharacterStream());
+      else
+      {
+        InputStream in = source.getByteStream();
+
+        if (in == null)
+        {
+          if (systemId == null)
+            throw new SAXException(XMLMessages.createXMLMessage(XMLErrorResources.ER_STARTPARSE_NEEDS_SAXPARSER, null));
+
+          in = new java.net.URL(
+                 SystemIDResolver.getAbsoluteURI(systemId)).openStream();
+          fOwnedStream = in;
+        }
+
+        // The factory has no way to take both an encoding and a system
+        // ID, so decode the stream ourselves when the encoding is given.
+        if (source.getEncoding() != null)
+          fReader = fFactory.createXMLStreamReader(systemId,
+                      new InputStreamReader(in, source.getEncoding()));
+        else
+          fReader = fFactory.createXMLStreamReader(systemId, in);
+      }
+
+      fBuilder = new StAX2DTM(fContentHandler, fLexicalHandler, fDTDHandler);
+      fBuilder.setXMLStreamReader(fReader);
+    }
+    catch (XMLStreamException e)
+    {
+      closeInput();
+      throw new SAXException(e);
+    }
+    catch (IOException e)
+    {
+      closeInput();
+      throw new SAXException(e);
+    }
+  }
+
+  /** deliverMoreNodes() is a simple API which tells the coroutine
+   * parser that we need more nodes.  This is intended to be called
+   * from one of our partner routines, and serves to encapsulate the
+   * details of how incremental parsing has been achieved.
+   *
+   * @param parsemore If true, tells the incremental parser to generate
+   * another chunk of output. If false, tells the parser that we're
+   * satisfied and it can terminate parsing of this document.
+   * @return Boolean.TRUE if there may be more events available by invoking
+   * deliverMoreNodes() again. Boolean.FALSE if parsing has run to completion (or been
+   * terminated by deliverMoreNodes(false). Or an exception object if something
+   * malfunctioned. %REVIEW% We _could_ actually throw the exception, but
+   * that would require runinng deliverMoreNodes() in a try/catch... and for many
+   * applications, exception will be simply be treated as "not TRUE" in
+   * any case.
+   * */
+  public Object deliverMoreNodes(boolean parsemore)
+  {
+    // If parsing is already done, we can immediately say so
+    if (fNoMoreEvents)
+      return Boolean.FALSE;
+
+    if (!parsemore)
+    {
+      fNoMoreEvents = true;
+      closeInput();
+      return Boolean.FALSE;
+    }
+
+    try
+    {
+      for (int i = 0; i < frequency; i++)
+      {
+        if (!fBuilder.nextEvent())
+        {
+          fNoMoreEvents = true;
+          closeInput();
+          return Boolean.FALSE;
+        }
+      }
+      return Boolean.TRUE;
+    }
+    catch (XMLStreamException e)
+    {
+      fNoMoreEvents = true;
+      closeInput();
+      return new SAXException(e);
+    }
+    catch (SAXException e)
+    {
+      fNoMoreEvents = true;
+      closeInput();
+      return e;
+    }
+    catch (RuntimeException e)
+    {
+      fNoMoreEvents = true;
+      closeInput();
+      return e;
+    }
+  }
+
+  /**
+   * Release the reader and any stream we opened for it.
+   */
+  private void closeInput()
+  {
+    try
+    {
+      if (fReader != null)
+        fReader.close();
+    }
+    catch (XMLStreamException e)
+    {
+      // Nothing more to be done with it anyway.
+    }
+
+    try
+    {
+      if (fOwnedStream != null)
+        fOwnedStream.close();
+    }
+    catch (IOException e)
+    {
+      // Nothing more to be done with it anyway.
+    }
+    fReader = null;
+    fOwnedStream = null;
+    fBuilder = null;
+  }
+}
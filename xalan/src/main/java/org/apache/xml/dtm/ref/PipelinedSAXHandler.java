@@ -0,0 +1,622 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.dtm.ref;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.xml.utils.ThreadControllerWrapper;
+import org.apache.xml.utils.WrappedRuntimeException;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * A SAX handler which hands the events it receives to another thread,
+ * so that parsing a document and building its DTM can proceed in
+ * parallel. The parser's thread copies each event into a slot of a
+ * bounded ring buffer; a worker thread takes them out in order and
+ * passes them to the real handlers, normally a SAX2DTM.
+ *
+ * <p>The ring buffer has a single producer and a single consumer, so it
+ * needs no locks: each side owns one counter, and publishes it with a
+ * volatile write once the slot it has filled or emptied is ready for the
+ * other side. The slots are allocated once and reused, including their
+ * character and attribute storage, so a steady stream of events causes
+ * no allocation beyond what the handlers do themselves.</p>
+ *
+ * <p>endDocument() doesn't return until the worker has passed on every
+ * event, so when the parse returns normally the DTM is complete. If the
+ * parse fails part way, close() must be called to stop the worker. An
+ * exception thrown by the real handlers is rethrown on the parser's
+ * thread by the next event after it happened.</p>
+ *
+ * <p>The Locator isn't copied, so a handler which asks it for line and
+ * column numbers would get the parser's current position rather than
+ * that of the event. DTMManagerDefault doesn't pipeline a parse when
+ * source locations are being recorded.</p>
+ */
+public class PipelinedSAXHandler
+        implements ContentHandler, LexicalHandler, DTDHandler,
+                   TextBoundaryHandler, Runnable
+{
+  /** Number of slots in the ring buffer; must be a power of two. */
+  private static final int RING_SIZE = 1024;
+
+  /** Mask to turn a sequence number into a slot index. */
+  private static final int RING_MASK = RING_SIZE - 1;
+
+  /** Number of times to yield while waiting before starting to park. */
+  private static final int SPIN_LIMIT = 64;
+
+  /** Nanoseconds to park for each time round a wait loop. */
+  private static final long PARK_NANOS = 50000L;
+
+  // Event types.
+  private static final int SET_DOCUMENT_LOCATOR = 0;
+  private static final int START_DOCUMENT = 1;
+  private static final int END_DOCUMENT = 2;
+  private static final int START_PREFIX_MAPPING = 3;
+  private static final int END_PREFIX_MAPPING = 4;
+  private static final int START_ELEMENT = 5;
+  private static final int END_ELEMENT = 6;
+  private static final int CHARACTERS = 7;
+  private static final int IGNORABLE_WHITESPACE = 8;
+  private static final int PROCESSING_INSTRUCTION = 9;
+  private static final int SKIPPED_ENTITY = 10;
+  private static final int START_DTD = 11;
+  private static final int END_DTD = 12;
+  private static final int START_ENTITY = 13;
+  private static final int END_ENTITY = 14;
+  private static final int START_CDATA = 15;
+  private static final int END_CDATA = 16;
+  private static final int COMMENT = 17;
+  private static final int NOTATION_DECL = 18;
+  private static final int UNPARSED_ENTITY_DECL = 19;
+  private static final int TEXT_BOUNDARY = 20;
+
+  /**
+   * One slot of the ring buffer. The meaning of the string fields
+   * depends on the event type; they are in the order the SAX method
+   * takes them.
+   */
+  private static final class Event
+  {
+    /** The event type. */
+    int m_type;
+
+    /** First string argument. */
+    String m_s1;
+
+    /** Second string argument. */
+    String m_s2;
+
+    /** Third string argument. */
+    String m_s3;
+
+    /** Fourth string argument. */
+    String m_s4;
+
+    /** Character data, reused from one event to the next. */
+    char[] m_ch = new char[64];
+
+    /** Number of characters in m_ch which belong to this event. */
+    int m_length;
+
+    /** Attributes of a startElement, reused from one event to the next. */
+    AttributesImpl m_attributes = new AttributesImpl();
+
+    /** The document locator. */
+    Locator m_locator;
+  }
+
+  /** The ring buffer. */
+  private final Event[] m_ring = new Event[RING_SIZE];
+
+  /** Sequence number of the next slot the producer fills. */
+  private volatile long m_head = 0;
+
+  /** Sequence number of the next slot the consumer empties. */
+  private volatile long m_tail = 0;
+
+  /** Where content events go. */
+  private ContentHandler m_contentHandler;
+
+  /** Where lexical events go. */
+  private LexicalHandler m_lexicalHandler;
+
+  /** Where DTD events go. */
+  private DTDHandler m_dtdHandler;
+
+  /** The worker thread, once started. */
+  private Thread m_worker = null;
+
+  /** Set by the producer to make the worker give up. */
+  private volatile boolean m_aborted = false;
+
+  /** What the handlers threw on the worker, if anything. */
+  private volatile Throwable m_failure = null;
+
+  /**
+   * Create a pipeline in front of the given handlers. The worker thread
+   * starts when the first event arrives.
+   *
+   * @param contentHandler Where content events are to go.
+   * @param lexicalHandler Where lexical events are to go.
+   * @param dtdHandler Where DTD events are to go.
+   */
+  public PipelinedSAXHandler(ContentHandler contentHandler,
+                             LexicalHandler lexicalHandler,
+                             DTDHandler dtdHandler)
+  {
+    m_contentHandler = contentHandler;
+    m_lexicalHandler = lexicalHandler;
+    m_dtdHandler = dtdHandler;
+
+    for (int i = 0; i < RING_SIZE; i++)
+      m_ring[i] = new Event();
+  }
+
+  /**
+   * Wait a little while for the other thread to make progress.
+   *
+   * @param spins How many times the caller has waited so far.
+   */
+  private static void pause(int spins)
+  {
+    if (spins < SPIN_LIMIT)
+      Thread.yield();
+    else
+      LockSupport.parkNanos(PARK_NANOS);
+  }
+
+  /**
+   * Rethrow, on the parser's thread, whatever the handlers threw on the
+   * worker.
+   *
+   * @throws SAXException if the handlers threw one, or wrapping anything
+   * else they threw.
+   */
+  private void checkFailure() throws SAXException
+  {
+    Throwable failure = m_failure;
+
+    if (null == failure)
+      return;
+
+    if (failure instanceof SAXException)
+      throw (SAXException) failure;
+    if (failure instanceof RuntimeException)
+      throw (RuntimeException) failure;
+    if (failure instanceof Error)
+      throw (Error) failure;
+
+    throw new WrappedRuntimeException((Exception) failure);
+  }
+
+  /**
+   * Get the next free slot, waiting for the worker if the ring is full.
+   * The slot isn't seen by the worker until publish() is called.
+   *
+   * @param type The type of the event which will be put in the slot.
+   *
+   * @return the slot.
+   *
+   * @throws SAXException if the handlers have already failed.
+   */
+  private Event claim(int type) throws SAXException
+  {
+    if (null == m_worker)
+      m_worker = ThreadControllerWrapper.runThread(this, -1);
+
+    long head = m_head;
+
+    for (int spins = 0; head - m_tail >= RING_SIZE; spins++)
+    {
+      checkFailure();
+      pause(spins);
+    }
+    checkFailure();
+
+    Event event = m_ring[(int) head & RING_MASK];
+
+    event.m_type = type;
+    return event;
+  }
+
+  /**
+   * Make the slot most recently claimed visible to the worker.
+   */
+  private void publish()
+  {
+    m_head = m_head + 1;
+  }
+
+  /**
+   * Pass on an event which has only string arguments.
+   *
+   * @param type The event type.
+   * @param s1 The first argument, or null.
+   * @param s2 The second argument, or null.
+   * @param s3 The third argument, or null.
+   * @param s4 The fourth argument, or null.
+   *
+   * @throws SAXException if the handlers have already failed.
+   */
+  private void put(int type, String s1, String s2, String s3, String s4)
+          throws SAXException
+  {
+    Event event = claim(type);
+
+    event.m_s1 = s1;
+    event.m_s2 = s2;
+    event.m_s3 = s3;
+    event.m_s4 = s4;
+    publish();
+  }
+
+  /**
+   * Pass on an event which carries character data.
+   *
+   * @param type The event type.
+   * @param ch The characters.
+   * @param start The start position in the array.
+   * @param length The number of characters.
+   *
+   * @throws SAXException if the handlers have already failed.
+   */
+  private void put(int type, char ch[], int start, int length)
+          throws SAXException
+  {
+    Event event = claim(type);
+
+    if (event.m_ch.length < length)
+      event.m_ch = new char[Math.max(length, event.m_ch.length * 2)];
+
+    System.arraycopy(ch, start, event.m_ch, 0, length);
+    event.m_length = length;
+    publish();
+  }
+
+  /**
+   * Stop the worker, if the parse didn't get as far as endDocument(), and
+   * wait for it to finish. Events it hasn't passed on yet are discarded.
+   */
+  public void close()
+  {
+    if (null == m_worker)
+      return;
+
+    m_aborted = true;
+
+    try
+    {
+      ThreadControllerWrapper.waitThread(m_worker, this);
+    }
+    catch (InterruptedException ie)
+    {
+      Thread.currentThread().interrupt();
+    }
+    m_worker = null;
+  }
+
+  /**
+   * Take events out of the ring buffer and pass them on, until
+   * endDocument has been passed on or the producer gives up.
+   */
+  public void run()
+  {
+    try
+    {
+      long tail = m_tail;
+
+      while (true)
+      {
+        for (int spins = 0; tail == m_head; spins++)
+        {
+          if (m_aborted)
+            return;
+
+          pause(spins);
+        }
+
+        Event event = m_ring[(int) tail & RING_MASK];
+        int type = event.m_type;
+
+        deliver(event);
+
+        // Let go of the strings, so they aren't kept alive by the ring.
+        event.m_s1 = event.m_s2 = event.m_s3 = event.m_s4 = null;
+        event.m_locator = null;
+
+        m_tail = ++tail;
+
+        if (END_DOCUMENT == type)
+          return;
+      }
+    }
+    catch (Throwable t)
+    {
+      m_failure = t;
+    }
+  }
+
+  /**
+   * Pass one event on to the handlers.
+   *
+   * @param event The event.
+   *
+   * @throws SAXException if a handler throws it.
+   */
+  private void deliver(Event event) throws SAXException
+  {
+    switch (event.m_type)
+    {
+    case SET_DOCUMENT_LOCATOR :
+      m_contentHandler.setDocumentLocator(event.m_locator);
+      break;
+    case START_DOCUMENT :
+      m_contentHandler.startDocument();
+      break;
+    case END_DOCUMENT :
+      m_contentHandler.endDocument();
+      break;
+    case START_PREFIX_MAPPING :
+      m_contentHandler.startPrefixMapping(event.m_s1, event.m_s2);
+      break;
+    case END_PREFIX_MAPPING :
+      m_contentHandler.endPrefixMapping(event.m_s1);
+      break;
+    case START_ELEMENT :
+      m_contentHandler.startElement(event.m_s1, event.m_s2, event.m_s3,
+                                    event.m_attributes);
+      break;
+    case END_ELEMENT :
+      m_contentHandler.endElement(event.m_s1, event.m_s2, event.m_s3);
+      break;
+    case CHARACTERS :
+      m_contentHandler.characters(event.m_ch, 0, event.m_length);
+      break;
+    case IGNORABLE_WHITESPACE :
+      m_contentHandler.ignorableWhitespace(event.m_ch, 0, event.m_length);
+      break;
+    case PROCESSING_INSTRUCTION :
+      m_contentHandler.processingInstruction(event.m_s1, event.m_s2);
+      break;
+    case SKIPPED_ENTITY :
+      m_contentHandler.skippedEntity(event.m_s1);
+      break;
+    case START_DTD :
+      m_lexicalHandler.startDTD(event.m_s1, event.m_s2, event.m_s3);
+      break;
+    case END_DTD :
+      m_lexicalHandler.endDTD();
+      break;
+    case START_ENTITY :
+      m_lexicalHandler.startEntity(event.m_s1);
+      break;
+    case END_ENTITY :
+      m_lexicalHandler.endEntity(event.m_s1);
+      break;
+    case START_CDATA :
+      m_lexicalHandler.startCDATA();
+      break;
+    case END_CDATA :
+      m_lexicalHandler.endCDATA();
+      break;
+    case COMMENT :
+      m_lexicalHandler.comment(event.m_ch, 0, event.m_length);
+      break;
+    case NOTATION_DECL :
+      m_dtdHandler.notationDecl(event.m_s1, event.m_s2, event.m_s3);
+      break;
+    case UNPARSED_ENTITY_DECL :
+      m_dtdHandler.unparsedEntityDecl(event.m_s1, event.m_s2, event.m_s3,
+                                      event.m_s4);
+      break;
+    case TEXT_BOUNDARY :
+      if (m_contentHandler instanceof TextBoundaryHandler)
+        ((TextBoundaryHandler) m_contentHandler).textBoundary();
+      break;
+    default :
+      break;
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////
+  // ContentHandler
+  ////////////////////////////////////////////////////////////////////
+
+  public void setDocumentLocator(Locator locator)
+  {
+    try
+    {
+      Event event = claim(SET_DOCUMENT_LOCATOR);
+
+      event.m_locator = locator;
+      publish();
+    }
+    catch (SAXException se)
+    {
+      // Nothing has been passed on yet, so this can't happen.
+      throw new WrappedRuntimeException(se);
+    }
+  }
+
+  public void startDocument() throws SAXException
+  {
+    put(START_DOCUMENT, null, null, null, null);
+  }
+
+  public void endDocument() throws SAXException
+  {
+    put(END_DOCUMENT, null, null, null, null);
+
+    // The DTM has to be complete when the parse returns.
+    try
+    {
+      ThreadControllerWrapper.waitThread(m_worker, this);
+    }
+    catch (InterruptedException ie)
+    {
+      m_aborted = true;
+      throw new SAXException(ie);
+    }
+    finally
+    {
+      m_worker = null;
+    }
+    checkFailure();
+  }
+
+  public void startPrefixMapping(String prefix, String uri)
+          throws SAXException
+  {
+    put(START_PREFIX_MAPPING, prefix, uri, null, null);
+  }
+
+  public void endPrefixMapping(String prefix) throws SAXException
+  {
+    put(END_PREFIX_MAPPING, prefix, null, null, null);
+  }
+
+  public void startElement(
+          String uri, String localName, String qName, Attributes attributes)
+            throws SAXException
+  {
+    Event event = claim(START_ELEMENT);
+    AttributesImpl copy = event.m_attributes;
+    int n = attributes.getLength();
+
+    // clear() keeps the storage, where setAttributes() wouldn't.
+    copy.clear();
+    for (int i = 0; i < n; i++)
+    {
+      copy.addAttribute(attributes.getURI(i), attributes.getLocalName(i),
+                        attributes.getQName(i), attributes.getType(i),
+                        attributes.getValue(i));
+    }
+
+    event.m_s1 = uri;
+    event.m_s2 = localName;
+    event.m_s3 = qName;
+    publish();
+  }
+
+  public void endElement(String uri, String localName, String qName)
+          throws SAXException
+  {
+    put(END_ELEMENT, uri, localName, qName, null);
+  }
+
+  public void characters(char ch[], int start, int length)
+          throws SAXException
+  {
+    put(CHARACTERS, ch, start, length);
+  }
+
+  public void ignorableWhitespace(char ch[], int start, int length)
+          throws SAXException
+  {
+    put(IGNORABLE_WHITESPACE, ch, start, length);
+  }
+
+  public void processingInstruction(String target, String data)
+          throws SAXException
+  {
+    put(PROCESSING_INSTRUCTION, target, data, null, null);
+  }
+
+  public void skippedEntity(String name) throws SAXException
+  {
+    put(SKIPPED_ENTITY, name, null, null, null);
+  }
+
+  ////////////////////////////////////////////////////////////////////
+  // LexicalHandler
+  ////////////////////////////////////////////////////////////////////
+
+  public void startDTD(String name, String publicId, String systemId)
+          throws SAXException
+  {
+    put(START_DTD, name, publicId, systemId, null);
+  }
+
+  public void endDTD() throws SAXException
+  {
+    put(END_DTD, null, null, null, null);
+  }
+
+  public void startEntity(String name) throws SAXException
+  {
+    put(START_ENTITY, name, null, null, null);
+  }
+
+  public void endEntity(String name) throws SAXException
+  {
+    put(END_ENTITY, name, null, null, null);
+  }
+
+  public void startCDATA() throws SAXException
+  {
+    put(START_CDATA, null, null, null, null);
+  }
+
+  public void endCDATA() throws SAXException
+  {
+    put(END_CDATA, null, null, null, null);
+  }
+
+  public void comment(char ch[], int start, int length) throws SAXException
+  {
+    put(COMMENT, ch, start, length);
+  }
+
+  ////////////////////////////////////////////////////////////////////
+  // DTDHandler
+  ////////////////////////////////////////////////////////////////////
+
+  public void notationDecl(String name, String publicId, String systemId)
+          throws SAXException
+  {
+    put(NOTATION_DECL, name, publicId, systemId, null);
+  }
+
+  public void unparsedEntityDecl(
+          String name, String publicId, String systemId, String notationName)
+            throws SAXException
+  {
+    put(UNPARSED_ENTITY_DECL, name, publicId, systemId, notationName);
+  }
+
+  ////////////////////////////////////////////////////////////////////
+  // TextBoundaryHandler
+  ////////////////////////////////////////////////////////////////////
+
+  public void textBoundary() throws SAXException
+  {
+    put(TEXT_BOUNDARY, null, null, null, null);
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.dtm.ref;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Implemented by DTM builders which join adjacent character data into one
+ * text node, and by the handlers which relay events to them. A filter
+ * which drops a node from between two runs of character data, such as
+ * DTMProjectionFilter, uses it to keep the runs apart, as they would have
+ * been had the node been built.
+ */
+public interface TextBoundaryHandler
+{
+  /**
+   * End the text node being accumulated, if any, just as a following
+   * sibling node would have.
+   *
+   * @throws SAXException if the text node can't be added.
+   */
+  public void textBoundary() throws SAXException;
+}
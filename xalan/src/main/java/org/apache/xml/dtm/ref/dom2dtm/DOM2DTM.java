@@ -92,8 +92,9 @@ public class DOM2DTM extends DTMDefaultBaseIterators
         
   /** true if ALL the nodes in the m_root subtree have been processed;
    * false if our incremental build has not yet finished scanning the
-   * DOM tree.  */
-  transient private boolean m_nodesAreProcessed;
+   * DOM tree. Volatile so that a thread which sees it set also sees
+   * the finished node tables; see isTreeIncomplete().  */
+  transient private volatile boolean m_nodesAreProcessed;
 
   /** The node objects.  The instance part of the handle indexes
    * directly into this vector.  Each DTM node may actually be
@@ -103,6 +104,10 @@ public class DOM2DTM extends DTMDefaultBaseIterators
    * that sequence. */
   protected Vector m_nodes = new Vector();
 
+  /** Maps each node in m_nodes to its identity, once importAll() has
+   * been called; null until then. */
+  private NodeIdentityMap m_nodeMap = null;
+
   /**
    * Construct a DOM2DTM object from a DOM node.
    *
@@ -194,9 +199,11 @@ public class DOM2DTM extends DTMDefaultBaseIterators
                                 
                                 // Handle as Extended Addressing
         DTMManagerDefault mgrD=(DTMManagerDefault)m_mgr;
-        int id=mgrD.getFirstFreeDTMID();
+        int id=mgrD.getNextDTMID(m_dtmIdent.elementAt(m_dtmIdent.size()-1)
+                                 >>>DTMManager.IDENT_DTM_NODE_BITS);
         mgrD.addDTM(this,id,nodeIndex);
         m_dtmIdent.addElement(id<<DTMManager.IDENT_DTM_NODE_BITS);
+        updateHandleRange();
       }
       catch(ClassCastException e)
       {
@@ -209,6 +216,9 @@ public class DOM2DTM extends DTMDefaultBaseIterators
 
     m_size++;
     // ensureSize(nodeIndex);
+
+    if (null != m_memoryBudget && 0 == nodeIndex % MEMORY_CHECK_INTERVAL)
+      checkMemoryBudget();
     
     int type;
     if(NULL==forceNodeType)
@@ -244,6 +254,9 @@ public class DOM2DTM extends DTMDefaultBaseIterators
     }
     
     m_nodes.addElement(node);
+
+    if (null != m_nodeMap)
+      m_nodeMap.put(node, nodeIndex);
     
     m_firstch.setElementAt(NOTPROCESSED,nodeIndex);
     m_nextsib.setElementAt(NOTPROCESSED,nodeIndex);
@@ -308,6 +321,82 @@ public class DOM2DTM extends DTMDefaultBaseIterators
     return nodeIndex;
   }
   
+  /**
+   * Import the whole of the wrapped DOM tree now, rather than node by
+   * node as it is navigated. The tree is counted first so that the node
+   * table can be sized once, and a DOM node to identity map is built as
+   * the nodes are added, which makes getHandleOfNode() a hash lookup
+   * rather than a scan. Calling this more than once does no harm.
+   */
+  public void importAll()
+  {
+    if (null == m_nodeMap)
+    {
+      int count = countNodes(m_root);
+
+      m_nodes.ensureCapacity(count);
+      m_nodeMap = new NodeIdentityMap(count);
+
+      // Take in whatever has been built already.
+      int n = m_nodes.size();
+
+      for (int i = 0; i < n; i++)
+        m_nodeMap.put(m_nodes.elementAt(i), i);
+    }
+
+    while (nextNode())
+      ;
+  }
+
+  /**
+   * Count the nodes in a DOM subtree, including attributes, plus one for
+   * each element in case an xml: namespace node has to be synthesized.
+   * This is an upper bound on the number of DTM nodes the subtree will
+   * produce, since whitespace may be stripped and adjacent text merged.
+   *
+   * @param root The root of the subtree.
+   *
+   * @return the count.
+   */
+  private static int countNodes(Node root)
+  {
+    int count = 0;
+    Node node = root;
+
+    while (null != node)
+    {
+      count++;
+
+      if (ELEMENT_NODE == node.getNodeType())
+      {
+        NamedNodeMap attrs = node.getAttributes();
+
+        count += 1 + ((null == attrs) ? 0 : attrs.getLength());
+      }
+
+      // Pre-order walk, without recursion: down, else right, else up and
+      // right, stopping at the root.
+      Node next = node.getFirstChild();
+
+      while (null == next && node != root)
+      {
+        next = node.getNextSibling();
+
+        if (null == next)
+        {
+          node = node.getParentNode();
+
+          if (null == node)
+            break;
+        }
+      }
+
+      node = next;
+    }
+
+    return count;
+  }
+
   /**
    * Get the number of nodes that have been added.
    */
@@ -315,6 +404,31 @@ public class DOM2DTM extends DTMDefaultBaseIterators
   {
     return m_nodes.size();
   }
+
+  /**
+   * Get an estimate of the memory retained by one part of this DTM,
+   * adding m_nodes and the identity map to the node arrays. The DOM
+   * itself, which holds the characters, isn't counted.
+   *
+   * @param part One of the DTMDefaultBase.MEMORY_* values.
+   *
+   * @return the estimated size in bytes.
+   */
+  public long getMemoryUsage(int part)
+  {
+    long size = super.getMemoryUsage(part);
+
+    if (MEMORY_NODE_ARRAYS == part)
+    {
+      size += 8L * m_nodes.size();
+
+      // Two slots, a key reference and an int, per entry at 50% load.
+      if (null != m_nodeMap)
+        size += 24L * m_nodes.size();
+    }
+
+    return size;
+  }
   
  /**
    * This method iterates to the next node that will be added to the table.
@@ -496,9 +610,11 @@ public class DOM2DTM extends DTMDefaultBaseIterators
             if(TEXT_NODE == n.getNodeType())
               nexttype=TEXT_NODE;
             // Any non-whitespace in this sequence blocks whitespace
-            // suppression
-            suppressNode &=
-              XMLCharacterRecognizer.isWhiteSpace(n.getNodeValue());
+            // suppression. (Once blocked, there's no need to look at
+            // the rest of the text.)
+            if (suppressNode)
+              suppressNode =
+                XMLCharacterRecognizer.isWhiteSpace(n.getNodeValue());
                         
             n=logicalNextDOMTextNode(n);
           }
@@ -644,7 +760,8 @@ public class DOM2DTM extends DTMDefaultBaseIterators
 
   /**
    * Get the handle from a Node.
-   * <p>%OPT% This will be pretty slow.</p>
+   * <p>%OPT% This will be pretty slow, unless importAll() has built the
+   * node map.</p>
    *
    * <p>%OPT% An XPath-like search (walk up DOM to root, tracking path;
    * walk down DTM reconstructing path) might be considerably faster
@@ -663,6 +780,17 @@ public class DOM2DTM extends DTMDefaultBaseIterators
    */
   private int getHandleFromNode(Node node)
   {
+    if (null != node && null != m_nodeMap)
+    {
+      int identity = m_nodeMap.get(node);
+
+      if (NULL != identity)
+        return makeNodeHandle(identity);
+
+      if (m_nodesAreProcessed)
+        return DTM.NULL;
+    }
+
     if (null != node)
     {
       int len = m_nodes.size();        
@@ -687,6 +815,42 @@ public class DOM2DTM extends DTMDefaultBaseIterators
     return DTM.NULL;
   }
 
+  /**
+   * Migrate this DTM, with the part of the DOM it has walked so far, to
+   * another DTMManager, registering it there under new DTM IDs. The DTM
+   * must no longer be registered with its old manager (see
+   * DTMManagerDefault.detach()). This lets a DOM be wrapped once and
+   * evaluated against by one manager after another.
+   *
+   * @param manager the DTMManager
+   */
+  public void migrateTo(DTMManager manager)
+  {
+    super.migrateTo(manager);
+
+    int numDTMs = m_dtmIdent.size();
+    int dtmId = m_mgrDefault.getDocumentDTMID();
+    int nodeIndex = 0;
+    for (int i = 0; i < numDTMs; i++)
+    {
+      m_dtmIdent.setElementAt(dtmId << DTMManager.IDENT_DTM_NODE_BITS, i);
+      m_mgrDefault.addDTM(this, dtmId, nodeIndex);
+      dtmId = m_mgrDefault.getNextDTMID(dtmId);
+      nodeIndex += (1 << DTMManager.IDENT_DTM_NODE_BITS);
+    }
+    updateHandleRange();
+  }
+
+  /** @return true if the incremental build has not yet scanned the
+   * whole DOM tree. Until it has, even lookups such as getHandleOfNode()
+   * may extend the node tables, so concurrent callers must serialize
+   * their calls; once it returns false the tables no longer change.
+   * */
+  public boolean isTreeIncomplete()
+  {
+    return !m_nodesAreProcessed;
+  }
+
   /** Get the handle from a Node. This is a more robust version of
    * getHandleFromNode, intended to be usable by the public.
    *
@@ -1761,6 +1925,115 @@ public class DOM2DTM extends DTMDefaultBaseIterators
     return null;
   }
 
-}
 
+  /**
+   * A map from DOM nodes, compared by identity, to node identities. Open
+   * addressing over parallel arrays keeps it to two small objects however
+   * many nodes there are.
+   */
+  private static final class NodeIdentityMap
+  {
+    /** The nodes; null marks an empty slot. */
+    private Object[] m_keys;
+
+    /** The identity of the node in the same slot of m_keys. */
+    private int[] m_values;
+
+    /** Number of slots in use. */
+    private int m_count = 0;
 
+    /**
+     * Create a map sized for a number of nodes.
+     *
+     * @param expected The number of nodes expected.
+     */
+    NodeIdentityMap(int expected)
+    {
+      int capacity = 16;
+
+      while (capacity < expected * 2)
+        capacity <<= 1;
+
+      m_keys = new Object[capacity];
+      m_values = new int[capacity];
+    }
+
+    /**
+     * Find the slot of a node, or the empty slot where it would go.
+     *
+     * @param keys The slots to search.
+     * @param node The node.
+     *
+     * @return the slot index.
+     */
+    private static int slot(Object[] keys, Object node)
+    {
+      int mask = keys.length - 1;
+      int h = System.identityHashCode(node);
+      int i = (h ^ (h >>> 16)) & mask;
+
+      while (null != keys[i] && keys[i] != node)
+        i = (i + 1) & mask;
+
+      return i;
+    }
+
+    /**
+     * Record a node's identity.
+     *
+     * @param node The node.
+     * @param identity Its identity.
+     */
+    void put(Object node, int identity)
+    {
+      if ((m_count + 1) * 2 > m_keys.length)
+        grow();
+
+      int i = slot(m_keys, node);
+
+      if (null == m_keys[i])
+      {
+        m_keys[i] = node;
+        m_count++;
+      }
+      m_values[i] = identity;
+    }
+
+    /**
+     * Look up a node's identity.
+     *
+     * @param node The node.
+     *
+     * @return its identity, or DTM.NULL if it isn't in the map.
+     */
+    int get(Object node)
+    {
+      int i = slot(m_keys, node);
+
+      return (null == m_keys[i]) ? DTM.NULL : m_values[i];
+    }
+
+    /**
+     * Double the number of slots.
+     */
+    private void grow()
+    {
+      Object[] oldKeys = m_keys;
+      int[] oldValues = m_values;
+
+      m_keys = new Object[oldKeys.length * 2];
+      m_values = new int[oldKeys.length * 2];
+
+      for (int j = 0; j < oldKeys.length; j++)
+      {
+        if (null != oldKeys[j])
+        {
+          int i = slot(m_keys, oldKeys[j]);
+
+          m_keys[i] = oldKeys[j];
+          m_values[i] = oldValues[j];
+        }
+      }
+    }
+  }
+}
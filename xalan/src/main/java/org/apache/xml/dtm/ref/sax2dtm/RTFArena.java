@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.dtm.ref.sax2dtm;
+
+import java.util.Vector;
+
+import org.apache.xml.dtm.DTMManager;
+import org.apache.xml.dtm.ref.DTMManagerDefault;
+
+/**
+ * Keeps the RTF DTMs of finished transformations for reuse by the next
+ * transformations on the same thread.
+ * <p>
+ * Within a transformation, result tree fragments are appended to a
+ * SAX2RTFDTM and pruned off its end again as variables go out of scope
+ * (see XPathContext.pushRTFContext()), so the DTM's node blocks are reused
+ * from one fragment to the next. Without an arena the DTM is released when
+ * the transformation ends and the next transformation grows a new one
+ * block by block. An arena instead takes the DTM back, empties it with
+ * SAX2RTFDTM.clear(), which keeps its blocks, and hands it to the next
+ * request for an RTF DTM on the same thread.
+ * <p>
+ * An arena keeps at most a given number of DTMs, and only DTMs whose peak
+ * size is within a given limit, so a thread which once built a huge
+ * fragment doesn't hold on to its storage for good. Arenas also total up
+ * the bytes their DTMs allocated and reclaimed by pruning, for tuning.
+ * <p>
+ * Arenas are not thread-safe; each thread has its own (see
+ * getThreadArena()).
+ */
+public class RTFArena
+{
+  /** Default for the largest number of DTMs kept. */
+  public static final int DEFAULT_MAX_DTMS = 4;
+
+  /** Default for the largest peak size of a DTM that is kept. */
+  public static final long DEFAULT_MAX_DTM_BYTES = 4L * 1024 * 1024;
+
+  /** The arena of each thread. */
+  private static final ThreadLocal m_threadArena = new ThreadLocal()
+  {
+    protected Object initialValue()
+    {
+      return new RTFArena();
+    }
+  };
+
+  /** Largest number of DTMs kept. */
+  private int m_maxDTMs = DEFAULT_MAX_DTMS;
+
+  /** Largest peak size, in bytes, of a DTM that is kept. */
+  private long m_maxDTMBytes = DEFAULT_MAX_DTM_BYTES;
+
+  /** The empty DTMs waiting for reuse. */
+  private final Vector m_free = new Vector();
+
+  /** Bytes allocated by the DTMs given back to this arena. */
+  private long m_bytesAllocated = 0;
+
+  /** Bytes reclaimed by pruning the DTMs given back to this arena. */
+  private long m_bytesReclaimed = 0;
+
+  /** Number of DTMs handed out for reuse. */
+  private long m_reuses = 0;
+
+  /**
+   * Get the arena of the current thread.
+   *
+   * @return the RTFArena.
+   */
+  public static RTFArena getThreadArena()
+  {
+    return (RTFArena) m_threadArena.get();
+  }
+
+  /**
+   * Get an RTF DTM for a manager: a kept one if there is one, and the
+   * manager can take it, or else a new one.
+   *
+   * @param mgr The DTMManager which is to own the DTM.
+   *
+   * @return an empty SAX2RTFDTM registered with mgr.
+   */
+  public SAX2RTFDTM getDTM(DTMManager mgr)
+  {
+    int n = m_free.size();
+
+    if (n > 0 && mgr instanceof DTMManagerDefault)
+    {
+      SAX2RTFDTM dtm = (SAX2RTFDTM) m_free.elementAt(n - 1);
+
+      m_free.removeElementAt(n - 1);
+      dtm.reuse(mgr);
+      ++m_reuses;
+
+      return dtm;
+    }
+
+    return (SAX2RTFDTM) mgr.getDTM(null, true, null, false, false);
+  }
+
+  /**
+   * Take back an RTF DTM whose transformation has finished. The DTM is
+   * taken out of its manager, and either emptied and kept, or released.
+   * Nothing may refer to its nodes afterwards.
+   *
+   * @param dtm The SAX2RTFDTM.
+   */
+  public void recycle(SAX2RTFDTM dtm)
+  {
+    DTMManager mgr = dtm.getManager();
+
+    boolean keep = m_free.size() < m_maxDTMs
+                   && dtm.getPeakBytes() <= m_maxDTMBytes
+                   && mgr instanceof DTMManagerDefault
+                   && !dtm.isTreeIncomplete();
+
+    m_bytesAllocated += dtm.getBytesAllocated();
+    m_bytesReclaimed += dtm.getBytesReclaimed();
+
+    if (keep)
+    {
+      ((DTMManagerDefault) mgr).detach(dtm);
+      dtm.clear();
+      dtm.resetCounters();
+      m_free.addElement(dtm);
+    }
+    else
+      mgr.release(dtm, true);
+  }
+
+  /**
+   * Release all the DTMs kept.
+   */
+  public void clear()
+  {
+    m_free.removeAllElements();
+  }
+
+  /**
+   * Set the largest number of DTMs kept.
+   *
+   * @param maxDTMs The number; 0 to keep none.
+   */
+  public void setMaxDTMs(int maxDTMs)
+  {
+    m_maxDTMs = maxDTMs;
+
+    if (m_free.size() > maxDTMs)
+      m_free.setSize(maxDTMs);
+  }
+
+  /**
+   * @return the largest number of DTMs kept.
+   */
+  public int getMaxDTMs()
+  {
+    return m_maxDTMs;
+  }
+
+  /**
+   * Set the largest peak size of a DTM that is kept.
+   *
+   * @param maxDTMBytes The size in bytes.
+   */
+  public void setMaxDTMBytes(long maxDTMBytes)
+  {
+    m_maxDTMBytes = maxDTMBytes;
+  }
+
+  /**
+   * @return the largest peak size, in bytes, of a DTM that is kept.
+   */
+  public long getMaxDTMBytes()
+  {
+    return m_maxDTMBytes;
+  }
+
+  /**
+   * @return the number of DTMs kept for reuse.
+   */
+  public int getSize()
+  {
+    return m_free.size();
+  }
+
+  /**
+   * @return the number of times a kept DTM was reused.
+   */
+  public long getReuses()
+  {
+    return m_reuses;
+  }
+
+  /**
+   * @return the bytes of tree storage allocated by the DTMs given back to
+   * this arena, while they were in use.
+   */
+  public long getBytesAllocated()
+  {
+    return m_bytesAllocated;
+  }
+
+  /**
+   * @return the bytes of tree storage reclaimed by pruning the DTMs given
+   * back to this arena, while they were in use. The rest of the bytes
+   * allocated were held until their transformations ended.
+   */
+  public long getBytesReclaimed()
+  {
+    return m_bytesReclaimed;
+  }
+}
@@ -20,15 +20,25 @@
  */
 package org.apache.xml.dtm.ref.sax2dtm;
 
-import java.util.Hashtable;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
 import java.util.Vector;
 import javax.xml.transform.Source;
 import javax.xml.transform.SourceLocator;
 
 import org.apache.xml.dtm.*;
 import org.apache.xml.dtm.ref.*;
+import org.apache.xml.utils.DirectFastStringBuffer;
+import org.apache.xml.utils.DirectIntVector;
 import org.apache.xml.utils.StringVector;
 import org.apache.xml.utils.IntVector;
+import org.apache.xml.utils.CompactFastStringBuffer;
 import org.apache.xml.utils.FastStringBuffer;
 import org.apache.xml.utils.IntStack;
 import org.apache.xml.utils.SuballocatedIntVector;
@@ -47,7 +57,7 @@ import org.xml.sax.ext.*;
  */
 public class SAX2DTM extends DTMDefaultBaseIterators
         implements EntityResolver, DTDHandler, ContentHandler, ErrorHandler,
-                   DeclHandler, LexicalHandler
+                   DeclHandler, LexicalHandler, TextBoundaryHandler
 {
   /** Set true to monitor SAX events and similar diagnostic info. */
   private static final boolean DEBUG = false;
@@ -141,9 +151,16 @@ public class SAX2DTM extends DTMDefaultBaseIterators
 
   /**
    * This table holds the ID string to node associations, for
-   * XML IDs.
+   * XML IDs. The IDs are kept as the indexes of the attribute values
+   * they came from; see getIDString().
    */
-  protected Hashtable m_idAttributes = new Hashtable();
+  protected DTMIdIndex m_idAttributes = new DTMIdIndex()
+  {
+    protected String getKey(int key)
+    {
+      return getIDString(key);
+    }
+  };
 
   /**
    * fixed dom-style names.
@@ -253,6 +270,13 @@ public class SAX2DTM extends DTMDefaultBaseIterators
     super(mgr, source, dtmIdentity, whiteSpaceFilter,
           xstringfactory, doIndexing, blocksize, usePrevsib, newNameTable);
 
+    // Keep text one byte per character where possible, if asked to.
+    boolean compactText = (mgr != null) && mgr.getCompactText();
+
+    // Namespace nodes are still added as they come, but the sets of
+    // namespaces in scope are worked out only if they are asked for.
+    m_lazyNamespaces = (mgr != null) && mgr.getLazyNamespaces();
+
     // %OPT% Use smaller sizes for all internal storage units when
     // the blocksize is small. This reduces the cost of creating an RTF.
     if (blocksize <= 64) 
@@ -260,16 +284,18 @@ public class SAX2DTM extends DTMDefaultBaseIterators
       m_data = new SuballocatedIntVector(blocksize, DEFAULT_NUMBLOCKS_SMALL);
       m_dataOrQName = new SuballocatedIntVector(blocksize, DEFAULT_NUMBLOCKS_SMALL);
       m_valuesOrPrefixes = new DTMStringPool(16);
-      m_chars = new FastStringBuffer(7, 10);
+      m_chars = compactText ? new CompactFastStringBuffer(7)
+                            : new FastStringBuffer(7, 10);
       m_contextIndexes = new IntStack(4);
       m_parents = new IntStack(4);
     }
     else
     {
       m_data = new SuballocatedIntVector(blocksize, DEFAULT_NUMBLOCKS);
-      m_dataOrQName = new SuballocatedIntVector(blocksize, DEFAULT_NUMBLOCKS);
+      m_dataOrQName = createNodeColumn(blocksize, DEFAULT_NUMBLOCKS);
       m_valuesOrPrefixes = new DTMStringPool();
-      m_chars = new FastStringBuffer(10, 13);
+      m_chars = compactText ? new CompactFastStringBuffer(10)
+                            : new FastStringBuffer(10, 13);
       m_contextIndexes = new IntStack();
       m_parents = new IntStack();
     }
@@ -326,6 +352,93 @@ public class SAX2DTM extends DTMDefaultBaseIterators
     }
   }
 
+  /**
+   * Notification that the document is being released; frees any
+   * off-heap storage held by m_dataOrQName as well as the base arrays.
+   */
+  public void documentRelease()
+  {
+    super.documentRelease();
+    if (!m_isView)
+      releaseNodeColumn(m_dataOrQName);
+  }
+
+  /**
+   * Create a read-only view of this DTM for another DTMManager; see
+   * DTMDefaultBase.newView(). The view gets its own tree walker, which
+   * keeps state while events are dispatched.
+   *
+   * @param mgr The DTMManager the view will belong to.
+   *
+   * @return the view.
+   */
+  public DTMDefaultBase newView(DTMManagerDefault mgr)
+  {
+    SAX2DTM view = (SAX2DTM) super.newView(mgr);
+
+    view.m_walker = new DTMTreeWalker();
+
+    return view;
+  }
+
+  /**
+   * Get an estimate of the memory retained by one part of this DTM,
+   * adding the text and value storage, m_data and the ID table to what
+   * DTMDefaultBase counts.
+   *
+   * @param part One of the DTMDefaultBase.MEMORY_* values.
+   *
+   * @return the estimated size in bytes.
+   */
+  public long getMemoryUsage(int part)
+  {
+    long size = super.getMemoryUsage(part);
+
+    switch (part)
+    {
+    case MEMORY_NODE_ARRAYS :
+      size += columnSize(m_data);
+      break;
+    case MEMORY_CHARACTERS :
+      FastStringBuffer chars = m_chars;
+      DTMStringPool values = m_valuesOrPrefixes;
+      if (null != chars)
+        size += chars.getStorageSize();
+      if (null != values)
+        size += values.getMemoryUsage();
+      break;
+    case MEMORY_IDS :
+      // The IDs themselves are attribute values, counted as characters.
+      size += m_idAttributes.getMemoryUsage();
+      break;
+    }
+
+    return size;
+  }
+
+  /**
+   * Get the size of the columns created by createNodeColumn(), including
+   * m_dataOrQName.
+   *
+   * @return the size in bytes.
+   */
+  protected long getNodeColumnsSize()
+  {
+    return super.getNodeColumnsSize() + columnSize(m_dataOrQName);
+  }
+
+  /**
+   * Move the node arrays, including m_dataOrQName, to a different kind
+   * of storage.
+   *
+   * @param nodeStorage One of the DTMManager.NODE_STORAGE_* values.
+   */
+  protected void spillNodeColumns(int nodeStorage)
+  {
+    super.spillNodeColumns(nodeStorage);
+    m_dataOrQName = copyNodeColumn(m_dataOrQName);
+  }
+
   /**
    * Ask the CoRoutine parser to doTerminate and clear the reference.
    */
@@ -877,6 +990,9 @@ public class SAX2DTM extends DTMDefaultBaseIterators
       addNewDTMID(nodeIndex);
     }
 
+    if (null != m_memoryBudget && 0 == nodeIndex % MEMORY_CHECK_INTERVAL)
+      checkMemoryBudget();
+
     m_firstch.addElement(canHaveFirstChild ? NOTPROCESSED : DTM.NULL);
     m_nextsib.addElement(NOTPROCESSED);
     m_parent.addElement(parentIndex);
@@ -902,7 +1018,8 @@ public class SAX2DTM extends DTMDefaultBaseIterators
     switch(type)
     {
     case DTM.NAMESPACE_NODE:
-      declareNamespaceInContext(parentIndex,nodeIndex);
+      if (!m_lazyNamespaces)
+        declareNamespaceInContext(parentIndex,nodeIndex);
       break;
     case DTM.ATTRIBUTE_NODE:
       break;
@@ -929,9 +1046,11 @@ public class SAX2DTM extends DTMDefaultBaseIterators
                               
                               // Handle as Extended Addressing
       DTMManagerDefault mgrD=(DTMManagerDefault)m_mgr;
-      int id=mgrD.getFirstFreeDTMID();
+      int id=mgrD.getNextDTMID(m_dtmIdent.elementAt(m_dtmIdent.size()-1)
+                               >>>DTMManager.IDENT_DTM_NODE_BITS);
       mgrD.addDTM(this,id,nodeIndex);
       m_dtmIdent.addElement(id<<DTMManager.IDENT_DTM_NODE_BITS);
+      updateHandleRange();
     }
     catch(ClassCastException e)
     {
@@ -955,15 +1074,16 @@ public class SAX2DTM extends DTMDefaultBaseIterators
     // We have to reset the information in m_dtmIdent and
     // register the DTM with the new manager. 
     int numDTMs = m_dtmIdent.size();
-    int dtmId = m_mgrDefault.getFirstFreeDTMID();
+    int dtmId = m_mgrDefault.getDocumentDTMID();
     int nodeIndex = 0;
     for (int i = 0; i < numDTMs; i++)
     {     
       m_dtmIdent.setElementAt(dtmId << DTMManager.IDENT_DTM_NODE_BITS, i);
       m_mgrDefault.addDTM(this, dtmId, nodeIndex);
-      dtmId++;
+      dtmId = m_mgrDefault.getNextDTMID(dtmId);
       nodeIndex += (1 << DTMManager.IDENT_DTM_NODE_BITS);
     }
+    updateHandleRange();
   }
 
   /**
@@ -1360,26 +1480,46 @@ public class SAX2DTM extends DTMDefaultBaseIterators
   public int getElementById(String elementId)
   {
 
-    Integer intObj;
+    int identity;
     boolean isMore = true;
 
     do
     {
-      intObj = (Integer) m_idAttributes.get(elementId);
+      identity = m_idAttributes.get(elementId);
 
-      if (null != intObj)
-        return makeNodeHandle(intObj.intValue());
+      if (DTM.NULL != identity)
+        return makeNodeHandle(identity);
 
       if (!isMore || m_endDocumentOccured)
         break;
 
       isMore = nextNode();
     }
-    while (null == intObj);
+    while (DTM.NULL == identity);
 
     return DTM.NULL;
   }
 
+  /**
+   * Look up one ID of a list in the ID table, without making a String
+   * of it unless the document is still being built incrementally and
+   * the ID hasn't been seen yet.
+   *
+   * @param idrefs A whitespace separated list of IDs.
+   * @param start Index of the first character of the ID.
+   * @param end Index after the last character of the ID.
+   * @return The node identity of the matching element, or DTM.NULL.
+   */
+  protected int getElementIdentityById(String idrefs, int start, int end)
+  {
+    int identity = m_idAttributes.get(idrefs, start, end);
+
+    if (DTM.NULL == identity && !m_endDocumentOccured)
+      identity = super.getElementIdentityById(idrefs, start, end);
+
+    return identity;
+  }
+
   /**
    * Get a prefix either from the qname or from the uri mapping, or just make
    * one up!
@@ -1503,7 +1643,31 @@ public class SAX2DTM extends DTMDefaultBaseIterators
    */
   public void setIDAttribute(String id, int elem)
   {
-    m_idAttributes.put(id, new Integer(elem));
+    setIDAttribute(m_valuesOrPrefixes.stringToIndex(id), elem);
+  }
+
+  /**
+   * Set an ID string to node association in the ID table, for an ID
+   * already held as an attribute value.
+   *
+   * @param valueIndex The index of the ID in the attribute values, as
+   * resolved by getIDString().
+   * @param elem The associated element handle.
+   */
+  protected void setIDAttribute(int valueIndex, int elem)
+  {
+    m_idAttributes.put(valueIndex, elem);
+  }
+
+  /**
+   * Get an ID the ID table holds by the index of its attribute value.
+   *
+   * @param valueIndex The index given to setIDAttribute(int, int).
+   * @return The ID string.
+   */
+  protected String getIDString(int valueIndex)
+  {
+    return m_valuesOrPrefixes.indexToString(valueIndex);
   }
 
   /**
@@ -1948,9 +2112,6 @@ public class SAX2DTM extends DTMDefaultBaseIterators
       else
       {
         nodeType = DTM.ATTRIBUTE_NODE;
-
-        if (attributes.getType(i).equalsIgnoreCase("ID"))
-          setIDAttribute(valString, elemNode);
       }
 
       // Bit of a hack... if somehow valString is null, stringToIndex will
@@ -1959,6 +2120,10 @@ public class SAX2DTM extends DTMDefaultBaseIterators
         valString = "";
 
       int val = m_valuesOrPrefixes.stringToIndex(valString);
+
+      if (DTM.ATTRIBUTE_NODE == nodeType
+          && attributes.getType(i).equalsIgnoreCase("ID"))
+        setIDAttribute(val, elemNode);
       //String attrLocalName = attributes.getLocalName(i);
 
       if (null != prefix)
@@ -2084,6 +2249,19 @@ public class SAX2DTM extends DTMDefaultBaseIterators
     m_chars.append(ch, start, length);
   }
 
+  /**
+   * End the text node being accumulated, if any, as a following sibling
+   * would. Used when a node is left out of the build between two runs of
+   * character data.
+   *
+   * @throws SAXException Any SAX exception, possibly
+   *            wrapping another exception.
+   */
+  public void textBoundary() throws SAXException
+  {
+    charactersFlush();
+  }
+
   /**
    * Receive notification of ignorable whitespace in element content.
    *
@@ -2510,4 +2688,369 @@ public class SAX2DTM extends DTMDefaultBaseIterators
   public String getFixedNames(int type){
     return m_fixednames[type];
   }
+
+  /** First word of a DTM image ("XDTM"). */
+  private static final int IMAGE_MAGIC = 0x5844544D;
+
+  /** Image format version; bump whenever the layout changes. */
+  private static final int IMAGE_VERSION = 2;
+
+  /** Image flag: the m_prevsib column is present. */
+  private static final int IMAGE_HAS_PREVSIB = 0x01;
+
+  /** Block size used to address node columns mapped from an image. */
+  private static final int IMAGE_BLOCKSIZE = 1 << 13;
+
+  /**
+   * Write this document out as a DTM image, which DTMManagerDefault can
+   * later load from a DTMImageSource without reparsing.
+   *
+   * <p>The node columns come first, so that they can be mapped and used
+   * in place when the image is loaded. They are followed by the expanded
+   * name table, the value/prefix pool, the character data and the
+   * namespace, ID and entity tables. The pool and the character data are
+   * laid out so that they too can be read in place. Transient build state
+   * and source location information are not written.</p>
+   *
+   * <p>The image is always laid out as this class builds a document, and
+   * is loaded as a SAX2DTM. Subclasses which store their text or values
+   * differently must override this to translate their storage, and pass
+   * the result to writeImage(OutputStream, SuballocatedIntVector,
+   * SuballocatedIntVector, SuballocatedIntVector, DTMStringPool, int[]).</p>
+   *
+   * @param os The stream to write to. It is flushed but not closed.
+   *
+   * @throws IOException if the image can't be written.
+   * @throws DTMException if the document hasn't been completely built.
+   */
+  public void writeImage(OutputStream os) throws IOException
+  {
+    checkImageComplete();
+
+    // The IDs are kept by the index of their value in the pool.
+    int nids = m_idAttributes.size();
+    int[] idValues = new int[nids];
+    for (int i = 0; i < nids; i++)
+      idValues[i] = m_idAttributes.getKeyOf(i);
+
+    writeImage(os, m_exptype, m_dataOrQName, m_data, m_valuesOrPrefixes,
+               idValues);
+  }
+
+  /**
+   * Make sure this document can be written as an image.
+   *
+   * @throws DTMException if the document hasn't been completely built.
+   */
+  protected void checkImageComplete()
+  {
+    if (!m_endDocumentOccured || null != m_incrementalSAXSource)
+      throw new DTMException(XMLMessages.createXMLMessage(
+        XMLErrorResources.ER_DTM_IMAGE_INCOMPLETE, null));
+  }
+
+  /**
+   * Write this document out as a DTM image, taking the columns and the
+   * value pool which depend on how the document stores its text and
+   * values from the arguments. These must be laid out as SAX2DTM lays out
+   * m_exptype, m_dataOrQName, m_data and m_valuesOrPrefixes; the other
+   * columns and tables are written from this DTM.
+   *
+   * @param os The stream to write to. It is flushed but not closed.
+   * @param exptype The expanded type of each node.
+   * @param dataOrQName The data or QName index of each node.
+   * @param data The text offsets and lengths, and the prefixed names.
+   * @param values The value/prefix pool.
+   * @param idValues For each entry of the ID table, in order, the index
+   * of its ID in the pool.
+   *
+   * @throws IOException if the image can't be written.
+   */
+  protected void writeImage(OutputStream os, SuballocatedIntVector exptype,
+                            SuballocatedIntVector dataOrQName,
+                            SuballocatedIntVector data,
+                            DTMStringPool values, int[] idValues)
+    throws IOException
+  {
+    DataOutputStream out =
+      new DataOutputStream(new BufferedOutputStream(os, 1 << 16));
+
+    out.writeInt(IMAGE_MAGIC);
+    out.writeInt(IMAGE_VERSION);
+    out.writeInt(m_size);
+    out.writeInt((null != m_prevsib) ? IMAGE_HAS_PREVSIB : 0);
+
+    writeImageColumn(out, exptype);
+    writeImageColumn(out, m_firstch);
+    writeImageColumn(out, m_nextsib);
+    writeImageColumn(out, m_parent);
+    if (null != m_prevsib)
+      writeImageColumn(out, m_prevsib);
+    writeImageColumn(out, dataOrQName);
+    writeImageColumn(out, data);
+
+    writeImageString(out, m_documentBaseURI);
+
+    ExpandedNameTable ent = m_expandedNameTable;
+    int n = ent.getSize();
+    out.writeInt(n);
+    for (int i = DTM.NTYPES; i < n; i++)
+    {
+      out.writeShort(ent.getType(i));
+      writeImageString(out, ent.getNamespace(i));
+      writeImageString(out, ent.getLocalName(i));
+    }
+
+    // The pool hands out indexes in order, so the indexes stored in the
+    // columns stay valid. It is written as the end offset of each string
+    // followed by all their characters, for DirectStringPool to read.
+    int nvalues = values.size();
+    out.writeInt(nvalues);
+    int end = 0;
+    for (int i = 0; i < nvalues; i++)
+    {
+      end += values.indexToString(i).length();
+      out.writeInt(end);
+    }
+    out.writeInt(end);
+    for (int i = 0; i < nvalues; i++)
+      out.writeChars(values.indexToString(i));
+
+    int nchars = m_chars.length();
+    out.writeInt(nchars);
+    for (int i = 0; i < nchars; i++)
+      out.writeChar(m_chars.charAt(i));
+
+    // The namespace declaration sets hold node handles, which depend on
+    // the DTM ID; store them as identities. Lazy ones are completed
+    // first, as the DTM mapping the image may not be lazy.
+    if (m_lazyNamespaces)
+      declareLazyNamespaces();
+
+    if (null == m_namespaceDeclSets)
+      out.writeInt(-1);
+    else
+    {
+      out.writeInt(m_namespaceDeclSets.size());
+      for (int i = 0; i < m_namespaceDeclSets.size(); i++)
+      {
+        SuballocatedIntVector nsList =
+          (SuballocatedIntVector) m_namespaceDeclSets.elementAt(i);
+        int nns = nsList.size();
+        out.writeInt(nns);
+        for (int j = 0; j < nns; j++)
+          out.writeInt(makeNodeIdentity(nsList.elementAt(j)));
+      }
+      writeImageColumn(out, m_namespaceDeclSetElements);
+    }
+
+    int nids = idValues.length;
+    out.writeInt(nids);
+    for (int i = 0; i < nids; i++)
+    {
+      out.writeInt(idValues[i]);
+      out.writeInt(m_idAttributes.getNode(i));
+    }
+
+    int nentities = (null == m_entities) ? -1 : m_entities.size();
+    out.writeInt(nentities);
+    for (int i = 0; i < nentities; i++)
+      writeImageString(out, (String) m_entities.elementAt(i));
+
+    out.flush();
+  }
+
+  /**
+   * Populate this DTM from an image written by writeImage(). This must be
+   * called on a newly constructed DTM with its own expanded name table
+   * (i.e. one created with doIndexing true), after it has been added to
+   * its manager, and instead of any parse.
+   *
+   * <p>The node columns, the character data and the value/prefix pool are
+   * used in place, so if the buffer is a mapping of the image file they
+   * are never copied onto the heap. (The pool is copied if a string is
+   * ever looked up in it, which only happens for getIdForNamespace().)
+   * The expanded name table and the namespace, ID and entity tables are
+   * rebuilt from the image; they grow with the number of distinct names,
+   * namespace declarations, IDs and entities rather than with the size of
+   * the document, and the IDs' strings are not copied.</p>
+   *
+   * @param image The image, positioned at its start.
+   * @param imageId A name for the image, used in error messages.
+   *
+   * @throws DTMException if the buffer doesn't hold a valid image.
+   */
+  public void loadImage(ByteBuffer image, String imageId)
+  {
+    try
+    {
+      if (image.getInt() != IMAGE_MAGIC || image.getInt() != IMAGE_VERSION)
+        throw new DTMException(XMLMessages.createXMLMessage(
+          XMLErrorResources.ER_BAD_DTM_IMAGE, new Object[]{ imageId }));
+
+      int size = image.getInt();
+      int flags = image.getInt();
+
+      m_exptype = readImageColumn(image);
+      m_firstch = readImageColumn(image);
+      m_nextsib = readImageColumn(image);
+      m_parent = readImageColumn(image);
+      m_prevsib = ((flags & IMAGE_HAS_PREVSIB) != 0)
+                  ? readImageColumn(image) : null;
+      m_dataOrQName = readImageColumn(image);
+      m_data = readImageColumn(image);
+      m_nodeStorage = DTMManager.NODE_STORAGE_MAPPED;
+
+      // The element indexes aren't part of the image; make sure the
+      // traversers don't go looking for them.
+      m_indexing = false;
+      m_elemIndexes = null;
+
+      m_documentBaseURI = readImageString(image);
+
+      ExpandedNameTable ent = m_expandedNameTable;
+      int n = image.getInt();
+      for (int i = DTM.NTYPES; i < n; i++)
+      {
+        int type = image.getShort();
+        String namespace = readImageString(image);
+        String localName = readImageString(image);
+        if (ent.getExpandedTypeID(namespace, localName, type) != i)
+          throw new DTMException(XMLMessages.createXMLMessage(
+            XMLErrorResources.ER_BAD_DTM_IMAGE, new Object[]{ imageId }));
+      }
+
+      int nvalues = image.getInt();
+      IntBuffer ends = image.asIntBuffer();
+      ends.limit(nvalues);
+      image.position(image.position() + (nvalues << 2));
+      m_valuesOrPrefixes =
+        new DirectStringPool(ends, readImageChars(image));
+
+      m_chars = new DirectFastStringBuffer(readImageChars(image));
+
+      int nsets = image.getInt();
+      if (nsets >= 0)
+      {
+        m_namespaceDeclSets = new Vector(nsets);
+        for (int i = 0; i < nsets; i++)
+          m_namespaceDeclSets.addElement(readImageColumn(image));
+        m_namespaceDeclSetElements = readImageColumn(image);
+      }
+
+      int nids = image.getInt();
+      for (int i = 0; i < nids; i++)
+      {
+        int id = image.getInt();
+        setIDAttribute(id, image.getInt());
+      }
+
+      int nentities = image.getInt();
+      if (nentities >= 0)
+      {
+        m_entities = new Vector(nentities);
+        for (int i = 0; i < nentities; i++)
+          m_entities.addElement(readImageString(image));
+      }
+
+      m_size = size;
+      m_namespaceScanned = size;
+
+      // Claim the extra DTM IDs a document this large would have been
+      // given while it was being built.
+      for (int i = 1 << DTMManager.IDENT_DTM_NODE_BITS; i < size;
+           i += 1 << DTMManager.IDENT_DTM_NODE_BITS)
+        addNewDTMID(i);
+
+      // Now that every node has a handle, translate the namespace
+      // declarations back from identities.
+      if (null != m_namespaceDeclSets)
+      {
+        for (int i = 0; i < m_namespaceDeclSets.size(); i++)
+        {
+          SuballocatedIntVector ids =
+            (SuballocatedIntVector) m_namespaceDeclSets.elementAt(i);
+          int nns = ids.size();
+          SuballocatedIntVector nsList = new SuballocatedIntVector(
+            Math.max(Math.min(nns, 2048), 16));
+          for (int j = 0; j < nns; j++)
+            nsList.addElement(makeNodeHandle(ids.elementAt(j)));
+          m_namespaceDeclSets.setElementAt(nsList, i);
+        }
+      }
+
+      m_endDocumentOccured = true;
+    }
+    catch (BufferUnderflowException bue)
+    {
+      throw new DTMException(XMLMessages.createXMLMessage(
+        XMLErrorResources.ER_BAD_DTM_IMAGE, new Object[]{ imageId }), bue);
+    }
+  }
+
+  /**
+   * Write one int column of a DTM image.
+   */
+  private static void writeImageColumn(DataOutputStream out,
+                                       SuballocatedIntVector column)
+    throws IOException
+  {
+    int n = column.size();
+    out.writeInt(n);
+    for (int i = 0; i < n; i++)
+      out.writeInt(column.elementAt(i));
+  }
+
+  /**
+   * Read one int column of a DTM image, as a view onto the image.
+   */
+  private static SuballocatedIntVector readImageColumn(ByteBuffer image)
+  {
+    int n = image.getInt();
+    IntBuffer view = image.asIntBuffer();
+    view.limit(n);
+    image.position(image.position() + (n << 2));
+    return new DirectIntVector(IMAGE_BLOCKSIZE, view);
+  }
+
+  /**
+   * Read a run of characters from a DTM image, as a view onto the image.
+   */
+  private static CharBuffer readImageChars(ByteBuffer image)
+  {
+    int n = image.getInt();
+    CharBuffer view = image.asCharBuffer();
+    view.limit(n);
+    image.position(image.position() + (n << 1));
+    return view;
+  }
+
+  /**
+   * Write a possibly-null string to a DTM image.
+   */
+  private static void writeImageString(DataOutputStream out, String s)
+    throws IOException
+  {
+    if (null == s)
+      out.writeInt(-1);
+    else
+    {
+      out.writeInt(s.length());
+      out.writeChars(s);
+    }
+  }
+
+  /**
+   * Read a possibly-null string from a DTM image.
+   */
+  private static String readImageString(ByteBuffer image)
+  {
+    int len = image.getInt();
+    if (len < 0)
+      return null;
+    char[] chars = new char[len];
+    image.asCharBuffer().get(chars);
+    image.position(image.position() + (len << 1));
+    return new String(chars);
+  }
 }
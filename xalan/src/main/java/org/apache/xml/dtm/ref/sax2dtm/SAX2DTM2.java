@@ -1147,6 +1147,15 @@ public class SAX2DTM2 extends SAX2DTM
     /** The extended type ID that was requested. */
     private final int _nodeType;
 
+    /** True if the type index can be used to find the nodes. */
+    private boolean _useIndex;
+
+    /** The type index list, if the type index can be used. */
+    private int[] _typeList;
+
+    /** The type index slot after the last one returned. */
+    private int _typeListPos;
+
     /**
      * Constructor TypedFollowingIterator
      *
@@ -1158,6 +1167,25 @@ public class SAX2DTM2 extends SAX2DTM
       _nodeType = type;
     }
 
+    /**
+     * Set start to END should 'close' the iterator,
+     * i.e. subsequent call to next() should return END.
+     *
+     * @param node Sets the root of the iteration.
+     *
+     * @return A DTMAxisIterator set to the start of the iteration.
+     */
+    public DTMAxisIterator setStartNode(int node)
+    {
+      _useIndex = isTypeIndexed(_nodeType);
+      if (_useIndex) {
+        _typeList = getTypeIndexList(_nodeType);
+        _typeListPos = 1;
+      }
+
+      return super.setStartNode(node);
+    }
+
     /**
      * Get the next node in the iteration.
      *
@@ -1172,6 +1200,25 @@ public class SAX2DTM2 extends SAX2DTM
       final int nodeType = _nodeType;
       int currentNodeID = makeNodeIdentity(_currentNode);
 
+      if (_useIndex) {
+        // Every element of the type from here on is a following node.
+        int pos = (NULL != currentNodeID)
+                  ? findInTypeIndex(_typeList, _typeListPos, currentNodeID)
+                  : -1;
+
+        if (pos < 0) {
+          _currentNode = NULL;
+          return END;
+        }
+
+        _typeListPos = pos + 1;
+        node = _typeList[pos];
+
+        _currentNode = (NULL != _exptype2(node + 1))
+                       ? makeNodeHandle(node + 1) : NULL;
+        return returnNode(makeNodeHandle(node));
+      }
+
       if (nodeType >= DTM.NTYPES) {
         do {
           node = currentNodeID;
@@ -1639,6 +1686,21 @@ public class SAX2DTM2 extends SAX2DTM
     /** The extended type ID that was requested. */
     private final int _nodeType;
 
+    /** The type index list, if the type index can be used. */
+    private int[] _typeList;
+
+    /** The type index slot after the last one returned. */
+    private int _typeListPos;
+
+    /** True if the type index can be used to find the nodes. */
+    private boolean _useIndex;
+
+    /**
+     * The identity of the first node after the start node's subtree, or
+     * NULL if the subtree runs to the end of the document.
+     */
+    private int _subtreeEnd;
+
     /**
      * Constructor TypedDescendantIterator
      *
@@ -1650,6 +1712,38 @@ public class SAX2DTM2 extends SAX2DTM
       _nodeType = nodeType;
     }
 
+    /**
+     * Set start to END should 'close' the iterator,
+     * i.e. subsequent call to next() should return END.
+     *
+     * @param node Sets the root of the iteration.
+     *
+     * @return A DTMAxisIterator set to the start of the iteration.
+     */
+    public DTMAxisIterator setStartNode(int node)
+    {
+      super.setStartNode(node);
+
+      // The index can be used if the start node has a subtree to bound
+      // the search with.
+      _useIndex = false;
+      if (_isRestartable && NULL != _startNode
+          && isTypeIndexed(_nodeType))
+      {
+        int type = _type2(_startNode);
+
+        if (DTM.ELEMENT_NODE == type || DTM.DOCUMENT_NODE == type)
+        {
+          _useIndex = true;
+          _typeList = getTypeIndexList(_nodeType);
+          _typeListPos = 1;
+          _subtreeEnd = getSubtreeEnd(_startNode);
+        }
+      }
+
+      return this;
+    }
+
     /**
      * Get the next node in the iteration.
      *
@@ -1667,7 +1761,22 @@ public class SAX2DTM2 extends SAX2DTM
       int expType;
       final int nodeType = _nodeType;
 
-      if (nodeType != DTM.ELEMENT_NODE)
+      if (_useIndex)
+      {
+        // Find the next element of the type in document order, and stop
+        // when it falls outside the start node's subtree.
+        int pos = findInTypeIndex(_typeList, _typeListPos, node + 1);
+
+        if (pos < 0
+            || (NULL != _subtreeEnd && _typeList[pos] >= _subtreeEnd)) {
+          _currentNode = NULL;
+          return END;
+        }
+
+        _typeListPos = pos + 1;
+        node = _typeList[pos];
+      }
+      else if (nodeType != DTM.ELEMENT_NODE)
       {
         do
         {
@@ -1804,9 +1913,31 @@ public class SAX2DTM2 extends SAX2DTM
   // The current index into the m_values Vector.
   private int m_valueIndex = 0;
 
+  // Total length of the Strings added to m_values, for getMemoryUsage().
+  private long m_valueChars = 0;
+
   // The maximum value of the current node index.
   private int m_maxNodeIndex;
 
+  /**
+   * The type index: for each element expanded type ID, the identities of
+   * the elements of that type in document order. As in m_elemIndexes,
+   * slot 0 of each list holds the first free slot. Null if the index is
+   * not being built; see DTMManager.setTypeIndexing().
+   */
+  private int[][] m_typeIndex;
+
+  /**
+   * Pool through which repeated attribute values are shared while the
+   * document is built. Null if values are not being pooled; see
+   * DTMManager.setValuePooling().
+   */
+  private DTMValuePool m_valuePool;
+
+  // False if the node arrays live off the heap, in which case the map
+  // caches above are null. See DTMManager.setNodeStorage().
+  private boolean m_heapNodeArrays;
+
   // Cache the shift and mask values for the SuballocatedIntVectors.
   protected int m_SHIFT;
   protected int m_MASK;
@@ -1868,6 +1999,14 @@ public class SAX2DTM2 extends SAX2DTM
     super(mgr, source, dtmIdentity, whiteSpaceFilter,
           xstringfactory, doIndexing, blocksize, usePrevsib, newNameTable);
 
+    // Small DTMs (RTFs, mostly) aren't worth indexing.
+    if (blocksize > 64 && null != mgr && mgr.getTypeIndexing())
+      m_typeIndex = new int[DTM.NTYPES + 64][];
+
+    if (blocksize > 64 && null != mgr && mgr.getValuePooling())
+      m_valuePool = new DTMValuePool(mgr.getValuePoolMaxLength(),
+                                     mgr.getValuePoolSize());
+
     // Initialize the values of m_SHIFT and m_MASK.
     int shift;
     for(shift=0; (blocksize>>>=1) != 0; ++shift);
@@ -1876,6 +2015,13 @@ public class SAX2DTM2 extends SAX2DTM
     m_SHIFT = shift;
     m_MASK = m_blocksize - 1;
 
+    // Off-heap node arrays have no int[] blocks to cache. Setting
+    // m_blocksize to 0 sends every access down the slow path, which
+    // falls back to SuballocatedIntVector.elementAt().
+    m_heapNodeArrays = (DTMManager.NODE_STORAGE_HEAP == m_nodeStorage);
+    if (!m_heapNodeArrays)
+      m_blocksize = 0;
+
     m_buildIdIndex = buildIdIndex;
 
     // Some documents do not have attribute nodes. That is why
@@ -1892,6 +2038,206 @@ public class SAX2DTM2 extends SAX2DTM
     m_parent_map0  = m_parent.getMap0();
   }
 
+  /**
+   * Add a String to m_values, counting its length.
+   *
+   * @param value The value, which may be null.
+   */
+  private void addValue(String value)
+  {
+    m_values.addElement(value);
+
+    if (null != value)
+      m_valueChars += value.length();
+  }
+
+  /**
+   * Set an ID string to node association in the ID table. Attribute
+   * values are kept in m_values rather than in the value/prefix pool, so
+   * the ID is added there.
+   *
+   * @param id The ID string.
+   * @param elem The associated element handle.
+   */
+  public void setIDAttribute(String id, int elem)
+  {
+    addValue(id);
+    setIDAttribute(m_valueIndex++, elem);
+  }
+
+  /**
+   * Get an ID the ID table holds by the index of its attribute value.
+   *
+   * @param valueIndex The index of the value in m_values.
+   * @return The ID string.
+   */
+  protected String getIDString(int valueIndex)
+  {
+    return (String) m_values.elementAt(valueIndex);
+  }
+
+  /**
+   * Write this document out as a DTM image. The image is laid out as
+   * SAX2DTM lays out a document, so the text offsets packed into
+   * m_dataOrQName are moved out into m_data, the values kept in m_values
+   * are added to a copy of the value/prefix pool, elements in a namespace
+   * get their QNames even if unprefixed, and processing instructions are
+   * given expanded types named by their targets.
+   *
+   * @param os The stream to write to. It is flushed but not closed.
+   *
+   * @throws java.io.IOException if the image can't be written.
+   * @throws DTMException if the document hasn't been completely built.
+   */
+  public void writeImage(java.io.OutputStream os) throws java.io.IOException
+  {
+    checkImageComplete();
+
+    // Copying the pool in order keeps its indexes; m_values may repeat
+    // strings, which the copy shares.
+    DTMStringPool values = new DTMStringPool();
+    int npool = m_valuesOrPrefixes.size();
+    for (int i = 0; i < npool; i++)
+      values.stringToIndex(m_valuesOrPrefixes.indexToString(i));
+
+    int nvalues = m_values.size();
+    int[] valueMap = new int[nvalues];
+    for (int i = 0; i < nvalues; i++)
+    {
+      String value = (String) m_values.elementAt(i);
+      valueMap[i] = values.stringToIndex((null == value) ? "" : value);
+    }
+
+    int size = m_size;
+    int ndata = m_data.size();
+    SuballocatedIntVector exptype = new SuballocatedIntVector(8192);
+    SuballocatedIntVector dataOrQName = new SuballocatedIntVector(8192);
+    SuballocatedIntVector data = new SuballocatedIntVector(8192);
+    for (int i = 0; i < ndata; i++)
+      data.addElement(m_data.elementAt(i));
+
+    for (int i = 0; i < size; i++)
+    {
+      int exp = _exptype(i);
+      int dataIndex = m_dataOrQName.elementAt(i);
+
+      switch (m_expandedNameTable.getType(exp))
+      {
+      case DTM.ELEMENT_NODE :
+        // SAX2DTM keeps the QName of any element in a namespace, even
+        // without a prefix.
+        if (0 == dataIndex && 0 != m_expandedNameTable.getNamespaceID(exp))
+          dataIndex = values.stringToIndex(
+            m_expandedNameTable.getLocalName(exp));
+        break;
+      case DTM.TEXT_NODE :
+      case DTM.CDATA_SECTION_NODE :
+        if (dataIndex > 0)
+        {
+          int offset = data.size();
+          data.addElement(dataIndex >>> TEXT_LENGTH_BITS);
+          data.addElement(dataIndex & TEXT_LENGTH_MAX);
+          dataIndex = offset;
+        }
+        else
+          dataIndex = -dataIndex;
+        break;
+      case DTM.ATTRIBUTE_NODE :
+      case DTM.NAMESPACE_NODE :
+        if (dataIndex < 0)
+          data.setElementAt(valueMap[data.elementAt(-dataIndex + 1)],
+                            -dataIndex + 1);
+        else
+          dataIndex = valueMap[dataIndex];
+        break;
+      case DTM.COMMENT_NODE :
+        dataIndex = valueMap[dataIndex];
+        break;
+      case DTM.PROCESSING_INSTRUCTION_NODE :
+        exp = m_expandedNameTable.getExpandedTypeID(null,
+          m_valuesOrPrefixes.indexToString(m_data.elementAt(-dataIndex)),
+          DTM.PROCESSING_INSTRUCTION_NODE);
+        dataIndex = valueMap[m_data.elementAt(-dataIndex + 1)];
+        break;
+      default :
+        break;
+      }
+
+      exptype.addElement(exp);
+      dataOrQName.addElement(dataIndex);
+    }
+
+    int nids = m_idAttributes.size();
+    int[] idValues = new int[nids];
+    for (int i = 0; i < nids; i++)
+      idValues[i] = valueMap[m_idAttributes.getKeyOf(i)];
+
+    writeImage(os, exptype, dataOrQName, data, values, idValues);
+  }
+
+  /**
+   * Get an estimate of the memory retained by one part of this DTM,
+   * adding the type index and m_values to what SAX2DTM counts.
+   *
+   * @param part One of the DTMDefaultBase.MEMORY_* values.
+   *
+   * @return the estimated size in bytes.
+   */
+  public long getMemoryUsage(int part)
+  {
+    long size = super.getMemoryUsage(part);
+
+    if (MEMORY_NODE_ARRAYS == part)
+    {
+      int[][] typeIndex = m_typeIndex;
+
+      if (null != typeIndex)
+      {
+        size += 8L * typeIndex.length;
+
+        for (int i = 0; i < typeIndex.length; i++)
+        {
+          if (null != typeIndex[i])
+            size += 4L * typeIndex[i].length;
+        }
+      }
+    }
+    else if (MEMORY_CHARACTERS == part)
+    {
+      // Each value costs a Vector slot, a String and its characters,
+      // except that a value shared through the pool costs only the slot.
+      size += 8L * m_values.size()
+              + (long) DTMValuePool.STRING_OVERHEAD * m_values.size()
+              + 2 * m_valueChars;
+
+      if (null != m_valuePool)
+        size -= m_valuePool.getBytesSaved();
+    }
+
+    return size;
+  }
+
+  /**
+   * Move the node arrays to a different kind of storage. The int[] blocks
+   * cached from them are dropped, so that from now on all access to the
+   * arrays goes through the SuballocatedIntVectors.
+   *
+   * @param nodeStorage One of the DTMManager.NODE_STORAGE_* values.
+   */
+  protected void spillNodeColumns(int nodeStorage)
+  {
+    super.spillNodeColumns(nodeStorage);
+
+    m_heapNodeArrays = (DTMManager.NODE_STORAGE_HEAP == nodeStorage);
+    if (!m_heapNodeArrays)
+      m_blocksize = 0;
+
+    m_exptype_map0 = m_exptype.getMap0();
+    m_nextsib_map0 = m_nextsib.getMap0();
+    m_firstch_map0 = m_firstch.getMap0();
+    m_parent_map0  = m_parent.getMap0();
+  }
+
   /**
    * Override DTMDefaultBase._exptype() by dropping the incremental code.
    *
@@ -1926,7 +2272,9 @@ public class SAX2DTM2 extends SAX2DTM
     if (identity < m_blocksize)
       return m_exptype_map0[identity];
     else
-      return m_exptype_map[identity>>>m_SHIFT][identity&m_MASK];
+      return m_heapNodeArrays
+             ? m_exptype_map[identity>>>m_SHIFT][identity&m_MASK]
+             : m_exptype.elementAt(identity);
   }
 
   /**
@@ -1942,7 +2290,9 @@ public class SAX2DTM2 extends SAX2DTM
     if (identity < m_blocksize)
       return m_nextsib_map0[identity];
     else
-      return m_nextsib_map[identity>>>m_SHIFT][identity&m_MASK];
+      return m_heapNodeArrays
+             ? m_nextsib_map[identity>>>m_SHIFT][identity&m_MASK]
+             : m_nextsib.elementAt(identity);
   }
 
   /**
@@ -1958,7 +2308,9 @@ public class SAX2DTM2 extends SAX2DTM
     if (identity < m_blocksize)
       return m_firstch_map0[identity];
     else
-      return m_firstch_map[identity>>>m_SHIFT][identity&m_MASK];
+      return m_heapNodeArrays
+             ? m_firstch_map[identity>>>m_SHIFT][identity&m_MASK]
+             : m_firstch.elementAt(identity);
   }
 
   /**
@@ -1974,7 +2326,9 @@ public class SAX2DTM2 extends SAX2DTM
     if (identity < m_blocksize)
       return m_parent_map0[identity];
     else
-      return m_parent_map[identity>>>m_SHIFT][identity&m_MASK];
+      return m_heapNodeArrays
+             ? m_parent_map[identity>>>m_SHIFT][identity&m_MASK]
+             : m_parent.elementAt(identity);
   }
 
   /**
@@ -1990,7 +2344,9 @@ public class SAX2DTM2 extends SAX2DTM
     if (identity < m_blocksize)
       eType = m_exptype_map0[identity];
     else
-      eType = m_exptype_map[identity>>>m_SHIFT][identity&m_MASK];
+      eType = m_heapNodeArrays
+              ? m_exptype_map[identity>>>m_SHIFT][identity&m_MASK]
+              : m_exptype.elementAt(identity);
 
     if (NULL != eType)
       return m_extendedTypes[eType].getNodeType();
@@ -2014,7 +2370,9 @@ public class SAX2DTM2 extends SAX2DTM
       if (nodeID < m_blocksize)
         return m_exptype_map0[nodeID];
       else
-        return m_exptype_map[nodeID>>>m_SHIFT][nodeID&m_MASK];
+        return m_heapNodeArrays
+               ? m_exptype_map[nodeID>>>m_SHIFT][nodeID&m_MASK]
+               : m_exptype.elementAt(nodeID);
     }
     else
       return NULL;
@@ -2036,6 +2394,129 @@ public class SAX2DTM2 extends SAX2DTM
       return NULL;
   }
 
+  /**
+   * Add an element to the type index.
+   *
+   * @param expandedType The element's expanded type ID.
+   * @param identity The element's node identity.
+   */
+  private void addToTypeIndex(int expandedType, int identity)
+  {
+    int[][] typeIndex = m_typeIndex;
+
+    if (expandedType >= typeIndex.length)
+    {
+      typeIndex = new int[expandedType + 64][];
+      System.arraycopy(m_typeIndex, 0, typeIndex, 0, m_typeIndex.length);
+      m_typeIndex = typeIndex;
+    }
+
+    int[] list = typeIndex[expandedType];
+
+    if (null == list)
+    {
+      list = new int[16];
+      list[0] = 1;
+      typeIndex[expandedType] = list;
+    }
+    else if (list[0] == list.length)
+    {
+      int[] newList = new int[list.length * 2];
+
+      System.arraycopy(list, 0, newList, 0, list.length);
+      list = newList;
+      typeIndex[expandedType] = list;
+    }
+
+    list[list[0]++] = identity;
+  }
+
+  /**
+   * Tell whether the nodes of an expanded type can be found through the
+   * type index. This needs the index to have been built, the document to
+   * be complete, and the type to be an element type.
+   *
+   * @param expandedType An expanded type ID.
+   *
+   * @return true if getNextTypedElement() may be used for the type.
+   */
+  protected final boolean isTypeIndexed(int expandedType)
+  {
+    return null != m_typeIndex && m_endDocumentOccured
+           && expandedType >= DTM.NTYPES
+           && DTM.ELEMENT_NODE == m_expandedNameTable.getType(expandedType);
+  }
+
+  /**
+   * Get the type index list for an element type. Call isTypeIndexed()
+   * first.
+   *
+   * @param expandedType The element expanded type ID.
+   *
+   * @return the list, with the first free slot at [0] and the identities
+   * of the elements of the type in document order after it, or null if
+   * there are no elements of the type.
+   */
+  protected final int[] getTypeIndexList(int expandedType)
+  {
+    int[][] typeIndex = m_typeIndex;
+
+    return (expandedType < typeIndex.length) ? typeIndex[expandedType] : null;
+  }
+
+  /**
+   * Find the first entry in a type index list that is at or after a
+   * node. Iterators call this with the slot after the one they last
+   * returned as a hint, which saves the binary search when they are
+   * simply stepping forward.
+   *
+   * @param list A list from getTypeIndexList(), which may be null.
+   * @param hint The slot to try first.
+   * @param identity The node identity to start looking at.
+   *
+   * @return the slot, or -1 if no entry is at or after the node.
+   */
+  protected final int findInTypeIndex(int[] list, int hint, int identity)
+  {
+    if (null == list)
+      return -1;
+
+    int end = list[0];
+
+    if (hint >= 1 && hint <= end && (hint == 1 || list[hint - 1] < identity))
+    {
+      if (hint == end)
+        return -1;
+      if (list[hint] >= identity)
+        return hint;
+    }
+
+    return findGTE(list, 1, end - 1, identity);
+  }
+
+  /**
+   * Get the first node after a node's subtree in document order.
+   *
+   * @param identity The node identity.
+   *
+   * @return the identity of the following node, or NULL if the subtree
+   * runs to the end of the document.
+   */
+  protected final int getSubtreeEnd(int identity)
+  {
+    while (NULL != identity)
+    {
+      int next = _nextsib2(identity);
+
+      if (NULL != next)
+        return next;
+
+      identity = _parent2(identity);
+    }
+
+    return NULL;
+  }
+
   /**
    * Get a prefix either from the uri mapping, or just make
    * one up!
@@ -2049,7 +2530,7 @@ public class SAX2DTM2 extends SAX2DTM
      int index = m_values.indexOf(uri);
      if (index < 0)
      {
-       m_values.addElement(uri);
+       addValue(uri);
        return m_valueIndex++;
      }
      else
@@ -2096,6 +2577,9 @@ public class SAX2DTM2 extends SAX2DTM
     if(m_indexing)
       indexNode(exName, elemNode);
 
+    if (null != m_typeIndex)
+      addToTypeIndex(exName, elemNode);
+
     m_parents.push(elemNode);
 
     int startDecls = m_contextIndexes.peek();
@@ -2108,7 +2592,7 @@ public class SAX2DTM2 extends SAX2DTM
       prefix="xml";
       String declURL = "http://www.w3.org/XML/1998/namespace";
       exName = m_expandedNameTable.getExpandedTypeID(null, prefix, DTM.NAMESPACE_NODE);
-      m_values.addElement(declURL);
+      addValue(declURL);
       int val = m_valueIndex++;
       addNode(DTM.NAMESPACE_NODE, exName, elemNode,
                      DTM.NULL, val, false);
@@ -2126,7 +2610,7 @@ public class SAX2DTM2 extends SAX2DTM
 
       exName = m_expandedNameTable.getExpandedTypeID(null, prefix, DTM.NAMESPACE_NODE);
 
-      m_values.addElement(declURL);
+      addValue(declURL);
       int val = m_valueIndex++;
 
       addNode(DTM.NAMESPACE_NODE, exName, elemNode, DTM.NULL, val, false);
@@ -2157,19 +2641,22 @@ public class SAX2DTM2 extends SAX2DTM
       else
       {
         nodeType = DTM.ATTRIBUTE_NODE;
-
-        if (m_buildIdIndex && attributes.getType(i).equalsIgnoreCase("ID"))
-          setIDAttribute(valString, elemNode);
       }
 
       // Bit of a hack... if somehow valString is null, stringToIndex will
       // return -1, which will make things very unhappy.
       if(null == valString)
         valString = "";
+      else if (null != m_valuePool)
+        valString = m_valuePool.share(valString);
 
-      m_values.addElement(valString);
+      addValue(valString);
       int val = m_valueIndex++;
 
+      if (m_buildIdIndex && DTM.ATTRIBUTE_NODE == nodeType
+          && attributes.getType(i).equalsIgnoreCase("ID"))
+        setIDAttribute(val, elemNode);
+
       if (attrLocalName.length() != attrQName.length())
       {
 
@@ -2265,7 +2752,7 @@ public class SAX2DTM2 extends SAX2DTM
 
     // %OPT% Saving the comment string in a Vector has a lower cost than
     // saving it in DTMStringPool.
-    m_values.addElement(new String(ch, start, length));
+    addValue(new String(ch, start, length));
     int dataIndex = m_valueIndex++;
 
     m_previous = addNode(DTM.COMMENT_NODE, DTM.COMMENT_NODE,
@@ -2316,6 +2803,22 @@ public class SAX2DTM2 extends SAX2DTM
     m_nextsib_map = m_nextsib.getMap();
     m_firstch_map = m_firstch.getMap();
     m_parent_map  = m_parent.getMap();
+
+    // The pool's table is of no further use, but keep its statistics.
+    if (null != m_valuePool)
+      m_valuePool.removeAllElements();
+  }
+
+  /**
+   * Return the pool through which repeated attribute values were shared
+   * while this document was built, from which statistics on the sharing
+   * can be had.
+   *
+   * @return the DTMValuePool, or null if values were not pooled.
+   */
+  public DTMValuePool getValuePool()
+  {
+    return m_valuePool;
   }
 
   /**
@@ -2346,6 +2849,9 @@ public class SAX2DTM2 extends SAX2DTM
       m_maxNodeIndex += (1 << DTMManager.IDENT_DTM_NODE_BITS);
     }
 
+    if (null != m_memoryBudget && 0 == nodeIndex % MEMORY_CHECK_INTERVAL)
+      checkMemoryBudget();
+
     m_firstch.addElement(DTM.NULL);
     m_nextsib.addElement(DTM.NULL);
     m_parent.addElement(parentIndex);
@@ -2367,7 +2873,8 @@ public class SAX2DTM2 extends SAX2DTM
     switch(type)
     {
     case DTM.NAMESPACE_NODE:
-      declareNamespaceInContext(parentIndex,nodeIndex);
+      if (!m_lazyNamespaces)
+        declareNamespaceInContext(parentIndex,nodeIndex);
       break;
     case DTM.ATTRIBUTE_NODE:
       break;
@@ -2465,7 +2972,7 @@ public class SAX2DTM2 extends SAX2DTM
 			 -dataIndex, false);
 
     m_data.addElement(m_valuesOrPrefixes.stringToIndex(target));
-    m_values.addElement(data);
+    addValue(data);
     m_data.addElement(m_valueIndex++);
 
   }
@@ -3247,7 +3754,11 @@ public class SAX2DTM2 extends SAX2DTM
         // namespace node (xmlns:xml="http://www.w3.org/XML/1998/namespace")
         // declared on the root element node. In this case, there is no
         // need to do namespace copying. We can safely return without
-        // doing anything.
+        // doing anything. Lazy declaration sets which have been started
+        // are brought up to date first, so they can be relied on.
+        if (m_lazyNamespaces && m_namespaceDeclSetElements != null)
+            declareLazyNamespaces();
+
         if (m_namespaceDeclSetElements != null &&
             m_namespaceDeclSetElements.size() == 1 &&
             m_namespaceDeclSets != null &&
@@ -46,6 +46,12 @@ import org.xml.sax.SAXException;
  * most recently added trees off the end of the DTM as stylesheet elements 
  * (and thus variable contexts) are exited.
  *
+ * 3) The DTM serves as an arena: its node columns are allocated in blocks
+ * which are kept when trees are pruned, so later trees reuse them, and
+ * clear() empties it entirely so that it can be moved to another manager
+ * with reuse() (see RTFArena). The bytes of tree storage allocated and
+ * reclaimed are counted.
+ *
  * PLEASE NOTE that this class may be _heavily_ dependent upon the
  * internals of the SAX2DTM superclass, and must be maintained in
  * parallel with that code.  Arguably, they should be conditionals
@@ -87,6 +93,10 @@ public class SAX2RTFDTM extends SAX2DTM
    * some storage.
    */
   IntStack mark_nsdeclelem_size=new IntStack();
+  /** Tail-pruning mark: Number of strings in the value/prefix pool */
+  IntStack mark_values_size=new IntStack();
+  /** Tail-pruning mark: Number of IDs in the ID table */
+  IntStack mark_ids_size=new IntStack();
 
   /**
    * Tail-pruning mark:  initial number of nodes in use
@@ -117,6 +127,21 @@ public class SAX2RTFDTM extends SAX2DTM
    * Tail-pruning mark:  default initial number of dataOrQName slots in use
    */
   int m_emptyDataQNCount;
+
+  /**
+   * Tail-pruning mark:  initial number of strings in the value/prefix pool
+   */
+  int m_emptyValuesCount;
+
+  /** Bytes of tree storage in use when the DTM is empty. */
+  private long m_emptyBytes;
+
+  /** Bytes of tree storage discarded by popRewindMark() and clear(). */
+  private long m_bytesReclaimed = 0;
+
+  /** Most bytes of tree storage seen in use at once. The node columns
+   * never shrink, so this is about what the DTM holds on to. */
+  private long m_peakBytes = 0;
   
   public SAX2RTFDTM(DTMManager mgr, Source source, int dtmIdentity,
                  DTMWSFilter whiteSpaceFilter,
@@ -135,6 +160,10 @@ public class SAX2RTFDTM extends SAX2DTM
     m_sourceLine = (m_useSourceLocationProperty) ? new IntVector() : null;
     m_sourceColumn = (m_useSourceLocationProperty) ? new IntVector() : null;
 
+    // Pruning cuts the namespace declaration sets back to a mark, which
+    // only works if they are kept up to date.
+    m_lazyNamespaces=false;
+
     // Record initial sizes of fields that are pushed and restored
     // for RTF tail-pruning.  More entries can be popped than pushed, so
     // we need this to mark the primordial state of the DTM.
@@ -146,6 +175,8 @@ public class SAX2RTFDTM extends SAX2DTM
     m_emptyDataCount = m_data.size();
     m_emptyCharsCount = m_chars.size();
     m_emptyDataQNCount = m_dataOrQName.size();
+    m_emptyValuesCount = m_valuesOrPrefixes.size();
+    m_emptyBytes = getBytesInUse();
   }
   
   /**
@@ -294,6 +325,8 @@ public class SAX2RTFDTM extends SAX2DTM
     mark_data_size.push(m_data.size());
     mark_char_size.push(m_chars.size());
     mark_doq_size.push(m_dataOrQName.size());
+    mark_values_size.push(m_valuesOrPrefixes.size());
+    mark_ids_size.push(m_idAttributes.size());
   }
  
   /** "Tail-pruning" support for RTFs.
@@ -324,6 +357,10 @@ public class SAX2RTFDTM extends SAX2DTM
   public boolean popRewindMark()
   {
     boolean top=mark_size.empty();
+    long bytesInUse=getBytesInUse();
+
+    if (bytesInUse > m_peakBytes)
+      m_peakBytes = bytesInUse;
    
     m_size=top ? m_emptyNodeCount : mark_size.pop();
     m_exptype.setSize(m_size);
@@ -349,6 +386,12 @@ public class SAX2RTFDTM extends SAX2DTM
     m_chars.setLength(top ? m_emptyCharsCount : mark_char_size.pop());
     m_dataOrQName.setSize(top ? m_emptyDataQNCount : mark_doq_size.pop());
 
+    // Strings and IDs added since the mark belong to the pruned nodes.
+    m_valuesOrPrefixes.setSize(top ? m_emptyValuesCount : mark_values_size.pop());
+    m_idAttributes.setSize(top ? 0 : mark_ids_size.pop());
+
+    m_bytesReclaimed += bytesInUse - getBytesInUse();
+
     // Return true iff DTM now empty
     return m_size==0;
   }
@@ -359,4 +402,99 @@ public class SAX2RTFDTM extends SAX2DTM
   {
     return !m_endDocumentOccured;
   }
+
+  /**
+   * Discard every tree in this DTM, and all the rewind marks, leaving it
+   * as it was when created except that the storage it has grown is kept.
+   * Like popRewindMark(), this must not be called while a tree is being
+   * built.
+   */
+  public void clear()
+  {
+    mark_size.removeAllElements();
+    mark_nsdeclset_size.removeAllElements();
+    mark_nsdeclelem_size.removeAllElements();
+    mark_data_size.removeAllElements();
+    mark_char_size.removeAllElements();
+    mark_doq_size.removeAllElements();
+    mark_values_size.removeAllElements();
+    mark_ids_size.removeAllElements();
+
+    // With no marks left, this rewinds to the primordial state.
+    popRewindMark();
+
+    m_currentDocumentNode = NULL;
+    m_endDocumentOccured = false;
+  }
+
+  /**
+   * Register this DTM, which must be empty (see clear()) and no longer
+   * known to its old manager, with another DTMManager, so that its storage
+   * is reused instead of a new RTF DTM being created. It takes up the new
+   * manager's expanded name table and memory budget.
+   *
+   * @param mgr The DTMManagerDefault which is to own this DTM.
+   */
+  public void reuse(DTMManager mgr)
+  {
+    // Any further DTM IDs were for nodes which have been cleared.
+    m_dtmIdent.setSize(1);
+
+    migrateTo(mgr);
+
+    m_expandedNameTable = m_mgrDefault.getExpandedNameTable(this);
+    m_memoryBudget = mgr.getMemoryBudget();
+  }
+
+  /**
+   * Get the bytes of tree storage in use: the node columns, the data
+   * array, the characters and the value/prefix pool.
+   *
+   * @return the estimated number of bytes.
+   */
+  public long getBytesInUse()
+  {
+    int columns = (null == m_prevsib) ? 5 : 6;
+
+    return 4L * columns * m_size + 4L * m_data.size()
+           + 2L * m_chars.size() + m_valuesOrPrefixes.getMemoryUsage();
+  }
+
+  /**
+   * @return the total bytes of tree storage allocated by this DTM since
+   * it was created or its counters were last reset.
+   */
+  public long getBytesAllocated()
+  {
+    return m_bytesReclaimed + getBytesInUse() - m_emptyBytes;
+  }
+
+  /**
+   * @return the total bytes of tree storage reclaimed by pruning or
+   * clearing this DTM since it was created or its counters were last
+   * reset.
+   */
+  public long getBytesReclaimed()
+  {
+    return m_bytesReclaimed;
+  }
+
+  /**
+   * @return the most bytes of tree storage this DTM has been seen to use
+   * at once, which is about what it retains even when empty.
+   */
+  public long getPeakBytes()
+  {
+    return m_peakBytes;
+  }
+
+  /**
+   * Reset the allocated and reclaimed counters. This is best done when the
+   * DTM is empty, so that getBytesAllocated() counts from zero.
+   */
+  public void resetCounters()
+  {
+    m_bytesReclaimed = 0;
+    m_emptyBytes = getBytesInUse();
+  }
 }
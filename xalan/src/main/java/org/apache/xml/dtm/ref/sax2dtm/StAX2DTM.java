@@ -0,0 +1,824 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.dtm.ref.sax2dtm;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.DTD;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.EntityDeclaration;
+import javax.xml.stream.events.EntityReference;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.transform.stax.StAXSource;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Builds a DTM from StAX input. The events of an XMLStreamReader or
+ * XMLEventReader are handed straight to the builder's SAX methods, so a
+ * SAX2DTM (or a subclass such as XSLTC's SAXImpl) can be populated from a
+ * StAXSource without going through a DOM or an XMLReader adapter.
+ *
+ * <p>With an XMLStreamReader, nothing is copied on the way: character
+ * data is passed from the reader's own buffer, and the attributes of an
+ * element are presented to startElement() as a view of the reader rather
+ * than copied into an AttributesImpl. The only strings are the names and
+ * values the reader itself returns. An XMLEventReader has already made
+ * objects of everything, so less is saved there.</p>
+ *
+ * <p>As the StAXSource allows, the reader may be positioned either at the
+ * start of the document, or at an element; in the latter case only that
+ * element is built, as the document element of a new document, with the
+ * namespaces it and its attributes use that are declared on its ancestors
+ * in scope as if declared on it. Events
+ * StAX doesn't report, such as the start and end of the DTD, are not
+ * passed on; unparsed entity declarations are, when the StAX
+ * implementation makes them available.</p>
+ *
+ * <p>The same class drives incremental builds through
+ * IncrementalSAXSource_StAX, one event at a time.</p>
+ */
+public class StAX2DTM
+{
+  /** Where content events go. */
+  private ContentHandler m_contentHandler;
+
+  /** Where lexical events go; may be null. */
+  private LexicalHandler m_lexicalHandler;
+
+  /** Where DTD events go; may be null. */
+  private DTDHandler m_dtdHandler;
+
+  /** The reader being pulled from, if it is an XMLStreamReader. */
+  private XMLStreamReader m_reader = null;
+
+  /** True once startDocument has been delivered. */
+  private boolean m_started = false;
+
+  /**
+   * True if the reader was positioned at an element rather than at the
+   * start of a document.
+   */
+  private boolean m_subtree = false;
+
+  /** Depth of open elements, counted only when m_subtree is set. */
+  private int m_depth = 0;
+
+  /**
+   * The prefixes mapped for the ancestors' declarations in scope at the
+   * element a subtree build starts at, to be ended after it.
+   */
+  private List m_inherited = null;
+
+  /** View of the attributes of the reader's current element. */
+  private StreamAttributes m_attributes = new StreamAttributes();
+
+  /**
+   * Create a StAX2DTM which builds the given DTM.
+   *
+   * @param dtm The DTM to build; it must not have been built already.
+   */
+  public StAX2DTM(SAX2DTM dtm)
+  {
+    this(dtm, dtm, dtm);
+  }
+
+  /**
+   * Create a StAX2DTM which sends events to the given handlers.
+   *
+   * @param contentHandler Where content events are to go.
+   * @param lexicalHandler Where lexical events are to go, or null.
+   * @param dtdHandler Where DTD events are to go, or null.
+   */
+  public StAX2DTM(ContentHandler contentHandler,
+                  LexicalHandler lexicalHandler,
+                  DTDHandler dtdHandler)
+  {
+    m_contentHandler = contentHandler;
+    m_lexicalHandler = lexicalHandler;
+    m_dtdHandler = dtdHandler;
+  }
+
+  /**
+   * Build from a StAXSource.
+   *
+   * @param source The source, holding either kind of reader.
+   *
+   * @throws XMLStreamException if the input is not well-formed, or can't
+   * be read.
+   * @throws SAXException if the builder throws it.
+   */
+  public void parse(StAXSource source)
+          throws XMLStreamException, SAXException
+  {
+    if (null != source.getXMLStreamReader())
+      parse(source.getXMLStreamReader());
+    else
+      parse(source.getXMLEventReader());
+  }
+
+  /**
+   * Build from everything an XMLStreamReader has left, or from the element
+   * it is positioned at.
+   *
+   * @param reader The reader.
+   *
+   * @throws XMLStreamException if the input is not well-formed, or can't
+   * be read.
+   * @throws SAXException if the builder throws it.
+   */
+  public void parse(XMLStreamReader reader)
+          throws XMLStreamException, SAXException
+  {
+    setXMLStreamReader(reader);
+
+    while (nextEvent())
+      ;
+  }
+
+  /**
+   * Start pulling from an XMLStreamReader, one event per nextEvent() call.
+   *
+   * @param reader The reader, positioned at the start of a document or
+   * at an element.
+   */
+  public void setXMLStreamReader(XMLStreamReader reader)
+  {
+    m_reader = reader;
+    m_started = false;
+    m_subtree = (XMLStreamConstants.START_ELEMENT == reader.getEventType());
+    m_depth = 0;
+    m_inherited = null;
+    m_attributes.m_reader = reader;
+  }
+
+  /**
+   * Pass on the next event from the XMLStreamReader.
+   *
+   * @return false once endDocument has been delivered.
+   *
+   * @throws XMLStreamException if the input is not well-formed, or can't
+   * be read.
+   * @throws SAXException if the builder throws it.
+   */
+  public boolean nextEvent() throws XMLStreamException, SAXException
+  {
+    XMLStreamReader reader = m_reader;
+    int type;
+
+    if (!m_started)
+    {
+      m_started = true;
+      m_contentHandler.setDocumentLocator(new StreamLocator(reader));
+      m_contentHandler.startDocument();
+
+      if (!m_subtree)
+        return true;
+
+      // Deliver the element we were positioned at.
+      type = XMLStreamConstants.START_ELEMENT;
+    }
+    else if (m_subtree && 0 == m_depth)
+    {
+      m_contentHandler.endDocument();
+      return false;
+    }
+    else if (!reader.hasNext())
+    {
+      m_contentHandler.endDocument();
+      return false;
+    }
+    else
+      type = reader.next();
+
+    switch (type)
+    {
+    case XMLStreamConstants.START_ELEMENT :
+    {
+      int n = reader.getNamespaceCount();
+
+      if (m_subtree && 0 == m_depth)
+      {
+        List used = new ArrayList();
+        List declared = new ArrayList();
+
+        used.add(nonNull(reader.getPrefix()));
+        for (int i = 0; i < reader.getAttributeCount(); i++)
+          used.add(nonNull(reader.getAttributePrefix(i)));
+        for (int i = 0; i < n; i++)
+          declared.add(nonNull(reader.getNamespacePrefix(i)));
+
+        m_inherited = startInheritedMappings(reader.getNamespaceContext(),
+                                             used, declared);
+      }
+
+      for (int i = 0; i < n; i++)
+      {
+        m_contentHandler.startPrefixMapping(
+          nonNull(reader.getNamespacePrefix(i)),
+          nonNull(reader.getNamespaceURI(i)));
+      }
+
+      String localName = reader.getLocalName();
+
+      m_contentHandler.startElement(nonNull(reader.getNamespaceURI()),
+                                    localName,
+                                    getQName(reader.getPrefix(), localName),
+                                    m_attributes);
+      m_depth++;
+      break;
+    }
+    case XMLStreamConstants.END_ELEMENT :
+    {
+      String localName = reader.getLocalName();
+
+      m_contentHandler.endElement(nonNull(reader.getNamespaceURI()),
+                                  localName,
+                                  getQName(reader.getPrefix(), localName));
+
+      int n = reader.getNamespaceCount();
+
+      for (int i = 0; i < n; i++)
+        m_contentHandler.endPrefixMapping(nonNull(reader.getNamespacePrefix(i)));
+
+      m_depth--;
+
+      if (m_subtree && 0 == m_depth)
+        endInheritedMappings(m_inherited);
+      break;
+    }
+    case XMLStreamConstants.CHARACTERS :
+      m_contentHandler.characters(reader.getTextCharacters(),
+                                  reader.getTextStart(),
+                                  reader.getTextLength());
+      break;
+    case XMLStreamConstants.SPACE :
+      m_contentHandler.ignorableWhitespace(reader.getTextCharacters(),
+                                           reader.getTextStart(),
+                                           reader.getTextLength());
+      break;
+    case XMLStreamConstants.CDATA :
+      if (null != m_lexicalHandler)
+        m_lexicalHandler.startCDATA();
+      m_contentHandler.characters(reader.getTextCharacters(),
+                                  reader.getTextStart(),
+                                  reader.getTextLength());
+      if (null != m_lexicalHandler)
+        m_lexicalHandler.endCDATA();
+      break;
+    case XMLStreamConstants.COMMENT :
+      if (null != m_lexicalHandler)
+        m_lexicalHandler.comment(reader.getTextCharacters(),
+                                 reader.getTextStart(),
+                                 reader.getTextLength());
+      break;
+    case XMLStreamConstants.PROCESSING_INSTRUCTION :
+      m_contentHandler.processingInstruction(reader.getPITarget(),
+                                             nonNull(reader.getPIData()));
+      break;
+    case XMLStreamConstants.ENTITY_REFERENCE :
+      // Only seen if the reader isn't replacing entity references.
+      m_contentHandler.skippedEntity(reader.getLocalName());
+      break;
+    case XMLStreamConstants.DTD :
+    {
+      Object entities = null;
+
+      try
+      {
+        entities = reader.getProperty("javax.xml.stream.entities");
+      }
+      catch (IllegalArgumentException iae)
+      {
+        // Not supported by this implementation.
+      }
+
+      if (entities instanceof List)
+        unparsedEntities((List) entities);
+      break;
+    }
+    case XMLStreamConstants.END_DOCUMENT :
+      m_contentHandler.endDocument();
+      return false;
+    default :
+      break;
+    }
+    return true;
+  }
+
+  /**
+   * Build from everything an XMLEventReader has left, or from the element
+   * it is positioned at.
+   *
+   * @param reader The reader.
+   *
+   * @throws XMLStreamException if the input is not well-formed, or can't
+   * be read.
+   * @throws SAXException if the builder throws it.
+   */
+  public void parse(XMLEventReader reader)
+          throws XMLStreamException, SAXException
+  {
+    XMLEvent first = reader.peek();
+    boolean subtree = (null != first) && first.isStartElement();
+    int depth = 0;
+    List inherited = null;
+    AttributesImpl atts = new AttributesImpl();
+
+    m_contentHandler.setDocumentLocator(new EventLocator(reader));
+    m_contentHandler.startDocument();
+
+    while (reader.hasNext())
+    {
+      XMLEvent event = reader.nextEvent();
+
+      switch (event.getEventType())
+      {
+      case XMLStreamConstants.START_ELEMENT :
+      {
+        StartElement start = event.asStartElement();
+
+        if (subtree && 0 == depth)
+        {
+          List used = new ArrayList();
+          List declared = new ArrayList();
+
+          used.add(nonNull(start.getName().getPrefix()));
+          for (Iterator i = start.getAttributes(); i.hasNext();)
+            used.add(nonNull(((Attribute) i.next()).getName().getPrefix()));
+          for (Iterator i = start.getNamespaces(); i.hasNext();)
+            declared.add(nonNull(((Namespace) i.next()).getPrefix()));
+
+          inherited = startInheritedMappings(start.getNamespaceContext(),
+                                             used, declared);
+        }
+
+        for (Iterator i = start.getNamespaces(); i.hasNext();)
+        {
+          Namespace ns = (Namespace) i.next();
+
+          m_contentHandler.startPrefixMapping(nonNull(ns.getPrefix()),
+                                              nonNull(ns.getNamespaceURI()));
+        }
+
+        atts.clear();
+        for (Iterator i = start.getAttributes(); i.hasNext();)
+        {
+          Attribute att = (Attribute) i.next();
+          String localName = att.getName().getLocalPart();
+
+          atts.addAttribute(nonNull(att.getName().getNamespaceURI()),
+                            localName,
+                            getQName(att.getName().getPrefix(), localName),
+                            nonNull(att.getDTDType()), att.getValue());
+        }
+
+        String localName = start.getName().getLocalPart();
+
+        m_contentHandler.startElement(
+          nonNull(start.getName().getNamespaceURI()), localName,
+          getQName(start.getName().getPrefix(), localName), atts);
+        depth++;
+        break;
+      }
+      case XMLStreamConstants.END_ELEMENT :
+      {
+        EndElement end = event.asEndElement();
+        String localName = end.getName().getLocalPart();
+
+        m_contentHandler.endElement(
+          nonNull(end.getName().getNamespaceURI()), localName,
+          getQName(end.getName().getPrefix(), localName));
+
+        for (Iterator i = end.getNamespaces(); i.hasNext();)
+        {
+          Namespace ns = (Namespace) i.next();
+
+          m_contentHandler.endPrefixMapping(nonNull(ns.getPrefix()));
+        }
+        depth--;
+
+        if (subtree && 0 == depth)
+          endInheritedMappings(inherited);
+        break;
+      }
+      case XMLStreamConstants.CHARACTERS :
+      case XMLStreamConstants.SPACE :
+      case XMLStreamConstants.CDATA :
+      {
+        Characters chars = event.asCharacters();
+        char[] ch = chars.getData().toCharArray();
+
+        if (chars.isIgnorableWhiteSpace())
+          m_contentHandler.ignorableWhitespace(ch, 0, ch.length);
+        else if (chars.isCData() && null != m_lexicalHandler)
+        {
+          m_lexicalHandler.startCDATA();
+          m_contentHandler.characters(ch, 0, ch.length);
+          m_lexicalHandler.endCDATA();
+        }
+        else
+          m_contentHandler.characters(ch, 0, ch.length);
+        break;
+      }
+      case XMLStreamConstants.COMMENT :
+        if (null != m_lexicalHandler)
+        {
+          char[] ch = ((Comment) event).getText().toCharArray();
+
+          m_lexicalHandler.comment(ch, 0, ch.length);
+        }
+        break;
+      case XMLStreamConstants.PROCESSING_INSTRUCTION :
+      {
+        ProcessingInstruction pi = (ProcessingInstruction) event;
+
+        m_contentHandler.processingInstruction(pi.getTarget(),
+                                               nonNull(pi.getData()));
+        break;
+      }
+      case XMLStreamConstants.ENTITY_REFERENCE :
+        m_contentHandler.skippedEntity(((EntityReference) event).getName());
+        break;
+      case XMLStreamConstants.DTD :
+      {
+        List entities = ((DTD) event).getEntities();
+
+        if (null != entities)
+          unparsedEntities(entities);
+        break;
+      }
+      case XMLStreamConstants.END_DOCUMENT :
+        m_contentHandler.endDocument();
+        return;
+      default :
+        break;
+      }
+
+      if (subtree && 0 == depth)
+        break;
+    }
+    m_contentHandler.endDocument();
+  }
+
+  /**
+   * Pass on the bindings in scope at the element a subtree build starts
+   * at which are declared on its ancestors, since the builder sees no
+   * ancestors. A NamespaceContext can't list its bindings, so those of
+   * the prefixes the element and its attributes use, and of the default
+   * namespace, are looked up.
+   *
+   * @param context The namespaces in scope at the element.
+   * @param used The prefixes the element and its attributes use, "" for
+   * none.
+   * @param declared The prefixes declared on the element itself, which
+   * are passed on with its other events.
+   *
+   * @return the prefixes mapped.
+   *
+   * @throws SAXException if the builder throws it.
+   */
+  private List startInheritedMappings(NamespaceContext context, List used,
+                                      List declared)
+          throws SAXException
+  {
+    List mapped = new ArrayList();
+
+    if (null == context)
+      return mapped;
+
+    if (!used.contains(""))
+      used.add("");
+
+    for (int i = 0; i < used.size(); i++)
+    {
+      String prefix = (String) used.get(i);
+
+      if (mapped.contains(prefix) || declared.contains(prefix)
+          || XMLConstants.XML_NS_PREFIX.equals(prefix))
+        continue;
+
+      String uri = context.getNamespaceURI(prefix);
+
+      if (null == uri || 0 == uri.length())
+        continue;
+
+      m_contentHandler.startPrefixMapping(prefix, uri);
+      mapped.add(prefix);
+    }
+    return mapped;
+  }
+
+  /**
+   * End the mappings made by startInheritedMappings.
+   *
+   * @param mapped The prefixes mapped, or null if there are none.
+   *
+   * @throws SAXException if the builder throws it.
+   */
+  private void endInheritedMappings(List mapped) throws SAXException
+  {
+    if (null == mapped)
+      return;
+
+    for (int i = mapped.size() - 1; i >= 0; i--)
+      m_contentHandler.endPrefixMapping((String) mapped.get(i));
+  }
+
+  /**
+   * Pass on the unparsed entities among a DTD's entity declarations.
+   *
+   * @param entities A List of EntityDeclaration.
+   *
+   * @throws SAXException if the builder throws it.
+   */
+  private void unparsedEntities(List entities) throws SAXException
+  {
+    if (null == m_dtdHandler)
+      return;
+
+    for (int i = 0; i < entities.size(); i++)
+    {
+      Object o = entities.get(i);
+
+      if (!(o instanceof EntityDeclaration))
+        continue;
+
+      EntityDeclaration decl = (EntityDeclaration) o;
+
+      if (null != decl.getNotationName())
+        m_dtdHandler.unparsedEntityDecl(decl.getName(), decl.getPublicId(),
+                                        decl.getSystemId(),
+                                        decl.getNotationName());
+    }
+  }
+
+  /**
+   * Make a qualified name.
+   *
+   * @param prefix The prefix, which may be null or empty.
+   * @param localName The local name.
+   *
+   * @return the qualified name.
+   */
+  private static String getQName(String prefix, String localName)
+  {
+    if (null == prefix || 0 == prefix.length())
+      return localName;
+
+    return prefix + ":" + localName;
+  }
+
+  /**
+   * SAX uses the empty string where StAX may use null.
+   *
+   * @param s A string, which may be null.
+   *
+   * @return s, or "" if it was null.
+   */
+  private static String nonNull(String s)
+  {
+    return (null == s) ? "" : s;
+  }
+
+  /**
+   * The attributes of an XMLStreamReader's current START_ELEMENT, read
+   * from the reader on demand.
+   */
+  private static class StreamAttributes implements Attributes
+  {
+    /** The reader. */
+    XMLStreamReader m_reader;
+
+    public int getLength()
+    {
+      return m_reader.getAttributeCount();
+    }
+
+    public String getURI(int index)
+    {
+      if (index < 0 || index >= getLength())
+        return null;
+
+      return nonNull(m_reader.getAttributeNamespace(index));
+    }
+
+    public String getLocalName(int index)
+    {
+      if (index < 0 || index >= getLength())
+        return null;
+
+      return m_reader.getAttributeLocalName(index);
+    }
+
+    public String getQName(int index)
+    {
+      if (index < 0 || index >= getLength())
+        return null;
+
+      return StAX2DTM.getQName(m_reader.getAttributePrefix(index),
+                               m_reader.getAttributeLocalName(index));
+    }
+
+    public String getType(int index)
+    {
+      if (index < 0 || index >= getLength())
+        return null;
+
+      return m_reader.getAttributeType(index);
+    }
+
+    public String getValue(int index)
+    {
+      if (index < 0 || index >= getLength())
+        return null;
+
+      return m_reader.getAttributeValue(index);
+    }
+
+    public int getIndex(String uri, String localName)
+    {
+      int n = getLength();
+
+      for (int i = 0; i < n; i++)
+      {
+        if (localName.equals(m_reader.getAttributeLocalName(i))
+            && uri.equals(nonNull(m_reader.getAttributeNamespace(i))))
+          return i;
+      }
+      return -1;
+    }
+
+    public int getIndex(String qName)
+    {
+      int n = getLength();
+
+      for (int i = 0; i < n; i++)
+      {
+        if (qName.equals(getQName(i)))
+          return i;
+      }
+      return -1;
+    }
+
+    public String getType(String uri, String localName)
+    {
+      return getType(getIndex(uri, localName));
+    }
+
+    public String getType(String qName)
+    {
+      return getType(getIndex(qName));
+    }
+
+    public String getValue(String uri, String localName)
+    {
+      return getValue(getIndex(uri, localName));
+    }
+
+    public String getValue(String qName)
+    {
+      return getValue(getIndex(qName));
+    }
+  }
+
+  /**
+   * Base for the Locators which report a StAX Location.
+   */
+  private static abstract class LocationLocator implements Locator
+  {
+    /** The system ID, which a Location doesn't always report. */
+    private String m_systemId;
+
+    /**
+     * @param systemId The system ID to report when the Location has none.
+     */
+    LocationLocator(String systemId)
+    {
+      m_systemId = systemId;
+    }
+
+    /**
+     * @return the current location, or null.
+     */
+    abstract Location getLocation();
+
+    public String getPublicId()
+    {
+      Location location = getLocation();
+
+      return (null == location) ? null : location.getPublicId();
+    }
+
+    public String getSystemId()
+    {
+      Location location = getLocation();
+      String systemId = (null == location) ? null : location.getSystemId();
+
+      return (null == systemId) ? m_systemId : systemId;
+    }
+
+    public int getLineNumber()
+    {
+      Location location = getLocation();
+
+      return (null == location) ? -1 : location.getLineNumber();
+    }
+
+    public int getColumnNumber()
+    {
+      Location location = getLocation();
+
+      return (null == location) ? -1 : location.getColumnNumber();
+    }
+  }
+
+  /**
+   * Reports the location of an XMLStreamReader.
+   */
+  private static class StreamLocator extends LocationLocator
+  {
+    /** The reader. */
+    private XMLStreamReader m_reader;
+
+    StreamLocator(XMLStreamReader reader)
+    {
+      super((null == reader.getLocation())
+            ? null : reader.getLocation().getSystemId());
+      m_reader = reader;
+    }
+
+    Location getLocation()
+    {
+      return m_reader.getLocation();
+    }
+  }
+
+  /**
+   * Reports the location of the next event of an XMLEventReader.
+   */
+  private static class EventLocator extends LocationLocator
+  {
+    /** The reader. */
+    private XMLEventReader m_reader;
+
+    EventLocator(XMLEventReader reader)
+    {
+      super(null);
+      m_reader = reader;
+    }
+
+    Location getLocation()
+    {
+      try
+      {
+        XMLEvent event = m_reader.peek();
+
+        return (null == event) ? null : event.getLocation();
+      }
+      catch (XMLStreamException e)
+      {
+        return null;
+      }
+    }
+  }
+}
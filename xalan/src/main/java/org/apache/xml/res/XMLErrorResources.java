@@ -142,6 +142,10 @@ public class XMLErrorResources extends ListResourceBundle
   public static final String ER_ARG_LOCALNAME_INVALID = "ER_ARG_LOCALNAME_INVALID";  
   public static final String ER_ARG_PREFIX_INVALID = "ER_ARG_PREFIX_INVALID";  
   public static final String ER_NAME_CANT_START_WITH_COLON = "ER_NAME_CANT_START_WITH_COLON";
+  public static final String ER_BAD_DTM_IMAGE = "ER_BAD_DTM_IMAGE";
+  public static final String ER_DTM_IMAGE_INCOMPLETE = "ER_DTM_IMAGE_INCOMPLETE";
+  public static final String ER_DTM_IMAGE_NOT_SUPPORTED = "ER_DTM_IMAGE_NOT_SUPPORTED";
+  public static final String ER_DTM_MEMORY_BUDGET_EXCEEDED = "ER_DTM_MEMORY_BUDGET_EXCEEDED";
 
   /*
    * Now fill in the message text.
@@ -354,6 +358,18 @@ public class XMLErrorResources extends ListResourceBundle
        
     { ER_NAME_CANT_START_WITH_COLON,
       "Name cannot start with a colon"},
+
+    { ER_BAD_DTM_IMAGE,
+      "{0} is not a DTM image, or was written by an incompatible version"},
+
+    { ER_DTM_IMAGE_INCOMPLETE,
+      "An image can only be written from a completely built document"},
+
+    { ER_DTM_IMAGE_NOT_SUPPORTED,
+      "The DTM image {0} can't be loaded by XSLTC; DTM images are only supported by the interpretive processor"},
+
+    { ER_DTM_MEMORY_BUDGET_EXCEEDED,
+      "Document not built: its DTMs would use {0} bytes, more than their memory budget of {1} bytes"},
        
     { "BAD_CODE", "Parameter to createMessage was out of bounds"},
     { "FORMAT_FAILED", "Exception thrown during messageFormat call"},
@@ -0,0 +1,618 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A FastStringBuffer which stores its text at one byte per character
+ * whenever it can. Each chunk starts out narrow, holding only characters
+ * in the ISO-8859-1 range (U+0000 to U+00FF); the first append of a wider
+ * character into a chunk converts that chunk, and only that chunk, to
+ * the usual char[] form. For the mostly-ASCII text of typical documents
+ * this halves the storage of a DTM's character buffer.
+ * <p>
+ * Everything is accessed through the FastStringBuffer methods, so
+ * XMLString views such as XStringForFSB work unchanged. Characters from
+ * a narrow chunk are widened into a temporary array as they are sent to
+ * a ContentHandler, rather than going through a String.
+ * <p>
+ * Unlike FastStringBuffer, the chunk size is always fixed; the nested
+ * m_innerFSB scheme is never used.
+ */
+public class CompactFastStringBuffer extends FastStringBuffer
+{
+
+  /**
+   * Field m_narrow holds the chunks that are still stored one byte per
+   * character, in parallel with m_array. For any chunk in use exactly one
+   * of m_narrow[i] and m_array[i] is non-null. The two arrays are always
+   * the same length.
+   */
+  byte[][] m_narrow;
+
+  /**
+   * Construct a CompactFastStringBuffer.
+   *
+   * @param chunkBits Length in characters of each chunk, expressed in
+   * log-base-2. (That is, 10 means chunks of 1024 characters.)
+   */
+  public CompactFastStringBuffer(int chunkBits)
+  {
+    super(chunkBits, chunkBits);
+
+    m_array[0] = null;
+    m_narrow = new byte[m_array.length][];
+    m_narrow[0] = new byte[m_chunkSize];
+  }
+
+  /**
+   * Construct a CompactFastStringBuffer, using the default chunk size.
+   */
+  public CompactFastStringBuffer()
+  {
+    this(10);
+  }
+
+  /**
+   * Discard the content of the buffer, and most of the memory that was
+   * allocated by it, restoring the initial state.
+   */
+  public void reset()
+  {
+    m_lastChunk = 0;
+    m_firstFree = 0;
+    m_array = new char[16][];
+    m_narrow = new byte[16][];
+    m_narrow[0] = new byte[m_chunkSize];
+  }
+
+  /**
+   * Get the amount of memory held by the buffer's chunks, counting narrow
+   * chunks at one byte per character.
+   *
+   * @return the size of the allocated chunks, in bytes.
+   */
+  public long getStorageSize()
+  {
+    byte[][] narrow = m_narrow;
+    long size = super.getStorageSize();
+
+    for (int i = 0; i < narrow.length; i++)
+    {
+      if (narrow[i] != null)
+        size += narrow[i].length;
+    }
+
+    return size;
+  }
+
+  /**
+   * Move the insertion point to the start of the next chunk, allocating
+   * it (narrow) if necessary.
+   */
+  private void nextChunk()
+  {
+    int i = m_array.length;
+
+    if (m_lastChunk + 1 == i)
+    {
+      char[][] newarray = new char[i + 16][];
+      byte[][] newnarrow = new byte[i + 16][];
+
+      System.arraycopy(m_array, 0, newarray, 0, i);
+      System.arraycopy(m_narrow, 0, newnarrow, 0, i);
+
+      m_array = newarray;
+      m_narrow = newnarrow;
+    }
+
+    ++m_lastChunk;
+
+    // Chunks left behind by setLength() are reused in whatever form
+    // they're already in.
+    if (m_array[m_lastChunk] == null && m_narrow[m_lastChunk] == null)
+      m_narrow[m_lastChunk] = new byte[m_chunkSize];
+
+    m_firstFree = 0;
+  }
+
+  /**
+   * Convert a narrow chunk to char[] form.
+   *
+   * @param chunk Index of the chunk.
+   * @return the chunk's new char[] storage.
+   */
+  private char[] widen(int chunk)
+  {
+    byte[] narrow = m_narrow[chunk];
+    char[] wide = new char[m_chunkSize];
+
+    inflate(narrow, 0, m_chunkSize, wide);
+
+    m_array[chunk] = wide;
+    m_narrow[chunk] = null;
+
+    return wide;
+  }
+
+  /**
+   * Copy one-byte characters into a char array.
+   *
+   * @param narrow Source chunk.
+   * @param start Offset of the first character to copy.
+   * @param length Number of characters to copy.
+   * @param dest Array to copy into, starting at offset 0.
+   */
+  private static void inflate(byte[] narrow, int start, int length,
+                              char[] dest)
+  {
+    for (int i = 0; i < length; i++)
+      dest[i] = (char) (narrow[start + i] & 0xFF);
+  }
+
+  /**
+   * Append a single character, growing the storage if necessary.
+   *
+   * @param value character to be appended.
+   */
+  public void append(char value)
+  {
+    if (m_firstFree == m_chunkSize)
+      nextChunk();
+
+    byte[] narrow = m_narrow[m_lastChunk];
+
+    if (narrow == null)
+      m_array[m_lastChunk][m_firstFree++] = value;
+    else if (value <= 0xFF)
+      narrow[m_firstFree++] = (byte) value;
+    else
+      widen(m_lastChunk)[m_firstFree++] = value;
+  }
+
+  /**
+   * Append part of a character array, growing the storage if necessary.
+   *
+   * @param chars character array from which data is to be copied
+   * @param start offset in chars of first character to be copied,
+   * zero-based.
+   * @param length number of characters to be copied
+   */
+  public void append(char[] chars, int start, int length)
+  {
+    while (length > 0)
+    {
+      if (m_firstFree == m_chunkSize)
+        nextChunk();
+
+      int available = m_chunkSize - m_firstFree;
+
+      if (available > length)
+        available = length;
+
+      byte[] narrow = m_narrow[m_lastChunk];
+      int i = 0;
+
+      if (narrow != null)
+      {
+        for (int pos = m_firstFree; i < available; ++i, ++pos)
+        {
+          char c = chars[start + i];
+
+          if (c > 0xFF)
+          {
+            widen(m_lastChunk);
+            break;
+          }
+          narrow[pos] = (byte) c;
+        }
+      }
+
+      // Whatever the narrow loop didn't take goes into a wide chunk
+      if (i < available)
+        System.arraycopy(chars, start + i, m_array[m_lastChunk],
+                         m_firstFree + i, available - i);
+
+      m_firstFree += available;
+      start += available;
+      length -= available;
+    }
+  }
+
+  /**
+   * Append the contents of a String, growing the storage if necessary.
+   *
+   * @param value String whose contents are to be appended.
+   */
+  public void append(String value)
+  {
+    if (value != null)
+      appendSequence(value);
+  }
+
+  /**
+   * Append the contents of a StringBuffer, growing the storage if
+   * necessary.
+   *
+   * @param value StringBuffer whose contents are to be appended.
+   */
+  public void append(StringBuffer value)
+  {
+    if (value != null)
+      appendSequence(value);
+  }
+
+  /**
+   * Shared code for append(String) and append(StringBuffer).
+   *
+   * @param value String or StringBuffer whose contents are to be appended.
+   */
+  private void appendSequence(CharSequence value)
+  {
+    int length = value.length();
+    int start = 0;
+
+    while (length > 0)
+    {
+      if (m_firstFree == m_chunkSize)
+        nextChunk();
+
+      int available = m_chunkSize - m_firstFree;
+
+      if (available > length)
+        available = length;
+
+      byte[] narrow = m_narrow[m_lastChunk];
+      int i = 0;
+
+      if (narrow != null)
+      {
+        for (int pos = m_firstFree; i < available; ++i, ++pos)
+        {
+          char c = value.charAt(start + i);
+
+          if (c > 0xFF)
+          {
+            widen(m_lastChunk);
+            break;
+          }
+          narrow[pos] = (byte) c;
+        }
+      }
+
+      if (i < available)
+      {
+        char[] wide = m_array[m_lastChunk];
+
+        if (value instanceof String)
+          ((String) value).getChars(start + i, start + available, wide,
+                                    m_firstFree + i);
+        else
+          ((StringBuffer) value).getChars(start + i, start + available,
+                                          wide, m_firstFree + i);
+      }
+
+      m_firstFree += available;
+      start += available;
+      length -= available;
+    }
+  }
+
+  /**
+   * Append the contents of another FastStringBuffer, growing the storage
+   * if necessary.
+   *
+   * @param value FastStringBuffer whose contents are to be appended.
+   */
+  public void append(FastStringBuffer value)
+  {
+    if (value == null)
+      return;
+
+    if (value instanceof CompactFastStringBuffer)
+    {
+      ((CompactFastStringBuffer) value).appendTo(this);
+      return;
+    }
+
+    if (value instanceof DirectFastStringBuffer)
+    {
+      ((DirectFastStringBuffer) value).appendTo(this);
+      return;
+    }
+
+    if (value.m_innerFSB != null)
+    {
+      append(value.toString());
+      return;
+    }
+
+    int strlen = value.length();
+
+    for (int copyfrom = 0; copyfrom < strlen;)
+    {
+      int column = copyfrom & value.m_chunkMask;
+      int runlength = value.m_chunkSize - column;
+
+      if (runlength > strlen - copyfrom)
+        runlength = strlen - copyfrom;
+
+      append(value.m_array[copyfrom >>> value.m_chunkBits], column,
+             runlength);
+
+      copyfrom += runlength;
+    }
+  }
+
+  /**
+   * Append the whole content of this buffer to another FastStringBuffer,
+   * which may be this one.
+   *
+   * @param dest FastStringBuffer to append to.
+   */
+  void appendTo(FastStringBuffer dest)
+  {
+    int length = length();
+    char[] scratch = null;
+
+    for (int pos = 0; pos < length;)
+    {
+      int chunk = pos >>> m_chunkBits;
+      int column = pos & m_chunkMask;
+      int runlength = m_chunkSize - column;
+
+      if (runlength > length - pos)
+        runlength = length - pos;
+
+      byte[] narrow = m_narrow[chunk];
+
+      if (narrow == null)
+        dest.append(m_array[chunk], column, runlength);
+      else
+      {
+        if (scratch == null)
+          scratch = new char[m_chunkSize];
+
+        inflate(narrow, column, runlength, scratch);
+        dest.append(scratch, 0, runlength);
+      }
+
+      pos += runlength;
+    }
+  }
+
+  /**
+   * @return true if the specified range of characters are all whitespace,
+   * as defined by XMLCharacterRecognizer.
+   * <p>
+   * CURRENTLY DOES NOT CHECK FOR OUT-OF-RANGE.
+   *
+   * @param start Offset of first character in the range.
+   * @param length Number of characters to send.
+   */
+  public boolean isWhitespace(int start, int length)
+  {
+    int stop = start + length;
+
+    for (int pos = start; pos < stop;)
+    {
+      int chunk = pos >>> m_chunkBits;
+      int column = pos & m_chunkMask;
+      int runlength = m_chunkSize - column;
+
+      if (runlength > stop - pos)
+        runlength = stop - pos;
+
+      byte[] narrow = m_narrow[chunk];
+
+      if (narrow == null)
+      {
+        if (!XMLCharacterRecognizer.isWhiteSpace(m_array[chunk], column,
+                                                 runlength))
+          return false;
+      }
+      else
+      {
+        for (int i = column, end = column + runlength; i < end; i++)
+        {
+          if (!XMLCharacterRecognizer.isWhiteSpace((char) (narrow[i] & 0xFF)))
+            return false;
+        }
+      }
+
+      pos += runlength;
+    }
+
+    return true;
+  }
+
+  protected String getOneChunkString(int startChunk, int startColumn,
+                                     int length)
+  {
+    byte[] narrow = m_narrow[startChunk];
+
+    if (narrow == null)
+      return new String(m_array[startChunk], startColumn, length);
+    else
+      return new String(narrow, startColumn, length,
+                        StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Internal support for toString() and getString().
+   *
+   * @param sb StringBuffer to be appended to
+   * @param startChunk
+   * @param startColumn
+   * @param length
+   *
+   * @return sb with the requested text appended to it
+   */
+  StringBuffer getString(StringBuffer sb, int startChunk, int startColumn,
+                         int length)
+  {
+    int pos = (startChunk << m_chunkBits) + startColumn;
+    int stop = pos + length;
+
+    while (pos < stop)
+    {
+      int chunk = pos >>> m_chunkBits;
+      int column = pos & m_chunkMask;
+      int runlength = m_chunkSize - column;
+
+      if (runlength > stop - pos)
+        runlength = stop - pos;
+
+      byte[] narrow = m_narrow[chunk];
+
+      if (narrow == null)
+        sb.append(m_array[chunk], column, runlength);
+      else
+      {
+        for (int i = column, end = column + runlength; i < end; i++)
+          sb.append((char) (narrow[i] & 0xFF));
+      }
+
+      pos += runlength;
+    }
+
+    return sb;
+  }
+
+  /**
+   * Get a single character from the string buffer.
+   *
+   * @param pos character position requested.
+   * @return A character from the requested position.
+   */
+  public char charAt(int pos)
+  {
+    int chunk = pos >>> m_chunkBits;
+    byte[] narrow = m_narrow[chunk];
+
+    if (narrow == null)
+      return m_array[chunk][pos & m_chunkMask];
+    else
+      return (char) (narrow[pos & m_chunkMask] & 0xFF);
+  }
+
+  /**
+   * Sends the specified range of characters as one or more SAX characters()
+   * events. Text held in narrow chunks is widened into a temporary array,
+   * one chunk at a time, before it is sent.
+   *
+   * @param ch SAX ContentHandler object to receive the event.
+   * @param start Offset of first character in the range.
+   * @param length Number of characters to send.
+   * @exception org.xml.sax.SAXException may be thrown by handler's
+   * characters() method.
+   */
+  public void sendSAXcharacters(
+          org.xml.sax.ContentHandler ch, int start, int length)
+            throws org.xml.sax.SAXException
+  {
+    int stop = start + length;
+    char[] scratch = null;
+
+    for (int pos = start; pos < stop;)
+    {
+      int chunk = pos >>> m_chunkBits;
+      int column = pos & m_chunkMask;
+      int runlength = m_chunkSize - column;
+
+      if (runlength > stop - pos)
+        runlength = stop - pos;
+
+      byte[] narrow = m_narrow[chunk];
+
+      if (narrow == null)
+        ch.characters(m_array[chunk], column, runlength);
+      else
+      {
+        if (scratch == null)
+          scratch = new char[length < m_chunkSize ? length : m_chunkSize];
+
+        inflate(narrow, column, runlength, scratch);
+        ch.characters(scratch, 0, runlength);
+      }
+
+      pos += runlength;
+    }
+  }
+
+  /**
+   * Sends the specified range of characters as one or more SAX characters()
+   * events, normalizing the characters according to XSLT rules.
+   *
+   * @param ch SAX ContentHandler object to receive the event.
+   * @param start Offset of first character in the range.
+   * @param length Number of characters to send.
+   * @return normalization status to apply to next chunk, as for
+   * FastStringBuffer.
+   * @exception org.xml.sax.SAXException may be thrown by handler's
+   * characters() method.
+   */
+  public int sendNormalizedSAXcharacters(
+          org.xml.sax.ContentHandler ch, int start, int length)
+            throws org.xml.sax.SAXException
+  {
+    int stateForNextChunk = SUPPRESS_LEADING_WS;
+    int stop = start + length;
+    char[] scratch = null;
+
+    for (int pos = start; pos < stop;)
+    {
+      int chunk = pos >>> m_chunkBits;
+      int column = pos & m_chunkMask;
+      int runlength = m_chunkSize - column;
+
+      // As in FastStringBuffer, only a run ending inside its chunk is
+      // treated as the last one.
+      if (runlength > stop - pos)
+      {
+        runlength = stop - pos;
+        stateForNextChunk |= SUPPRESS_TRAILING_WS;
+      }
+
+      byte[] narrow = m_narrow[chunk];
+
+      if (narrow == null)
+        stateForNextChunk =
+          sendNormalizedSAXcharacters(m_array[chunk], column, runlength,
+                                      ch, stateForNextChunk);
+      else
+      {
+        if (scratch == null)
+          scratch = new char[length < m_chunkSize ? length : m_chunkSize];
+
+        inflate(narrow, column, runlength, scratch);
+        stateForNextChunk =
+          sendNormalizedSAXcharacters(scratch, 0, runlength,
+                                      ch, stateForNextChunk);
+      }
+
+      pos += runlength;
+    }
+
+    return stateForNextChunk;
+  }
+}
@@ -0,0 +1,314 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.utils;
+
+import java.nio.CharBuffer;
+import java.nio.ReadOnlyBufferException;
+
+/**
+ * A read-only FastStringBuffer over existing storage, such as a region
+ * of a memory-mapped file. This is to FastStringBuffer what the
+ * DirectIntVector view constructor is to SuballocatedIntVector: the
+ * characters are shared, not copied, so a DTM loaded from an image can
+ * serve its text straight from the mapping.
+ * <p>
+ * Everything is accessed through the FastStringBuffer methods, so
+ * XMLString views such as XStringForFSB work unchanged. Characters are
+ * copied into a temporary array, a block at a time, only as they are
+ * sent to a ContentHandler.
+ * <p>
+ * The content is fixed: the append() methods throw
+ * ReadOnlyBufferException. setLength() may still be used to truncate it.
+ */
+public class DirectFastStringBuffer extends FastStringBuffer
+{
+
+  /** Number of characters copied out at a time for SAX events. */
+  private static final int BLOCK_SIZE = 1 << 10;
+
+  /** The characters, from position 0 to the buffer's limit. */
+  private CharBuffer m_chars;
+
+  /**
+   * Construct a DirectFastStringBuffer whose contents are the remaining
+   * characters of the given buffer.
+   *
+   * @param contents The characters of the FastStringBuffer.
+   */
+  public DirectFastStringBuffer(CharBuffer contents)
+  {
+    super(1, 1);
+
+    // Drop the heap storage set up by our superclass; we never use it.
+    m_array = new char[1][];
+
+    m_chars = contents.slice();
+    setLength(m_chars.remaining());
+  }
+
+  /**
+   * Discard the content of the buffer, and the reference to its storage.
+   */
+  public void reset()
+  {
+    m_chars = CharBuffer.allocate(0);
+    setLength(0);
+  }
+
+  /**
+   * Get the amount of heap held by the buffer, which is none: its
+   * characters belong to the underlying CharBuffer.
+   *
+   * @return 0.
+   */
+  public long getStorageSize()
+  {
+    return 0;
+  }
+
+  /**
+   * Always throws, as the content is fixed.
+   *
+   * @param value character to be appended.
+   */
+  public void append(char value)
+  {
+    throw new ReadOnlyBufferException();
+  }
+
+  /**
+   * Always throws, as the content is fixed.
+   *
+   * @param value String whose contents are to be appended.
+   */
+  public void append(String value)
+  {
+    throw new ReadOnlyBufferException();
+  }
+
+  /**
+   * Always throws, as the content is fixed.
+   *
+   * @param value StringBuffer whose contents are to be appended.
+   */
+  public void append(StringBuffer value)
+  {
+    throw new ReadOnlyBufferException();
+  }
+
+  /**
+   * Always throws, as the content is fixed.
+   *
+   * @param chars character array from which data is to be copied
+   * @param start offset in chars of first character to be copied,
+   * zero-based.
+   * @param length number of characters to be copied
+   */
+  public void append(char[] chars, int start, int length)
+  {
+    throw new ReadOnlyBufferException();
+  }
+
+  /**
+   * Always throws, as the content is fixed.
+   *
+   * @param value FastStringBuffer whose contents are to be appended.
+   */
+  public void append(FastStringBuffer value)
+  {
+    throw new ReadOnlyBufferException();
+  }
+
+  /**
+   * Append the whole content of this buffer to another FastStringBuffer.
+   *
+   * @param dest FastStringBuffer to append to.
+   */
+  void appendTo(FastStringBuffer dest)
+  {
+    int length = length();
+    char[] scratch = new char[length < BLOCK_SIZE ? length : BLOCK_SIZE];
+
+    for (int pos = 0; pos < length;)
+    {
+      int runlength = getChars(pos, length - pos, scratch);
+
+      dest.append(scratch, 0, runlength);
+      pos += runlength;
+    }
+  }
+
+  /**
+   * Copy characters into an array, as many as fit.
+   *
+   * @param start Offset of first character to copy.
+   * @param length Number of characters wanted.
+   * @param dest Array to copy into, starting at offset 0.
+   * @return the number of characters copied.
+   */
+  private int getChars(int start, int length, char[] dest)
+  {
+    CharBuffer chars = m_chars.duplicate();
+    int runlength = length < dest.length ? length : dest.length;
+
+    chars.position(start);
+    chars.get(dest, 0, runlength);
+
+    return runlength;
+  }
+
+  /**
+   * @return true if the specified range of characters are all whitespace,
+   * as defined by XMLCharacterRecognizer.
+   * <p>
+   * CURRENTLY DOES NOT CHECK FOR OUT-OF-RANGE.
+   *
+   * @param start Offset of first character in the range.
+   * @param length Number of characters to send.
+   */
+  public boolean isWhitespace(int start, int length)
+  {
+    CharBuffer chars = m_chars;
+
+    for (int i = start, stop = start + length; i < stop; i++)
+    {
+      if (!XMLCharacterRecognizer.isWhiteSpace(chars.get(i)))
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * @param start Offset of first character in the range.
+   * @param length Number of characters to send.
+   * @return a new String object initialized from the specified range of
+   * characters.
+   */
+  public String getString(int start, int length)
+  {
+    char[] chars = new char[length];
+
+    getChars(start, length, chars);
+
+    return new String(chars);
+  }
+
+  protected String getOneChunkString(int startChunk, int startColumn,
+                                     int length)
+  {
+    return getString((startChunk << m_chunkBits) + startColumn, length);
+  }
+
+  /**
+   * Internal support for toString() and getString().
+   *
+   * @param sb StringBuffer to be appended to
+   * @param startChunk
+   * @param startColumn
+   * @param length
+   *
+   * @return sb with the requested text appended to it
+   */
+  StringBuffer getString(StringBuffer sb, int startChunk, int startColumn,
+                         int length)
+  {
+    int start = (startChunk << m_chunkBits) + startColumn;
+    CharBuffer chars = m_chars.duplicate();
+
+    chars.position(start);
+    chars.limit(start + length);
+
+    return sb.append(chars);
+  }
+
+  /**
+   * Get a single character from the string buffer.
+   *
+   * @param pos character position requested.
+   * @return A character from the requested position.
+   */
+  public char charAt(int pos)
+  {
+    return m_chars.get(pos);
+  }
+
+  /**
+   * Sends the specified range of characters as one or more SAX characters()
+   * events. The characters are copied into a temporary array, a block at
+   * a time, before they are sent.
+   *
+   * @param ch SAX ContentHandler object to receive the event.
+   * @param start Offset of first character in the range.
+   * @param length Number of characters to send.
+   * @exception org.xml.sax.SAXException may be thrown by handler's
+   * characters() method.
+   */
+  public void sendSAXcharacters(
+          org.xml.sax.ContentHandler ch, int start, int length)
+            throws org.xml.sax.SAXException
+  {
+    char[] scratch = new char[length < BLOCK_SIZE ? length : BLOCK_SIZE];
+
+    for (int pos = start, stop = start + length; pos < stop;)
+    {
+      int runlength = getChars(pos, stop - pos, scratch);
+
+      ch.characters(scratch, 0, runlength);
+      pos += runlength;
+    }
+  }
+
+  /**
+   * Sends the specified range of characters as one or more SAX characters()
+   * events, normalizing the characters according to XSLT rules.
+   *
+   * @param ch SAX ContentHandler object to receive the event.
+   * @param start Offset of first character in the range.
+   * @param length Number of characters to send.
+   * @return normalization status to apply to next chunk, as for
+   * FastStringBuffer.
+   * @exception org.xml.sax.SAXException may be thrown by handler's
+   * characters() method.
+   */
+  public int sendNormalizedSAXcharacters(
+          org.xml.sax.ContentHandler ch, int start, int length)
+            throws org.xml.sax.SAXException
+  {
+    int stateForNextChunk = SUPPRESS_LEADING_WS;
+    char[] scratch = new char[length < BLOCK_SIZE ? length : BLOCK_SIZE];
+
+    for (int pos = start, stop = start + length; pos < stop;)
+    {
+      int runlength = getChars(pos, stop - pos, scratch);
+
+      pos += runlength;
+      if (pos == stop)
+        stateForNextChunk |= SUPPRESS_TRAILING_WS;
+
+      stateForNextChunk =
+        sendNormalizedSAXcharacters(scratch, 0, runlength,
+                                    ch, stateForNextChunk);
+    }
+
+    return stateForNextChunk;
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * A SuballocatedIntVector whose blocks live outside the Java heap, in
+ * direct ByteBuffers. Same API and same addressing as the superclass,
+ * but very large vectors (such as the node arrays of a multi-gigabyte
+ * DTM) no longer count against the heap or get copied by the collector.
+ *
+ * Since there are no int[] blocks, getMap0() and getMap() return null.
+ * Callers which cache those arrays for direct access (SAX2DTM2 does)
+ * must test for that and fall back to elementAt().
+ *
+ * Subclasses may override allocateBlock() to obtain the block storage
+ * from somewhere else; see MappedIntVector.
+ * */
+public class DirectIntVector extends SuballocatedIntVector
+{
+  /** Array of blocks of ints */
+  protected IntBuffer m_blocks[];
+
+  /** "Shortcut" handle to m_blocks[0]. */
+  protected IntBuffer m_block0;
+
+  /** "Shortcut" handle to most recently added block; see m_buildCache. */
+  protected IntBuffer m_buildBlock;
+
+  /**
+   * Construct a DirectIntVector, using the given block size and number
+   * of blocks. For efficiency, we will round the requested size
+   * off to a power of two.
+   *
+   * @param blocksize Size of block to allocate
+   * @param numblocks Number of blocks to allocate
+   * */
+  public DirectIntVector(int blocksize, int numblocks)
+  {
+    super(blocksize, numblocks);
+
+    // Drop the heap storage set up by our superclass; we never use it.
+    m_map0 = null;
+    m_map = null;
+    m_buildCache = null;
+
+    m_blocks = new IntBuffer[numblocks];
+  }
+
+  /**
+   * Construct a DirectIntVector over existing storage, such as a region
+   * of a memory-mapped file. The vector's contents are the remaining
+   * elements of the buffer; they are shared, not copied. If the buffer
+   * is read-only, so is the vector.
+   *
+   * @param blocksize Size of block to address
+   * @param contents The elements of the vector
+   * */
+  public DirectIntVector(int blocksize, IntBuffer contents)
+  {
+    this(blocksize, 1);
+
+    int base = contents.position();
+    int size = contents.remaining();
+    int nblocks = (size + m_MASK) >>> m_SHIFT;
+
+    m_blocks = new IntBuffer[Math.max(nblocks, 1)];
+    for (int i = 0; i < nblocks; ++i)
+    {
+      int start = base + (i << m_SHIFT);
+      IntBuffer view = contents.duplicate();
+      view.position(start);
+      view.limit(Math.min(start + m_blocksize, base + size));
+      m_blocks[i] = view.slice();
+    }
+    m_block0 = m_blocks[0];
+    m_firstFree = size;
+  }
+
+  /**
+   * Obtain the storage for one block of m_blocksize ints. The default
+   * implementation allocates a direct buffer in native byte order.
+   *
+   * @param index Index of the block in m_blocks.
+   *
+   * @return a new block, all of whose elements are zero.
+   */
+  protected IntBuffer allocateBlock(int index)
+  {
+    return ByteBuffer.allocateDirect(m_blocksize << 2)
+                     .order(ByteOrder.nativeOrder())
+                     .asIntBuffer();
+  }
+
+  /**
+   * Return the block with the given index, allocating it (and growing
+   * m_blocks) if necessary.
+   *
+   * @param index Index of the block in m_blocks.
+   */
+  private IntBuffer getBlock(int index)
+  {
+    if(index>=m_blocks.length)
+    {
+      int newsize=index+m_numblocks;
+      IntBuffer[] newBlocks=new IntBuffer[newsize];
+      System.arraycopy(m_blocks, 0, newBlocks, 0, m_blocks.length);
+      m_blocks=newBlocks;
+    }
+
+    IntBuffer block=m_blocks[index];
+    if(null==block)
+    {
+      block=m_blocks[index]=allocateBlock(index);
+      if(index==0)
+        m_block0=block;
+    }
+    return block;
+  }
+
+  /**
+   * Append a int onto the vector.
+   *
+   * @param value Int to add to the list
+   */
+  public void addElement(int value)
+  {
+    int indexRelativeToCache = m_firstFree - m_buildCacheStartIndex;
+
+    if(null != m_buildBlock
+       && indexRelativeToCache >= 0 && indexRelativeToCache < m_blocksize) {
+      m_buildBlock.put(indexRelativeToCache, value);
+      ++m_firstFree;
+    } else {
+      int offset=m_firstFree&m_MASK;
+      IntBuffer block=getBlock(m_firstFree>>>m_SHIFT);
+      block.put(offset, value);
+
+      m_buildBlock = block;
+      m_buildCacheStartIndex = m_firstFree-offset;
+
+      ++m_firstFree;
+    }
+  }
+
+  /**
+   * Wipe it out. Currently defined as equivalent to setSize(0).
+   */
+  public void removeAllElements()
+  {
+    m_firstFree = 0;
+    m_buildBlock = m_block0;
+    m_buildCacheStartIndex = 0;
+  }
+
+  /**
+   * Sets the component at the specified index of this vector to be the
+   * specified object. The previous component at that position is discarded.
+   *
+   * @param value object to set
+   * @param at    Index of where to set the object
+   */
+  public void setElementAt(int value, int at)
+  {
+    getBlock(at>>>m_SHIFT).put(at&m_MASK, value);
+
+    if(at>=m_firstFree)
+      m_firstFree=at+1;
+  }
+
+  /**
+   * Get the nth element.
+   *
+   * @param i index of value to get
+   *
+   * @return value at given index. As in SuballocatedIntVector, the
+   * result is undefined if that value wasn't previously set, except
+   * that it is 0 if no value has been set in its block.
+   */
+  public int elementAt(int i)
+  {
+    if(i<m_blocksize)
+      return (null == m_block0) ? 0 : m_block0.get(i);
+
+    int index=i>>>m_SHIFT;
+
+    // Blocks are only allocated when written to.
+    if(index>=m_blocks.length || null == m_blocks[index])
+      return 0;
+
+    return m_blocks[index].get(i&m_MASK);
+  }
+
+  /**
+   * Searches for the first occurence of the given argument,
+   * beginning the search at index.
+   *
+   * @param elem object to look for
+   * @param index Index of where to begin search
+   * @return the index of the first occurrence of the object
+   * argument in this vector at position index or later in the
+   * vector; returns -1 if the object is not found.
+   */
+  public int indexOf(int elem, int index)
+  {
+    for(int i=index;i<m_firstFree;++i)
+    {
+      IntBuffer block=m_blocks[i>>>m_SHIFT];
+      if(null==block)
+      {
+        // Skip to the start of the next block.
+        i|=m_MASK;
+        continue;
+      }
+      if(block.get(i&m_MASK)==elem)
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Release any resources held outside the heap. The default
+   * implementation does nothing, since direct buffers are freed
+   * when they are collected. The vector must not be used afterward.
+   */
+  public void release()
+  {
+  }
+}
@@ -280,12 +280,32 @@ public class FastStringBuffer
     return (m_lastChunk << m_chunkBits) + m_firstFree;
   }
 
+  /**
+   * Get the amount of memory held by the FastStringBuffer's chunks, which
+   * is usually rather more than its content needs.
+   *
+   * @return the size of the allocated chunks, in bytes.
+   */
+  public long getStorageSize()
+  {
+    char[][] array = m_array;
+    long size = 0;
+
+    for (int i = 0; i < array.length; i++)
+    {
+      if (array[i] != null)
+        size += 2L * array[i].length;
+    }
+
+    return size;
+  }
+
   /**
    * Discard the content of the FastStringBuffer, and most of the memory
    * that was allocated by it, restoring the initial state. Note that this
    * may eventually be different from setLength(0), which see.
    */
-  public final void reset()
+  public void reset()
   {
 
     m_lastChunk = 0;
@@ -413,7 +433,7 @@ public class FastStringBuffer
    *
    * @param value character to be appended.
    */
-  public final void append(char value)
+  public void append(char value)
   {
     
     char[] chunk;
@@ -474,7 +494,7 @@ public class FastStringBuffer
    *
    * @param value String whose contents are to be appended.
    */
-  public final void append(String value)
+  public void append(String value)
   {
 
     if (value == null) 
@@ -556,7 +576,7 @@ public class FastStringBuffer
    *
    * @param value StringBuffer whose contents are to be appended.
    */
-  public final void append(StringBuffer value)
+  public void append(StringBuffer value)
   {
 
     if (value == null) 
@@ -641,7 +661,7 @@ public class FastStringBuffer
    * zero-based.
    * @param length number of characters to be copied
    */
-  public final void append(char[] chars, int start, int length)
+  public void append(char[] chars, int start, int length)
   {
 
     int strlen = length;
@@ -722,7 +742,7 @@ public class FastStringBuffer
    * @param value FastStringBuffer whose contents are
    * to be appended.
    */
-  public final void append(FastStringBuffer value)
+  public void append(FastStringBuffer value)
   {
 
     // Complicating factor here is that the two buffers may use
@@ -736,6 +756,20 @@ public class FastStringBuffer
     if (0 == strlen)
       return;
 
+    // Compact and direct buffers don't keep their text in m_array; let
+    // them deliver the characters themselves.
+    if (value instanceof CompactFastStringBuffer)
+    {
+      ((CompactFastStringBuffer) value).appendTo(this);
+      return;
+    }
+
+    if (value instanceof DirectFastStringBuffer)
+    {
+      ((DirectFastStringBuffer) value).appendTo(this);
+      return;
+    }
+
     int copyfrom = 0;
     char[] chunk = m_array[m_lastChunk];
     int available = m_chunkSize - m_firstFree;
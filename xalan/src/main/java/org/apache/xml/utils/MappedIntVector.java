@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A DirectIntVector whose blocks are memory-mapped from a scratch file,
+ * so the operating system rather than the Java heap (or the direct
+ * memory limit) decides how much of the vector is resident.
+ *
+ * The scratch file is created lazily in the default temporary directory
+ * and is deleted by release(), or at exit if release() is never called.
+ * Mappings remain valid after release() until they are collected, so a
+ * DTM which is still reachable elsewhere may continue to read from it.
+ * */
+public class MappedIntVector extends DirectIntVector
+{
+  /** The scratch file backing the blocks, or null if none created yet. */
+  private File m_file;
+
+  /** Open channel onto m_file. */
+  private FileChannel m_channel;
+
+  /**
+   * Construct a MappedIntVector, using the given block size and number
+   * of blocks. For efficiency, we will round the requested size
+   * off to a power of two.
+   *
+   * @param blocksize Size of block to allocate
+   * @param numblocks Number of blocks to allocate
+   * */
+  public MappedIntVector(int blocksize, int numblocks)
+  {
+    super(blocksize, numblocks);
+  }
+
+  /**
+   * Map the region of the scratch file which holds the given block.
+   *
+   * @param index Index of the block in m_blocks.
+   *
+   * @return a new block, all of whose elements are zero.
+   *
+   * @throws WrappedRuntimeException if the file can't be created or mapped.
+   */
+  protected IntBuffer allocateBlock(int index)
+  {
+    try
+    {
+      if(null == m_channel)
+      {
+        m_file = File.createTempFile("xalan-dtm", ".dat");
+        m_file.deleteOnExit();
+        m_channel = new RandomAccessFile(m_file, "rw").getChannel();
+      }
+
+      long blockBytes = ((long) m_blocksize) << 2;
+      return m_channel.map(FileChannel.MapMode.READ_WRITE,
+                           index * blockBytes, blockBytes)
+                      .order(ByteOrder.nativeOrder())
+                      .asIntBuffer();
+    }
+    catch(IOException ioe)
+    {
+      throw new WrappedRuntimeException(ioe);
+    }
+  }
+
+  /**
+   * Close and delete the scratch file.
+   */
+  public void release()
+  {
+    if(null != m_channel)
+    {
+      try
+      {
+        m_channel.close();
+      }
+      catch(IOException ioe)
+      {
+        // Nothing useful to do; the file is deleted at exit regardless.
+      }
+      m_channel = null;
+      m_file.delete();
+      m_file = null;
+    }
+  }
+}
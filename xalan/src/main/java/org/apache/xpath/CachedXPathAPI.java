@@ -38,7 +38,8 @@ import org.w3c.dom.traversal.NodeIterator;
  * These functions tend to be a little slow, since a number of objects must be
  * created for each evaluation.  A faster way is to precompile the
  * XPaths using the low-level API, and then just use the XPaths
- * over and over.
+ * over and over. The expression strings are compiled once and kept in
+ * the cache returned by {@link XPathCache#getDefault()}.
  *
  * This is an alternative for the old XPathAPI class, which provided
  * static methods for the purpose but had the drawback of
@@ -284,8 +285,8 @@ public class CachedXPathAPI
       (namespaceNode.getNodeType() == Node.DOCUMENT_NODE)
       ? ((Document) namespaceNode).getDocumentElement() : namespaceNode);
 
-    // Create the XPath object.
-    XPath xpath = new XPath(str, null, prefixResolver, XPath.SELECT, null);
+    // Get the XPath object, compiled only the first time it is asked for.
+    XPath xpath = XPathCache.getDefault().getXPath(str, prefixResolver);
 
     // Execute the XPath, and have it return the result
     // return xpath.execute(xpathSupport, contextNode, prefixResolver);
@@ -325,8 +326,8 @@ public class CachedXPathAPI
     // (Changed from: XPathContext xpathSupport = new XPathContext();
     //    because XPathContext is weak in a number of areas... perhaps
     //    XPathContext should be done away with.)
-    // Create the XPath object.
-    XPath xpath = new XPath(str, null, prefixResolver, XPath.SELECT, null);
+    // Get the XPath object, compiled only the first time it is asked for.
+    XPath xpath = XPathCache.getDefault().getXPath(str, prefixResolver);
 
     // Create an XPathContext that doesn't support pushing and popping of
     // variable resolution scopes.  Sufficient for simple XPath 1.0 expressions.
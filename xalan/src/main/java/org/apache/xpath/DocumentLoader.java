@@ -0,0 +1,336 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xpath;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.Source;
+
+import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.DTMManager;
+import org.apache.xml.dtm.ref.DTMDefaultBase;
+import org.apache.xml.dtm.ref.DTMManagerDefault;
+import org.apache.xpath.objects.XMLStringFactoryImpl;
+
+/**
+ * Parses several documents at once, on a bounded pool of threads, for
+ * a document() call whose argument names many of them.
+ * <p>
+ * Each document is built by a DTMManager of its own, set up like the
+ * transformation's, and handed back detached from it. The caller then
+ * moves the documents into the transformation's DTMManager one by one,
+ * in the order they were asked for (see
+ * SourceTreeManager.loadSourceTrees()), so they get the same DTM IDs,
+ * and document order, as if they had been loaded one after another.
+ * When a SourceTreeCache is in use the threads get the documents from it
+ * instead, and the caller registers views of them. XSLTC's LoadDocument
+ * passes a Builder of its own, which builds SAXImpls the same way.
+ * <p>
+ * A document which can't be built is simply left out; the caller loads
+ * it again the ordinary way, which reports the error. The threads are
+ * daemons, and go away when they have been idle for a while, so a
+ * DocumentLoader needs no shutting down. One loader may be shared by
+ * any number of transformations, and bounds how many documents they
+ * parse at once between them.
+ */
+public class DocumentLoader
+{
+
+  /** Seconds an idle thread waits for work before it ends. */
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  /** Largest number of documents parsed at once. */
+  private final int m_threads;
+
+  /** The pool the documents are parsed on. */
+  private final ThreadPoolExecutor m_executor;
+
+  /**
+   * Create a DocumentLoader.
+   *
+   * @param threads Largest number of documents to parse at once.
+   */
+  public DocumentLoader(int threads)
+  {
+    if (threads < 1)
+      throw new IllegalArgumentException("threads: " + threads);
+
+    m_threads = threads;
+    m_executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS,
+                                        TimeUnit.SECONDS,
+                                        new LinkedBlockingQueue(),
+                                        new ThreadFactory()
+    {
+      public Thread newThread(Runnable r)
+      {
+        Thread t = new Thread(r, "xalan-document-loader");
+
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    m_executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * @return the largest number of documents parsed at once.
+   */
+  public int getThreads()
+  {
+    return m_threads;
+  }
+
+  /**
+   * Build a number of documents at once, and wait for them all.
+   *
+   * @param sources The documents, each a Source which satisfies
+   * SourceTreeCache.isCacheable(); null entries are skipped.
+   * @param mgr The DTMManager of the transformation the documents are
+   * for. They aren't registered with it.
+   * @param cache Cache to get the documents from, or null to build them
+   * afresh.
+   *
+   * @return the documents, in the same order as the sources; null where
+   * a document couldn't be built. Documents from the cache are shared,
+   * and must be used through views; the others belong to no DTMManager.
+   */
+  public DTMDefaultBase[] load(Source[] sources, DTMManager mgr,
+                               SourceTreeCache cache)
+  {
+    DTM[] dtms = load(sources, new DefaultBuilder(mgr, cache));
+    DTMDefaultBase[] docs = new DTMDefaultBase[dtms.length];
+
+    for (int i = 0; i < dtms.length; i++)
+    {
+      if (dtms[i] instanceof DTMDefaultBase)
+        docs[i] = (DTMDefaultBase) dtms[i];
+    }
+
+    return docs;
+  }
+
+  /**
+   * Build a number of documents at once with the given Builder, and
+   * wait for them all.
+   *
+   * @param sources The documents; null entries are skipped.
+   * @param builder Builds each document, on one of the loader's threads.
+   *
+   * @return the documents, in the same order as the sources; null where
+   * a document couldn't be built.
+   */
+  public DTM[] load(Source[] sources, Builder builder)
+  {
+    int n = sources.length;
+    Future[] futures = new Future[n];
+    DTM[] docs = new DTM[n];
+
+    for (int i = 0; i < n; i++)
+    {
+      if (null != sources[i])
+        futures[i] = m_executor.submit(new Load(sources[i], builder));
+    }
+
+    boolean interrupted = false;
+
+    for (int i = 0; i < n; i++)
+    {
+      if (null == futures[i])
+        continue;
+
+      try
+      {
+        docs[i] = (DTM) futures[i].get();
+      }
+      catch (InterruptedException ie)
+      {
+        // Leave the remaining documents to be loaded the ordinary way.
+        interrupted = true;
+        futures[i].cancel(false);
+      }
+      catch (ExecutionException ee)
+      {
+        docs[i] = null;
+      }
+
+      if (interrupted)
+      {
+        for (int j = i + 1; j < n; j++)
+        {
+          if (null != futures[j])
+            futures[j].cancel(false);
+        }
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+
+    return docs;
+  }
+
+  /**
+   * Create a DTMManager to build a document with, set up like the one
+   * the document is for. It is of the same class where that can be
+   * created, so that the document is parsed the same way.
+   *
+   * @param mgr The DTMManager of the transformation.
+   *
+   * @return a new DTMManager.
+   */
+  static DTMManager newManager(DTMManager mgr)
+  {
+    DTMManager newMgr;
+
+    try
+    {
+      newMgr = (DTMManager) mgr.getClass().newInstance();
+      newMgr.setXMLStringFactory(null != mgr.getXMLStringFactory()
+                                 ? mgr.getXMLStringFactory()
+                                 : XMLStringFactoryImpl.getFactory());
+    }
+    catch (Exception e)
+    {
+      newMgr = DTMManager.newInstance(XMLStringFactoryImpl.getFactory());
+    }
+
+    copySettings(mgr, newMgr);
+
+    return newMgr;
+  }
+
+  /**
+   * Set up a DTMManager to build documents like another one.
+   *
+   * @param mgr The DTMManager of the transformation.
+   * @param newMgr The DTMManager to set up.
+   */
+  public static void copySettings(DTMManager mgr, DTMManager newMgr)
+  {
+    newMgr.setPipelined(mgr.getPipelined());
+    newMgr.setTypeIndexing(mgr.getTypeIndexing());
+    newMgr.setCompactText(mgr.getCompactText());
+    newMgr.setLazyNamespaces(mgr.getLazyNamespaces());
+    newMgr.setValuePooling(mgr.getValuePooling());
+    newMgr.setValuePoolMaxLength(mgr.getValuePoolMaxLength());
+    newMgr.setValuePoolSize(mgr.getValuePoolSize());
+    newMgr.setSource_location(mgr.getSource_location());
+    newMgr.setNodeStorage(mgr.getNodeStorage());
+    newMgr.setMemoryBudget(mgr.getMemoryBudget());
+
+    if (mgr instanceof DTMManagerDefault
+        && newMgr instanceof DTMManagerDefault)
+      ((DTMManagerDefault) newMgr).setSharedNameTable(
+        ((DTMManagerDefault) mgr).getSharedNameTable());
+  }
+
+  /**
+   * Builds one document for load(), on one of the loader's threads.
+   */
+  public interface Builder
+  {
+    /**
+     * Build a document.
+     *
+     * @param source The document.
+     *
+     * @return the document, which must belong to no DTMManager, or be
+     * shared and so used through views; or null if it couldn't be built.
+     *
+     * @throws Exception if the document couldn't be built.
+     */
+    DTM build(Source source) throws Exception;
+  }
+
+  /**
+   * Builds a document with a DTMManager set up like the transformation's,
+   * or gets it from a SourceTreeCache.
+   */
+  private static final class DefaultBuilder implements Builder
+  {
+    /** The DTMManager of the transformation. */
+    private final DTMManager m_mgr;
+
+    /** The cache to get the document from, or null. */
+    private final SourceTreeCache m_cache;
+
+    DefaultBuilder(DTMManager mgr, SourceTreeCache cache)
+    {
+      m_mgr = mgr;
+      m_cache = cache;
+    }
+
+    public DTM build(Source source) throws Exception
+    {
+      if (null != m_cache)
+        return m_cache.getDocument(source, m_mgr);
+
+      DTMManager mgr = newManager(m_mgr);
+
+      try
+      {
+        DTM dtm = mgr.getDTM(source, false, null, false, true);
+
+        if (!(dtm instanceof DTMDefaultBase)
+            || !(mgr instanceof DTMManagerDefault))
+          return null;
+
+        ((DTMManagerDefault) mgr).detach(dtm);
+
+        return dtm;
+      }
+      finally
+      {
+        // The document is charged to the transformation's manager once
+        // it moves there.
+        mgr.setMemoryBudget(null);
+      }
+    }
+  }
+
+  /**
+   * The building of one document.
+   */
+  private static final class Load implements Callable
+  {
+    /** The document. */
+    private final Source m_source;
+
+    /** What builds it. */
+    private final Builder m_builder;
+
+    Load(Source source, Builder builder)
+    {
+      m_source = source;
+      m_builder = builder;
+    }
+
+    public Object call() throws Exception
+    {
+      return m_builder.build(m_source);
+    }
+  }
+}
@@ -211,6 +211,22 @@ public abstract class Expression implements java.io.Serializable, ExpressionNode
     return false;
   }
 
+  /**
+   * Tell what type of object the expression evaluates to, as far as
+   * that is known without evaluating it.  Operations on a number,
+   * boolean or string operand can then use {@link #num(XPathContext) num}
+   * or {@link #bool(XPathContext) bool} rather than have an XObject
+   * made of it.
+   *
+   * @return One of the CLASS_XXX values of
+   * {@link org.apache.xpath.objects.XObject}, or XObject.CLASS_UNKNOWN
+   * if the type is known only once the expression has been evaluated.
+   */
+  public int getType()
+  {
+    return XObject.CLASS_UNKNOWN;
+  }
+
   /**
    * Return the first node out of the nodeset, if this expression is
    * a nodeset expression.
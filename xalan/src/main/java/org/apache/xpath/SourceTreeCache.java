@@ -0,0 +1,659 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xpath;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.DTMManager;
+import org.apache.xml.dtm.ref.DTMDefaultBase;
+import org.apache.xml.dtm.ref.DTMManagerDefault;
+import org.apache.xml.utils.WrappedRuntimeException;
+
+/**
+ * A cache of source trees which is shared by many transformations, and
+ * may be shared by the whole JVM (see getDefault()). Where a
+ * SourceTreeManager keeps the documents one transformation has loaded,
+ * this keeps documents loaded by URI, typically with document(), so that
+ * later transformations needn't parse them again.
+ * <p>
+ * Each document is built once, by a DTMManager of its own set up like
+ * that of the transformation which first asked for it, and is never
+ * changed after that. Transformations which ask for a document while it
+ * is being built wait for that build rather than starting another. A
+ * transformation gets a read-only view of it, registered under DTM IDs
+ * of the transformation's own DTMManager (see
+ * DTMManagerDefault.addView()); any number of transformations may use
+ * views of the same document at once. Only documents named by a plain
+ * StreamSource, with neither a stream nor a reader, are cached, and the
+ * caller must not need whitespace stripped from them.
+ * <p>
+ * The cache holds at most a given number of documents, and documents of
+ * at most a given total size (see DTMDefaultBase.getMemoryUsage()). When
+ * a new document takes it over either limit, the least recently used
+ * documents are dropped. Views already handed out keep working.
+ * <p>
+ * A cached document is checked against its source, at most once every
+ * so often, through a Validator. The default one compares the URL's
+ * last-modified time; a Validator returning, say, an HTTP ETag may be
+ * supplied instead. A document found to have changed is parsed again.
+ */
+public class SourceTreeCache
+{
+
+  /**
+   * Tells whether the resource at a URI has changed since it was cached.
+   */
+  public interface Validator
+  {
+
+    /**
+     * Get a token for the current version of the resource at a URI, such
+     * as its last-modified time or an entity tag. The cached document is
+     * parsed again when the token is no longer equal to the one it was
+     * cached with.
+     *
+     * @param uri The absolute URI of the document.
+     *
+     * @return the token, or null if the version can't be told, in which
+     * case the cached document is kept.
+     *
+     * @throws IOException if the resource can't be reached.
+     */
+    public Object getVersion(String uri) throws IOException;
+  }
+
+  /**
+   * A Validator which uses the last-modified time of the URL, or of the
+   * file for a "file:" URL. An HTTP URL is asked with a HEAD request, so
+   * the document itself isn't fetched.
+   */
+  public static final Validator LAST_MODIFIED = new Validator()
+  {
+    public Object getVersion(String uri) throws IOException
+    {
+      URL url = new URL(uri);
+      long timestamp;
+
+      if ("file".equals(url.getProtocol()))
+        timestamp = new File(URLDecoder.decode(url.getFile(), "UTF-8")).lastModified();
+      else
+      {
+        URLConnection connection = url.openConnection();
+
+        if (connection instanceof HttpURLConnection)
+        {
+          HttpURLConnection http = (HttpURLConnection) connection;
+
+          try
+          {
+            http.setRequestMethod("HEAD");
+            timestamp = http.getLastModified();
+          }
+          finally
+          {
+            http.disconnect();
+          }
+        }
+        else
+          timestamp = connection.getLastModified();
+      }
+
+      return (timestamp == 0) ? null : new Long(timestamp);
+    }
+  };
+
+  /** Default for the largest number of documents cached. */
+  public static final int DEFAULT_MAX_DOCUMENTS = 64;
+
+  /** Default for the largest total size of the documents cached. */
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+  /** Default for the time, in milliseconds, between checks of a
+   * document's version. */
+  public static final long DEFAULT_CHECK_INTERVAL = 1000;
+
+  /** The cache returned by getDefault(), created when first asked for. */
+  private static SourceTreeCache m_default = null;
+
+  /**
+   * A cached document.
+   */
+  private static final class Entry
+  {
+    /** The built document. */
+    final DTMDefaultBase m_dtm;
+
+    /** The version the document was built from, or null if unknown. */
+    final Object m_version;
+
+    /** Estimated size of the document, in bytes. */
+    final long m_size;
+
+    /** When the version was last checked. */
+    long m_lastChecked;
+
+    Entry(DTMDefaultBase dtm, Object version, long size, long now)
+    {
+      m_dtm = dtm;
+      m_version = version;
+      m_size = size;
+      m_lastChecked = now;
+    }
+  }
+
+  /** Largest number of documents cached. */
+  private final int m_maxDocuments;
+
+  /** Largest total size of the documents cached, in bytes. */
+  private final long m_maxBytes;
+
+  /** Checks the cached documents against their sources; may be null. */
+  private Validator m_validator = LAST_MODIFIED;
+
+  /** Milliseconds between checks of a document's version. */
+  private long m_checkInterval = DEFAULT_CHECK_INTERVAL;
+
+  /** The Entry objects, by URI, in least recently used order. */
+  private final LinkedHashMap m_entries = new LinkedHashMap(16, 0.75f, true);
+
+  /** FutureTasks building an Entry, by URI, for the documents which are
+   * being loaded. */
+  private final HashMap m_loading = new HashMap();
+
+  /** Total size of the documents cached. */
+  private long m_bytes = 0;
+
+  /** Number of requests satisfied from the cache. */
+  private long m_hits = 0;
+
+  /** Number of requests which had to parse the document. */
+  private long m_misses = 0;
+
+  /** Number of documents parsed again because they had changed. */
+  private long m_reloads = 0;
+
+  /** Number of documents dropped to keep within the limits. */
+  private long m_evictions = 0;
+
+  /**
+   * Create a SourceTreeCache with the default limits.
+   */
+  public SourceTreeCache()
+  {
+    this(DEFAULT_MAX_DOCUMENTS, DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * Create a SourceTreeCache with the given limits.
+   *
+   * @param maxDocuments Largest number of documents to cache.
+   * @param maxBytes Largest total size of the documents to cache.
+   */
+  public SourceTreeCache(int maxDocuments, long maxBytes)
+  {
+    m_maxDocuments = maxDocuments;
+    m_maxBytes = maxBytes;
+  }
+
+  /**
+   * Get the cache shared by the JVM, creating it with the default limits
+   * if need be.
+   *
+   * @return the shared SourceTreeCache.
+   */
+  public static synchronized SourceTreeCache getDefault()
+  {
+    if (null == m_default)
+      m_default = new SourceTreeCache();
+
+    return m_default;
+  }
+
+  /**
+   * Set the Validator documents are checked with.
+   *
+   * @param validator The Validator, or null to never check documents.
+   */
+  public synchronized void setValidator(Validator validator)
+  {
+    m_validator = validator;
+  }
+
+  /**
+   * @return the Validator documents are checked with, or null.
+   */
+  public synchronized Validator getValidator()
+  {
+    return m_validator;
+  }
+
+  /**
+   * Set the time between checks of a document's version.
+   *
+   * @param millis The interval in milliseconds; 0 to check every time
+   * the document is asked for.
+   */
+  public synchronized void setCheckInterval(long millis)
+  {
+    m_checkInterval = millis;
+  }
+
+  /**
+   * @return the time between checks of a document's version, in
+   * milliseconds.
+   */
+  public synchronized long getCheckInterval()
+  {
+    return m_checkInterval;
+  }
+
+  /**
+   * Tell whether a Source is one this cache can deal with.
+   *
+   * @param source The Source.
+   *
+   * @return true if it's a StreamSource with only a system ID.
+   */
+  public static boolean isCacheable(Source source)
+  {
+    if (!(source instanceof StreamSource))
+      return false;
+
+    StreamSource ss = (StreamSource) source;
+
+    return null != ss.getSystemId() && null == ss.getInputStream()
+           && null == ss.getReader();
+  }
+
+  /**
+   * Get a view of the document named by a Source, for a DTMManager,
+   * parsing it first if it isn't cached or has changed.
+   *
+   * @param source The Source, which should satisfy isCacheable().
+   * @param mgr The DTMManager the view is for.
+   *
+   * @return the view, or null if the Source or the DTMManager isn't one
+   * this cache can deal with.
+   *
+   * @throws IOException if the Validator can't reach the document.
+   */
+  public DTM getView(Source source, DTMManager mgr) throws IOException
+  {
+    if (!(mgr instanceof DTMManagerDefault))
+      return null;
+
+    DTMDefaultBase dtm = getDocument(source, mgr);
+
+    return (null != dtm) ? ((DTMManagerDefault) mgr).addView(dtm) : null;
+  }
+
+  /**
+   * Get the document named by a Source, parsing it first if it isn't
+   * cached or has changed. The document is shared, so it may only be
+   * used through views of it (see DTMManagerDefault.addView()).
+   *
+   * @param source The Source, which should satisfy isCacheable().
+   * @param mgr The DTMManager of the transformation asking for it; a
+   * document which has to be parsed is parsed by one set up like it.
+   *
+   * @return the document, or null if the Source isn't one this cache
+   * can deal with.
+   *
+   * @throws IOException if the Validator can't reach the document.
+   */
+  public DTMDefaultBase getDocument(Source source, DTMManager mgr)
+    throws IOException
+  {
+    if (!isCacheable(source))
+      return null;
+
+    String uri = source.getSystemId();
+    Entry entry;
+    Validator validator;
+    boolean check;
+    long now = System.currentTimeMillis();
+
+    synchronized (this)
+    {
+      entry = (Entry) m_entries.get(uri);
+      validator = m_validator;
+      check = (null != entry && null != validator
+               && now - entry.m_lastChecked >= m_checkInterval);
+
+      if (check)
+        entry.m_lastChecked = now;
+    }
+
+    Object version = null;
+    Entry found = entry;
+
+    if (null == entry || check)
+    {
+      if (null != validator)
+        version = validator.getVersion(uri);
+
+      if (check && null != version && !version.equals(entry.m_version))
+      {
+        synchronized (this)
+        {
+          ++m_reloads;
+        }
+        entry = null;
+      }
+    }
+
+    if (null == entry)
+    {
+      entry = load(uri, version, now, mgr, found);
+
+      if (null == entry)
+        return null;
+    }
+    else
+    {
+      synchronized (this)
+      {
+        ++m_hits;
+      }
+    }
+
+    return entry.m_dtm;
+  }
+
+  /**
+   * Parse a document and put it in the cache, or wait for the load of it
+   * that is already going on.
+   *
+   * @param uri The absolute URI of the document.
+   * @param version The version being parsed, or null if unknown.
+   * @param now The current time.
+   * @param mgr The DTMManager of the transformation asking for it.
+   * @param found The Entry which was found out of date, or null if there
+   * was none.
+   *
+   * @return the new Entry, or null if the document couldn't be cached.
+   */
+  private Entry load(final String uri, final Object version, final long now,
+                     final DTMManager mgr, Entry found)
+  {
+    FutureTask task;
+    boolean mine = false;
+
+    synchronized (this)
+    {
+      // Another load may have finished since the cache was looked in.
+      Entry current = (Entry) m_entries.get(uri);
+
+      if (null != current && current != found)
+      {
+        ++m_hits;
+        return current;
+      }
+
+      task = (FutureTask) m_loading.get(uri);
+
+      if (null == task)
+      {
+        task = new FutureTask(new Callable()
+        {
+          public Object call()
+          {
+            return build(uri, version, now, mgr);
+          }
+        });
+        m_loading.put(uri, task);
+        mine = true;
+      }
+    }
+
+    try
+    {
+      if (mine)
+        task.run();
+
+      Entry entry = (Entry) getUninterruptibly(task);
+
+      // Whoever waited for someone else's load didn't parse anything.
+      if (!mine && null != entry)
+      {
+        synchronized (this)
+        {
+          ++m_hits;
+        }
+      }
+
+      return entry;
+    }
+    catch (ExecutionException ee)
+    {
+      Throwable cause = ee.getCause();
+
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+
+      throw new WrappedRuntimeException((Exception) cause);
+    }
+    finally
+    {
+      if (mine)
+      {
+        synchronized (this)
+        {
+          m_loading.remove(uri);
+        }
+      }
+    }
+  }
+
+  /**
+   * Wait for a load to finish. A transformation can't do without its
+   * document, so an interrupt is kept for later rather than given up
+   * on.
+   *
+   * @param task The load.
+   *
+   * @return the result of the load.
+   *
+   * @throws ExecutionException if the load failed.
+   */
+  private static Object getUninterruptibly(FutureTask task)
+    throws ExecutionException
+  {
+    boolean interrupted = false;
+
+    try
+    {
+      while (true)
+      {
+        try
+        {
+          return task.get();
+        }
+        catch (InterruptedException ie)
+        {
+          interrupted = true;
+        }
+      }
+    }
+    finally
+    {
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Parse a document and put it in the cache. It's parsed by a
+   * DTMManager set up like the transformation's (see
+   * DocumentLoader.newManager()), so the same XMLReader configuration is
+   * used, but it is not charged against that one's memory budget; the
+   * cache's own limits apply instead.
+   *
+   * @param uri The absolute URI of the document.
+   * @param version The version being parsed, or null if unknown.
+   * @param now The current time.
+   * @param requester The DTMManager of the transformation asking for it.
+   *
+   * @return the new Entry, or null if the document couldn't be cached.
+   */
+  private Entry build(String uri, Object version, long now,
+                      DTMManager requester)
+  {
+    DTMManager mgr = DocumentLoader.newManager(requester);
+
+    mgr.setMemoryBudget(null);
+
+    // The document outlives the transformation, so it keeps names in a
+    // table of its own.
+    if (mgr instanceof DTMManagerDefault)
+      ((DTMManagerDefault) mgr).setSharedNameTable(null);
+
+    DTM dtm = mgr.getDTM(new StreamSource(uri), true, null, false, true);
+
+    if (!(dtm instanceof DTMDefaultBase))
+      return null;
+
+    DTMDefaultBase dtmdb = (DTMDefaultBase) dtm;
+    Entry entry = new Entry(dtmdb, version, dtmdb.getMemoryUsage(), now);
+
+    synchronized (this)
+    {
+      ++m_misses;
+
+      Entry old = (Entry) m_entries.put(uri, entry);
+
+      if (null != old)
+        m_bytes -= old.m_size;
+
+      m_bytes += entry.m_size;
+
+      // Drop the least recently used documents, but always keep the
+      // one just loaded.
+      Iterator it = m_entries.values().iterator();
+
+      while ((m_entries.size() > m_maxDocuments || m_bytes > m_maxBytes)
+             && m_entries.size() > 1)
+      {
+        Entry eldest = (Entry) it.next();
+
+        if (eldest == entry)
+          continue;
+
+        it.remove();
+        m_bytes -= eldest.m_size;
+        ++m_evictions;
+      }
+    }
+
+    return entry;
+  }
+
+  /**
+   * Drop a document from the cache. Views already handed out keep
+   * working.
+   *
+   * @param uri The absolute URI of the document.
+   */
+  public synchronized void remove(String uri)
+  {
+    Entry entry = (Entry) m_entries.remove(uri);
+
+    if (null != entry)
+      m_bytes -= entry.m_size;
+  }
+
+  /**
+   * Drop all the documents from the cache. Views already handed out
+   * keep working.
+   */
+  public synchronized void clear()
+  {
+    m_entries.clear();
+    m_bytes = 0;
+  }
+
+  /**
+   * @return the number of documents cached.
+   */
+  public synchronized int getSize()
+  {
+    return m_entries.size();
+  }
+
+  /**
+   * @return the estimated total size of the documents cached, in bytes.
+   */
+  public synchronized long getMemoryUsage()
+  {
+    return m_bytes;
+  }
+
+  /**
+   * @return the number of requests satisfied from the cache.
+   */
+  public synchronized long getHits()
+  {
+    return m_hits;
+  }
+
+  /**
+   * @return the number of requests which had to parse the document,
+   * including reloads.
+   */
+  public synchronized long getMisses()
+  {
+    return m_misses;
+  }
+
+  /**
+   * @return the number of documents parsed again because they had
+   * changed.
+   */
+  public synchronized long getReloads()
+  {
+    return m_reloads;
+  }
+
+  /**
+   * @return the number of documents dropped to keep within the limits.
+   */
+  public synchronized long getEvictions()
+  {
+    return m_evictions;
+  }
+}
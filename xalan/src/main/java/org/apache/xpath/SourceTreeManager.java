@@ -21,6 +21,7 @@
 package org.apache.xpath;
 
 import java.io.IOException;
+import java.util.Hashtable;
 import java.util.Vector;
 
 import javax.xml.transform.Source;
@@ -31,6 +32,9 @@ import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.DTMManager;
+import org.apache.xml.dtm.ref.DTMDefaultBase;
+import org.apache.xml.dtm.ref.DTMManagerDefault;
 import org.apache.xml.utils.SystemIDResolver;
 
 import org.xml.sax.XMLReader;
@@ -59,6 +63,54 @@ public class SourceTreeManager
   /** The TrAX URI resolver used to obtain source trees. */
   URIResolver m_uriResolver;
 
+  /** Cache shared with other transformations, or null. */
+  private SourceTreeCache m_sharedCache = null;
+
+  /**
+   * Set a cache, shared with other transformations, that source trees
+   * not already managed here are to be taken from when they can be. The
+   * trees must not need whitespace stripped from them.
+   * @param cache The SourceTreeCache, or null.
+   */
+  public void setSharedCache(SourceTreeCache cache)
+  {
+    m_sharedCache = cache;
+  }
+
+  /**
+   * Get the cache, shared with other transformations, that source trees
+   * are taken from.
+   * @return The SourceTreeCache, or null.
+   */
+  public SourceTreeCache getSharedCache()
+  {
+    return m_sharedCache;
+  }
+
+  /** Loader of several source trees at once, or null. */
+  private DocumentLoader m_documentLoader = null;
+
+  /**
+   * Set a loader that source trees asked for together, by a document()
+   * call naming many of them, are to be parsed in parallel with. The
+   * trees must not need whitespace stripped from them.
+   * @param loader The DocumentLoader, or null to parse them one by one.
+   */
+  public void setDocumentLoader(DocumentLoader loader)
+  {
+    m_documentLoader = loader;
+  }
+
+  /**
+   * Get the loader that source trees asked for together are parsed in
+   * parallel with.
+   * @return The DocumentLoader, or null.
+   */
+  public DocumentLoader getDocumentLoader()
+  {
+    return m_documentLoader;
+  }
+
   /**
    * Set an object that will be used to resolve URIs used in
    * document(), etc.
@@ -278,7 +330,11 @@ public class SourceTreeManager
     if (DTM.NULL != n)
       return n;
 
-    n = parseToNode(source, locator, xctxt);
+    if (null != m_sharedCache && SourceTreeCache.isCacheable(source))
+      n = getNodeFromSharedCache(source, locator, xctxt);
+
+    if (DTM.NULL == n)
+      n = parseToNode(source, locator, xctxt);
 
     if (DTM.NULL != n)
       putDocumentInCache(n, source);
@@ -286,6 +342,103 @@ public class SourceTreeManager
     return n;
   }
 
+  /**
+   * Load a number of source trees at once with the DocumentLoader, if
+   * there is one, and put them in the document cache in the order given.
+   * Trees which are already managed here, or which can't be loaded this
+   * way, are skipped; getSourceTree() deals with them when they are asked
+   * for, and reports any errors then. Since the trees are registered in
+   * order, they get the same nodes, and the same document order, as if
+   * getSourceTree() had loaded them one after another.
+   *
+   * @param sources The Source objects identifying the trees; null
+   * entries are skipped.
+   * @param xctxt The XPath runtime state.
+   */
+  public void loadSourceTrees(Source[] sources, XPathContext xctxt)
+  {
+
+    DocumentLoader loader = m_documentLoader;
+    DTMManager mgr = xctxt.getDTMManager();
+
+    if (null == loader || !(mgr instanceof DTMManagerDefault))
+      return;
+
+    int n = sources.length;
+    Source[] wanted = new Source[n];
+    Hashtable seen = new Hashtable();
+    int count = 0;
+
+    for (int i = 0; i < n; i++)
+    {
+      Source source = sources[i];
+
+      if (null == source || !SourceTreeCache.isCacheable(source)
+          || DTM.NULL != getNode(source)
+          || null != seen.put(source.getSystemId(), source))
+        continue;
+
+      wanted[i] = source;
+      count++;
+    }
+
+    // There's nothing to gain for a single tree.
+    if (count < 2)
+      return;
+
+    SourceTreeCache cache = m_sharedCache;
+    DTMDefaultBase[] docs = loader.load(wanted, mgr, cache);
+
+    for (int i = 0; i < n; i++)
+    {
+      DTMDefaultBase doc = docs[i];
+
+      if (null == doc)
+        continue;
+
+      DTM dtm;
+
+      if (null != cache)
+        dtm = ((DTMManagerDefault) mgr).addView(doc);
+      else
+      {
+        doc.migrateTo(mgr);
+        dtm = doc;
+      }
+
+      putDocumentInCache(dtm.getDocument(), wanted[i]);
+    }
+  }
+
+  /**
+   * Get a view of a source tree from the shared cache.
+   *
+   * @param source The Source object that identifies the source node.
+   * @param locator The location of the caller, for diagnostic purposes.
+   *
+   * @return reference to the view's document node, or DTM.NULL if the
+   * cache can't supply one.
+   *
+   * @throws TransformerException if the source argument can not be resolved 
+   *         to a source node.
+   */
+  private int getNodeFromSharedCache(Source source, SourceLocator locator,
+                                     XPathContext xctxt)
+          throws TransformerException
+  {
+
+    try
+    {
+      DTM dtm = m_sharedCache.getView(source, xctxt.getDTMManager());
+
+      return (null != dtm) ? dtm.getDocument() : DTM.NULL;
+    }
+    catch (Exception e)
+    {
+      throw new TransformerException(e.getMessage(), locator, e);
+    }
+  }
+
   /**
    * Try to create a DOM source tree from the input source.
    *
@@ -32,6 +32,7 @@ import org.apache.xml.utils.PrefixResolver;
 import org.apache.xml.utils.SAXSourceLocator;
 import org.apache.xpath.compiler.Compiler;
 import org.apache.xpath.compiler.FunctionTable;
+import org.apache.xpath.compiler.TieredCompiler;
 import org.apache.xpath.compiler.XPathParser;
 import org.apache.xpath.functions.Function;
 import org.apache.xpath.objects.XObject;
@@ -49,6 +50,17 @@ public class XPath implements Serializable, ExpressionOwner
   /** The top of the expression tree. 
    *  @serial */
   private Expression m_mainExp;
+
+  /** The second tier of m_mainExp, compiled once it has been executed
+   *  often enough, or null. */
+  private transient volatile Expression m_compiledExp = null;
+
+  /** The number of times m_mainExp has been executed, counted loosely,
+   *  since it only decides when to compile it. */
+  private transient int m_executionCount = 0;
+
+  /** True once m_mainExp has been handed to the TieredCompiler. */
+  private transient volatile boolean m_compileRequested = false;
   
   /**
    * The function table for xpath built-in functions
@@ -98,7 +110,89 @@ public class XPath implements Serializable, ExpressionOwner
   {
   	if(null != m_mainExp)
     	exp.exprSetParent(m_mainExp.exprGetParent()); // a bit bogus
-    m_mainExp = exp;
+
+    synchronized (this)
+    {
+      m_mainExp = exp;
+      m_compiledExp = null;
+      m_executionCount = 0;
+      m_compileRequested = false;
+    }
+  }
+
+  /**
+   * Get the second tier of the expression, which the TieredCompiler
+   * builds in the background once an XPathContext's tiered compilation
+   * threshold has been reached. It gives the same results, and raises
+   * the same errors, as getExpression().
+   *
+   * @return the compiled Expression, or null if there is none (yet).
+   */
+  public Expression getCompiledExpression()
+  {
+    return m_compiledExp;
+  }
+
+  /**
+   * Get the Expression to execute: the second tier if it has been
+   * compiled, else the raw expression, counting the execution towards
+   * the context's tiered compilation threshold.
+   *
+   * @param xctxt The execution context.
+   *
+   * @return the Expression to execute.
+   */
+  private Expression getExecutableExpression(XPathContext xctxt)
+  {
+    Expression compiled = m_compiledExp;
+
+    if (null != compiled)
+      return compiled;
+
+    int threshold = xctxt.getTieredCompilationThreshold();
+
+    if (threshold > 0 && !m_compileRequested
+        && ++m_executionCount >= threshold)
+      requestCompilation();
+
+    return m_mainExp;
+  }
+
+  /**
+   * Have the TieredCompiler compile the raw expression in the background,
+   * and swap the result in when it is ready. An expression it can't
+   * compile is left interpreted.
+   */
+  private void requestCompilation()
+  {
+    final Expression expr;
+
+    synchronized (this)
+    {
+      if (m_compileRequested)
+        return;
+
+      m_compileRequested = true;
+      expr = m_mainExp;
+    }
+
+    TieredCompiler.submit(new Runnable()
+    {
+      public void run()
+      {
+        Expression compiled = TieredCompiler.compile(expr);
+
+        if (null != compiled)
+        {
+          synchronized (XPath.this)
+          {
+            // Unless the expression has been replaced meanwhile.
+            if (expr == m_mainExp)
+              m_compiledExp = compiled;
+          }
+        }
+      }
+    });
   }
 
   /**
@@ -334,7 +428,7 @@ public class XPath implements Serializable, ExpressionOwner
 
     try
     {
-      xobj = m_mainExp.execute(xctxt);
+      xobj = getExecutableExpression(xctxt).execute(xctxt);
     }
     catch (TransformerException te)
     {
@@ -409,7 +503,7 @@ public class XPath implements Serializable, ExpressionOwner
 
     try
     {
-      return m_mainExp.bool(xctxt);
+      return getExecutableExpression(xctxt).bool(xctxt);
     }
     catch (TransformerException te)
     {
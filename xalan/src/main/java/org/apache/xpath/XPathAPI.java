@@ -37,7 +37,8 @@ import org.w3c.dom.traversal.NodeIterator;
  * These functions tend to be a little slow, since a number of objects must be
  * created for each evaluation.  A faster way is to precompile the
  * XPaths using the low-level API, and then just use the XPaths
- * over and over.
+ * over and over. The expression strings are compiled once and kept in
+ * the cache returned by {@link XPathCache#getDefault()}.
  *
  * NOTE: In particular, each call to this method will create a new
  * XPathContext, a new DTMManager... and thus a new DTM. That's very
@@ -232,8 +233,8 @@ public class XPathAPI
       (namespaceNode.getNodeType() == Node.DOCUMENT_NODE)
       ? ((Document) namespaceNode).getDocumentElement() : namespaceNode);
 
-    // Create the XPath object.
-    XPath xpath = new XPath(str, null, prefixResolver, XPath.SELECT, null);
+    // Get the XPath object, compiled only the first time it is asked for.
+    XPath xpath = XPathCache.getDefault().getXPath(str, prefixResolver);
 
     // Execute the XPath, and have it return the result
     // return xpath.execute(xpathSupport, contextNode, prefixResolver);
@@ -273,8 +274,8 @@ public class XPathAPI
     // (Changed from: XPathContext xpathSupport = new XPathContext();
     //    because XPathContext is weak in a number of areas... perhaps
     //    XPathContext should be done away with.)
-    // Create the XPath object.
-    XPath xpath = new XPath(str, null, prefixResolver, XPath.SELECT, null);
+    // Get the XPath object, compiled only the first time it is asked for.
+    XPath xpath = XPathCache.getDefault().getXPath(str, prefixResolver);
 
     // Create an XPathContext that doesn't support pushing and popping of
     // variable resolution scopes.  Sufficient for simple XPath 1.0 expressions.
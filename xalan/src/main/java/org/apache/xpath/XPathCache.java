@@ -0,0 +1,391 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xpath;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.transform.TransformerException;
+
+import org.apache.xml.utils.PrefixResolver;
+
+/**
+ * Keeps compiled XPath select expressions, so that evaluating the same
+ * expression string over and over, as XPathAPI, CachedXPathAPI and the
+ * JAXP XPath do, parses and compiles it only once.
+ * <p>
+ * A compiled expression depends on the namespace URIs its prefixes were
+ * resolved to, so along with each one the cache records the prefixes
+ * that were looked up while compiling it, and what they resolved to. A
+ * later request for the same string is only given that compilation if
+ * its PrefixResolver resolves those prefixes the same way; otherwise the
+ * string is compiled again, and both are kept.
+ * <p>
+ * The cache holds at most getMaxSize() compiled expressions, and when it
+ * is full drops the expression string which was least recently asked
+ * for. A compiled XPath is not changed by being executed, so one may be
+ * used by any number of threads at once, and the cache itself may be
+ * shared by any number of threads. getDefault() returns a cache shared
+ * by the whole process.
+ */
+public class XPathCache
+{
+
+  /** Number of compiled expressions the default cache holds. */
+  public static final int DEFAULT_MAX_SIZE = 256;
+
+  /** The cache shared by the process. */
+  private static final XPathCache m_default =
+    new XPathCache(DEFAULT_MAX_SIZE);
+
+  /** Expression strings, least recently used first, each mapped to the
+   * first of the Entry objects compiled from it. */
+  private final LinkedHashMap m_entries = new LinkedHashMap(16, 0.75f, true);
+
+  /** Largest number of compiled expressions held. */
+  private int m_maxSize;
+
+  /** Number of compiled expressions held. */
+  private int m_size = 0;
+
+  /** Number of requests answered from the cache. */
+  private long m_hits = 0;
+
+  /** Number of requests which had to compile their expression. */
+  private long m_misses = 0;
+
+  /** Number of compiled expressions dropped to make room. */
+  private long m_evictions = 0;
+
+  /**
+   * Create a cache.
+   *
+   * @param maxSize Largest number of compiled expressions to hold; 0 to
+   * hold none.
+   */
+  public XPathCache(int maxSize)
+  {
+    if (maxSize < 0)
+      throw new IllegalArgumentException("maxSize: " + maxSize);
+
+    m_maxSize = maxSize;
+  }
+
+  /**
+   * @return the cache shared by the whole process.
+   */
+  public static XPathCache getDefault()
+  {
+    return m_default;
+  }
+
+  /**
+   * Get an XPath select expression, compiled.
+   *
+   * @param expression The expression string.
+   * @param prefixResolver Resolves the prefixes of the expression to
+   * namespace URIs; may be null.
+   *
+   * @return the compiled expression.
+   *
+   * @throws TransformerException if the expression can't be compiled.
+   */
+  public XPath getXPath(String expression, PrefixResolver prefixResolver)
+          throws TransformerException
+  {
+    Entry first;
+
+    synchronized (this)
+    {
+      first = (Entry) m_entries.get(expression);
+    }
+
+    // Entries are never changed once made, so can be looked through
+    // without holding the lock.
+    for (Entry entry = first; null != entry; entry = entry.m_next)
+    {
+      if (entry.matches(prefixResolver))
+      {
+        synchronized (this)
+        {
+          m_hits++;
+        }
+
+        return entry.m_xpath;
+      }
+    }
+
+    RecordingPrefixResolver recorder = (null == prefixResolver)
+      ? null : new RecordingPrefixResolver(prefixResolver);
+    XPath xpath = new XPath(expression, null, recorder, XPath.SELECT, null);
+
+    synchronized (this)
+    {
+      m_misses++;
+
+      if (0 == m_maxSize)
+        return xpath;
+
+      first = (Entry) m_entries.get(expression);
+      m_entries.put(expression,
+                    new Entry(xpath, (null == recorder) ? null
+                                     : recorder.getBindings(),
+                              (null == prefixResolver) ? false
+                                     : prefixResolver.handlesNullPrefixes(),
+                              first));
+      m_size++;
+      trim();
+    }
+
+    return xpath;
+  }
+
+  /**
+   * @return the largest number of compiled expressions held.
+   */
+  public synchronized int getMaxSize()
+  {
+    return m_maxSize;
+  }
+
+  /**
+   * Set the largest number of compiled expressions to hold, dropping the
+   * least recently used if there are more.
+   *
+   * @param maxSize The number; 0 to hold none.
+   */
+  public synchronized void setMaxSize(int maxSize)
+  {
+    if (maxSize < 0)
+      throw new IllegalArgumentException("maxSize: " + maxSize);
+
+    m_maxSize = maxSize;
+    trim();
+  }
+
+  /**
+   * @return the number of compiled expressions held.
+   */
+  public synchronized int size()
+  {
+    return m_size;
+  }
+
+  /**
+   * @return the number of requests answered from the cache.
+   */
+  public synchronized long getHits()
+  {
+    return m_hits;
+  }
+
+  /**
+   * @return the number of requests which had to compile their
+   * expression.
+   */
+  public synchronized long getMisses()
+  {
+    return m_misses;
+  }
+
+  /**
+   * @return the number of compiled expressions dropped to make room for
+   * others.
+   */
+  public synchronized long getEvictions()
+  {
+    return m_evictions;
+  }
+
+  /**
+   * Drop all the compiled expressions. The counts are kept.
+   */
+  public synchronized void clear()
+  {
+    m_entries.clear();
+    m_size = 0;
+  }
+
+  /**
+   * Drop the least recently used expression strings, with everything
+   * compiled from them, until no more than getMaxSize() compiled
+   * expressions are held.
+   */
+  private void trim()
+  {
+    Iterator iter = m_entries.entrySet().iterator();
+
+    while (m_size > m_maxSize && iter.hasNext())
+    {
+      Entry entry = (Entry) ((Map.Entry) iter.next()).getValue();
+
+      iter.remove();
+
+      for (; null != entry; entry = entry.m_next)
+      {
+        m_size--;
+        m_evictions++;
+      }
+    }
+  }
+
+  /**
+   * One compilation of an expression string.
+   */
+  private static final class Entry
+  {
+    /** The compiled expression. */
+    final XPath m_xpath;
+
+    /** The prefixes looked up while compiling, each followed by the
+     * namespace URI it resolved to, or null if there was no
+     * PrefixResolver. */
+    final String[] m_bindings;
+
+    /** What the PrefixResolver's handlesNullPrefixes() returned. */
+    final boolean m_handlesNullPrefixes;
+
+    /** Another compilation of the same string, or null. */
+    final Entry m_next;
+
+    Entry(XPath xpath, String[] bindings, boolean handlesNullPrefixes,
+          Entry next)
+    {
+      m_xpath = xpath;
+      m_bindings = bindings;
+      m_handlesNullPrefixes = handlesNullPrefixes;
+      m_next = next;
+    }
+
+    /**
+     * Tell whether compiling the string with a PrefixResolver would give
+     * the same expression as this.
+     *
+     * @param prefixResolver The PrefixResolver, or null.
+     *
+     * @return true if it resolves every prefix this was compiled with to
+     * the same namespace URI.
+     */
+    boolean matches(PrefixResolver prefixResolver)
+    {
+      if (null == m_bindings || null == prefixResolver)
+        return null == m_bindings && null == prefixResolver;
+
+      if (m_handlesNullPrefixes != prefixResolver.handlesNullPrefixes())
+        return false;
+
+      for (int i = 0; i < m_bindings.length; i += 2)
+      {
+        String uri = prefixResolver.getNamespaceForPrefix(m_bindings[i]);
+
+        if ((null == uri) ? (null != m_bindings[i + 1])
+                          : !uri.equals(m_bindings[i + 1]))
+          return false;
+      }
+
+      return true;
+    }
+  }
+
+  /**
+   * Passes prefix lookups to another PrefixResolver, remembering what
+   * each prefix resolved to.
+   */
+  private static final class RecordingPrefixResolver implements PrefixResolver
+  {
+    /** The PrefixResolver asked. */
+    private final PrefixResolver m_resolver;
+
+    /** Prefixes looked up, each followed by its namespace URI. */
+    private String[] m_bindings = new String[8];
+
+    /** Number of Strings in m_bindings. */
+    private int m_count = 0;
+
+    RecordingPrefixResolver(PrefixResolver resolver)
+    {
+      m_resolver = resolver;
+    }
+
+    public String getNamespaceForPrefix(String prefix)
+    {
+      return record(prefix, m_resolver.getNamespaceForPrefix(prefix));
+    }
+
+    public String getNamespaceForPrefix(String prefix,
+                                        org.w3c.dom.Node context)
+    {
+      return record(prefix,
+                    m_resolver.getNamespaceForPrefix(prefix, context));
+    }
+
+    public String getBaseIdentifier()
+    {
+      return m_resolver.getBaseIdentifier();
+    }
+
+    public boolean handlesNullPrefixes()
+    {
+      return m_resolver.handlesNullPrefixes();
+    }
+
+    /**
+     * Remember a prefix and its namespace URI, unless it was looked up
+     * before.
+     *
+     * @return the namespace URI.
+     */
+    private String record(String prefix, String uri)
+    {
+      for (int i = 0; i < m_count; i += 2)
+      {
+        if (m_bindings[i].equals(prefix))
+          return uri;
+      }
+
+      if (m_count == m_bindings.length)
+      {
+        String[] bindings = new String[m_count << 1];
+
+        System.arraycopy(m_bindings, 0, bindings, 0, m_count);
+        m_bindings = bindings;
+      }
+
+      m_bindings[m_count++] = prefix;
+      m_bindings[m_count++] = uri;
+
+      return uri;
+    }
+
+    /**
+     * @return the prefixes looked up, each followed by its namespace URI.
+     */
+    String[] getBindings()
+    {
+      String[] bindings = new String[m_count];
+
+      System.arraycopy(m_bindings, 0, bindings, 0, m_count);
+
+      return bindings;
+    }
+  }
+}
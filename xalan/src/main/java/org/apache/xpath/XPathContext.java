@@ -39,6 +39,7 @@ import org.apache.xml.dtm.DTMFilter;
 import org.apache.xml.dtm.DTMIterator;
 import org.apache.xml.dtm.DTMManager;
 import org.apache.xml.dtm.DTMWSFilter;
+import org.apache.xml.dtm.ref.sax2dtm.RTFArena;
 import org.apache.xml.dtm.ref.sax2dtm.SAX2RTFDTM;
 import org.apache.xml.utils.IntStack;
 import org.apache.xml.utils.NodeVector;
@@ -93,6 +94,12 @@ public class XPathContext extends DTMManager // implements ExpressionContext
    * state of the secure processing feature.
    */
   private boolean m_isSecureProcessing = false;
+
+  /**
+   * Number of times an XPath is executed before it is compiled to its
+   * second tier, or 0 if it never is.
+   */
+  private int m_tieredCompilationThreshold = 0;
 	
   /**
    * Though XPathContext context extends 
@@ -128,6 +135,31 @@ public class XPathContext extends DTMManager // implements ExpressionContext
   {
     return m_isSecureProcessing;
   }
+
+  /**
+   * Set the number of times an XPath is executed in this context before
+   * it is compiled, in the background, to a form which walks the DTM
+   * directly (see org.apache.xpath.compiler.TieredCompiler).
+   *
+   * @param threshold The number of executions, or 0 to leave XPaths
+   * interpreted.
+   */
+  public void setTieredCompilationThreshold(int threshold)
+  {
+    if (threshold < 0)
+      throw new IllegalArgumentException("threshold: " + threshold);
+
+    m_tieredCompilationThreshold = threshold;
+  }
+
+  /**
+   * @return the number of times an XPath is executed in this context
+   * before it is compiled to its second tier, or 0 if it never is.
+   */
+  public int getTieredCompilationThreshold()
+  {
+    return m_tieredCompilationThreshold;
+  }
   
   /**
    * Get an instance of a DTM, loaded with the content from the
@@ -361,17 +393,23 @@ public class XPathContext extends DTMManager // implements ExpressionContext
   {
     releaseDTMXRTreeFrags();
   	// These couldn't be disposed of earlier (see comments in release()); zap them now.
+  	// They go back to this thread's arena, which keeps their storage for
+  	// the next transformation if it can.
+  	RTFArena arena=RTFArena.getThreadArena();
   	if(m_rtfdtm_stack!=null)
   		 for (java.util.Enumeration e = m_rtfdtm_stack.elements() ; e.hasMoreElements() ;) 
-  		 	m_dtmManager.release((DTM)e.nextElement(), true);
+  		 	arena.recycle((SAX2RTFDTM)e.nextElement());
 
     m_rtfdtm_stack=null; // drop our references too
     m_which_rtfdtm=-1;
     
     if(m_global_rtfdtm!=null)
-  		 	m_dtmManager.release(m_global_rtfdtm,true);
+  		 	arena.recycle(m_global_rtfdtm);
     m_global_rtfdtm=null;
     
+    // The old manager's documents are finished with, so stop counting
+    // them against any memory budget it was given.
+    m_dtmManager.setMemoryBudget(null);
   	
     m_dtmManager = DTMManager.newInstance(
                    org.apache.xpath.objects.XMLStringFactoryImpl.getFactory());
@@ -1197,7 +1235,7 @@ public class XPathContext extends DTMManager // implements ExpressionContext
 	// the latter will ever arise, but I'd rather be just a bit paranoid..
 	if( m_global_rtfdtm==null || m_global_rtfdtm.isTreeIncomplete() )
 	{
-  		m_global_rtfdtm=(SAX2RTFDTM)m_dtmManager.getDTM(null,true,null,false,false);
+  		m_global_rtfdtm=RTFArena.getThreadArena().getDTM(m_dtmManager);
 	}
     return m_global_rtfdtm;
   }
@@ -1231,7 +1269,7 @@ public class XPathContext extends DTMManager // implements ExpressionContext
 	if(m_rtfdtm_stack==null)
 	{
 		m_rtfdtm_stack=new Vector();
-  		rtfdtm=(SAX2RTFDTM)m_dtmManager.getDTM(null,true,null,false,false);
+  		rtfdtm=RTFArena.getThreadArena().getDTM(m_dtmManager);
     m_rtfdtm_stack.addElement(rtfdtm);
 		++m_which_rtfdtm;
 	}
@@ -1255,7 +1293,7 @@ public class XPathContext extends DTMManager // implements ExpressionContext
 				rtfdtm=(SAX2RTFDTM)m_rtfdtm_stack.elementAt(m_which_rtfdtm);
 	  		else
 	  		{
-		  		rtfdtm=(SAX2RTFDTM)m_dtmManager.getDTM(null,true,null,false,false);
+		  		rtfdtm=RTFArena.getThreadArena().getDTM(m_dtmManager);
           m_rtfdtm_stack.addElement(rtfdtm); 	
 	  		}
  	 	}
@@ -320,6 +320,30 @@ public abstract class LocPathIterator extends PredicatedNodeTest
     return (asNode(xctxt) != DTM.NULL);
   }
 
+  /**
+   * Evaluate this operation directly to a number, that of the first
+   * node, without an XNodeSet being made.
+   *
+   * @param xctxt The runtime execution context.
+   *
+   * @return The number of the first node, or NaN if there is none.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public double num(XPathContext xctxt)
+          throws javax.xml.transform.TransformerException
+  {
+    // An XNodeSet puts the nodes of an iterator that doesn't find them
+    // in document order into document order before taking the first.
+    if (!isDocOrdered())
+      return super.num(xctxt);
+
+    int node = asNode(xctxt);
+
+    return (DTM.NULL != node)
+           ? xctxt.getDTM(node).getStringValue(node).toDouble() : Double.NaN;
+  }
+
 
   /**
    * Set if this is an iterator at the upper level of
@@ -0,0 +1,475 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xpath.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.ArrayType;
+import org.apache.bcel.generic.BranchHandle;
+import org.apache.bcel.generic.BranchInstruction;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.GOTO;
+import org.apache.bcel.generic.IFEQ;
+import org.apache.bcel.generic.IFGE;
+import org.apache.bcel.generic.IFGT;
+import org.apache.bcel.generic.IFLE;
+import org.apache.bcel.generic.IFLT;
+import org.apache.bcel.generic.IFNE;
+import org.apache.bcel.generic.IF_ICMPEQ;
+import org.apache.bcel.generic.IF_ICMPNE;
+import org.apache.bcel.generic.InstructionConstants;
+import org.apache.bcel.generic.InstructionFactory;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.InvokeInstruction;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.ObjectType;
+import org.apache.bcel.generic.PUSH;
+import org.apache.bcel.generic.Type;
+
+/**
+ * Generates the bytecode of a TieredCompiler closure with BCEL, as XSLTC
+ * does for stylesheets. The literals, arithmetic, number(), floor(),
+ * ceiling(), boolean(), not(), and, or, and comparisons of numbers or
+ * booleans in a closure tree are compiled into the evalNum() and
+ * evalBool() methods of a GeneratedClosure subclass, as plain operations
+ * on doubles and ints. What they operate on, where that is a location
+ * path, count() or sum() of one, a comparison with a node-set, or
+ * something left to the interpreter, stays a closure, and the generated
+ * code calls it; those parts walk the DTM, and there a virtual call per
+ * node doesn't count for much.
+ * <p>
+ * Each class is defined by a class loader of its own, so that it can be
+ * unloaded together with the expression it belongs to.
+ */
+final class ClosureGenerator
+{
+
+  /** The package the classes are generated in. */
+  private static final String PACKAGE = "org.apache.xpath.compiler.generated";
+
+  /** The number of classes generated, for their names. */
+  private static int m_count = 0;
+
+  /** The class being generated. */
+  private final String m_className;
+
+  private final ConstantPoolGen m_cp;
+
+  private final InstructionFactory m_factory;
+
+  /** The closures the generated code calls. */
+  private final List m_closures = new ArrayList();
+
+  private ClosureGenerator(ClassGen cg)
+  {
+    m_className = cg.getClassName();
+    m_cp = cg.getConstantPool();
+    m_factory = new InstructionFactory(cg, m_cp);
+  }
+
+  /**
+   * Generate the bytecode of a closure.
+   *
+   * @param closure The closure.
+   *
+   * @return a GeneratedClosure with the same value, or closure itself if
+   * there is nothing in it to compile inline, or the class can't be
+   * defined.
+   */
+  static TieredCompiler.Closure generate(TieredCompiler.Closure closure)
+  {
+    if (!isInline(closure))
+      return closure;
+
+    String name;
+
+    synchronized (ClosureGenerator.class)
+    {
+      name = PACKAGE + ".Closure" + (++m_count);
+    }
+
+    try
+    {
+      ClassGen cg = new ClassGen(name, GeneratedClosure.class.getName(),
+                                 "<generated>",
+                                 Constants.ACC_PUBLIC | Constants.ACC_FINAL
+                                 | Constants.ACC_SUPER, null);
+      ClosureGenerator generator = new ClosureGenerator(cg);
+
+      generator.addConstructor(cg);
+      generator.addMethod(cg, closure, true);
+      generator.addMethod(cg, closure, false);
+
+      ClassLoader parent = GeneratedClosure.class.getClassLoader();
+      Class c = new Loader(parent).defineClass(cg.getJavaClass().getBytes());
+
+      return (TieredCompiler.Closure) c
+        .getConstructor(new Class[]{ Object[].class, Integer.TYPE })
+        .newInstance(new Object[]{ generator.m_closures.toArray(),
+                                   Integer.valueOf(closure.getType()) });
+    }
+    catch (Exception e)
+    {
+      // The closure does just as well, only more slowly.
+      return closure;
+    }
+    catch (LinkageError le)
+    {
+      return closure;
+    }
+  }
+
+  /**
+   * @return true if the closure is compiled inline, rather than called.
+   */
+  private static boolean isInline(TieredCompiler.Closure closure)
+  {
+    if (closure instanceof TieredCompiler.Comparison)
+    {
+      int kind = ((TieredCompiler.Comparison) closure).m_kind;
+
+      return TieredCompiler.Comparison.NUMBERS == kind
+             || TieredCompiler.Comparison.BOOLEANS == kind;
+    }
+
+    return closure instanceof TieredCompiler.Literal
+           || closure instanceof TieredCompiler.Arithmetic
+           || closure instanceof TieredCompiler.NumberOf
+           || closure instanceof TieredCompiler.BooleanOf
+           || closure instanceof TieredCompiler.Logical;
+  }
+
+  /**
+   * Add the constructor, which passes its arguments to the superclass.
+   */
+  private void addConstructor(ClassGen cg)
+  {
+    InstructionList il = new InstructionList();
+    Type[] argTypes = { new ArrayType(Type.OBJECT, 1), Type.INT };
+    MethodGen mg = new MethodGen(Constants.ACC_PUBLIC, Type.VOID, argTypes,
+                                 new String[]{ "closures", "type" },
+                                 "<init>", m_className, il, m_cp);
+
+    il.append(InstructionConstants.ALOAD_0);
+    il.append(InstructionConstants.ALOAD_1);
+    il.append(InstructionConstants.ILOAD_2);
+    il.append(m_factory.createInvoke(GeneratedClosure.class.getName(),
+                                     "<init>", Type.VOID, argTypes,
+                                     Constants.INVOKESPECIAL));
+    il.append(InstructionConstants.RETURN);
+
+    finish(cg, mg, il);
+  }
+
+  /**
+   * Add evalNum() or evalBool().
+   *
+   * @param closure The closure the method computes the value of.
+   * @param num true for evalNum(), false for evalBool().
+   */
+  private void addMethod(ClassGen cg, TieredCompiler.Closure closure,
+                         boolean num)
+  {
+    InstructionList il = new InstructionList();
+    MethodGen mg = new MethodGen(Constants.ACC_PUBLIC,
+                                 num ? Type.DOUBLE : Type.BOOLEAN,
+                                 contextTypes(),
+                                 new String[]{ "xctxt", "node" },
+                                 num ? "evalNum" : "evalBool", m_className,
+                                 il, m_cp);
+
+    mg.addException("javax.xml.transform.TransformerException");
+
+    if (num)
+    {
+      num(il, closure);
+      il.append(InstructionConstants.DRETURN);
+    }
+    else
+    {
+      bool(il, closure);
+      il.append(InstructionConstants.IRETURN);
+    }
+
+    finish(cg, mg, il);
+  }
+
+  private static void finish(ClassGen cg, MethodGen mg, InstructionList il)
+  {
+    mg.setMaxStack();
+    mg.setMaxLocals();
+    cg.addMethod(mg.getMethod());
+    il.dispose();
+  }
+
+  /**
+   * @return the types of the arguments of evalNum() and evalBool().
+   */
+  private static Type[] contextTypes()
+  {
+    return new Type[]{ new ObjectType("org.apache.xpath.XPathContext"),
+                       Type.INT };
+  }
+
+  /**
+   * Append the code that leaves the value of a closure, as a number, on
+   * the stack.
+   */
+  private void num(InstructionList il, TieredCompiler.Closure closure)
+  {
+    if (!isInline(closure))
+    {
+      call(il, closure, "numOf", Type.DOUBLE);
+    }
+    else if (closure instanceof TieredCompiler.Literal)
+    {
+      il.append(new PUSH(m_cp, ((TieredCompiler.Literal) closure).m_num));
+    }
+    else if (closure instanceof TieredCompiler.Arithmetic)
+    {
+      TieredCompiler.Arithmetic a = (TieredCompiler.Arithmetic) closure;
+
+      if (TieredCompiler.NEG == a.m_op)
+      {
+        num(il, a.m_right);
+        il.append(InstructionConstants.DNEG);
+        return;
+      }
+
+      num(il, a.m_left);
+      num(il, a.m_right);
+
+      switch (a.m_op)
+      {
+      case TieredCompiler.PLUS :
+        il.append(InstructionConstants.DADD);
+        break;
+      case TieredCompiler.MINUS :
+        il.append(InstructionConstants.DSUB);
+        break;
+      case TieredCompiler.MULT :
+        il.append(InstructionConstants.DMUL);
+        break;
+      case TieredCompiler.DIV :
+        il.append(InstructionConstants.DDIV);
+        break;
+      default :
+        il.append(InstructionConstants.DREM);
+      }
+    }
+    else if (closure instanceof TieredCompiler.NumberOf)
+    {
+      TieredCompiler.NumberOf n = (TieredCompiler.NumberOf) closure;
+
+      num(il, n.m_arg);
+
+      if (TieredCompiler.NumberOf.FLOOR == n.m_function)
+        il.append(mathCall("floor"));
+      else if (TieredCompiler.NumberOf.CEILING == n.m_function)
+        il.append(mathCall("ceil"));
+    }
+    else
+    {
+      // A boolean, which is 1 or 0.
+      bool(il, closure);
+      il.append(InstructionConstants.I2D);
+    }
+  }
+
+  /**
+   * Append the code that leaves the value of a closure, as a boolean, on
+   * the stack.
+   */
+  private void bool(InstructionList il, TieredCompiler.Closure closure)
+  {
+    if (!isInline(closure))
+    {
+      call(il, closure, "boolOf", Type.BOOLEAN);
+    }
+    else if (closure instanceof TieredCompiler.Literal)
+    {
+      il.append(new PUSH(m_cp, ((TieredCompiler.Literal) closure).m_bool));
+    }
+    else if (closure instanceof TieredCompiler.BooleanOf)
+    {
+      TieredCompiler.BooleanOf b = (TieredCompiler.BooleanOf) closure;
+
+      bool(il, b.m_arg);
+
+      if (b.m_not)
+      {
+        il.append(InstructionConstants.ICONST_1);
+        il.append(InstructionConstants.IXOR);
+      }
+    }
+    else if (closure instanceof TieredCompiler.Logical)
+    {
+      TieredCompiler.Logical l = (TieredCompiler.Logical) closure;
+
+      // The right operand is only evaluated if the left doesn't decide.
+      bool(il, l.m_left);
+      BranchHandle decided =
+        il.append(l.m_and ? (BranchInstruction) new IFEQ(null)
+                          : new IFNE(null));
+      bool(il, l.m_right);
+      BranchHandle done = il.append(new GOTO(null));
+      decided.setTarget(il.append(l.m_and ? InstructionConstants.ICONST_0
+                                          : InstructionConstants.ICONST_1));
+      done.setTarget(il.append(InstructionConstants.NOP));
+    }
+    else if (closure instanceof TieredCompiler.Comparison)
+    {
+      TieredCompiler.Comparison c = (TieredCompiler.Comparison) closure;
+
+      if (TieredCompiler.Comparison.BOOLEANS == c.m_kind)
+      {
+        bool(il, c.m_left);
+        bool(il, c.m_right);
+        test(il, (TieredCompiler.EQ == c.m_op)
+                 ? (BranchInstruction) new IF_ICMPNE(null)
+                 : new IF_ICMPEQ(null));
+      }
+      else
+      {
+        num(il, c.m_left);
+        num(il, c.m_right);
+        compareNumbers(il, c.m_op);
+      }
+    }
+    else
+    {
+      num(il, closure);
+      il.append(m_factory.createInvoke(GeneratedClosure.class.getName(),
+                                       "toBoolean", Type.BOOLEAN,
+                                       new Type[]{ Type.DOUBLE },
+                                       Constants.INVOKESTATIC));
+    }
+  }
+
+  /**
+   * Append the code that compares the two numbers on the stack, as
+   * TieredCompiler.compareNumbers() does; a comparison with NaN is only
+   * true for !=.
+   */
+  private void compareNumbers(InstructionList il, int op)
+  {
+    switch (op)
+    {
+    case TieredCompiler.EQ :
+      il.append(InstructionConstants.DCMPL);
+      test(il, new IFNE(null));
+      break;
+    case TieredCompiler.NE :
+      il.append(InstructionConstants.DCMPL);
+      test(il, new IFEQ(null));
+      break;
+    case TieredCompiler.LT :
+      il.append(InstructionConstants.DCMPG);
+      test(il, new IFGE(null));
+      break;
+    case TieredCompiler.LTE :
+      il.append(InstructionConstants.DCMPG);
+      test(il, new IFGT(null));
+      break;
+    case TieredCompiler.GT :
+      il.append(InstructionConstants.DCMPL);
+      test(il, new IFLE(null));
+      break;
+    default :
+      il.append(InstructionConstants.DCMPL);
+      test(il, new IFLT(null));
+    }
+  }
+
+  /**
+   * Append a branch to code leaving false on the stack, and code leaving
+   * true there if the branch isn't taken.
+   *
+   * @param ifFalse The branch, whose target is set here.
+   */
+  private static void test(InstructionList il, BranchInstruction ifFalse)
+  {
+    BranchHandle no = il.append(ifFalse);
+    il.append(InstructionConstants.ICONST_1);
+    BranchHandle done = il.append(new GOTO(null));
+    InstructionHandle zero = il.append(InstructionConstants.ICONST_0);
+
+    no.setTarget(zero);
+    done.setTarget(il.append(InstructionConstants.NOP));
+  }
+
+  /**
+   * Append a call to numOf() or boolOf() for a closure.
+   */
+  private void call(InstructionList il, TieredCompiler.Closure closure,
+                    String method, Type type)
+  {
+    int index = m_closures.indexOf(closure);
+
+    if (-1 == index)
+    {
+      index = m_closures.size();
+      m_closures.add(closure);
+    }
+
+    il.append(InstructionConstants.ALOAD_0);
+    il.append(new PUSH(m_cp, index));
+    il.append(InstructionConstants.ALOAD_1);
+    il.append(InstructionConstants.ILOAD_2);
+    il.append(m_factory.createInvoke(GeneratedClosure.class.getName(),
+                                     method, type,
+                                     new Type[]{ Type.INT,
+                                                 contextTypes()[0],
+                                                 Type.INT },
+                                     Constants.INVOKEVIRTUAL));
+  }
+
+  /**
+   * @return a call to a static method of java.lang.Math taking and
+   * returning a double.
+   */
+  private InvokeInstruction mathCall(String name)
+  {
+    return m_factory.createInvoke("java.lang.Math", name, Type.DOUBLE,
+                                  new Type[]{ Type.DOUBLE },
+                                  Constants.INVOKESTATIC);
+  }
+
+  /**
+   * Defines one generated class.
+   */
+  static final class Loader extends ClassLoader
+  {
+    Loader(ClassLoader parent)
+    {
+      super(parent);
+    }
+
+    Class defineClass(final byte[] b)
+    {
+      return defineClass(null, b, 0, b.length);
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xpath.compiler;
+
+import javax.xml.transform.TransformerException;
+
+import org.apache.xml.dtm.DTM;
+import org.apache.xpath.Expression;
+import org.apache.xpath.ExpressionOwner;
+import org.apache.xpath.XPathContext;
+import org.apache.xpath.XPathVisitor;
+import org.apache.xpath.objects.XBoolean;
+import org.apache.xpath.objects.XNumber;
+import org.apache.xpath.objects.XObject;
+
+/**
+ * The second tier of an expression, built by the TieredCompiler. It
+ * gives the same number or boolean as the expression it was compiled
+ * from, and stands in for it everywhere else.
+ * @xsl.usage internal
+ */
+public class CompiledExpression extends Expression
+{
+    static final long serialVersionUID = 4184395207424317618L;
+
+  /** The expression compiled. */
+  private final Expression m_expression;
+
+  /** The compiled form. */
+  private final transient TieredCompiler.Closure m_closure;
+
+  /** True if the value is a boolean, false if a number. */
+  private final boolean m_isBoolean;
+
+  /**
+   * Create a CompiledExpression.
+   *
+   * @param expression The expression compiled.
+   * @param closure Its compiled form, whose value is a number or boolean.
+   */
+  CompiledExpression(Expression expression, TieredCompiler.Closure closure)
+  {
+    m_expression = expression;
+    m_closure = closure;
+    m_isBoolean = (XObject.CLASS_BOOLEAN == closure.getType());
+    exprSetParent(expression.exprGetParent());
+  }
+
+  /**
+   * @return the expression this was compiled from.
+   */
+  public Expression getExpression()
+  {
+    return m_expression;
+  }
+
+  /**
+   * Execute the expression, as the interpreter would have.
+   *
+   * @param xctxt The XPath runtime context.
+   *
+   * @return an XNumber or XBoolean.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public XObject execute(XPathContext xctxt) throws TransformerException
+  {
+    int node = xctxt.getCurrentNode();
+
+    // The interpreter reports whatever error a missing context node
+    // causes.
+    if (DTM.NULL == node)
+      return m_expression.execute(xctxt);
+
+    if (m_isBoolean)
+      return m_closure.bool(xctxt, node) ? XBoolean.S_TRUE : XBoolean.S_FALSE;
+
+    return new XNumber(m_closure.num(xctxt, node));
+  }
+
+  /**
+   * Evaluate the expression as a number.
+   *
+   * @param xctxt The XPath runtime context.
+   *
+   * @return the number.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public double num(XPathContext xctxt) throws TransformerException
+  {
+    int node = xctxt.getCurrentNode();
+
+    if (DTM.NULL == node)
+      return m_expression.num(xctxt);
+
+    return m_closure.num(xctxt, node);
+  }
+
+  /**
+   * Evaluate the expression as a boolean.
+   *
+   * @param xctxt The XPath runtime context.
+   *
+   * @return the boolean.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public boolean bool(XPathContext xctxt) throws TransformerException
+  {
+    int node = xctxt.getCurrentNode();
+
+    if (DTM.NULL == node)
+      return m_expression.bool(xctxt);
+
+    return m_closure.bool(xctxt, node);
+  }
+
+  /**
+   * @return XObject.CLASS_BOOLEAN or XObject.CLASS_NUMBER.
+   */
+  public int getType()
+  {
+    return m_isBoolean ? XObject.CLASS_BOOLEAN : XObject.CLASS_NUMBER;
+  }
+
+  /**
+   * Tell if this expression or its subexpressions can traverse outside
+   * the current subtree.
+   *
+   * @return true if the expression compiled can.
+   */
+  public boolean canTraverseOutsideSubtree()
+  {
+    return m_expression.canTraverseOutsideSubtree();
+  }
+
+  /**
+   * The expression has been compiled with its variables fixed up
+   * already, so this passes the call on to it.
+   */
+  public void fixupVariables(java.util.Vector vars, int globalsSize)
+  {
+    m_expression.fixupVariables(vars, globalsSize);
+  }
+
+  /**
+   * @see Expression#deepEquals(Expression)
+   */
+  public boolean deepEquals(Expression expr)
+  {
+    if (expr instanceof CompiledExpression)
+      expr = ((CompiledExpression) expr).m_expression;
+
+    return m_expression.deepEquals(expr);
+  }
+
+  /**
+   * @see org.apache.xpath.XPathVisitable#callVisitors(ExpressionOwner, XPathVisitor)
+   */
+  public void callVisitors(ExpressionOwner owner, XPathVisitor visitor)
+  {
+    m_expression.callVisitors(owner, visitor);
+  }
+}
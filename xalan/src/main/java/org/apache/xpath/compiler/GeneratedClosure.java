@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xpath.compiler;
+
+import javax.xml.transform.TransformerException;
+
+import org.apache.xpath.XPathContext;
+
+/**
+ * The superclass of the classes the ClosureGenerator generates. A
+ * generated class is defined by a class loader of its own, so it can't
+ * see the package-private members of the TieredCompiler's closures; this
+ * is what it reaches them through.
+ * <p>
+ * A generated class implements evalNum() and evalBool() with the
+ * operators of an expression compiled inline, and calls numOf() and
+ * boolOf() for the parts of it that are still closures: location paths,
+ * and anything left to the interpreter.
+ * @xsl.usage internal
+ */
+public abstract class GeneratedClosure extends TieredCompiler.Closure
+{
+
+  /** The closures the generated code calls, by index. */
+  private final TieredCompiler.Closure[] m_closures;
+
+  /** The type of the value, as an XObject.CLASS_XXX constant. */
+  private final int m_type;
+
+  /**
+   * Create a GeneratedClosure.
+   *
+   * @param closures The closures the generated code calls, which must
+   * all be TieredCompiler closures.
+   * @param type The type of the value, as an XObject.CLASS_XXX constant.
+   */
+  protected GeneratedClosure(Object[] closures, int type)
+  {
+    m_closures = new TieredCompiler.Closure[closures.length];
+    System.arraycopy(closures, 0, m_closures, 0, closures.length);
+    m_type = type;
+  }
+
+  /**
+   * Compute the value as a number.
+   *
+   * @param xctxt The XPath runtime context.
+   * @param node The context node.
+   */
+  public abstract double evalNum(XPathContext xctxt, int node)
+          throws TransformerException;
+
+  /**
+   * Compute the value as a boolean.
+   *
+   * @param xctxt The XPath runtime context.
+   * @param node The context node.
+   */
+  public abstract boolean evalBool(XPathContext xctxt, int node)
+          throws TransformerException;
+
+  /**
+   * Compute the value of one of the closures as a number.
+   *
+   * @param index The index of the closure.
+   * @param xctxt The XPath runtime context.
+   * @param node The context node.
+   */
+  protected final double numOf(int index, XPathContext xctxt, int node)
+          throws TransformerException
+  {
+    return m_closures[index].num(xctxt, node);
+  }
+
+  /**
+   * Compute the value of one of the closures as a boolean.
+   *
+   * @param index The index of the closure.
+   * @param xctxt The XPath runtime context.
+   * @param node The context node.
+   */
+  protected final boolean boolOf(int index, XPathContext xctxt, int node)
+          throws TransformerException
+  {
+    return m_closures[index].bool(xctxt, node);
+  }
+
+  /**
+   * Convert a number to a boolean, as XNumber.bool() does.
+   */
+  protected static boolean toBoolean(double num)
+  {
+    return !(Double.isNaN(num) || num == 0.0);
+  }
+
+  final int getType()
+  {
+    return m_type;
+  }
+
+  final double num(XPathContext xctxt, int node) throws TransformerException
+  {
+    return evalNum(xctxt, node);
+  }
+
+  final boolean bool(XPathContext xctxt, int node)
+          throws TransformerException
+  {
+    return evalBool(xctxt, node);
+  }
+}
@@ -0,0 +1,1313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xpath.compiler;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.TransformerException;
+
+import org.apache.xml.dtm.Axis;
+import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.DTMAxisTraverser;
+import org.apache.xml.dtm.DTMFilter;
+import org.apache.xml.utils.XMLString;
+import org.apache.xpath.Expression;
+import org.apache.xpath.XPathContext;
+import org.apache.xpath.axes.AttributeIterator;
+import org.apache.xpath.axes.AxesWalker;
+import org.apache.xpath.axes.ChildIterator;
+import org.apache.xpath.axes.ChildTestIterator;
+import org.apache.xpath.axes.DescendantIterator;
+import org.apache.xpath.axes.LocPathIterator;
+import org.apache.xpath.axes.OneStepIteratorForward;
+import org.apache.xpath.axes.PredicatedNodeTest;
+import org.apache.xpath.axes.SelfIteratorNoPredicate;
+import org.apache.xpath.axes.WalkingIterator;
+import org.apache.xpath.axes.WalkingIteratorSorted;
+import org.apache.xpath.functions.FuncBoolean;
+import org.apache.xpath.functions.FuncCeiling;
+import org.apache.xpath.functions.FuncCount;
+import org.apache.xpath.functions.FuncFalse;
+import org.apache.xpath.functions.FuncFloor;
+import org.apache.xpath.functions.FuncNot;
+import org.apache.xpath.functions.FuncNumber;
+import org.apache.xpath.functions.FuncSum;
+import org.apache.xpath.functions.FuncTrue;
+import org.apache.xpath.functions.FunctionOneArg;
+import org.apache.xpath.objects.XBoolean;
+import org.apache.xpath.objects.XNumber;
+import org.apache.xpath.objects.XObject;
+import org.apache.xpath.objects.XString;
+import org.apache.xpath.operations.And;
+import org.apache.xpath.operations.Bool;
+import org.apache.xpath.operations.Div;
+import org.apache.xpath.operations.Equals;
+import org.apache.xpath.operations.Gt;
+import org.apache.xpath.operations.Gte;
+import org.apache.xpath.operations.Lt;
+import org.apache.xpath.operations.Lte;
+import org.apache.xpath.operations.Minus;
+import org.apache.xpath.operations.Mod;
+import org.apache.xpath.operations.Mult;
+import org.apache.xpath.operations.Neg;
+import org.apache.xpath.operations.NotEquals;
+import org.apache.xpath.operations.Operation;
+import org.apache.xpath.operations.Or;
+import org.apache.xpath.operations.Plus;
+import org.apache.xpath.operations.UnaryOperation;
+import org.apache.xpath.patterns.NodeTest;
+
+/**
+ * Compiles the expression of an XPath that is executed often to a second
+ * tier, which gives the same results without going through XObjects and
+ * cloned iterators.
+ * <p>
+ * An XPath counts its executions, and once an XPathContext's tiered
+ * compilation threshold is reached it hands its expression to submit(),
+ * which compiles it on a background daemon thread; the XPath swaps the
+ * result in with a single volatile write, and goes on interpreting until
+ * then. The second tier is a tree of closures, one for each supported
+ * expression, each computing a double or a boolean straight from node
+ * handles. Location paths become loops over DTM axis traversers, which
+ * reuse the paths' own node tests, so they find the same nodes in the
+ * same order as the iterators they replace; =, !=, &lt; and so on over a
+ * node-set stop at the first node that makes them true, as XNodeSet
+ * does. The operators and functions over numbers and booleans that
+ * join them are then compiled to bytecode by the ClosureGenerator, with
+ * BCEL, as XSLTC compiles stylesheets; the location paths and what is
+ * left to the interpreter stay closures, which the generated code calls.
+ * <p>
+ * Only expressions whose value is a number or a boolean are compiled.
+ * Any part that isn't supported is left to the interpreter: the closure
+ * for it executes the original expression, with the same context, and so
+ * raises the same errors. Predicates are only compiled if nothing in
+ * them is left to the interpreter, and none is positional, since the
+ * interpreter evaluates them with a context of their own.
+ */
+public final class TieredCompiler
+{
+
+  /** Seconds the compiler thread waits for work before it ends. */
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  /** The thread expressions are compiled on. */
+  private static final ThreadPoolExecutor m_executor =
+    new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                           new LinkedBlockingQueue(), new ThreadFactory()
+  {
+    public Thread newThread(Runnable r)
+    {
+      Thread t = new Thread(r, "xalan-xpath-compiler");
+
+      t.setDaemon(true);
+      return t;
+    }
+  });
+
+  static
+  {
+    m_executor.allowCoreThreadTimeOut(true);
+  }
+
+  /** Comparison operators. */
+  static final int EQ = 0, NE = 1, LT = 2, LTE = 3, GT = 4, GTE = 5;
+
+  /** Arithmetic operators. */
+  static final int PLUS = 0, MINUS = 1, MULT = 2, DIV = 3, MOD = 4, NEG = 5;
+
+  private TieredCompiler() {}
+
+  /**
+   * Run a compilation on the compiler thread.
+   *
+   * @param task The compilation, which should install its result itself.
+   */
+  public static void submit(Runnable task)
+  {
+    m_executor.execute(task);
+  }
+
+  /**
+   * Compile an expression to its second tier.
+   *
+   * @param expr The expression, which must have had its variables fixed
+   * up, if it has any, and must not be changed afterwards.
+   *
+   * @return an Expression which gives the same results as expr, or null
+   * if expr can't be compiled, or there is nothing to gain by it.
+   */
+  public static Expression compile(Expression expr)
+  {
+    Closure closure;
+
+    try
+    {
+      closure = compile(expr, false);
+    }
+    catch (RuntimeException re)
+    {
+      // An expression built some way this doesn't expect; leave it be.
+      return null;
+    }
+
+    if (closure instanceof Fallback || closure instanceof Literal)
+      return null;
+
+    int type = closure.getType();
+
+    if (XObject.CLASS_NUMBER != type && XObject.CLASS_BOOLEAN != type)
+      return null;
+
+    return new CompiledExpression(expr, ClosureGenerator.generate(closure));
+  }
+
+  /**
+   * Compile an expression to a closure.
+   *
+   * @param expr The expression.
+   * @param inPredicate true if the expression is part of a predicate,
+   * and so can't be left to the interpreter.
+   *
+   * @return the closure, or null if expr is part of a predicate and can't
+   * be compiled.
+   */
+  static Closure compile(Expression expr, boolean inPredicate)
+  {
+    Class c = expr.getClass();
+
+    if (c == XNumber.class || c == XString.class)
+      return new Literal((XObject) expr);
+    else if (c == FuncTrue.class)
+      return new Literal(XBoolean.S_TRUE);
+    else if (c == FuncFalse.class)
+      return new Literal(XBoolean.S_FALSE);
+    else if (expr instanceof Operation)
+      return compileOperation((Operation) expr, inPredicate);
+    else if (expr instanceof UnaryOperation)
+      return compileUnary(expr, ((UnaryOperation) expr).getOperand(),
+                          inPredicate);
+    else if (c == FuncNot.class || c == FuncBoolean.class
+             || c == FuncNumber.class || c == FuncFloor.class
+             || c == FuncCeiling.class || c == FuncCount.class
+             || c == FuncSum.class)
+    {
+      Expression arg = ((FunctionOneArg) expr).getArg0();
+
+      // number() of the context node is left to the interpreter.
+      if (null == arg)
+        return fallback(expr, inPredicate);
+
+      return compileUnary(expr, arg, inPredicate);
+    }
+    else if (expr instanceof LocPathIterator)
+    {
+      Path path = compilePath((LocPathIterator) expr);
+
+      if (null != path)
+        return path;
+    }
+
+    return fallback(expr, inPredicate);
+  }
+
+  /**
+   * Leave an expression to the interpreter.
+   *
+   * @return the closure, or null if expr is part of a predicate.
+   */
+  private static Closure fallback(Expression expr, boolean inPredicate)
+  {
+    return inPredicate ? null : new Fallback(expr);
+  }
+
+  /**
+   * Compile an operation with one operand, or a function with one
+   * argument.
+   */
+  private static Closure compileUnary(Expression expr, Expression operand,
+                                      boolean inPredicate)
+  {
+    Class c = expr.getClass();
+    Closure arg = compile(operand, inPredicate);
+
+    if (null == arg)
+      return null;
+
+    if (c == Neg.class)
+      return new Arithmetic(NEG, null, arg);
+    else if (c == org.apache.xpath.operations.Number.class
+             || c == FuncNumber.class)
+      return new NumberOf(arg, NumberOf.NUMBER);
+    else if (c == FuncFloor.class)
+      return new NumberOf(arg, NumberOf.FLOOR);
+    else if (c == FuncCeiling.class)
+      return new NumberOf(arg, NumberOf.CEILING);
+    else if (c == Bool.class || c == FuncBoolean.class)
+      return new BooleanOf(arg, false);
+    else if (c == FuncNot.class)
+      return new BooleanOf(arg, true);
+    else if (c == FuncCount.class && arg instanceof Path)
+      return new Aggregate((Path) arg, false);
+    else if (c == FuncSum.class && arg instanceof Path
+             && ((Path) arg).isInDocOrder())
+    {
+      // Adding up in another order might round differently.
+      return new Aggregate((Path) arg, true);
+    }
+
+    return fallback(expr, inPredicate);
+  }
+
+  /**
+   * Compile an operation with two operands.
+   */
+  private static Closure compileOperation(Operation expr,
+                                          boolean inPredicate)
+  {
+    Class c = expr.getClass();
+    boolean arithmetic = true;
+    int op;
+
+    if (c == Plus.class)
+      op = PLUS;
+    else if (c == Minus.class)
+      op = MINUS;
+    else if (c == Mult.class)
+      op = MULT;
+    else if (c == Div.class)
+      op = DIV;
+    else if (c == Mod.class)
+      op = MOD;
+    else
+    {
+      arithmetic = false;
+
+      if (c == Equals.class)
+        op = EQ;
+      else if (c == NotEquals.class)
+        op = NE;
+      else if (c == Lt.class)
+        op = LT;
+      else if (c == Lte.class)
+        op = LTE;
+      else if (c == Gt.class)
+        op = GT;
+      else if (c == Gte.class)
+        op = GTE;
+      else if (c == And.class || c == Or.class)
+        op = -1;
+      else
+        return fallback(expr, inPredicate);
+    }
+
+    Closure left = compile(expr.getLeftOperand(), inPredicate);
+    Closure right = (null == left)
+                    ? null : compile(expr.getRightOperand(), inPredicate);
+
+    if (null == right)
+      return null;
+
+    if (arithmetic)
+      return new Arithmetic(op, left, right);
+    else if (-1 == op)
+      return new Logical(left, right, c == And.class);
+
+    Closure closure = compileComparison(op, left, right);
+
+    return (null != closure) ? closure : fallback(expr, inPredicate);
+  }
+
+  /**
+   * Compile a comparison, if the types of its operands are known.
+   *
+   * @return the closure, or null if it must be left to the interpreter.
+   */
+  private static Closure compileComparison(int op, Closure left,
+                                           Closure right)
+  {
+    int ltype = left.getType();
+    int rtype = right.getType();
+
+    if (XObject.CLASS_UNKNOWN == ltype || XObject.CLASS_UNKNOWN == rtype)
+      return null;
+
+    if (XObject.CLASS_NODESET == ltype || XObject.CLASS_NODESET == rtype)
+    {
+      // Two node-sets are already joined well enough by XNodeSet.
+      if (ltype == rtype)
+        return null;
+
+      // The interpreter turns the comparison around to put the node-set
+      // first.
+      if (XObject.CLASS_NODESET == rtype)
+        return compileSetComparison(reverse(op), (Path) right, left);
+
+      return compileSetComparison(op, (Path) left, right);
+    }
+
+    if (op <= NE)
+    {
+      // XString.equals() has rules of its own.
+      if (XObject.CLASS_STRING == ltype || XObject.CLASS_STRING == rtype)
+        return null;
+
+      if (XObject.CLASS_BOOLEAN == ltype || XObject.CLASS_BOOLEAN == rtype)
+        return new Comparison(Comparison.BOOLEANS, op, null, left, right);
+    }
+
+    return new Comparison(Comparison.NUMBERS, op, null, left, right);
+  }
+
+  /**
+   * Compile a comparison of a node-set with something else.
+   */
+  private static Closure compileSetComparison(int op, Path set, Closure other)
+  {
+    switch (other.getType())
+    {
+    case XObject.CLASS_BOOLEAN :
+      return new Comparison(Comparison.SET_BOOLEAN, op, set, null, other);
+    case XObject.CLASS_STRING :
+      if (op <= NE)
+        return new Comparison(Comparison.SET_STRING, op, set, null, other);
+
+      // Otherwise the strings are compared as numbers.
+      return new Comparison(Comparison.SET_NUMBER, op, set, null, other);
+    default :
+      return new Comparison(Comparison.SET_NUMBER, op, set, null, other);
+    }
+  }
+
+  /**
+   * @return the comparison operator that gives the same result with the
+   * operands swapped.
+   */
+  private static int reverse(int op)
+  {
+    switch (op)
+    {
+    case LT :
+      return GT;
+    case LTE :
+      return GTE;
+    case GT :
+      return LT;
+    case GTE :
+      return LTE;
+    default :
+      return op;
+    }
+  }
+
+  /**
+   * Compile a location path.
+   *
+   * @return the path, or null if it can't be compiled.
+   */
+  private static Path compilePath(LocPathIterator iter)
+  {
+    Class c = iter.getClass();
+
+    if (c == WalkingIterator.class || c == WalkingIteratorSorted.class)
+    {
+      // Walkers nest in the order of the steps, as the closures' loops
+      // do, so the nodes of a WalkingIterator come out in the same order.
+      // Those of a WalkingIteratorSorted don't, and it drops any node
+      // met twice, so the closures only take it on for paths where each
+      // node can only be met once: where nothing but a child, attribute
+      // or self step follows a step which may find more than one node.
+      boolean single = true;
+      int n = 0;
+
+      for (AxesWalker w = ((WalkingIterator) iter).getFirstWalker();
+           null != w; w = w.getNextWalker())
+      {
+        if (w.getClass() != AxesWalker.class)
+          return null;
+
+        int axis = w.getAxis();
+
+        if (!single && Axis.CHILD != axis && Axis.ATTRIBUTE != axis
+            && Axis.SELF != axis)
+          return null;
+
+        single = single && (Axis.ROOT == axis || Axis.SELF == axis);
+        n++;
+      }
+
+      Step[] steps = new Step[n];
+      int i = 0;
+
+      for (AxesWalker w = ((WalkingIterator) iter).getFirstWalker();
+           null != w; w = w.getNextWalker())
+      {
+        steps[i] = compileStep(Step.AXIS, w.getAxis(), w);
+
+        if (null == steps[i++])
+          return null;
+      }
+
+      return new Path(steps, c == WalkingIterator.class);
+    }
+
+    Step step;
+
+    if (c == ChildTestIterator.class || c == OneStepIteratorForward.class)
+      step = compileStep(Step.AXIS, iter.getAxis(), iter);
+    else if (c == AttributeIterator.class)
+      step = compileStep(Step.ATTRIBUTES, iter.getAxis(), iter);
+    else if (c == DescendantIterator.class)
+      step = compileStep(Step.DESCENDANTS, iter.getAxis(), iter);
+    else if (c == ChildIterator.class && 0 == iter.getPredicateCount())
+      step = new Step(Step.CHILDREN, iter.getAxis(), null, null);
+    else if (c == SelfIteratorNoPredicate.class
+             && 0 == iter.getPredicateCount())
+      step = new Step(Step.SELF, iter.getAxis(), null, null);
+    else
+      return null;
+
+    return (null == step) ? null : new Path(new Step[]{ step }, true);
+  }
+
+  /**
+   * Compile one step of a location path, with its predicates.
+   *
+   * @param kind How the step finds its nodes.
+   * @param axis The axis.
+   * @param test The iterator or walker of the step.
+   *
+   * @return the step, or null if it can't be compiled.
+   */
+  private static Step compileStep(int kind, int axis, PredicatedNodeTest test)
+  {
+    int n = test.getPredicateCount();
+    Closure[] predicates = new Closure[n];
+
+    for (int i = 0; i < n; i++)
+    {
+      Closure predicate = compile(test.getPredicate(i), true);
+
+      // A number is a position, which this doesn't keep count of.
+      if (null == predicate
+          || (XObject.CLASS_BOOLEAN != predicate.getType()
+              && XObject.CLASS_NODESET != predicate.getType()))
+        return null;
+
+      predicates[i] = predicate;
+    }
+
+    return new Step(kind, axis, test, predicates);
+  }
+
+  /**
+   * Compare two numbers.
+   */
+  static boolean compareNumbers(int op, double n1, double n2)
+  {
+    switch (op)
+    {
+    case EQ :
+      return n1 == n2;
+    case NE :
+      return n1 != n2;
+    case LT :
+      return n1 < n2;
+    case LTE :
+      return n1 <= n2;
+    case GT :
+      return n1 > n2;
+    default :
+      return n1 >= n2;
+    }
+  }
+
+  /**
+   * The second tier of an expression, evaluated against a context node.
+   */
+  abstract static class Closure
+  {
+    /**
+     * @return the type of the value, as an XObject.CLASS_XXX constant;
+     * CLASS_UNKNOWN if it isn't known until the value is computed.
+     */
+    abstract int getType();
+
+    /**
+     * Compute the value as a number, as XObject.num() would.
+     *
+     * @param xctxt The XPath runtime context.
+     * @param node The context node, which is also the XPathContext's
+     * current node unless this is part of a predicate.
+     */
+    abstract double num(XPathContext xctxt, int node)
+            throws TransformerException;
+
+    /**
+     * Compute the value as a boolean, as XObject.bool() would.
+     *
+     * @param xctxt The XPath runtime context.
+     * @param node The context node.
+     */
+    abstract boolean bool(XPathContext xctxt, int node)
+            throws TransformerException;
+  }
+
+  /**
+   * A closure whose value is a number.
+   */
+  abstract static class NumberClosure extends Closure
+  {
+    int getType()
+    {
+      return XObject.CLASS_NUMBER;
+    }
+
+    boolean bool(XPathContext xctxt, int node) throws TransformerException
+    {
+      double num = num(xctxt, node);
+
+      return !(Double.isNaN(num) || num == 0.0);
+    }
+  }
+
+  /**
+   * A closure whose value is a boolean.
+   */
+  abstract static class BooleanClosure extends Closure
+  {
+    int getType()
+    {
+      return XObject.CLASS_BOOLEAN;
+    }
+
+    double num(XPathContext xctxt, int node) throws TransformerException
+    {
+      return bool(xctxt, node) ? 1.0 : 0.0;
+    }
+  }
+
+  /**
+   * An expression left to the interpreter. Its context node is always
+   * the XPathContext's current node.
+   */
+  static final class Fallback extends Closure
+  {
+    private final Expression m_expr;
+
+    Fallback(Expression expr)
+    {
+      m_expr = expr;
+    }
+
+    int getType()
+    {
+      return XObject.CLASS_UNKNOWN;
+    }
+
+    double num(XPathContext xctxt, int node) throws TransformerException
+    {
+      return m_expr.num(xctxt);
+    }
+
+    boolean bool(XPathContext xctxt, int node) throws TransformerException
+    {
+      return m_expr.bool(xctxt);
+    }
+  }
+
+  /**
+   * A number, string or boolean constant.
+   */
+  static final class Literal extends Closure
+  {
+    final int m_type;
+    final double m_num;
+    final boolean m_bool;
+    final String m_str;
+
+    Literal(XObject value)
+    {
+      m_type = value.getType();
+      m_str = value.str();
+
+      try
+      {
+        m_num = value.num();
+        m_bool = value.bool();
+      }
+      catch (TransformerException te)
+      {
+        // A constant always has a value.
+        throw new org.apache.xml.utils.WrappedRuntimeException(te);
+      }
+    }
+
+    int getType()
+    {
+      return m_type;
+    }
+
+    double num(XPathContext xctxt, int node)
+    {
+      return m_num;
+    }
+
+    boolean bool(XPathContext xctxt, int node)
+    {
+      return m_bool;
+    }
+
+    /**
+     * @return the constant as a string.
+     */
+    String str()
+    {
+      return m_str;
+    }
+  }
+
+  /**
+   * +, -, *, div or mod, or unary minus.
+   */
+  static final class Arithmetic extends NumberClosure
+  {
+    final int m_op;
+    final Closure m_left;
+    final Closure m_right;
+
+    /**
+     * @param op The operator.
+     * @param left The left operand, or null for unary minus.
+     * @param right The right operand.
+     */
+    Arithmetic(int op, Closure left, Closure right)
+    {
+      m_op = op;
+      m_left = left;
+      m_right = right;
+    }
+
+    double num(XPathContext xctxt, int node) throws TransformerException
+    {
+      if (NEG == m_op)
+        return -m_right.num(xctxt, node);
+
+      double left = m_left.num(xctxt, node);
+      double right = m_right.num(xctxt, node);
+
+      switch (m_op)
+      {
+      case PLUS :
+        return left + right;
+      case MINUS :
+        return left - right;
+      case MULT :
+        return left * right;
+      case DIV :
+        return left / right;
+      default :
+        return left % right;
+      }
+    }
+  }
+
+  /**
+   * number(), floor() or ceiling().
+   */
+  static final class NumberOf extends NumberClosure
+  {
+    static final int NUMBER = 0, FLOOR = 1, CEILING = 2;
+
+    final Closure m_arg;
+    final int m_function;
+
+    NumberOf(Closure arg, int function)
+    {
+      m_arg = arg;
+      m_function = function;
+    }
+
+    double num(XPathContext xctxt, int node) throws TransformerException
+    {
+      double num = m_arg.num(xctxt, node);
+
+      switch (m_function)
+      {
+      case FLOOR :
+        return Math.floor(num);
+      case CEILING :
+        return Math.ceil(num);
+      default :
+        return num;
+      }
+    }
+  }
+
+  /**
+   * boolean() or not().
+   */
+  static final class BooleanOf extends BooleanClosure
+  {
+    final Closure m_arg;
+    final boolean m_not;
+
+    BooleanOf(Closure arg, boolean not)
+    {
+      m_arg = arg;
+      m_not = not;
+    }
+
+    boolean bool(XPathContext xctxt, int node) throws TransformerException
+    {
+      return m_arg.bool(xctxt, node) != m_not;
+    }
+  }
+
+  /**
+   * and or or.
+   */
+  static final class Logical extends BooleanClosure
+  {
+    final Closure m_left;
+    final Closure m_right;
+    final boolean m_and;
+
+    Logical(Closure left, Closure right, boolean and)
+    {
+      m_left = left;
+      m_right = right;
+      m_and = and;
+    }
+
+    boolean bool(XPathContext xctxt, int node) throws TransformerException
+    {
+      if (m_left.bool(xctxt, node) != m_and)
+        return !m_and;
+
+      return m_right.bool(xctxt, node);
+    }
+  }
+
+  /**
+   * =, !=, &lt;, &lt;=, &gt; or &gt;=, with the rules of the XObject
+   * subclasses for the types of the operands.
+   */
+  static final class Comparison extends BooleanClosure
+  {
+    /** Two numbers, or a number or string compared by &lt; and so on. */
+    static final int NUMBERS = 0;
+
+    /** = or != with a boolean. */
+    static final int BOOLEANS = 1;
+
+    /** A node-set with a boolean. */
+    static final int SET_BOOLEAN = 2;
+
+    /** A node-set with a number, or a string compared by &lt; etc. */
+    static final int SET_NUMBER = 3;
+
+    /** A node-set = or != a string. */
+    static final int SET_STRING = 4;
+
+    final int m_kind;
+    final int m_op;
+    final Path m_set;
+    final Closure m_left;
+    final Closure m_right;
+
+    Comparison(int kind, int op, Path set, Closure left, Closure right)
+    {
+      m_kind = kind;
+      m_op = op;
+      m_set = set;
+      m_left = left;
+      m_right = right;
+    }
+
+    boolean bool(XPathContext xctxt, int node) throws TransformerException
+    {
+      switch (m_kind)
+      {
+      case NUMBERS :
+        return compareNumbers(m_op, m_left.num(xctxt, node),
+                              m_right.num(xctxt, node));
+      case SET_BOOLEAN :
+        return compareNumbers(m_op, m_set.bool(xctxt, node) ? 1.0 : 0.0,
+                              m_right.num(xctxt, node));
+      case BOOLEANS :
+        return (m_left.bool(xctxt, node) == m_right.bool(xctxt, node))
+               == (EQ == m_op);
+      case SET_NUMBER :
+      {
+        double num2 = m_right.num(xctxt, node);
+        Cursor cursor = m_set.iterate(xctxt, node);
+        int n;
+
+        while (DTM.NULL != (n = cursor.nextNode()))
+        {
+          if (compareNumbers(m_op, cursor.getStringValue(n).toDouble(),
+                             num2))
+            return true;
+        }
+
+        return false;
+      }
+      default :
+      {
+        String s2 = ((Literal) m_right).str();
+        boolean equal = (EQ == m_op);
+        Cursor cursor = m_set.iterate(xctxt, node);
+        int n;
+
+        while (DTM.NULL != (n = cursor.nextNode()))
+        {
+          if (cursor.getStringValue(n).equals(s2) == equal)
+            return true;
+        }
+
+        return false;
+      }
+      }
+    }
+  }
+
+  /**
+   * count() or sum() of a location path.
+   */
+  static final class Aggregate extends NumberClosure
+  {
+    private final Path m_path;
+    private final boolean m_sum;
+
+    Aggregate(Path path, boolean sum)
+    {
+      m_path = path;
+      m_sum = sum;
+    }
+
+    double num(XPathContext xctxt, int node) throws TransformerException
+    {
+      Cursor cursor = m_path.iterate(xctxt, node);
+      double result = 0.0;
+      int n;
+
+      while (DTM.NULL != (n = cursor.nextNode()))
+      {
+        if (!m_sum)
+        {
+          result++;
+          continue;
+        }
+
+        XMLString s = cursor.getStringValue(n);
+
+        if (null != s)
+          result += s.toDouble();
+      }
+
+      return result;
+    }
+  }
+
+  /**
+   * A location path. Its value is a node-set, of which only the first
+   * node, or whether there is one, is wanted when it is used as a number
+   * or boolean.
+   */
+  static final class Path extends Closure
+  {
+    private final Step[] m_steps;
+
+    /** True if the nodes are found in document order. */
+    private final boolean m_inDocOrder;
+
+    Path(Step[] steps, boolean inDocOrder)
+    {
+      m_steps = steps;
+      m_inDocOrder = inDocOrder;
+    }
+
+    int getType()
+    {
+      return XObject.CLASS_NODESET;
+    }
+
+    /**
+     * @return true if the nodes are found in document order; otherwise
+     * they are found in some other order, but each only once.
+     */
+    boolean isInDocOrder()
+    {
+      return m_inDocOrder;
+    }
+
+    double num(XPathContext xctxt, int node) throws TransformerException
+    {
+      Cursor cursor = iterate(xctxt, node);
+      int first = cursor.nextNode();
+
+      if (!m_inDocOrder && DTM.NULL != first)
+      {
+        int n;
+
+        while (DTM.NULL != (n = cursor.nextNode()))
+        {
+          if (cursor.isNodeAfter(n, first))
+            first = n;
+        }
+      }
+
+      return (DTM.NULL != first)
+             ? cursor.getStringValue(first).toDouble() : Double.NaN;
+    }
+
+    boolean bool(XPathContext xctxt, int node) throws TransformerException
+    {
+      return DTM.NULL != iterate(xctxt, node).nextNode();
+    }
+
+    /**
+     * Start walking the path.
+     *
+     * @param xctxt The XPath runtime context.
+     * @param node The context node.
+     *
+     * @return a Cursor positioned before the first node.
+     */
+    Cursor iterate(XPathContext xctxt, int node)
+    {
+      return (1 == m_steps.length)
+             ? (Cursor) new StepCursor(xctxt, m_steps[0], node)
+             : new PathCursor(xctxt, m_steps, node);
+    }
+  }
+
+  /**
+   * One step of a location path.
+   */
+  static final class Step
+  {
+    /** Nodes on an axis, found by the DTM's traverser for it. */
+    static final int AXIS = 0;
+
+    /** Attributes, found by getFirstAttribute() and getNextAttribute(). */
+    static final int ATTRIBUTES = 1;
+
+    /** Descendants, by expanded type if the test names one, as
+     *  DescendantIterator finds them. */
+    static final int DESCENDANTS = 2;
+
+    /** Children, untested. */
+    static final int CHILDREN = 3;
+
+    /** The context node itself, untested. */
+    static final int SELF = 4;
+
+    final int m_kind;
+    final int m_axis;
+    final NodeTest m_test;
+    final Closure[] m_predicates;
+
+    Step(int kind, int axis, NodeTest test, Closure[] predicates)
+    {
+      m_kind = kind;
+      m_axis = axis;
+      m_test = test;
+      m_predicates = predicates;
+    }
+
+    /**
+     * @return the traverser an AXIS or DESCENDANTS step walks a DTM
+     * with, or null.
+     */
+    DTMAxisTraverser getTraverser(DTM dtm)
+    {
+      return (AXIS == m_kind || DESCENDANTS == m_kind)
+             ? dtm.getAxisTraverser(m_axis) : null;
+    }
+
+    /**
+     * @return the expanded type ID a DESCENDANTS step looks for in a
+     * DTM, or 0 to look at every node.
+     */
+    int getExpandedTypeID(DTM dtm)
+    {
+      if (DESCENDANTS != m_kind)
+        return 0;
+
+      int what = m_test.getWhatToShow();
+      String localName = m_test.getLocalName();
+      String namespace = m_test.getNamespace();
+
+      if (DTMFilter.SHOW_ALL == what || NodeTest.WILD.equals(localName)
+          || NodeTest.WILD.equals(namespace))
+        return 0;
+
+      return dtm.getExpandedTypeID(namespace, localName,
+                                   NodeTest.getNodeTypeTest(what));
+    }
+
+    /**
+     * @return the first node of the step, before testing it.
+     */
+    int first(DTM dtm, DTMAxisTraverser traverser, int type, int context)
+    {
+      switch (m_kind)
+      {
+      case AXIS :
+        return traverser.first(context);
+      case ATTRIBUTES :
+        return dtm.getFirstAttribute(context);
+      case DESCENDANTS :
+        return (0 == type) ? traverser.first(context)
+                           : traverser.first(context, type);
+      case CHILDREN :
+        return dtm.getFirstChild(context);
+      default :
+        return context;
+      }
+    }
+
+    /**
+     * @return the node of the step after the given one, before testing
+     * it.
+     */
+    int next(DTM dtm, DTMAxisTraverser traverser, int type, int context,
+             int node)
+    {
+      switch (m_kind)
+      {
+      case AXIS :
+        return traverser.next(context, node);
+      case ATTRIBUTES :
+        return dtm.getNextAttribute(node);
+      case DESCENDANTS :
+        return (0 == type) ? traverser.next(context, node)
+                           : traverser.next(context, node, type);
+      case CHILDREN :
+        return dtm.getNextSibling(node);
+      default :
+        return DTM.NULL;
+      }
+    }
+
+    /**
+     * Tell whether a node passes the step's node test and predicates, as
+     * PredicatedNodeTest.acceptNode() would.
+     */
+    boolean accept(XPathContext xctxt, DTM dtm, int node)
+            throws TransformerException
+    {
+      if (null == m_test)
+        return true;
+
+      if (m_test.execute(xctxt, node, dtm, dtm.getExpandedTypeID(node))
+          == NodeTest.SCORE_NONE)
+        return false;
+
+      for (int i = 0; i < m_predicates.length; i++)
+      {
+        if (!m_predicates[i].bool(xctxt, node))
+          return false;
+      }
+
+      return true;
+    }
+  }
+
+  /**
+   * Walks a location path from a context node.
+   */
+  abstract static class Cursor
+  {
+    /** The XPath runtime context. */
+    final XPathContext m_xctxt;
+
+    /** The DTM of the context node, and so of every node of the path. */
+    final DTM m_dtm;
+
+    Cursor(XPathContext xctxt, int context)
+    {
+      m_xctxt = xctxt;
+      m_dtm = xctxt.getDTM(context);
+    }
+
+    /**
+     * @return the next node of the path, or DTM.NULL if there are no
+     * more.
+     */
+    abstract int nextNode() throws TransformerException;
+
+    /**
+     * @return true if the first of two nodes found by the walk comes
+     * before the second in document order.
+     */
+    boolean isNodeAfter(int node1, int node2)
+    {
+      return m_dtm.isNodeAfter(node1, node2);
+    }
+
+    /**
+     * @return the string-value of a node found by the walk.
+     */
+    XMLString getStringValue(int node)
+    {
+      return m_dtm.getStringValue(node);
+    }
+  }
+
+  /**
+   * Walks a location path of one step.
+   */
+  static final class StepCursor extends Cursor
+  {
+    private final Step m_step;
+    private final DTMAxisTraverser m_traverser;
+    private final int m_type;
+    private final int m_context;
+
+    /** The node reached, or DTM.NULL if the walk hasn't started. */
+    private int m_node = DTM.NULL;
+
+    /** True when the walk is over. */
+    private boolean m_done = false;
+
+    StepCursor(XPathContext xctxt, Step step, int context)
+    {
+      super(xctxt, context);
+      m_step = step;
+      m_traverser = step.getTraverser(m_dtm);
+      m_type = step.getExpandedTypeID(m_dtm);
+      m_context = context;
+    }
+
+    int nextNode() throws TransformerException
+    {
+      if (m_done)
+        return DTM.NULL;
+
+      Step step = m_step;
+      int node = m_node;
+
+      do
+      {
+        node = (DTM.NULL == node)
+               ? step.first(m_dtm, m_traverser, m_type, m_context)
+               : step.next(m_dtm, m_traverser, m_type, m_context, node);
+      }
+      while (DTM.NULL != node && !step.accept(m_xctxt, m_dtm, node));
+
+      m_node = node;
+      m_done = (DTM.NULL == node);
+
+      return node;
+    }
+  }
+
+  /**
+   * Walks a location path of several steps, keeping the position reached
+   * on each.
+   */
+  static final class PathCursor extends Cursor
+  {
+    private final Step[] m_steps;
+    private final DTMAxisTraverser[] m_traversers;
+    private final int[] m_types;
+
+    /** The context node of each step. */
+    private final int[] m_contexts;
+
+    /** The node each step is on, or DTM.NULL if it hasn't started. */
+    private final int[] m_nodes;
+
+    /** The step being walked, or -1 when the walk is over. */
+    private int m_depth = 0;
+
+    PathCursor(XPathContext xctxt, Step[] steps, int context)
+    {
+      super(xctxt, context);
+
+      int n = steps.length;
+
+      m_steps = steps;
+      m_traversers = new DTMAxisTraverser[n];
+      m_types = new int[n];
+      m_contexts = new int[n];
+      m_nodes = new int[n];
+
+      for (int i = 0; i < n; i++)
+      {
+        m_traversers[i] = steps[i].getTraverser(m_dtm);
+        m_types[i] = steps[i].getExpandedTypeID(m_dtm);
+      }
+
+      m_contexts[0] = context;
+      m_nodes[0] = DTM.NULL;
+    }
+
+    int nextNode() throws TransformerException
+    {
+      int last = m_steps.length - 1;
+      int depth = m_depth;
+
+      while (depth >= 0)
+      {
+        Step step = m_steps[depth];
+        DTMAxisTraverser traverser = m_traversers[depth];
+        int type = m_types[depth];
+        int context = m_contexts[depth];
+        int node = m_nodes[depth];
+
+        do
+        {
+          node = (DTM.NULL == node)
+                 ? step.first(m_dtm, traverser, type, context)
+                 : step.next(m_dtm, traverser, type, context, node);
+        }
+        while (DTM.NULL != node && !step.accept(m_xctxt, m_dtm, node));
+
+        if (DTM.NULL == node)
+        {
+          depth--;
+          continue;
+        }
+
+        m_nodes[depth] = node;
+
+        if (depth == last)
+        {
+          m_depth = depth;
+          return node;
+        }
+
+        depth++;
+        m_contexts[depth] = node;
+        m_nodes[depth] = DTM.NULL;
+      }
+
+      m_depth = -1;
+      return DTM.NULL;
+    }
+  }
+}
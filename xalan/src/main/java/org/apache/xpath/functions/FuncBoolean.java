@@ -42,7 +42,29 @@ public class FuncBoolean extends FunctionOneArg
    */
   public XObject execute(XPathContext xctxt) throws javax.xml.transform.TransformerException
   {
-    return m_arg0.execute(xctxt).bool() ? XBoolean.S_TRUE : XBoolean.S_FALSE;
+    return m_arg0.bool(xctxt) ? XBoolean.S_TRUE : XBoolean.S_FALSE;
+  }
+
+  /**
+   * Evaluate the function to a boolean, without an XObject being made of
+   * the argument.
+   *
+   * @param xctxt The current execution context.
+   * @return The value of the function.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public boolean bool(XPathContext xctxt) throws javax.xml.transform.TransformerException
+  {
+    return m_arg0.bool(xctxt);
+  }
+
+  /**
+   * @return XObject.CLASS_BOOLEAN
+   */
+  public int getType()
+  {
+    return XObject.CLASS_BOOLEAN;
   }
   
 }
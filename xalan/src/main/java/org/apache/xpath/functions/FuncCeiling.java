@@ -42,6 +42,28 @@ public class FuncCeiling extends FunctionOneArg
    */
   public XObject execute(XPathContext xctxt) throws javax.xml.transform.TransformerException
   {
-    return new XNumber(Math.ceil(m_arg0.execute(xctxt).num()));
+    return new XNumber(num(xctxt));
+  }
+
+  /**
+   * Evaluate the function to a number, without an XNumber being made of
+   * it or of the argument.
+   *
+   * @param xctxt The current execution context.
+   * @return The value of the function.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public double num(XPathContext xctxt) throws javax.xml.transform.TransformerException
+  {
+    return Math.ceil(m_arg0.num(xctxt));
+  }
+
+  /**
+   * @return XObject.CLASS_NUMBER
+   */
+  public int getType()
+  {
+    return XObject.CLASS_NUMBER;
   }
 }
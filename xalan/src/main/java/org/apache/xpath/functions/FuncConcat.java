@@ -87,4 +87,12 @@ public class FuncConcat extends FunctionMultiArgs
   protected void reportWrongNumberArgs() throws WrongNumberArgsException {
       throw new WrongNumberArgsException(XSLMessages.createXPATHMessage("gtone", null));
   }
+
+  /**
+   * @return XObject.CLASS_STRING
+   */
+  public int getType()
+  {
+    return XObject.CLASS_STRING;
+  }
 }
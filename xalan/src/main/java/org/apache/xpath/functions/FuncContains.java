@@ -54,4 +54,12 @@ public class FuncContains extends Function2Args
 
     return (index > -1) ? XBoolean.S_TRUE : XBoolean.S_FALSE;
   }
+
+  /**
+   * @return XObject.CLASS_BOOLEAN
+   */
+  public int getType()
+  {
+    return XObject.CLASS_BOOLEAN;
+  }
 }
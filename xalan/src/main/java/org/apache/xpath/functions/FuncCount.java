@@ -55,10 +55,31 @@ public class FuncCount extends FunctionOneArg
 //      i++;
 //    }
 //    nl.detach();
+    return new XNumber(num(xctxt));
+  }
+
+  /**
+   * Count the nodes, without an XNumber being made of the count.
+   *
+   * @param xctxt The current execution context.
+   * @return The value of the function.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public double num(XPathContext xctxt) throws javax.xml.transform.TransformerException
+  {
 	DTMIterator nl = m_arg0.asIterator(xctxt, xctxt.getCurrentNode());
 	int i = nl.getLength();	
 	nl.detach();
 
-    return new XNumber((double) i);
+    return (double) i;
+  }
+
+  /**
+   * @return XObject.CLASS_NUMBER
+   */
+  public int getType()
+  {
+    return XObject.CLASS_NUMBER;
   }
 }
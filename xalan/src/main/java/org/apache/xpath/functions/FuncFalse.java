@@ -53,4 +53,11 @@ public class FuncFalse extends Function
     // no-op
   }
 
+  /**
+   * @return XObject.CLASS_BOOLEAN
+   */
+  public int getType()
+  {
+    return XObject.CLASS_BOOLEAN;
+  }
 }
@@ -24,6 +24,8 @@ import java.util.StringTokenizer;
 
 import org.apache.xml.dtm.DTM;
 import org.apache.xml.dtm.DTMIterator;
+import org.apache.xml.dtm.ref.DTMDefaultBase;
+import org.apache.xml.utils.IntVector;
 import org.apache.xml.utils.StringVector;
 import org.apache.xpath.NodeSetDTM;
 import org.apache.xpath.XPathContext;
@@ -95,6 +97,29 @@ public class FuncId extends FunctionOneArg
     return usedrefs;
   }
 
+  /**
+   * Fill in a list with the nodes that match a space delimited list of ID
+   * references, for a document whose DTM can look them all up at once.
+   * The nodes come back in document order and without duplicates, so they
+   * are simply appended to the list.
+   *
+   * @param dtm The DTM of the document where the nodes are looked for.
+   * @param refval A space delimited list of ID references.
+   * @param nodeSet Node set where the nodes will be added to.
+   */
+  private void getNodesByID(DTMDefaultBase dtm, String refval,
+                            NodeSetDTM nodeSet)
+  {
+    IntVector handles = new IntVector();
+
+    dtm.getElementsById(refval, handles);
+
+    int n = handles.size();
+
+    for (int i = 0; i < n; i++)
+      nodeSet.addNode(handles.elementAt(i));
+  }
+
   /**
    * Execute the function.  The function must return
    * a valid object.
@@ -118,7 +143,35 @@ public class FuncId extends FunctionOneArg
     XNodeSet nodes = new XNodeSet(xctxt.getDTMManager());
     NodeSetDTM nodeSet = nodes.mutableNodeset();
 
-    if (XObject.CLASS_NODESET == argType)
+    if (XObject.CLASS_NULL == argType)
+    {
+      return nodes;
+    }
+    else if (dtm instanceof DTMDefaultBase)
+    {
+      String refval;
+
+      if (XObject.CLASS_NODESET == argType)
+      {
+        // Look up the references of all the nodes together.
+        DTMIterator ni = arg.iter();
+        StringBuffer refs = new StringBuffer();
+        int pos;
+
+        while (DTM.NULL != (pos = ni.nextNode()))
+        {
+          refs.append(' ');
+          refs.append(ni.getDTM(pos).getStringValue(pos).toString());
+        }
+
+        refval = refs.toString();
+      }
+      else
+        refval = arg.str();
+
+      getNodesByID((DTMDefaultBase) dtm, refval, nodeSet);
+    }
+    else if (XObject.CLASS_NODESET == argType)
     {
       DTMIterator ni = arg.iter();
       StringVector usedrefs = null;
@@ -135,10 +188,6 @@ public class FuncId extends FunctionOneArg
       }
       // ni.detach();
     }
-    else if (XObject.CLASS_NULL == argType)
-    {
-      return nodes;
-    }
     else
     {
       String refval = arg.str();
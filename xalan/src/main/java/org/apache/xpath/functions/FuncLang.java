@@ -79,4 +79,12 @@ public class FuncLang extends FunctionOneArg
 
     return isLang ? XBoolean.S_TRUE : XBoolean.S_FALSE;
   }
+
+  /**
+   * @return XObject.CLASS_BOOLEAN
+   */
+  public int getType()
+  {
+    return XObject.CLASS_BOOLEAN;
+  }
 }
@@ -94,6 +94,27 @@ public class FuncLast extends Function
     // System.out.println("last: "+xnum.num());
     return xnum;
   }
+
+  /**
+   * Get the size of the context, without an XNumber being made of it.
+   *
+   * @param xctxt The current execution context.
+   * @return The value of the function.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public double num(XPathContext xctxt) throws javax.xml.transform.TransformerException
+  {
+    return (double) getCountOfContextNodeList(xctxt);
+  }
+
+  /**
+   * @return XObject.CLASS_NUMBER
+   */
+  public int getType()
+  {
+    return XObject.CLASS_NUMBER;
+  }
   
   /**
    * No arguments to process, so this does nothing.
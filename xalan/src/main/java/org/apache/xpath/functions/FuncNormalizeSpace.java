@@ -83,4 +83,11 @@ public class FuncNormalizeSpace extends FunctionDef1Arg
     }
   }
 
+  /**
+   * @return XObject.CLASS_STRING
+   */
+  public int getType()
+  {
+    return XObject.CLASS_STRING;
+  }
 }
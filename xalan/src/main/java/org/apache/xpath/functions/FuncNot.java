@@ -42,6 +42,28 @@ public class FuncNot extends FunctionOneArg
    */
   public XObject execute(XPathContext xctxt) throws javax.xml.transform.TransformerException
   {
-    return m_arg0.execute(xctxt).bool() ? XBoolean.S_FALSE : XBoolean.S_TRUE;
+    return m_arg0.bool(xctxt) ? XBoolean.S_FALSE : XBoolean.S_TRUE;
+  }
+
+  /**
+   * Evaluate the function to a boolean, without an XObject being made of
+   * the argument.
+   *
+   * @param xctxt The current execution context.
+   * @return The value of the function.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public boolean bool(XPathContext xctxt) throws javax.xml.transform.TransformerException
+  {
+    return !m_arg0.bool(xctxt);
+  }
+
+  /**
+   * @return XObject.CLASS_BOOLEAN
+   */
+  public int getType()
+  {
+    return XObject.CLASS_BOOLEAN;
   }
 }
@@ -44,4 +44,26 @@ public class FuncNumber extends FunctionDef1Arg
   {
     return new XNumber(getArg0AsNumber(xctxt));
   }
+
+  /**
+   * Convert the argument to a number, without an XNumber being made of
+   * it.
+   *
+   * @param xctxt The current execution context.
+   * @return The value of the function.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public double num(XPathContext xctxt) throws javax.xml.transform.TransformerException
+  {
+    return getArg0AsNumber(xctxt);
+  }
+
+  /**
+   * @return XObject.CLASS_NUMBER
+   */
+  public int getType()
+  {
+    return XObject.CLASS_NUMBER;
+  }
 }
@@ -123,6 +123,27 @@ public class FuncPosition extends Function
     
     return new XNumber(pos);
   }
+
+  /**
+   * Get the position, without an XNumber being made of it.
+   *
+   * @param xctxt The current execution context.
+   * @return The value of the function.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public double num(XPathContext xctxt) throws javax.xml.transform.TransformerException
+  {
+    return (double) getPositionInContextNodeList(xctxt);
+  }
+
+  /**
+   * @return XObject.CLASS_NUMBER
+   */
+  public int getType()
+  {
+    return XObject.CLASS_NUMBER;
+  }
   
   /**
    * No arguments to process, so this does nothing.
@@ -45,4 +45,12 @@ public class FuncStartsWith extends Function2Args
     return m_arg0.execute(xctxt).xstr().startsWith(m_arg1.execute(xctxt).xstr())
            ? XBoolean.S_TRUE : XBoolean.S_FALSE;
   }
+
+  /**
+   * @return XObject.CLASS_BOOLEAN
+   */
+  public int getType()
+  {
+    return XObject.CLASS_BOOLEAN;
+  }
 }
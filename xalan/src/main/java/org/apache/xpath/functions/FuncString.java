@@ -44,4 +44,12 @@ public class FuncString extends FunctionDef1Arg
   {
     return (XString)getArg0AsString(xctxt);
   }
+
+  /**
+   * @return XObject.CLASS_STRING
+   */
+  public int getType()
+  {
+    return XObject.CLASS_STRING;
+  }
 }
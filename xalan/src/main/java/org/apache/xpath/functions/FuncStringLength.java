@@ -20,7 +20,12 @@
  */
 package org.apache.xpath.functions;
 
+import javax.xml.transform.TransformerException;
+
+import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.DTMStringValueHandler;
 import org.apache.xpath.XPathContext;
+import org.apache.xpath.objects.XNodeSet;
 import org.apache.xpath.objects.XNumber;
 import org.apache.xpath.objects.XObject;
 
@@ -42,6 +47,57 @@ public class FuncStringLength extends FunctionDef1Arg
    */
   public XObject execute(XPathContext xctxt) throws javax.xml.transform.TransformerException
   {
-    return new XNumber(getArg0AsString(xctxt).length());
+    return new XNumber(num(xctxt));
+  }
+
+  /**
+   * Measure the string, without an XNumber being made of its length.
+   *
+   * @param xctxt The current execution context.
+   * @return The value of the function.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public double num(XPathContext xctxt) throws javax.xml.transform.TransformerException
+  {
+    int node;
+
+    if (null == m_arg0)
+      node = xctxt.getCurrentNode();
+    else
+    {
+      XObject arg = m_arg0.execute(xctxt);
+
+      if (!(arg instanceof XNodeSet))
+        return arg.xstr().length();
+
+      node = ((XNodeSet) arg).item(0);
+    }
+
+    if (DTM.NULL == node)
+      return 0;
+
+    // Measure the string-value where it lies, rather than have it made
+    // into a string.
+    DTMStringValueHandler.Length length = new DTMStringValueHandler.Length();
+
+    try
+    {
+      length.visit(xctxt.getDTM(node), node);
+    }
+    catch (org.xml.sax.SAXException se)
+    {
+      throw new TransformerException(se);
+    }
+
+    return length.getLength();
+  }
+
+  /**
+   * @return XObject.CLASS_NUMBER
+   */
+  public int getType()
+  {
+    return XObject.CLASS_NUMBER;
   }
 }
@@ -121,4 +121,12 @@ public class FuncSubstring extends Function3Args
   protected void reportWrongNumberArgs() throws WrongNumberArgsException {
       throw new WrongNumberArgsException(XSLMessages.createXPATHMessage(XPATHErrorResources.ER_TWO_OR_THREE, null)); //"2 or 3");
   }
+
+  /**
+   * @return XObject.CLASS_STRING
+   */
+  public int getType()
+  {
+    return XObject.CLASS_STRING;
+  }
 }
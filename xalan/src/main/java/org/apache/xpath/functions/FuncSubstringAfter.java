@@ -52,4 +52,12 @@ public class FuncSubstringAfter extends Function2Args
            ? XString.EMPTYSTRING
            : (XString)s1.substring(index + s2.length());
   }
+
+  /**
+   * @return XObject.CLASS_STRING
+   */
+  public int getType()
+  {
+    return XObject.CLASS_STRING;
+  }
 }
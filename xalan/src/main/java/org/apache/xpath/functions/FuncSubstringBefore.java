@@ -50,4 +50,12 @@ public class FuncSubstringBefore extends Function2Args
     return (-1 == index)
            ? XString.EMPTYSTRING : new XString(s1.substring(0, index));
   }
+
+  /**
+   * @return XObject.CLASS_STRING
+   */
+  public int getType()
+  {
+    return XObject.CLASS_STRING;
+  }
 }
@@ -44,6 +44,19 @@ public class FuncSum extends FunctionOneArg
    * @throws javax.xml.transform.TransformerException
    */
   public XObject execute(XPathContext xctxt) throws javax.xml.transform.TransformerException
+  {
+    return new XNumber(num(xctxt));
+  }
+
+  /**
+   * Sum the nodes, without an XNumber being made of the sum.
+   *
+   * @param xctxt The current execution context.
+   * @return The value of the function.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public double num(XPathContext xctxt) throws javax.xml.transform.TransformerException
   {
 
     DTMIterator nodes = m_arg0.asIterator(xctxt, xctxt.getCurrentNode());
@@ -60,6 +73,14 @@ public class FuncSum extends FunctionOneArg
     }
     nodes.detach();
 
-    return new XNumber(sum);
+    return sum;
+  }
+
+  /**
+   * @return XObject.CLASS_NUMBER
+   */
+  public int getType()
+  {
+    return XObject.CLASS_NUMBER;
   }
 }
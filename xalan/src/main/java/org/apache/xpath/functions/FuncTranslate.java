@@ -85,4 +85,12 @@ public class FuncTranslate extends Function3Args
 
     return new XString(sbuffer.toString());
   }
+
+  /**
+   * @return XObject.CLASS_STRING
+   */
+  public int getType()
+  {
+    return XObject.CLASS_STRING;
+  }
 }
@@ -128,7 +128,7 @@ public class FunctionDef1Arg extends FunctionOneArg
       
     }
     else
-      return m_arg0.execute(xctxt).num();
+      return m_arg0.num(xctxt);
   }
 
   /**
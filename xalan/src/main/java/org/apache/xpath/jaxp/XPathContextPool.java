@@ -0,0 +1,361 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xpath.jaxp;
+
+import java.lang.ref.SoftReference;
+import java.util.WeakHashMap;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFunctionResolver;
+import javax.xml.xpath.XPathVariableResolver;
+
+import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.ref.DTMManagerDefault;
+import org.apache.xml.dtm.ref.dom2dtm.DOM2DTM;
+import org.apache.xml.utils.PrefixResolver;
+import org.apache.xpath.NodeSet;
+import org.apache.xpath.XPathContext;
+import org.apache.xpath.objects.XObject;
+import org.apache.xpath.res.XPATHErrorResources;
+import org.apache.xalan.res.XSLMessages;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * Keeps the evaluation state of the XPaths and XPathExpressions of a
+ * factory (see {@link XPathFactoryImpl#setXPathContextPool}) from one
+ * evaluation to the next, rather than building it afresh each time.
+ * <p>
+ * Each thread has an XPathContext of its own, which it reuses, and a
+ * cache of the DOM2DTMs it has wrapped around DOM trees, keyed by the
+ * root of each tree. Evaluating against a node of a tree the thread has
+ * seen before takes up the existing DOM2DTM, with the part of the tree
+ * it has already walked, instead of wrapping the tree again. Between
+ * evaluations the DOM2DTMs belong to no DTMManager, so the cache holds
+ * nothing but the trees themselves: a tree, and its DOM2DTM, can be
+ * collected once the application no longer uses the tree and memory is
+ * wanted.
+ * <p>
+ * Since no state is shared between threads, one XPathExpression may be
+ * evaluated by any number of threads at once, as it can without a pool.
+ * The trees, however, must not be changed while they are being
+ * evaluated against, nor between evaluations, unless clear() is called
+ * after the change; a DOM2DTM does not notice changes to its tree.
+ * <p>
+ * Node-set results are copied into a {@link NodeSet}, rather than
+ * returned as a live view of the evaluation state, which is reused.
+ */
+public class XPathContextPool {
+
+    /** The state of each thread. */
+    private final ThreadLocal states = new ThreadLocal();
+
+    /** Incremented by clear(), to tell the threads to drop their caches. */
+    private volatile int generation = 0;
+
+    /**
+     * <p>Forget every DOM tree wrapped so far, so that evaluations see
+     * changes made to them since. Each thread drops its cache when it
+     * next evaluates an expression.</p>
+     */
+    public synchronized void clear() {
+        generation++;
+    }
+
+    /**
+     * Evaluate an XPath with the calling thread's XPathContext, and
+     * convert the result to the type asked for.
+     *
+     * @param xpath The compiled expression.
+     * @param contextItem The context node; anything else means there is
+     * none.
+     * @param useDummyDocument true to use an empty document as the context
+     * node when there is none.
+     * @param prefixResolver Resolves the prefixes of the expression.
+     * @param functionResolver Resolves extension functions, or null.
+     * @param variableResolver Resolves variables.
+     * @param featureSecureProcessing true if extension functions are not
+     * to be called.
+     * @param returnType One of the types defined in XPathConstants.
+     *
+     * @return the result.
+     *
+     * @throws TransformerException
+     */
+    Object evaluate( org.apache.xpath.XPath xpath, Object contextItem,
+            boolean useDummyDocument, PrefixResolver prefixResolver,
+            XPathFunctionResolver functionResolver,
+            XPathVariableResolver variableResolver,
+            boolean featureSecureProcessing, QName returnType )
+            throws TransformerException {
+        State state = getState();
+        XPathContext xpathSupport = null;
+
+        // An extension function may evaluate another expression while the
+        // thread's context is in use; that one gets a context of its own.
+        if ( !state.inUse ) {
+            xpathSupport = state.getContext( functionResolver,
+                    featureSecureProcessing );
+        }
+
+        if ( xpathSupport == null ) {
+            Node contextNode = ( contextItem instanceof Node ) ?
+                (Node) contextItem :
+                ( useDummyDocument ? state.getDummyDocument() : null );
+            XPathContext unpooled = newContext( functionResolver,
+                    featureSecureProcessing );
+
+            unpooled.setVarStack( new JAXPVariableStack( variableResolver ) );
+
+            XObject xobj = ( contextNode != null ) ?
+                xpath.execute( unpooled, contextNode, prefixResolver ) :
+                xpath.execute( unpooled, DTM.NULL, prefixResolver );
+
+            return getResultAsType( xobj, returnType );
+        }
+
+        boolean completed = false;
+
+        state.inUse = true;
+        try {
+            xpathSupport.setVarStack( new JAXPVariableStack(
+                    variableResolver ) );
+
+            int contextNode = DTM.NULL;
+
+            if ( contextItem instanceof Node ) {
+                contextNode = state.getHandle( xpathSupport,
+                        (Node) contextItem );
+            } else if ( useDummyDocument ) {
+                contextNode = state.getHandle( xpathSupport,
+                        state.getDummyDocument() );
+            }
+
+            XObject xobj = xpath.execute( xpathSupport, contextNode,
+                    prefixResolver );
+            Object result = getResultAsType( xobj, returnType );
+
+            completed = true;
+            return result;
+        } finally {
+            state.release( xpathSupport, completed );
+            state.inUse = false;
+        }
+    }
+
+    /**
+     * Get the calling thread's state, dropping its cache if clear() has
+     * been called since it was last used.
+     */
+    private State getState() {
+        State state = (State) states.get();
+        int current = generation;
+
+        if ( state == null ) {
+            state = new State();
+            state.generation = current;
+            states.set( state );
+        } else if ( state.generation != current ) {
+            state.documents.clear();
+            state.generation = current;
+        }
+        return state;
+    }
+
+    /**
+     * Create an XPathContext that doesn't support pushing and popping of
+     * variable resolution scopes, which is sufficient for simple XPath 1.0
+     * expressions.
+     */
+    private static XPathContext newContext(
+            XPathFunctionResolver functionResolver,
+            boolean featureSecureProcessing ) {
+        if ( functionResolver != null ) {
+            JAXPExtensionsProvider jep = new JAXPExtensionsProvider(
+                    functionResolver, featureSecureProcessing );
+            return new XPathContext( jep, false );
+        }
+        return new XPathContext( false );
+    }
+
+    /**
+     * Convert the result of an expression to a type defined in
+     * XPathConstants, leaving nothing in it that refers to the
+     * XPathContext.
+     */
+    private static Object getResultAsType( XObject resultObject,
+            QName returnType ) throws TransformerException {
+        if ( returnType.equals( XPathConstants.STRING ) ) {
+            return resultObject.str();
+        }
+        if ( returnType.equals( XPathConstants.NUMBER ) ) {
+            return new Double( resultObject.num() );
+        }
+        if ( returnType.equals( XPathConstants.BOOLEAN ) ) {
+            return resultObject.bool() ? Boolean.TRUE : Boolean.FALSE;
+        }
+        if ( returnType.equals( XPathConstants.NODESET ) ) {
+            return new NodeSet( resultObject.nodeset() );
+        }
+        if ( returnType.equals( XPathConstants.NODE ) ) {
+            return resultObject.nodeset().nextNode();
+        }
+        String fmsg = XSLMessages.createXPATHMessage(
+                XPATHErrorResources.ER_UNSUPPORTED_RETURN_TYPE,
+                new Object[] { returnType.toString() } );
+        throw new IllegalArgumentException( fmsg );
+    }
+
+    /**
+     * The evaluation state of one thread.
+     */
+    private static final class State {
+
+        /** The value of generation the cache was filled under. */
+        int generation;
+
+        /** True while an evaluation is using the context. */
+        boolean inUse = false;
+
+        /** The thread's XPathContext, or null. */
+        XPathContext xpathSupport = null;
+
+        /** The function resolver the context was made for. */
+        XPathFunctionResolver functionResolver = null;
+
+        /** The secure processing setting the context was made for. */
+        boolean featureSecureProcessing = false;
+
+        /** Map from the root of each DOM tree wrapped to a SoftReference
+         * to its DOM2DTM. */
+        final WeakHashMap documents = new WeakHashMap();
+
+        /** Empty document used as the context node when there is none. */
+        Document dummyDocument = null;
+
+        /**
+         * Get the thread's XPathContext, making a new one if the last
+         * was for different extension functions.
+         *
+         * @return the context, or null if it can't be reused.
+         */
+        XPathContext getContext( XPathFunctionResolver functionResolver,
+                boolean featureSecureProcessing ) {
+            if ( xpathSupport == null
+                    || this.functionResolver != functionResolver
+                    || this.featureSecureProcessing
+                        != featureSecureProcessing ) {
+                xpathSupport = newContext( functionResolver,
+                        featureSecureProcessing );
+                this.functionResolver = functionResolver;
+                this.featureSecureProcessing = featureSecureProcessing;
+            }
+
+            // The DTMs must be taken back out of the manager afterwards.
+            if ( !( xpathSupport.getDTMManager()
+                    instanceof DTMManagerDefault ) ) {
+                return null;
+            }
+            return xpathSupport;
+        }
+
+        /**
+         * Get the handle of a node in the context's DTMManager, wrapping
+         * its tree in a DOM2DTM only if it hasn't been wrapped before.
+         */
+        int getHandle( XPathContext xpathSupport, Node node ) {
+            // The root may be a DocumentFragment or Element, so find it as
+            // the DTMManager does.
+            Node root = node;
+            Node p = ( root.getNodeType() == Node.ATTRIBUTE_NODE ) ?
+                ( (Attr) root ).getOwnerElement() : root.getParentNode();
+
+            for ( ; p != null; p = p.getParentNode() ) {
+                root = p;
+            }
+
+            DTMManagerDefault mgr =
+                (DTMManagerDefault) xpathSupport.getDTMManager();
+            SoftReference ref = (SoftReference) documents.get( root );
+            DOM2DTM dtm = ( ref != null ) ? (DOM2DTM) ref.get() : null;
+
+            if ( dtm != null ) {
+                dtm.migrateTo( mgr );
+            } else {
+                dtm = (DOM2DTM) mgr.getDTM( new DOMSource( root ), false,
+                        null, true, true );
+                documents.put( root, new SoftReference( dtm ) );
+            }
+
+            int handle = dtm.getHandleOfNode( node );
+
+            // Synthesized namespace nodes are found by the manager.
+            return ( handle != DTM.NULL ) ?
+                handle : xpathSupport.getDTMHandleFromNode( node );
+        }
+
+        /**
+         * Take the DTMs back out of the context's DTMManager after an
+         * evaluation. Those of the cache live on there; any others made
+         * by the evaluation are dropped.
+         *
+         * @param completed false if the evaluation failed, in which case
+         * the context is dropped too.
+         */
+        void release( XPathContext xpathSupport, boolean completed ) {
+            ( (DTMManagerDefault) xpathSupport.getDTMManager() ).detachAll();
+
+            if ( !completed ) {
+                this.xpathSupport = null;
+            }
+        }
+
+        /**
+         * Get the thread's empty document.
+         */
+        Document getDummyDocument() {
+            if ( dummyDocument == null ) {
+                try {
+                    DocumentBuilderFactory dbf =
+                        DocumentBuilderFactory.newInstance();
+                    dbf.setNamespaceAware( true );
+                    dbf.setValidating( false );
+                    dummyDocument = dbf.newDocumentBuilder()
+                        .getDOMImplementation().createDocument(
+                            "http://java.sun.com/jaxp/xpath",
+                            "dummyroot", null );
+                } catch ( ParserConfigurationException e ) {
+                    // this should never happen with a well-behaving JAXP
+                    // implementation.
+                    throw new Error( e.toString() );
+                }
+            }
+            return dummyDocument;
+        }
+    }
+}
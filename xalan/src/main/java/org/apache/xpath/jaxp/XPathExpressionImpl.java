@@ -20,7 +20,6 @@
 package org.apache.xpath.jaxp;
 
 import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
@@ -54,6 +53,9 @@ public class XPathExpressionImpl  implements javax.xml.xpath.XPathExpression{
     // extensions function need to throw XPathFunctionException
     private boolean featureSecureProcessing = false;
 
+    // Evaluation state kept from one evaluation to the next, or null.
+    private XPathContextPool contextPool = null;
+
     /** Protected constructor to prevent direct instantiation; use compile()
      * from the context.
      */
@@ -82,12 +84,28 @@ public class XPathExpressionImpl  implements javax.xml.xpath.XPathExpression{
         this.featureSecureProcessing = featureSecureProcessing;
     };
 
+    protected XPathExpressionImpl(org.apache.xpath.XPath xpath,
+            JAXPPrefixResolver prefixResolver,
+            XPathFunctionResolver functionResolver,
+            XPathVariableResolver variableResolver,
+            boolean featureSecureProcessing,
+            XPathContextPool contextPool ) { 
+        this( xpath, prefixResolver, functionResolver, variableResolver,
+                featureSecureProcessing );
+        this.contextPool = contextPool;
+    };
+
     public void setXPath (org.apache.xpath.XPath xpath ) {
         this.xpath = xpath;
     }  
 
     public Object eval(Object item, QName returnType)
             throws javax.xml.transform.TransformerException {
+        if ( contextPool != null ) {
+            return contextPool.evaluate( xpath, (Node) item, true,
+                    prefixResolver, functionResolver, variableResolver,
+                    featureSecureProcessing, returnType );
+        }
         XObject resultObject = eval ( item );
         return getResultAsType( resultObject, returnType );
     }
@@ -223,9 +241,7 @@ public class XPathExpressionImpl  implements javax.xml.xpath.XPathExpression{
 
 
 
-    static DocumentBuilderFactory dbf = null;
-    static DocumentBuilder db = null;
-    static Document d = null;
+    private static Document d = null;
 
     /**
      * <p>Evaluate the compiled XPath expression in the context of the 
@@ -278,13 +294,13 @@ public class XPathExpressionImpl  implements javax.xml.xpath.XPathExpression{
             throw new IllegalArgumentException ( fmsg );
         }
         try {
-            if ( dbf == null ) {
-                dbf = DocumentBuilderFactory.newInstance();
-                dbf.setNamespaceAware( true );
-                dbf.setValidating( false );
-            }
-            db = dbf.newDocumentBuilder();
-            Document document = db.parse( source );
+            // A DocumentBuilder isn't thread-safe, and the expression may
+            // be evaluated by several threads at once, so each parse gets
+            // one of its own.
+            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+            dbf.setNamespaceAware( true );
+            dbf.setValidating( false );
+            Document document = dbf.newDocumentBuilder().parse( source );
             return eval(  document, returnType );
         } catch ( Exception e ) {
             throw new XPathExpressionException ( e );
@@ -364,22 +380,24 @@ public class XPathExpressionImpl  implements javax.xml.xpath.XPathExpression{
 
 
     private static Document getDummyDocument( ) {
-        try {
-            if ( dbf == null ) {
-                dbf = DocumentBuilderFactory.newInstance();
+        // we don't need synchronization here; even if two threads
+        // enter this code at the same time, we just waste a little time
+        if ( d == null ) {
+            try {
+                DocumentBuilderFactory dbf =
+                    DocumentBuilderFactory.newInstance();
                 dbf.setNamespaceAware( true );
                 dbf.setValidating( false );
-            }
-            db = dbf.newDocumentBuilder();
 
-            DOMImplementation dim = db.getDOMImplementation();
-            d = dim.createDocument("http://java.sun.com/jaxp/xpath",
-                "dummyroot", null);
-            return d;
-        } catch ( Exception e ) {
-            e.printStackTrace();
+                DOMImplementation dim =
+                    dbf.newDocumentBuilder().getDOMImplementation();
+                d = dim.createDocument("http://java.sun.com/jaxp/xpath",
+                    "dummyroot", null);
+            } catch ( Exception e ) {
+                e.printStackTrace();
+            }
         }
-        return null;
+        return d;
     }
 
 
@@ -19,6 +19,7 @@
 
 package org.apache.xpath.jaxp;
 
+import org.apache.xpath.XPathCache;
 import org.apache.xpath.res.XPATHErrorResources;
 import org.apache.xalan.res.XSLMessages;
 
@@ -55,6 +56,18 @@ public class XPathFactoryImpl extends XPathFactory {
 	 * <p>State of secure processing feature.</p>
 	 */
 	private boolean featureSecureProcessing = false;
+
+	/**
+	 * <p>Cache of compiled expressions for the XPaths created by this
+	 * XPathFactory, or null to compile each expression afresh.</p>
+	 */
+	private XPathCache xPathCache = XPathCache.getDefault();
+
+	/**
+	 * <p>Evaluation state kept for the XPaths created by this XPathFactory,
+	 * or null to build it afresh for each evaluation.</p>
+	 */
+	private XPathContextPool xPathContextPool = null;
 		
 	/**
 	 * <p>Is specified object model supported by this 
@@ -104,7 +117,7 @@ public class XPathFactoryImpl extends XPathFactory {
 	public javax.xml.xpath.XPath newXPath() {
 	    return new org.apache.xpath.jaxp.XPathImpl(
                     xPathVariableResolver, xPathFunctionResolver,
-                    featureSecureProcessing );
+                    featureSecureProcessing, xPathCache, xPathContextPool );
 	}
 	    
 	/**
@@ -259,6 +272,54 @@ public class XPathFactoryImpl extends XPathFactory {
 			
 		xPathVariableResolver = resolver;
 	}
+
+	/**
+	 * <p>Establish the cache of compiled expressions used by
+	 * <code>XPath</code> objects constructed from this factory. By default
+	 * they share the cache of the whole process,
+	 * {@link XPathCache#getDefault()}; a factory may be given one of its
+	 * own, or <code>null</code> to compile every expression afresh.</p>
+	 *
+	 * @param cache The cache, or <code>null</code>.
+	 */
+	public void setXPathCache(XPathCache cache) {
+		xPathCache = cache;
+	}
+
+	/**
+	 * <p>Get the cache of compiled expressions used by <code>XPath</code>
+	 * objects constructed from this factory.</p>
+	 *
+	 * @return The cache, or <code>null</code> if there is none.
+	 */
+	public XPathCache getXPathCache() {
+		return xPathCache;
+	}
+
+	/**
+	 * <p>Establish the pool of evaluation state used by <code>XPath</code>
+	 * objects constructed from this factory, and the
+	 * <code>XPathExpression</code>s they compile. With a pool each thread
+	 * reuses one XPathContext, and the DTM of each DOM tree it has
+	 * evaluated against, from one evaluation to the next; see
+	 * {@link XPathContextPool} for the conditions. By default there is no
+	 * pool.</p>
+	 *
+	 * @param pool The pool, or <code>null</code>.
+	 */
+	public void setXPathContextPool(XPathContextPool pool) {
+		xPathContextPool = pool;
+	}
+
+	/**
+	 * <p>Get the pool of evaluation state used by <code>XPath</code>
+	 * objects constructed from this factory.</p>
+	 *
+	 * @return The pool, or <code>null</code> if there is none.
+	 */
+	public XPathContextPool getXPathContextPool() {
+		return xPathContextPool;
+	}
 }
 
 
@@ -67,6 +67,11 @@ public class XPathImpl implements javax.xml.xpath.XPath {
     // Secure Processing Feature is set on XPathFactory then the invocation of
     // extensions function need to throw XPathFunctionException
     private boolean featureSecureProcessing = false; 
+    // Compiled expressions, shared with the other XPaths of the factory;
+    // null if each expression is compiled afresh.
+    private XPathCache xpathCache = null;
+    // Evaluation state kept from one evaluation to the next, or null.
+    private XPathContextPool contextPool = null;
 
     XPathImpl( XPathVariableResolver vr, XPathFunctionResolver fr ) {
         this.origVariableResolver = this.variableResolver = vr;
@@ -80,6 +85,14 @@ public class XPathImpl implements javax.xml.xpath.XPath {
         this.featureSecureProcessing = featureSecureProcessing;
     }
 
+    XPathImpl( XPathVariableResolver vr, XPathFunctionResolver fr, 
+            boolean featureSecureProcessing, XPathCache xpathCache,
+            XPathContextPool contextPool ) {
+        this( vr, fr, featureSecureProcessing );
+        this.xpathCache = xpathCache;
+        this.contextPool = contextPool;
+    }
+
     /**
      * <p>Establishes a variable resolver.</p>
      *
@@ -189,11 +202,23 @@ public class XPathImpl implements javax.xml.xpath.XPath {
         return d;
     }
 
-    
+
+    /**
+     * Get an expression, compiled with the current namespace context,
+     * from the cache if there is one.
+     */
+    private org.apache.xpath.XPath getXPath( String expression )
+        throws javax.xml.transform.TransformerException {
+        if ( xpathCache != null ) {
+            return xpathCache.getXPath( expression, prefixResolver );
+        }
+        return new org.apache.xpath.XPath( expression, null,
+                prefixResolver, org.apache.xpath.XPath.SELECT );
+    }
+
     private XObject eval(String expression, Object contextItem)
         throws javax.xml.transform.TransformerException {
-        org.apache.xpath.XPath xpath = new org.apache.xpath.XPath( expression,
-            null, prefixResolver, org.apache.xpath.XPath.SELECT ); 
+        org.apache.xpath.XPath xpath = getXPath( expression );
         org.apache.xpath.XPathContext xpathSupport = null;
 
         // Create an XPathContext that doesn't support pushing and popping of
@@ -278,6 +303,12 @@ public class XPathImpl implements javax.xml.xpath.XPath {
 
         try {
  
+            if ( contextPool != null ) {
+                return contextPool.evaluate( getXPath( expression ), item,
+                        false, prefixResolver, functionResolver,
+                        variableResolver, featureSecureProcessing,
+                        returnType );
+            }
             XObject resultObject = eval( expression, item );
             return getResultAsType( resultObject, returnType );
         } catch ( java.lang.NullPointerException npe ) {
@@ -397,12 +428,11 @@ public class XPathImpl implements javax.xml.xpath.XPath {
             throw new NullPointerException ( fmsg );
         }
         try {
-            org.apache.xpath.XPath xpath = new XPath (expression, null,
-                    prefixResolver, org.apache.xpath.XPath.SELECT );
+            org.apache.xpath.XPath xpath = getXPath( expression );
             // Can have errorListener
             XPathExpressionImpl ximpl = new XPathExpressionImpl (xpath,
                     prefixResolver, functionResolver, variableResolver,
-                    featureSecureProcessing );
+                    featureSecureProcessing, contextPool );
             return ximpl;
         } catch ( javax.xml.transform.TransformerException te ) {
             throw new XPathExpressionException ( te ) ;
@@ -473,6 +503,12 @@ public class XPathImpl implements javax.xml.xpath.XPath {
 
             Document document = getParser().parse( source );
 
+            if ( contextPool != null ) {
+                return contextPool.evaluate( getXPath( expression ),
+                        document, false, prefixResolver, functionResolver,
+                        variableResolver, featureSecureProcessing,
+                        returnType );
+            }
             XObject resultObject = eval( expression, document );
             return getResultAsType( resultObject, returnType );
         } catch ( SAXException e ) {
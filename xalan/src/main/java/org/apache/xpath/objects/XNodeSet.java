@@ -23,6 +23,7 @@ package org.apache.xpath.objects;
 import org.apache.xml.dtm.DTM;
 import org.apache.xml.dtm.DTMIterator;
 import org.apache.xml.dtm.DTMManager;
+import org.apache.xml.dtm.DTMStringValueHandler;
 import org.apache.xml.utils.XMLString;
 import org.apache.xpath.NodeSetDTM;
 import org.apache.xpath.axes.NodeSequence;
@@ -478,8 +479,6 @@ public class XNodeSet extends NodeSequence
 
     if (XObject.CLASS_NODESET == type)
     {
-      // %OPT% This should be XMLString based instead of string based...
-
       // From http://www.w3.org/TR/xpath: 
       // If both objects to be compared are node-sets, then the comparison 
       // will be true if and only if there is a node in the first node-set 
@@ -491,53 +490,19 @@ public class XNodeSet extends NodeSequence
       // is true if and only if some node in $x has the string-value 
       // foo; the latter is true if and only if all nodes in $x have 
       // the string-value foo.
-      DTMIterator list1 = iterRaw();
-      DTMIterator list2 = ((XNodeSet) obj2).iterRaw();
-      int node1;
-      java.util.Vector node2Strings = null;
-
-      while (DTM.NULL != (node1 = list1.nextNode()))
-      {
-        XMLString s1 = getStringFromNode(node1);
-
-        if (null == node2Strings)
-        {
-          int node2;
-
-          while (DTM.NULL != (node2 = list2.nextNode()))
-          {
-            XMLString s2 = getStringFromNode(node2);
-
-            if (comparator.compareStrings(s1, s2))
-            {
-              result = true;
-
-              break;
-            }
-
-            if (null == node2Strings)
-              node2Strings = new java.util.Vector();
-
-            node2Strings.addElement(s2);
-          }
-        }
-        else
-        {
-          int n = node2Strings.size();
-
-          for (int i = 0; i < n; i++)
-          {
-            if (comparator.compareStrings(s1, (XMLString)node2Strings.elementAt(i)))
-            {
-              result = true;
-
-              break;
-            }
-          }
-        }
-      }
-      list1.reset();
-      list2.reset();
+      //
+      // So = looks up the string-values of the first set in a table of
+      // those of the second, != looks for any two that differ, and the
+      // other comparisons need only the smallest or largest number in
+      // each set.
+      XNodeSet set2 = (XNodeSet) obj2;
+
+      if (comparator instanceof EqualComparator)
+        result = joinEqual(set2);
+      else if (comparator instanceof NotEqualComparator)
+        result = joinNotEqual(set2);
+      else
+        result = compareExtremes(set2, comparator);
     }
     else if (XObject.CLASS_BOOLEAN == type)
     {
@@ -580,6 +545,13 @@ public class XNodeSet extends NodeSequence
       }
       list1.reset();
     }
+    else if ((XObject.CLASS_RTREEFRAG == type || XObject.CLASS_STRING == type)
+             && (comparator instanceof EqualComparator
+                 || comparator instanceof NotEqualComparator))
+    {
+      result = compareToString(obj2.xstr().toString(),
+                               comparator instanceof EqualComparator);
+    }
     else if (XObject.CLASS_RTREEFRAG == type)
     {
       XMLString s2 = obj2.xstr();
@@ -632,6 +604,248 @@ public class XNodeSet extends NodeSequence
     return result;
   }
 
+  /**
+   * Tell whether some node in this node-set has the same string-value as
+   * some node in another.
+   * <p>
+   * The second set is read once, and the hash code of each string-value
+   * is kept along with its node, computed where the value lies in its
+   * DTM. Each node of the first set is then looked up by the hash code of
+   * its own string-value, and only nodes whose hash codes match have
+   * their string-values compared. A small second set is simply scanned;
+   * a larger one is indexed by hash code, so the cost is in proportion
+   * to the sizes of the two sets added, not multiplied.
+   *
+   * @param set2 The other node-set.
+   *
+   * @return true if there are two such nodes.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  private boolean joinEqual(XNodeSet set2)
+          throws javax.xml.transform.TransformerException
+  {
+    DTMStringValueHandler.Hash hash = new DTMStringValueHandler.Hash();
+    DTMIterator list1 = iterRaw();
+    DTMIterator list2 = set2.iterRaw();
+
+    try
+    {
+      int node1 = list1.nextNode();
+
+      if (DTM.NULL == node1)
+        return false;
+
+      hash.visit(m_dtmMgr.getDTM(node1), node1);
+
+      int hash1 = hash.getHash();
+      int length1 = hash.getLength();
+      StringValueTable table = new StringValueTable();
+      int node2;
+
+      // Compare the first node on the way through the second set.
+      while (DTM.NULL != (node2 = list2.nextNode()))
+      {
+        hash.visit(m_dtmMgr.getDTM(node2), node2);
+
+        if (hash.getHash() == hash1 && hash.getLength() == length1
+            && getStringFromNode(node1).equals(getStringFromNode(node2)))
+          return true;
+
+        table.add(hash.getHash(), hash.getLength(), node2);
+      }
+
+      if (0 == table.size())
+        return false;
+
+      while (DTM.NULL != (node1 = list1.nextNode()))
+      {
+        hash.visit(m_dtmMgr.getDTM(node1), node1);
+
+        if (table.contains(this, node1, hash.getHash(), hash.getLength()))
+          return true;
+      }
+
+      return false;
+    }
+    catch (org.xml.sax.SAXException se)
+    {
+      throw new javax.xml.transform.TransformerException(se);
+    }
+    finally
+    {
+      list1.reset();
+      list2.reset();
+    }
+  }
+
+  /**
+   * Tell whether some node in this node-set has a different string-value
+   * from some node in another. That is so unless one of the sets is
+   * empty or every node of both has the same string-value, so each node
+   * is compared with the first node of this set only.
+   *
+   * @param set2 The other node-set.
+   *
+   * @return true if there are two such nodes.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  private boolean joinNotEqual(XNodeSet set2)
+          throws javax.xml.transform.TransformerException
+  {
+    DTMIterator list1 = iterRaw();
+    DTMIterator list2 = set2.iterRaw();
+
+    try
+    {
+      int node1 = list1.nextNode();
+      int node2 = list2.nextNode();
+
+      if (DTM.NULL == node1 || DTM.NULL == node2)
+        return false;
+
+      DTMStringValueHandler.Equals handler =
+        new DTMStringValueHandler.Equals(getStringFromNode(node1).toString());
+
+      for (; DTM.NULL != node2; node2 = list2.nextNode())
+      {
+        handler.visit(m_dtmMgr.getDTM(node2), node2);
+
+        if (!handler.isEqual())
+          return true;
+      }
+
+      while (DTM.NULL != (node1 = list1.nextNode()))
+      {
+        handler.visit(m_dtmMgr.getDTM(node1), node1);
+
+        if (!handler.isEqual())
+          return true;
+      }
+
+      return false;
+    }
+    catch (org.xml.sax.SAXException se)
+    {
+      throw new javax.xml.transform.TransformerException(se);
+    }
+    finally
+    {
+      list1.reset();
+      list2.reset();
+    }
+  }
+
+  /**
+   * Compare the numbers of the nodes of this node-set with those of
+   * another, for &lt;, &lt;=, &gt; or &gt;=. Some number in the first set
+   * is less than some number in the second just when the smallest of the
+   * first is less than the largest of the second, and so on. NaN
+   * compares false with everything, so it is left out; if a set has no
+   * other numbers the comparison is false.
+   *
+   * @param set2 The other node-set.
+   * @param comparator Comparator to use.
+   *
+   * @return true if there are two nodes whose numbers compare true.
+   */
+  private boolean compareExtremes(XNodeSet set2, Comparator comparator)
+  {
+    boolean less = comparator instanceof LessThanComparator
+                   || comparator instanceof LessThanOrEqualComparator;
+    DTMIterator list1 = iterRaw();
+    DTMIterator list2 = set2.iterRaw();
+
+    try
+    {
+      double num1 = getExtreme(list1, !less);
+
+      if (Double.isNaN(num1))
+        return false;
+
+      return comparator.compareNumbers(num1, getExtreme(list2, less));
+    }
+    finally
+    {
+      list1.reset();
+      list2.reset();
+    }
+  }
+
+  /**
+   * Find the largest or smallest number among the string-values of the
+   * nodes of an iterator.
+   *
+   * @param list The nodes.
+   * @param max true for the largest number, false for the smallest.
+   *
+   * @return the number, or NaN if no node has a value other than NaN.
+   */
+  private double getExtreme(DTMIterator list, boolean max)
+  {
+    double result = Double.NaN;
+    int node;
+
+    while (DTM.NULL != (node = list.nextNode()))
+    {
+      double num = getNumberFromNode(node);
+
+      if (Double.isNaN(result) || (max ? num > result : num < result))
+        result = num;
+    }
+
+    return result;
+  }
+
+  /**
+   * Tell whether the string-value of some node in this node-set equals,
+   * or differs from, a string. Each string-value is compared where it
+   * lies in its DTM, with no string made of it.
+   *
+   * @param s2 The string.
+   * @param equal true to look for a node equal to the string, false to
+   * look for one that differs from it.
+   *
+   * @return true if there is such a node.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  private boolean compareToString(String s2, boolean equal)
+          throws javax.xml.transform.TransformerException
+  {
+    DTMStringValueHandler.Equals handler =
+      new DTMStringValueHandler.Equals(s2);
+    DTMIterator list1 = iterRaw();
+    boolean result = false;
+    int node;
+
+    try
+    {
+      while (DTM.NULL != (node = list1.nextNode()))
+      {
+        handler.visit(m_dtmMgr.getDTM(node), node);
+
+        if (handler.isEqual() == equal)
+        {
+          result = true;
+
+          break;
+        }
+      }
+    }
+    catch (org.xml.sax.SAXException se)
+    {
+      throw new javax.xml.transform.TransformerException(se);
+    }
+    finally
+    {
+      list1.reset();
+    }
+
+    return result;
+  }
+
   /**
    * Tell if one object is less than the other.
    *
@@ -723,6 +937,153 @@ public class XNodeSet extends NodeSequence
   {
     return compare(obj2, S_NEQ);
   }
+
+  /**
+   * The nodes of a node-set, held by the hash codes and lengths of their
+   * string-values, for joinEqual().
+   */
+  private static final class StringValueTable
+  {
+    /** Largest number of nodes looked through one by one, rather than
+     * by hash code. */
+    private static final int SCAN_LIMIT = 16;
+
+    /** Hash codes of the string-values, in the order added. */
+    private int[] m_hashes = new int[SCAN_LIMIT];
+
+    /** Lengths of the string-values. */
+    private int[] m_lengths = new int[SCAN_LIMIT];
+
+    /** The node handles. */
+    private int[] m_nodes = new int[SCAN_LIMIT];
+
+    /** Number of nodes added. */
+    private int m_size = 0;
+
+    /** Index of the first entry of each hash bucket, plus one, or null
+     * until the table is indexed. */
+    private int[] m_buckets;
+
+    /** Index of the next entry in the same bucket, plus one. */
+    private int[] m_next;
+
+    /**
+     * Add a node.
+     *
+     * @param hash The hash code of its string-value.
+     * @param length The length of its string-value.
+     * @param node The node handle.
+     */
+    void add(int hash, int length, int node)
+    {
+      if (m_size == m_nodes.length)
+      {
+        int newSize = m_size << 1;
+
+        m_hashes = grow(m_hashes, newSize);
+        m_lengths = grow(m_lengths, newSize);
+        m_nodes = grow(m_nodes, newSize);
+      }
+
+      m_hashes[m_size] = hash;
+      m_lengths[m_size] = length;
+      m_nodes[m_size] = node;
+      m_size++;
+    }
+
+    /**
+     * @return the number of nodes added.
+     */
+    int size()
+    {
+      return m_size;
+    }
+
+    /**
+     * Tell whether some node in the table has the same string-value as a
+     * given node. Nodes may not be added once this has been called.
+     *
+     * @param set The node-set whose DTMManager the nodes belong to.
+     * @param node The node handle.
+     * @param hash The hash code of its string-value.
+     * @param length The length of its string-value.
+     *
+     * @return true if there is such a node.
+     */
+    boolean contains(XNodeSet set, int node, int hash, int length)
+    {
+      if (m_size <= SCAN_LIMIT)
+      {
+        for (int i = 0; i < m_size; i++)
+        {
+          if (m_hashes[i] == hash && m_lengths[i] == length
+              && matches(set, node, i))
+            return true;
+        }
+
+        return false;
+      }
+
+      if (null == m_buckets)
+        index();
+
+      int i = m_buckets[hash & (m_buckets.length - 1)];
+
+      while (0 != i)
+      {
+        if (m_hashes[--i] == hash && m_lengths[i] == length
+            && matches(set, node, i))
+          return true;
+
+        i = m_next[i];
+      }
+
+      return false;
+    }
+
+    /**
+     * Compare the string-value of a node with that of an entry.
+     */
+    private boolean matches(XNodeSet set, int node, int i)
+    {
+      return set.getStringFromNode(node).equals(
+        set.getStringFromNode(m_nodes[i]));
+    }
+
+    /**
+     * Chain the entries into hash buckets, at least twice as many as
+     * there are entries.
+     */
+    private void index()
+    {
+      int n = Integer.highestOneBit(m_size) << 2;
+      int mask = n - 1;
+
+      m_buckets = new int[n];
+      m_next = new int[m_size];
+
+      // Chain backwards, so each bucket lists its entries in order.
+      for (int i = m_size - 1; i >= 0; i--)
+      {
+        int bucket = m_hashes[i] & mask;
+
+        m_next[i] = m_buckets[bucket];
+        m_buckets[bucket] = i + 1;
+      }
+    }
+
+    /**
+     * Copy an array into a larger one.
+     */
+    private static int[] grow(int[] array, int newSize)
+    {
+      int[] newArray = new int[newSize];
+
+      System.arraycopy(array, 0, newArray, 0, array.length);
+
+      return newArray;
+    }
+  }
 }
 
 /**
@@ -65,4 +65,11 @@ public class Bool extends UnaryOperation
     return m_right.bool(xctxt);
   }
 
+  /**
+   * @return XObject.CLASS_BOOLEAN
+   */
+  public int getType()
+  {
+    return XObject.CLASS_BOOLEAN;
+  }
 }
@@ -49,19 +49,45 @@ public class Equals extends Operation
   }
   
   /**
-   * Execute a binary operation by calling execute on each of the operands,
-   * and then calling the operate method on the derived class.
+   * Execute the operation.
    *
+   * @param xctxt The runtime execution context.
+   *
+   * @return {@link org.apache.xpath.objects.XBoolean#S_TRUE} or 
+   * {@link org.apache.xpath.objects.XBoolean#S_FALSE}.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public XObject execute(XPathContext xctxt)
+          throws javax.xml.transform.TransformerException
+  {
+    return bool(xctxt) ? XBoolean.S_TRUE : XBoolean.S_FALSE;
+  }
+
+  /**
+   * Evaluate the operation directly to a boolean.  Operands known to be
+   * numbers, booleans or strings are compared by their booleans or
+   * numbers, as the types call for, without XObjects being made of
+   * them; anything else is compared by calling execute on each of the
+   * operands.
    *
    * @param xctxt The runtime execution context.
    *
-   * @return The XObject result of the operation.
+   * @return The result of the operation as a boolean.
    *
    * @throws javax.xml.transform.TransformerException
    */
   public boolean bool(XPathContext xctxt)
           throws javax.xml.transform.TransformerException
   {
+    switch (getEqualityType())
+    {
+    case XObject.CLASS_BOOLEAN :
+      return m_left.bool(xctxt) == m_right.bool(xctxt);
+    case XObject.CLASS_NUMBER :
+      return m_left.num(xctxt) == m_right.num(xctxt);
+    }
+
     XObject left = m_left.execute(xctxt, true);
     XObject right = m_right.execute(xctxt, true);
 
@@ -71,4 +97,11 @@ public class Equals extends Operation
     return result;
   }
 
+  /**
+   * @return XObject.CLASS_BOOLEAN
+   */
+  public int getType()
+  {
+    return XObject.CLASS_BOOLEAN;
+  }
 }
@@ -64,4 +64,11 @@ public class Mod extends Operation
     return (m_left.num(xctxt) % m_right.num(xctxt));
   }
 
+  /**
+   * @return XObject.CLASS_NUMBER
+   */
+  public int getType()
+  {
+    return XObject.CLASS_NUMBER;
+  }
 }
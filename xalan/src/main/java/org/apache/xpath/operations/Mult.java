@@ -63,4 +63,11 @@ public class Mult extends Operation
     return (m_left.num(xctxt) * m_right.num(xctxt));
   }
 
+  /**
+   * @return XObject.CLASS_NUMBER
+   */
+  public int getType()
+  {
+    return XObject.CLASS_NUMBER;
+  }
 }
@@ -62,4 +62,11 @@ public class Neg extends UnaryOperation
     return -(m_right.num(xctxt));
   }
 
+  /**
+   * @return XObject.CLASS_NUMBER
+   */
+  public int getType()
+  {
+    return XObject.CLASS_NUMBER;
+  }
 }
@@ -20,6 +20,7 @@
  */
 package org.apache.xpath.operations;
 
+import org.apache.xpath.XPathContext;
 import org.apache.xpath.objects.XBoolean;
 import org.apache.xpath.objects.XObject;
 
@@ -46,4 +47,40 @@ public class NotEquals extends Operation
   {
     return (left.notEquals(right)) ? XBoolean.S_TRUE : XBoolean.S_FALSE;
   }
+
+  /**
+   * Execute the operation.  Operands known to be numbers, booleans or
+   * strings are compared by their booleans or numbers, as the types call
+   * for, without XObjects being made of them.
+   *
+   * @param xctxt The runtime execution context.
+   *
+   * @return {@link org.apache.xpath.objects.XBoolean#S_TRUE} or 
+   * {@link org.apache.xpath.objects.XBoolean#S_FALSE}.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public XObject execute(XPathContext xctxt)
+          throws javax.xml.transform.TransformerException
+  {
+    switch (getEqualityType())
+    {
+    case XObject.CLASS_BOOLEAN :
+      return (m_left.bool(xctxt) != m_right.bool(xctxt))
+             ? XBoolean.S_TRUE : XBoolean.S_FALSE;
+    case XObject.CLASS_NUMBER :
+      return (m_left.num(xctxt) != m_right.num(xctxt))
+             ? XBoolean.S_TRUE : XBoolean.S_FALSE;
+    default :
+      return super.execute(xctxt);
+    }
+  }
+
+  /**
+   * @return XObject.CLASS_BOOLEAN
+   */
+  public int getType()
+  {
+    return XObject.CLASS_BOOLEAN;
+  }
 }
@@ -66,4 +66,11 @@ public class Number extends UnaryOperation
     return m_right.num(xctxt);
   }
 
+  /**
+   * @return XObject.CLASS_NUMBER
+   */
+  public int getType()
+  {
+    return XObject.CLASS_NUMBER;
+  }
 }
@@ -132,6 +132,58 @@ public class Operation extends Expression implements ExpressionOwner
     return null;  // no-op
   }
 
+  /**
+   * Tell if the operands of a relational comparison can be compared by
+   * their numbers, which is so if neither can be a node-set or result
+   * tree fragment.
+   *
+   * @return true if both operands are known to be numbers, booleans or
+   * strings.
+   */
+  protected boolean isNumberComparison()
+  {
+    return isScalarType(m_left.getType()) && isScalarType(m_right.getType());
+  }
+
+  /**
+   * Tell how the operands of an equality comparison can be compared
+   * without XObjects being made of them.
+   *
+   * @return XObject.CLASS_BOOLEAN if they are to be compared as booleans,
+   * XObject.CLASS_NUMBER if as numbers, or XObject.CLASS_UNKNOWN if
+   * they have to be evaluated to XObjects to be compared.
+   */
+  protected int getEqualityType()
+  {
+    int leftType = m_left.getType();
+    int rightType = m_right.getType();
+
+    if (!isScalarType(leftType) || !isScalarType(rightType))
+      return XObject.CLASS_UNKNOWN;
+
+    // If at least one object to be compared is a boolean, then each
+    // object is converted to a boolean, else if at least one is a
+    // number, each is converted to a number.
+    if (XObject.CLASS_BOOLEAN == leftType
+        || XObject.CLASS_BOOLEAN == rightType)
+      return XObject.CLASS_BOOLEAN;
+
+    if (XObject.CLASS_NUMBER == leftType
+        || XObject.CLASS_NUMBER == rightType)
+      return XObject.CLASS_NUMBER;
+
+    return XObject.CLASS_UNKNOWN;
+  }
+
+  /**
+   * Tell if a type is that of a number, boolean or string.
+   */
+  private static boolean isScalarType(int type)
+  {
+    return XObject.CLASS_NUMBER == type || XObject.CLASS_BOOLEAN == type
+           || XObject.CLASS_STRING == type;
+  }
+
   /** @return the left operand of binary operation, as an Expression.
    */
   public Expression getLeftOperand(){
@@ -44,17 +44,7 @@ public class Or extends Operation
    */
   public XObject execute(XPathContext xctxt) throws javax.xml.transform.TransformerException
   {
-
-    XObject expr1 = m_left.execute(xctxt);
-
-    if (!expr1.bool())
-    {
-      XObject expr2 = m_right.execute(xctxt);
-
-      return expr2.bool() ? XBoolean.S_TRUE : XBoolean.S_FALSE;
-    }
-    else
-      return XBoolean.S_TRUE;
+    return bool(xctxt) ? XBoolean.S_TRUE : XBoolean.S_FALSE;
   }
   
   /**
@@ -72,4 +62,11 @@ public class Or extends Operation
     return (m_left.bool(xctxt) || m_right.bool(xctxt));
   }
 
+  /**
+   * @return XObject.CLASS_BOOLEAN
+   */
+  public int getType()
+  {
+    return XObject.CLASS_BOOLEAN;
+  }
 }
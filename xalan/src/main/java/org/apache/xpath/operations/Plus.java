@@ -64,4 +64,11 @@ public class Plus extends Operation
     return (m_right.num(xctxt) + m_left.num(xctxt));
   }
 
+  /**
+   * @return XObject.CLASS_NUMBER
+   */
+  public int getType()
+  {
+    return XObject.CLASS_NUMBER;
+  }
 }
@@ -44,4 +44,12 @@ public class String extends UnaryOperation
   {
     return (XString)right.xstr(); // semi-safe cast.
   }
+
+  /**
+   * @return XObject.CLASS_STRING
+   */
+  public int getType()
+  {
+    return XObject.CLASS_STRING;
+  }
 }
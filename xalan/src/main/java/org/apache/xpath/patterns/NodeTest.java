@@ -22,6 +22,8 @@ package org.apache.xpath.patterns;
 
 import org.apache.xml.dtm.DTM;
 import org.apache.xml.dtm.DTMFilter;
+import org.apache.xml.dtm.ref.ExpandedNameTable;
+import org.apache.xml.dtm.ref.sax2dtm.SAX2DTM;
 import org.apache.xpath.Expression;
 import org.apache.xpath.ExpressionOwner;
 import org.apache.xpath.XPath;
@@ -112,6 +114,7 @@ public class NodeTest extends Expression
   public void setNamespace(String ns)
   {
     m_namespace = ns;
+    calcMatchByType();
   }
 
   /**
@@ -138,6 +141,7 @@ public class NodeTest extends Expression
   public void setLocalName(String name)
   {
     m_name = name;
+    calcMatchByType();
   }
 
   /**
@@ -296,6 +300,38 @@ public class NodeTest extends Expression
    *  @serial 
    */
   private boolean m_isTotallyWild;
+
+  /**
+   * True if this test names one expanded name, which can be matched by
+   * expanded type ID rather than by comparing strings; see
+   * isExpandedType().
+   */
+  private transient boolean m_canMatchByType;
+
+  /**
+   * The expanded type ID of this test's name in one ExpandedNameTable.
+   * It is replaced as a whole, so threads sharing the test needn't lock.
+   */
+  private static final class ResolvedName
+  {
+    final ExpandedNameTable m_names;
+    final int m_nodeType;
+    final int m_expandedType;
+
+    ResolvedName(ExpandedNameTable names, int nodeType, int expandedType)
+    {
+      m_names = names;
+      m_nodeType = nodeType;
+      m_expandedType = expandedType;
+    }
+  }
+
+  /**
+   * This test's name as last resolved, or null. With documents sharing a
+   * name table (see DTMManagerDefault.setSharedNameTable()) it is
+   * resolved once for all of them.
+   */
+  private transient ResolvedName m_resolved;
   
   /**
    * Get the static score for this node test.
@@ -332,6 +368,53 @@ public class NodeTest extends Expression
       m_score = SCORE_QNAME;
 
     m_isTotallyWild = (m_namespace == null && m_name == WILD);
+    calcMatchByType();
+  }
+
+  /**
+   * Work out whether the name test can be done by expanded type ID. That
+   * needs a single expanded name; an empty namespace never matches by
+   * string (see subPartMatchNS()), so it is left to the string test too.
+   */
+  private void calcMatchByType()
+  {
+    m_canMatchByType = (m_name != null && m_name != WILD
+                        && m_namespace != WILD
+                        && (m_namespace == null || m_namespace.length() > 0));
+    m_resolved = null;
+  }
+
+  /**
+   * Test whether an element or attribute has this test's name by
+   * comparing expanded type IDs. Only for SAX2DTMs, whose names are
+   * exactly those in their ExpandedNameTable.
+   *
+   * @param dtm The DTM of the node.
+   * @param nodeType The node type, ELEMENT_NODE or ATTRIBUTE_NODE.
+   * @param expType The expanded type ID of the node.
+   *
+   * @return true if the node has this test's name.
+   */
+  private boolean isExpandedType(SAX2DTM dtm, int nodeType, int expType)
+  {
+    ExpandedNameTable names = dtm.getExpandedNameTable();
+    ResolvedName resolved = m_resolved;
+
+    if (null == resolved || resolved.m_names != names
+        || resolved.m_nodeType != nodeType)
+    {
+      int type = names.getExpandedTypeID(m_namespace, m_name, nodeType, true);
+
+      // A name not in the table may be added to it later, so only keep
+      // one that was found. Until then no node can have it.
+      if (DTM.NULL == type)
+        return false;
+
+      resolved = new ResolvedName(names, nodeType, type);
+      m_resolved = resolved;
+    }
+
+    return resolved.m_expandedType == expType;
   }
 
   /**
@@ -573,6 +656,11 @@ public class NodeTest extends Expression
     case DTMFilter.SHOW_ATTRIBUTE :
     case DTMFilter.SHOW_ELEMENT :
     {
+      if (m_canMatchByType && dtm instanceof SAX2DTM)
+        return isExpandedType((SAX2DTM) dtm, nodeType,
+                              dtm.getExpandedTypeID(context))
+               ? m_score : SCORE_NONE;
+
       return (m_isTotallyWild || (subPartMatchNS(dtm.getNamespaceURI(context), m_namespace) && subPartMatch(dtm.getLocalName(context), m_name)))
              ? m_score : SCORE_NONE;
     }
@@ -646,6 +734,11 @@ public class NodeTest extends Expression
     case DTMFilter.SHOW_ATTRIBUTE :
     case DTMFilter.SHOW_ELEMENT :
     {
+      if (m_canMatchByType && dtm instanceof SAX2DTM)
+        return isExpandedType((SAX2DTM) dtm, dtm.getNodeType(context),
+                              expType)
+               ? m_score : SCORE_NONE;
+
       return (m_isTotallyWild || (subPartMatchNS(dtm.getNamespaceURI(context), m_namespace) && subPartMatch(dtm.getLocalName(context), m_name)))
              ? m_score : SCORE_NONE;
     }
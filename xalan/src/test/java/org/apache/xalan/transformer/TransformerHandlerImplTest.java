@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xalan.transformer;
+
+import org.apache.xalan.processor.TransformerFactoryImpl;
+import org.apache.xalan.templates.StylesheetRoot;
+import org.apache.xml.dtm.ref.DTMDefaultBase;
+import org.apache.xml.dtm.ref.ExpandedNameTable;
+import org.apache.xpath.DocumentLoader;
+import org.apache.xpath.SourceTreeCache;
+import org.apache.xpath.SourceTreeManager;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TransformerHandlerImplTest {
+  private static final String STYLESHEET =
+    "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+    + "<xsl:output method='text'/>"
+    + "<xsl:template match='/'><xsl:value-of select='count(//item)'/></xsl:template>"
+    + "</xsl:stylesheet>";
+
+  private static String document() {
+    StringBuilder doc = new StringBuilder("<root>");
+    for (int i = 0; i < 10000; i++) {
+      doc.append("<item/>");
+    }
+    return doc.append("</root>").toString();
+  }
+
+  private static TransformerHandler handler(TransformerFactoryImpl factory,
+                                            StringWriter out)
+    throws Exception {
+    TransformerHandler handler = factory.newTransformerHandler(
+      factory.newTemplates(new StreamSource(new StringReader(STYLESHEET))));
+    handler.setResult(new StreamResult(out));
+    return handler;
+  }
+
+  private static void parse(TransformerHandler handler) throws Exception {
+    SAXParserFactory spf = SAXParserFactory.newInstance();
+    spf.setNamespaceAware(true);
+    XMLReader reader = spf.newSAXParser().getXMLReader();
+    reader.setContentHandler(handler);
+    reader.parse(new InputSource(new StringReader(document())));
+  }
+
+  @Test
+  public void testMemoryBudget() throws Exception {
+    TransformerFactoryImpl factory = new TransformerFactoryImpl();
+    factory.setAttribute(TransformerFactoryImpl.PROPERTY_MEMORY_BUDGET,
+                         Long.valueOf(10000));
+
+    assertThrows(Exception.class,
+                 () -> parse(handler(factory, new StringWriter())));
+  }
+
+  @Test
+  public void testSourceSettings() throws Exception {
+    ExpandedNameTable names = new ExpandedNameTable();
+    SourceTreeCache cache = new SourceTreeCache();
+    DocumentLoader loader = new DocumentLoader(2);
+    TransformerFactoryImpl factory = new TransformerFactoryImpl();
+    factory.setAttribute(TransformerFactoryImpl.PROPERTY_NAME_TABLE, names);
+    factory.setAttribute(TransformerFactoryImpl.PROPERTY_SOURCE_TREE_CACHE, cache);
+    factory.setAttribute(TransformerFactoryImpl.PROPERTY_DOCUMENT_LOADER, loader);
+
+    StringWriter out = new StringWriter();
+    TransformerHandler handler = handler(factory, out);
+    TransformerImpl transformer = (TransformerImpl) handler.getTransformer();
+    SourceTreeManager stm = transformer.getXPathContext().getSourceTreeManager();
+
+    assertSame(names, ((StylesheetRoot) transformer.getStylesheet()).getNameTable());
+    assertSame(names,
+               ((DTMDefaultBase) ((TransformerHandlerImpl) handler).m_dtm)
+                 .getExpandedNameTable());
+    assertSame(cache, stm.getSharedCache());
+    assertSame(loader, stm.getDocumentLoader());
+
+    parse(handler);
+    assertEquals("10000", out.toString());
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xalan.xsltc.trax;
+
+import org.apache.xalan.xsltc.dom.XSLTCDTMManager;
+import org.apache.xml.dtm.DTMMemoryBudget;
+import org.apache.xpath.objects.XMLStringFactoryImpl;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MemoryBudgetTest {
+  private static final int ITEMS = 20000;
+
+  private static final String STYLESHEET =
+    "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+    + "<xsl:output method='text'/>"
+    + "<xsl:template match='/'><xsl:value-of select='count(//item)'/></xsl:template>"
+    + "</xsl:stylesheet>";
+
+  private static String document(boolean wellFormed) {
+    StringBuilder doc = new StringBuilder("<root>");
+    for (int i = 0; i < ITEMS; i++) {
+      doc.append("<item n='").append(i).append("'>text ").append(i).append("</item>");
+    }
+    return doc.append(wellFormed ? "</root>" : "</oops>").toString();
+  }
+
+  /** Get a budget the document fits once in, but not twice. */
+  private static DTMMemoryBudget budget() {
+    XSLTCDTMManager mgr = XSLTCDTMManager.newInstance();
+    mgr.setXMLStringFactory(XMLStringFactoryImpl.getFactory());
+    mgr.getDTM(new StreamSource(new StringReader(document(true))), false,
+               null, true, false);
+    return new DTMMemoryBudget(mgr.getMemoryUsage() * 3 / 2);
+  }
+
+  private static Transformer transformer(DTMMemoryBudget budget)
+    throws Exception {
+    TransformerFactoryImpl factory = new TransformerFactoryImpl();
+    factory.setAttribute(TransformerFactoryImpl.MEMORY_BUDGET, budget);
+    return factory.newTransformer(new StreamSource(new StringReader(STYLESHEET)));
+  }
+
+  private static String transform(Transformer transformer, boolean wellFormed)
+    throws Exception {
+    StringWriter out = new StringWriter();
+    transformer.transform(new StreamSource(new StringReader(document(wellFormed))),
+                          new StreamResult(out));
+    return out.toString();
+  }
+
+  @Test
+  public void testSequentialTransforms() throws Exception {
+    DTMMemoryBudget budget = budget();
+
+    for (int i = 0; i < 4; i++) {
+      assertEquals(String.valueOf(ITEMS), transform(transformer(budget), true));
+      assertEquals(0, budget.getMemoryUsage());
+    }
+  }
+
+  @Test
+  public void testReusedTransformer() throws Exception {
+    DTMMemoryBudget budget = budget();
+    Transformer transformer = transformer(budget);
+
+    for (int i = 0; i < 4; i++) {
+      assertEquals(String.valueOf(ITEMS), transform(transformer, true));
+    }
+    assertEquals(0, budget.getMemoryUsage());
+  }
+
+  @Test
+  public void testFailedBuild() throws Exception {
+    DTMMemoryBudget budget = budget();
+    Transformer transformer = transformer(budget);
+
+    assertThrows(TransformerException.class, () -> transform(transformer, false));
+    assertEquals(0, budget.getMemoryUsage());
+    assertEquals(String.valueOf(ITEMS), transform(transformer, true));
+  }
+}
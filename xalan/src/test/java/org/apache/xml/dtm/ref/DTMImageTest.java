@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xml.dtm.ref;
+
+import org.apache.xalan.xsltc.dom.XSLTCDTMManager;
+import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.DTMManager;
+import org.apache.xml.dtm.ref.sax2dtm.SAX2DTM;
+import org.apache.xpath.objects.XMLStringFactoryImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class DTMImageTest {
+  @TempDir
+  File dir;
+
+  /** A document with every kind of node, IDs, and text too long to pack. */
+  private static String document() {
+    StringBuilder longText = new StringBuilder();
+    for (int i = 0; i < 300; i++) {
+      longText.append("long text ");
+    }
+    return "<?xml version='1.0'?>"
+      + "<!DOCTYPE root [<!ATTLIST item id ID #IMPLIED>]>"
+      + "<?top first?>"
+      + "<root xmlns='urn:default' xmlns:p='urn:p'>"
+      + "<!-- a comment -->"
+      + "<item id='a' p:kind='one' plain='x'>text <b>bold</b> tail</item>"
+      + "<item id='b' plain='x'><![CDATA[<cdata>]]></item>"
+      + "<p:item p:kind='two'>" + longText + "</p:item>"
+      + "<?inner some data?>"
+      + "<!-- another comment -->"
+      + "</root>";
+  }
+
+  private static StreamSource source() {
+    StreamSource source = new StreamSource(new StringReader(document()));
+    source.setSystemId("file:///test/doc.xml");
+    return source;
+  }
+
+  /**
+   * Describe every node of a DTM, in document order. SAXImpl names nodes
+   * the XSLTC way, so getNodeName() isn't compared, and gives an empty
+   * prefix where SAX2DTM gives none.
+   */
+  private static List<String> describe(DTM dtm) {
+    List<String> nodes = new ArrayList<>();
+    describe(dtm, dtm.getDocument(), nodes);
+    return nodes;
+  }
+
+  private static void describe(DTM dtm, int node, List<String> nodes) {
+    String prefix = dtm.getPrefix(node);
+    nodes.add(dtm.getNodeType(node) + " " + (prefix == null ? "" : prefix)
+              + " {" + dtm.getNamespaceURI(node) + "}" + dtm.getLocalName(node)
+              + " = " + dtm.getNodeValue(node)
+              + " / " + dtm.getStringValue(node));
+    for (int ns = dtm.getFirstNamespaceNode(node, false); ns != DTM.NULL;
+         ns = dtm.getNextNamespaceNode(node, ns, false)) {
+      describe(dtm, ns, nodes);
+    }
+    for (int attr = dtm.getFirstAttribute(node); attr != DTM.NULL;
+         attr = dtm.getNextAttribute(attr)) {
+      describe(dtm, attr, nodes);
+    }
+    for (int child = dtm.getFirstChild(node); child != DTM.NULL;
+         child = dtm.getNextSibling(child)) {
+      describe(dtm, child, nodes);
+    }
+  }
+
+  private static String idName(DTM dtm, String id) {
+    int element = dtm.getElementById(id);
+    return element == DTM.NULL ? null : dtm.getNodeName(element);
+  }
+
+  private File write(SAX2DTM dtm) throws Exception {
+    File file = new File(dir, "doc.dtm");
+    try (OutputStream out = new FileOutputStream(file)) {
+      dtm.writeImage(out);
+    }
+    return file;
+  }
+
+  private void checkRoundTrip(DTM built, SAX2DTM writer) throws Exception {
+    File image = write(writer);
+    DTMManager loader = DTMManager.newInstance(XMLStringFactoryImpl.getFactory());
+    DTM loaded = loader.getDTM(new DTMImageSource(image), false, null, false, false);
+
+    assertEquals(describe(built), describe(loaded));
+    assertEquals("root", loaded.getNodeName(loaded.getParent(loaded.getElementById("a"))));
+    assertEquals("item", idName(loaded, "a"));
+    assertEquals("item", idName(loaded, "b"));
+    assertEquals(null, idName(loaded, "c"));
+    loader.release(loaded, true);
+  }
+
+  @Test
+  public void testSAX2DTMRoundTrip() throws Exception {
+    DTMManager mgr = DTMManager.newInstance(XMLStringFactoryImpl.getFactory());
+    DTM dtm = mgr.getDTM(source(), false, null, false, false);
+
+    checkRoundTrip(dtm, (SAX2DTM) dtm);
+  }
+
+  @Test
+  public void testSAXImplRoundTrip() throws Exception {
+    XSLTCDTMManager mgr = XSLTCDTMManager.newInstance();
+    mgr.setXMLStringFactory(XMLStringFactoryImpl.getFactory());
+    DTM dtm = mgr.getDTM(source(), false, null, false, false, false, 0,
+                         true, false);
+
+    // SAXImpl builds with the SAX2DTM2 layout, which the image must not
+    // be written in.
+    assertNotEquals(SAX2DTM.class, dtm.getClass());
+    checkRoundTrip(dtm, (SAX2DTM) dtm);
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xml.dtm.ref;
+
+import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.DTMManager;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures how handle lookups on one shared DTMManagerDefault scale with
+ * the number of threads doing them: getDTM(int) and getDTMIdentity() for
+ * every node of a set of parsed documents, and getDTMHandleFromNode() for
+ * the nodes of a DOM that the manager has already wrapped.
+ *
+ * <p>Run with <code>java org.apache.xml.dtm.ref.DTMManagerScalingBenchmark
+ * [maxThreads [seconds]]</code>. For each thread count from 1 up to
+ * maxThreads (by default the number of processors), doubling, it prints
+ * the lookups per second summed over all threads, and the speedup over
+ * one thread. With the manager's monitor on these paths the speedup stays
+ * near 1; without it, it should follow the number of cores.</p>
+ */
+public class DTMManagerScalingBenchmark {
+  private static final int DOCUMENTS = 16;
+  private static final int ELEMENTS = 2000;
+
+  private static volatile int sink;
+
+  public static void main(String[] args) throws Exception {
+    int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+                                     : Runtime.getRuntime().availableProcessors();
+    double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+
+    DTMManager mgr = DTMManager.newInstance(
+        org.apache.xpath.objects.XMLStringFactoryImpl.getFactory());
+
+    List<Integer> handles = new ArrayList<>();
+    for (int d = 0; d < DOCUMENTS; d++) {
+      DTM dtm = mgr.getDTM(new StreamSource(new StringReader(document(d))),
+                           false, null, true, true);
+      for (int node = dtm.getDocument(); node != DTM.NULL; node = next(dtm, node)) {
+        handles.add(node);
+      }
+    }
+    int[] nodeHandles = new int[handles.size()];
+    for (int i = 0; i < nodeHandles.length; i++) {
+      nodeHandles[i] = handles.get(i);
+    }
+
+    // Wrap the DOM and walk all of it first, so that the lookups below
+    // measure the lock-free search rather than the incremental build.
+    Document dom = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+        .parse(new ByteArrayInputStream(document(DOCUMENTS).getBytes("UTF-8")));
+    DTM domDTM = mgr.getDTM(new DOMSource(dom), false, null, true, true);
+    int walked = domDTM.getDocument();
+    while (walked != DTM.NULL) {
+      walked = next(domDTM, walked);
+    }
+    NodeList elements = dom.getElementsByTagName("item");
+    Node[] domNodes = new Node[elements.getLength()];
+    for (int i = 0; i < domNodes.length; i++) {
+      domNodes[i] = elements.item(i);
+    }
+
+    System.out.println("threads  getDTM+getDTMIdentity/s   speedup   getDTMHandleFromNode/s   speedup");
+    double baseHandles = 0, baseNodes = 0;
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      // Warm up at each thread count before timing it.
+      run(mgr, nodeHandles, null, threads, seconds / 4);
+      double byHandle = run(mgr, nodeHandles, null, threads, seconds);
+      run(mgr, null, domNodes, threads, seconds / 4);
+      double byNode = run(mgr, null, domNodes, threads, seconds);
+      if (threads == 1) {
+        baseHandles = byHandle;
+        baseNodes = byNode;
+      }
+      System.out.printf("%7d  %23.0f  %8.2f  %23.0f  %8.2f%n", threads,
+                        byHandle, byHandle / baseHandles, byNode, byNode / baseNodes);
+    }
+  }
+
+  /** The next node in document order, or DTM.NULL. */
+  private static int next(DTM dtm, int node) {
+    int next = dtm.getFirstChild(node);
+    while (next == DTM.NULL && node != DTM.NULL) {
+      next = dtm.getNextSibling(node);
+      if (next == DTM.NULL) {
+        node = dtm.getParent(node);
+      }
+    }
+    return next;
+  }
+
+  private static String document(int n) {
+    StringBuilder xml = new StringBuilder("<doc n='").append(n).append("'>");
+    for (int i = 0; i < ELEMENTS; i++) {
+      xml.append("<item id='i").append(i).append("'>").append(i).append("</item>");
+    }
+    return xml.append("</doc>").toString();
+  }
+
+  /**
+   * Look up handles (or DOM nodes, if handles is null) on the given number
+   * of threads for the given time.
+   *
+   * @return lookups per second, summed over all threads.
+   */
+  private static double run(final DTMManager mgr, final int[] handles, final Node[] nodes,
+                            int threads, double seconds) throws InterruptedException {
+    final long duration = (long) (seconds * 1e9);
+    final long[] counts = new long[threads];
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      workers[t] = new Thread() {
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          long end = System.nanoTime() + duration;
+          long count = 0;
+          int acc = 0;
+          int i = thread * 7919;
+          while (System.nanoTime() < end) {
+            for (int k = 0; k < 1024; k++, i++) {
+              if (handles != null) {
+                int handle = handles[i % handles.length];
+                DTM dtm = mgr.getDTM(handle);
+                acc += mgr.getDTMIdentity(dtm) + dtm.getNodeType(handle);
+              } else {
+                acc += mgr.getDTMHandleFromNode(nodes[i % nodes.length]);
+              }
+            }
+            count += 1024;
+          }
+          counts[thread] = count;
+          sink += acc;
+        }
+      };
+      workers[t].start();
+    }
+    long begin = System.nanoTime();
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    double elapsed = (System.nanoTime() - begin) / 1e9;
+
+    long total = 0;
+    for (long count : counts) {
+      total += count;
+    }
+    return total / elapsed;
+  }
+}
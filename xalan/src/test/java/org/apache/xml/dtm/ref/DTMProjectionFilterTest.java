@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xml.dtm.ref;
+
+import org.apache.xalan.processor.TransformerFactoryImpl;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DTMProjectionFilterTest {
+  /** Text, a comment and a PI, with unused elements between them. */
+  private static final String DOCUMENT =
+    "<root><body>one<skip>x</skip>two<other/>three<!--c-->four"
+    + "<skip><deep/></skip>five<?pi data?>six<other/></body></root>";
+
+  private static String transform(String select, boolean projection,
+                                  boolean pipelined) throws Exception {
+    String xsl =
+      "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+      + "<xsl:output method='text'/>"
+      + "<xsl:template match='/'><xsl:value-of select='" + select + "'/>"
+      + "<xsl:for-each select='root/body/text()'>"
+      + "<xsl:value-of select='.'/>:"
+      + "<xsl:value-of select='count(following-sibling::text())'/>,"
+      + "</xsl:for-each>"
+      + "</xsl:template>"
+      + "</xsl:stylesheet>";
+
+    TransformerFactoryImpl factory = new TransformerFactoryImpl();
+    factory.setAttribute(TransformerFactoryImpl.FEATURE_PROJECTION, Boolean.valueOf(projection));
+    factory.setAttribute(TransformerFactoryImpl.FEATURE_PIPELINED, Boolean.valueOf(pipelined));
+    Transformer transformer =
+      factory.newTransformer(new StreamSource(new StringReader(xsl)));
+    StringWriter out = new StringWriter();
+    transformer.transform(new StreamSource(new StringReader(DOCUMENT)),
+                          new StreamResult(out));
+    return out.toString();
+  }
+
+  @ParameterizedTest(name = "pipelined {0}")
+  @ValueSource(booleans = { false, true })
+  public void testTextCount(boolean pipelined) throws Exception {
+    String select = "count(root/body/text())";
+    String expected = transform(select, false, false);
+
+    assertEquals("6one:5,two:4,three:3,four:2,five:1,six:0,", expected);
+    assertEquals(expected, transform(select, true, pipelined));
+  }
+
+  @ParameterizedTest(name = "pipelined {0}")
+  @ValueSource(booleans = { false, true })
+  public void testTextPosition(boolean pipelined) throws Exception {
+    String select = "root/body/text()[3]";
+    String expected = transform(select, false, false);
+
+    assertEquals("threeone:5,two:4,three:3,four:2,five:1,six:0,", expected);
+    assertEquals(expected, transform(select, true, pipelined));
+  }
+}
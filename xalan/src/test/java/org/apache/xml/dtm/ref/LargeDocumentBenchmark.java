@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xml.dtm.ref;
+
+import org.apache.xml.dtm.Axis;
+import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.DTMAxisIterator;
+import org.apache.xml.dtm.DTMAxisTraverser;
+import org.apache.xml.dtm.DTMManager;
+import org.apache.xpath.objects.XMLStringFactoryImpl;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.io.Writer;
+
+/**
+ * Times traversal of a document too large for one DTM ID, with and
+ * without the large-documents mode of the DTMManager.
+ *
+ * <p>Run with <code>java org.apache.xml.dtm.ref.LargeDocumentBenchmark
+ * [elements [runs]]</code>; the defaults are 1,000,000 elements (five
+ * nodes each, counting attributes and text) and 15 runs, and 4,000,000
+ * elements needs a heap of about 2GB. Before the big document is loaded,
+ * a small one is released so that the manager's DTM ID table has a hole
+ * in it, as it would in a long-running process. For each mode the best
+ * time of a depth-first walk with getFirstChild() and friends, of the
+ * descendant axis traverser, and of the descendant axis iterator is
+ * printed.</p>
+ */
+public class LargeDocumentBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int elements = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int runs = args.length > 1 ? Integer.parseInt(args[1]) : 15;
+
+    File xml = File.createTempFile("large", ".xml");
+    xml.deleteOnExit();
+    try (Writer w = new BufferedWriter(new FileWriter(xml))) {
+      w.write("<r>");
+      for (int i = 0; i < elements; i++) {
+        w.write("<e a='" + (i % 10) + "'><f>x</f></e>");
+      }
+      w.write("</r>");
+    }
+
+    System.out.println("mode                 walk  traverser   iterator");
+    for (boolean large : new boolean[] {false, true}) {
+      DTMManager mgr = DTMManager.newInstance(XMLStringFactoryImpl.getFactory());
+      mgr.setLargeDocuments(large);
+
+      mgr.getDTM(new StreamSource(new StringReader("<s/>")), true, null, false, true);
+      DTM hole = mgr.getDTM(new StreamSource(new StringReader("<s/>")), true, null, false, true);
+      mgr.getDTM(new StreamSource(new StringReader("<s/>")), true, null, false, true);
+      mgr.release(hole, true);
+      DTM dtm = mgr.getDTM(new StreamSource(xml), true, null, false, true);
+
+      long walk = Long.MAX_VALUE, traverser = Long.MAX_VALUE, iterator = Long.MAX_VALUE;
+      long check = 0;
+      int root = dtm.getDocument();
+      for (int run = 0; run < runs; run++) {
+        long start = System.nanoTime();
+        check += walk(dtm, root);
+        walk = Math.min(walk, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        DTMAxisTraverser t = dtm.getAxisTraverser(Axis.DESCENDANT);
+        for (int node = t.first(root); node != DTM.NULL; node = t.next(root, node)) {
+          check += dtm.getNodeType(node);
+        }
+        traverser = Math.min(traverser, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        DTMAxisIterator it = dtm.getAxisIterator(Axis.DESCENDANT);
+        it.setStartNode(root);
+        for (int node = it.next(); node != DTM.NULL; node = it.next()) {
+          check += dtm.getParent(node) & 1;
+        }
+        iterator = Math.min(iterator, System.nanoTime() - start);
+      }
+      System.out.printf("%-15s %7d ms %7d ms %7d ms   (%d)%n",
+                        large ? "large-documents" : "default",
+                        walk / 1000000, traverser / 1000000, iterator / 1000000, check);
+      mgr.release(dtm, true);
+    }
+  }
+
+  /** Visit every node below and including the given one, depth first. */
+  private static long walk(DTM dtm, int top) {
+    long check = 0;
+    int node = top;
+    while (node != DTM.NULL) {
+      check += dtm.getNodeType(node);
+      int child = dtm.getFirstChild(node);
+      if (child != DTM.NULL) {
+        node = child;
+        continue;
+      }
+      while (node != DTM.NULL) {
+        if (node == top) {
+          return check;
+        }
+        int sibling = dtm.getNextSibling(node);
+        if (sibling != DTM.NULL) {
+          node = sibling;
+          break;
+        }
+        node = dtm.getParent(node);
+      }
+    }
+    return check;
+  }
+}
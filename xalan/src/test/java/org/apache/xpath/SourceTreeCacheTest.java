@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xpath;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.xml.dtm.DTMManager;
+import org.apache.xml.dtm.ref.DTMDefaultBase;
+import org.apache.xml.dtm.ref.DTMManagerDefault;
+import org.apache.xpath.objects.XMLStringFactoryImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xml.sax.XMLReader;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class SourceTreeCacheTest {
+  @TempDir
+  File dir;
+
+  /** A DTMManager which counts the XMLReaders it hands out. */
+  public static class CountingManager extends DTMManagerDefault {
+    static final AtomicInteger readers = new AtomicInteger();
+
+    public synchronized XMLReader getXMLReader(Source inputSource) {
+      readers.incrementAndGet();
+      return super.getXMLReader(inputSource);
+    }
+  }
+
+  private String document() throws Exception {
+    File file = new File(dir, "doc.xml");
+    try (Writer out = new FileWriter(file)) {
+      out.write("<root>");
+      for (int i = 0; i < 20000; i++) {
+        out.write("<item n='" + i + "'>text</item>");
+      }
+      out.write("</root>");
+    }
+    return file.toURI().toString();
+  }
+
+  private static DTMManager manager() {
+    DTMManager mgr = new CountingManager();
+    mgr.setXMLStringFactory(XMLStringFactoryImpl.getFactory());
+    return mgr;
+  }
+
+  @Test
+  public void testConcurrentMisses() throws Exception {
+    final String uri = document();
+    final SourceTreeCache cache = new SourceTreeCache();
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<DTMDefaultBase>> results = new ArrayList<>();
+
+    try {
+      for (int i = 0; i < 8; i++) {
+        results.add(executor.submit(new Callable<DTMDefaultBase>() {
+          public DTMDefaultBase call() throws Exception {
+            start.await();
+            return cache.getDocument(new StreamSource(uri), manager());
+          }
+        }));
+      }
+      start.countDown();
+
+      DTMDefaultBase first = results.get(0).get();
+      assertNotNull(first);
+      for (Future<DTMDefaultBase> result : results) {
+        assertSame(first, result.get());
+      }
+      assertEquals(1, cache.getMisses());
+      assertEquals(7, cache.getHits());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testParsedLikeRequester() throws Exception {
+    String uri = document();
+    SourceTreeCache cache = new SourceTreeCache();
+    int before = CountingManager.readers.get();
+
+    assertNotNull(cache.getDocument(new StreamSource(uri), manager()));
+    assertEquals(before + 1, CountingManager.readers.get());
+  }
+
+  @Test
+  public void testLastModifiedUsesHead() throws Exception {
+    final List<String> methods = new ArrayList<>();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", exchange -> {
+      synchronized (methods) {
+        methods.add(exchange.getRequestMethod());
+      }
+      exchange.getResponseHeaders().add("Last-Modified",
+                                        "Tue, 15 Nov 1994 12:45:26 GMT");
+      exchange.sendResponseHeaders(200, -1);
+      exchange.close();
+    });
+    server.start();
+
+    try {
+      String uri = "http://127.0.0.1:" + server.getAddress().getPort() + "/doc.xml";
+
+      assertEquals(Long.valueOf(784903526000L),
+                   SourceTreeCache.LAST_MODIFIED.getVersion(uri));
+      synchronized (methods) {
+        assertEquals(1, methods.size());
+        assertEquals("HEAD", methods.get(0));
+      }
+    } finally {
+      server.stop(0);
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xpath.compiler;
+
+import org.apache.xml.dtm.DTM;
+import org.apache.xpath.XPath;
+import org.apache.xpath.XPathContext;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times the same XPath evaluations interpreted and with tiered compilation,
+ * each in an XPathContext of its own over the same document.
+ *
+ * <p>Run with <code>java org.apache.xpath.compiler.TieredCompilerBenchmark
+ * [threshold [rounds]]</code>. Each expression is evaluated at every
+ * <code>e</code> element of a 2000 element document (those starting with
+ * <code>count(//</code> once per iteration, at the document element),
+ * for the given number of rounds, and the time of the last round is
+ * printed for each mode. The threshold, 1000 by default, is the tiered
+ * compilation threshold of the tiered context; the last column tells
+ * whether the expression had been compiled by the end.</p>
+ */
+public class TieredCompilerBenchmark {
+  private static final String[] EXPRESSIONS = {
+    "count(//e[v > 8])",
+    "@id = 'x3' and v > 5",
+    "sum(v) + count(w[. = 'w1']) * 2",
+    "not(@k = 4) or w != 'w2'",
+    "(v + 1) * 2 - v div 4 >= 3 and not(w = 'w0')",
+    "floor(@k div 2) + ceiling(v mod 4) > 3 or -@k = -1",
+  };
+
+  private static volatile double sink;
+
+  public static void main(String[] args) throws Exception {
+    int threshold = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+
+    StringBuilder xml = new StringBuilder("<r>");
+    for (int i = 0; i < 2000; i++) {
+      xml.append("<e id='x").append(i % 7).append("' k='").append(i % 5).append("'><v>")
+         .append(i % 13).append("</v><w>w").append(i % 3).append("</w></e>");
+    }
+    String document = xml.append("</r>").toString();
+
+    System.out.printf("%-52s %14s %10s  %s%n", "expression", "interpreted", "tiered", "compiled");
+    for (String expression : EXPRESSIONS) {
+      double interpreted = time(document, expression, 0, rounds, null);
+      boolean[] compiled = new boolean[1];
+      double tiered = time(document, expression, threshold, rounds, compiled);
+      System.out.printf("%-52s %11.1f ms %7.1f ms  %s%n", expression, interpreted, tiered, compiled[0]);
+    }
+  }
+
+  /**
+   * Evaluate an expression for the given number of rounds.
+   *
+   * @return the time of the last round, in milliseconds.
+   */
+  private static double time(String document, String expression, int threshold, int rounds,
+                             boolean[] compiled) throws Exception {
+    XPathContext xctxt = new XPathContext(false);
+    xctxt.setTieredCompilationThreshold(threshold);
+    DTM dtm = xctxt.getDTM(new StreamSource(new StringReader(document)), false, null, false, true);
+    int r = dtm.getFirstChild(dtm.getDocument());
+    List<Integer> elements = new ArrayList<>();
+    for (int e = dtm.getFirstChild(r); e != DTM.NULL; e = dtm.getNextSibling(e)) {
+      elements.add(e);
+    }
+
+    XPath xpath = new XPath(expression, null, null, XPath.SELECT, null);
+    boolean whole = expression.startsWith("count(//");
+    double last = 0;
+    for (int round = 0; round < rounds; round++) {
+      long start = System.nanoTime();
+      double check = 0;
+      for (int i = 0; i < (whole ? 200 : 100); i++) {
+        if (whole) {
+          check += xpath.execute(xctxt, r, null).num();
+        } else {
+          for (int e : elements) {
+            check += xpath.bool(xctxt, e, null) ? 1 : 0;
+          }
+        }
+      }
+      last = (System.nanoTime() - start) / 1e6;
+      sink += check;
+    }
+    if (compiled != null) {
+      compiled[0] = xpath.getCompiledExpression() != null;
+    }
+    return last;
+  }
+}
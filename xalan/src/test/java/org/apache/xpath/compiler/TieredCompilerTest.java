@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xpath.compiler;
+
+import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.ref.dom2dtm.DOM2DTM;
+import org.apache.xml.dtm.ref.sax2dtm.SAX2DTM;
+import org.apache.xpath.Expression;
+import org.apache.xpath.XPath;
+import org.apache.xpath.XPathContext;
+import org.apache.xpath.objects.XObject;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class TieredCompilerTest {
+  /**
+   * Values that aren't numbers, negative zero, untrimmed numbers, and
+   * elements without the children the expressions look at.
+   */
+  private static final String DOCUMENT =
+    "<r>"
+    + "<e n='1'><v>3</v><w>w1</w></e>"
+    + "<e n='-0'><v>-0</v><w>w2</w></e>"
+    + "<e n='abc'><v>NaN</v><w/></e>"
+    + "<e n=' 2.5 '><v>0</v><v>7</v><w>w1</w><w>3</w></e>"
+    + "<e><v>-4</v></e>"
+    + "<e n='1e3'/>"
+    + "<x>text<!-- comment --><?pi data?></x>"
+    + "</r>";
+
+  /** Expressions the compiler handles itself. */
+  private static final String[] COMPILED = {
+    // Arithmetic, with NaN, zeros of both signs and infinities.
+    "v + 1", "-v", "v - v", "v * -1", "v div 0", "-v div 0", "1 div v",
+    "1 div -v", "0 div 0", "v mod 3", "v mod 0", "-v mod 2", "1 div (v * 0)",
+    "floor(v div 2)", "ceiling(-v div 2)", "floor(1 div v)",
+    "number(@n)", "number(w)", "-@n", "number(@n) * 0",
+    // Functions over node-sets.
+    "count(*)", "count(v)", "count(//e)", "count(@*)", "sum(v)", "sum(@n)",
+    "sum(*)", "count(*[v > 2])", "count(//e[@n = 'abc'])",
+    "count(*[. = 'w1'])",
+    // Node-sets against numbers, strings and booleans.
+    "v = 3", "v != 3", "v < 3", "v <= 0", "v > -1", "v >= 7", "3 > v",
+    "v = -0", "v = 0 div 0", "v != 0 div 0", "v < 1 div 0", "v > -1 div 0",
+    "1 div v > 0", "1 div v < 0", "@n = 1", "@n = ' 2.5 '", "@n > 2",
+    "w = 'w1'", "w != 'w1'", "'w1' = w", "v = '3'", "v < '3'", "v >= 'x'",
+    "v = true()", "v = false()", "v != true()", "w = false()",
+    "@n = true()", "true() = v",
+    // Booleans.
+    "not(v)", "boolean(w)", "not(@n) or v > 2", "v and w", "w = 'w2' or -v = 4",
+    "boolean(0 div 0)", "boolean(-0)", "boolean(v * 0)",
+  };
+
+  /** Expressions which leave a part to the interpreter. */
+  private static final String[] FALLBACK = {
+    "number() + 1", "(string-length(w) > 1) and v > 0", "not(v = w) or v > 2",
+    "(v > w) or false()", "count(*[last()]) * 2", "count(*[1]) + 1",
+    "contains(w, '1') and v > 0", "count(ancestor-or-self::*) * 2",
+    "sum(v) + string-length(@n)", "number(string(v)) div 0",
+  };
+
+  /** Expressions which aren't compiled at all. */
+  private static final String[] NOT_COMPILED = {
+    "string(v)", "v", "string-length(w)", "string-length(w) > 1", "v = w",
+    "v > w", "number()",
+  };
+
+  private static Expression expression(String expression) throws Exception {
+    return new XPath(expression, null, null, XPath.SELECT, null).getExpression();
+  }
+
+  /** Every node of a DTM, attributes included, in document order. */
+  private static List<Integer> nodes(DTM dtm) {
+    List<Integer> nodes = new ArrayList<>();
+    nodes(dtm, dtm.getDocument(), nodes);
+    return nodes;
+  }
+
+  private static void nodes(DTM dtm, int node, List<Integer> nodes) {
+    nodes.add(node);
+    for (int attr = dtm.getFirstAttribute(node); attr != DTM.NULL;
+         attr = dtm.getNextAttribute(attr)) {
+      nodes.add(attr);
+    }
+    for (int child = dtm.getFirstChild(node); child != DTM.NULL;
+         child = dtm.getNextSibling(child)) {
+      nodes(dtm, child, nodes);
+    }
+  }
+
+  /**
+   * Check that the compiled form of each expression gives exactly what
+   * the interpreter does at every node; assertEquals() on doubles tells
+   * NaN from a number and -0 from 0.
+   */
+  private static void check(XPathContext xctxt, DTM dtm, String[] expressions)
+    throws Exception {
+    List<Integer> nodes = nodes(dtm);
+
+    for (String expression : expressions) {
+      Expression expr = expression(expression);
+      Expression compiled = TieredCompiler.compile(expr);
+      assertNotNull(compiled, expression);
+
+      for (int node : nodes) {
+        String at = expression + " at " + dtm.getNodeName(node);
+        xctxt.pushCurrentNodeAndExpression(node, node);
+        try {
+          XObject expected = expr.execute(xctxt);
+          XObject actual = compiled.execute(xctxt);
+          assertEquals(expected.getType(), actual.getType(), at);
+          assertEquals(expected.num(), actual.num(), at);
+          assertEquals(expected.bool(), actual.bool(), at);
+          assertEquals(expr.num(xctxt), compiled.num(xctxt), at);
+          assertEquals(expr.bool(xctxt), compiled.bool(xctxt), at);
+        } finally {
+          xctxt.popCurrentNodeAndExpression();
+        }
+      }
+    }
+  }
+
+  private static void checkAll(XPathContext xctxt, DTM dtm) throws Exception {
+    check(xctxt, dtm, COMPILED);
+    check(xctxt, dtm, FALLBACK);
+  }
+
+  @Test
+  public void testSAX2DTM() throws Exception {
+    XPathContext xctxt = new XPathContext(false);
+    DTM dtm = xctxt.getDTM(new StreamSource(new StringReader(DOCUMENT)),
+                           false, null, false, true);
+
+    assertInstanceOf(SAX2DTM.class, dtm);
+    checkAll(xctxt, dtm);
+  }
+
+  @Test
+  public void testDOM2DTM() throws Exception {
+    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    org.w3c.dom.Document doc = dbf.newDocumentBuilder().parse(
+      new InputSource(new StringReader(DOCUMENT)));
+    XPathContext xctxt = new XPathContext(false);
+    DTM dtm = xctxt.getDTM(new DOMSource(doc), false, null, false, true);
+
+    assertInstanceOf(DOM2DTM.class, dtm);
+    checkAll(xctxt, dtm);
+  }
+
+  @Test
+  public void testNotCompiled() throws Exception {
+    for (String expression : NOT_COMPILED) {
+      assertNull(TieredCompiler.compile(expression(expression)), expression);
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xpath.jaxp;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class XPathContextPoolTest {
+  private XPath plain;
+  private XPath pooled;
+  private XPathContextPool pool;
+
+  @BeforeEach
+  public void beforeEach() {
+    plain = new XPathFactoryImpl().newXPath();
+    XPathFactoryImpl factory = new XPathFactoryImpl();
+    pool = new XPathContextPool();
+    factory.setXPathContextPool(pool);
+    pooled = factory.newXPath();
+  }
+
+  private static Document parse(String xml) throws Exception {
+    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    return dbf.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+  }
+
+  private static Document order(int n) throws Exception {
+    StringBuilder xml = new StringBuilder("<order id='o").append(n).append("'>");
+    for (int i = 0; i <= n % 7; i++) {
+      xml.append("<item qty='").append(i + 1).append("'><price>").append(n + i).append("</price></item>");
+    }
+    return parse(xml.append("</order>").toString());
+  }
+
+  /** Make a result comparable across evaluations. */
+  private static Object normalize(Object result) {
+    if (result instanceof NodeList) {
+      NodeList nodes = (NodeList) result;
+      List<Object> list = new ArrayList<>();
+      for (int i = 0; i < nodes.getLength(); i++) {
+        list.add(nodes.item(i));
+      }
+      return list;
+    }
+    return result;
+  }
+
+  @ParameterizedTest(name = "{0} as {1}")
+  @MethodSource("testSameResultsArgs")
+  public void testSameResults(String expression, QName returnType) throws Exception {
+    Document doc = order(6);
+    Node context = doc.getDocumentElement().getFirstChild();
+    XPathExpression plainExpr = plain.compile(expression);
+    XPathExpression pooledExpr = pooled.compile(expression);
+
+    Object expected = normalize(plainExpr.evaluate(context, returnType));
+    // Twice, so that the second evaluation reuses the pooled state.
+    assertEquals(expected, normalize(pooledExpr.evaluate(context, returnType)));
+    assertEquals(expected, normalize(pooledExpr.evaluate(context, returnType)));
+    assertEquals(expected, normalize(pooled.evaluate(expression, context, returnType)));
+  }
+
+  private static Stream<Arguments> testSameResultsArgs() {
+    return Stream.of(
+      Arguments.of("sum(../item/price)", XPathConstants.NUMBER),
+      Arguments.of("count(following-sibling::item)", XPathConstants.NUMBER),
+      Arguments.of("@qty * price", XPathConstants.NUMBER),
+      Arguments.of("string(/order/@id)", XPathConstants.STRING),
+      Arguments.of("price > 6", XPathConstants.BOOLEAN),
+      Arguments.of("../item[@qty > 2]", XPathConstants.NODESET),
+      Arguments.of("../item[last()]/price", XPathConstants.NODE),
+      Arguments.of("ancestor-or-self::node()", XPathConstants.NODESET)
+    );
+  }
+
+  @Test
+  public void testNoContextNode() throws Exception {
+    XPathExpression expr = pooled.compile("count(/*) + 1");
+    assertEquals(plain.compile("count(/*) + 1").evaluate((Object) null, XPathConstants.NUMBER),
+                 expr.evaluate((Object) null, XPathConstants.NUMBER));
+    assertEquals(expr.evaluate((Object) null, XPathConstants.NUMBER),
+                 expr.evaluate((Object) null, XPathConstants.NUMBER));
+  }
+
+  @Test
+  public void testNodeResultIsFromTheTree() throws Exception {
+    Document doc = order(3);
+    Node node = (Node) pooled.evaluate("/order/item[2]", doc, XPathConstants.NODE);
+    assertSame(doc.getDocumentElement().getChildNodes().item(1), node);
+    assertNull(pooled.evaluate("/order/nothing", doc, XPathConstants.NODE));
+  }
+
+  @Test
+  public void testClearSeesChanges() throws Exception {
+    Document doc = order(2);
+    XPathExpression expr = pooled.compile("count(//item)");
+    assertEquals(3.0, expr.evaluate(doc, XPathConstants.NUMBER));
+
+    Element item = doc.createElement("item");
+    doc.getDocumentElement().appendChild(item);
+    pool.clear();
+    assertEquals(4.0, expr.evaluate(doc, XPathConstants.NUMBER));
+  }
+
+  @Test
+  public void testSharedExpressionOnManyThreads() throws Exception {
+    final int threads = 8;
+    final int documents = 40;
+    final int rounds = 25;
+    final String expression = "sum(/order/item/price) + count(//item[@qty > 1]) * 1000";
+    final XPathExpression shared = pooled.compile(expression);
+    final XPathExpression reference = plain.compile(expression);
+
+    final Document[] docs = new Document[documents];
+    final Object[] expected = new Object[documents];
+    for (int i = 0; i < documents; i++) {
+      docs[i] = order(i);
+      expected[i] = reference.evaluate(docs[i], XPathConstants.NUMBER);
+    }
+
+    // DOM implementations need not be thread-safe even for reading, so
+    // each thread gets trees of its own; the expression is what is shared.
+    final Document[][] copies = new Document[threads][documents];
+    for (int t = 0; t < threads; t++) {
+      for (int i = 0; i < documents; i++) {
+        copies[t][i] = order(i);
+      }
+    }
+
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Integer>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        final int thread = t;
+        futures.add(executor.submit(new Callable<Integer>() {
+          public Integer call() throws Exception {
+            start.await();
+            int checked = 0;
+            for (int r = 0; r < rounds; r++) {
+              for (int i = 0; i < documents; i++) {
+                int doc = (i + thread + r) % documents;
+                assertEquals(expected[doc],
+                             shared.evaluate(copies[thread][doc], XPathConstants.NUMBER),
+                             "document " + doc + " on thread " + thread);
+                checked++;
+              }
+            }
+            return checked;
+          }
+        }));
+      }
+      start.countDown();
+      for (Future<Integer> future : futures) {
+        assertEquals(rounds * documents, future.get().intValue());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}